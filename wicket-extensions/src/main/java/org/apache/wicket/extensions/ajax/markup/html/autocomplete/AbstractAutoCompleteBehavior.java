@@ -103,6 +103,17 @@ public abstract class AbstractAutoCompleteBehavior extends AbstractDefaultAjaxBe
 		response.renderOnDomReadyJavascript(initJS);
 	}
 
+	/**
+	 * Only the choices for the latest input need to be rendered.
+	 * 
+	 * @see org.apache.wicket.ajax.AbstractDefaultAjaxBehavior#isCoalescable()
+	 */
+	@Override
+	protected boolean isCoalescable()
+	{
+		return true;
+	}
+
 	protected final String constructSettingsJS()
 	{
 		final StringBuilder sb = new StringBuilder();
@@ -146,4 +146,36 @@ public class Application implements ApplicationMBean
 	{
 		application.getResourceSettings().getLocalizer().clearCache();
 	}
+
+	/**
+	 * @see org.apache.wicket.jmx.ApplicationMBean#getLocalizerCacheHits()
+	 */
+	public long getLocalizerCacheHits() throws IOException
+	{
+		return application.getResourceSettings().getLocalizer().getCacheHits();
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.ApplicationMBean#getLocalizerCacheMisses()
+	 */
+	public long getLocalizerCacheMisses() throws IOException
+	{
+		return application.getResourceSettings().getLocalizer().getCacheMisses();
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.ApplicationMBean#getLocalizerCacheEvictions()
+	 */
+	public long getLocalizerCacheEvictions() throws IOException
+	{
+		return application.getResourceSettings().getLocalizer().getCacheEvictions();
+	}
+
+	/**
+	 * @see org.apache.wicket.jmx.ApplicationMBean#getLocalizerCacheSize()
+	 */
+	public int getLocalizerCacheSize() throws IOException
+	{
+		return application.getResourceSettings().getLocalizer().getCacheSize();
+	}
 }
@@ -98,4 +98,36 @@ public interface ApplicationMBean
 	 * @throws IOException
 	 */
 	void clearLocalizerCache() throws IOException;
+
+	/**
+	 * Gets the number of strings the localizer found in its cache.
+	 * 
+	 * @return number of cache hits
+	 * @throws IOException
+	 */
+	long getLocalizerCacheHits() throws IOException;
+
+	/**
+	 * Gets the number of strings the localizer had to load because they were not in its cache.
+	 * 
+	 * @return number of cache misses
+	 * @throws IOException
+	 */
+	long getLocalizerCacheMisses() throws IOException;
+
+	/**
+	 * Gets the number of strings expired from the localizer cache because it was full.
+	 * 
+	 * @return number of evictions
+	 * @throws IOException
+	 */
+	long getLocalizerCacheEvictions() throws IOException;
+
+	/**
+	 * Gets the number of strings in the localizer cache.
+	 * 
+	 * @return number of cached strings
+	 * @throws IOException
+	 */
+	int getLocalizerCacheSize() throws IOException;
 }
@@ -28,6 +28,7 @@ import org.apache.wicket.markup.repeater.AbstractRepeater;
 import org.apache.wicket.model.IModel;
 import org.apache.wicket.resource.loader.IStringResourceLoader;
 import org.apache.wicket.settings.IResourceSettings;
+import org.apache.wicket.util.collections.ConcurrentMostRecentlyUsedMap;
 import org.apache.wicket.util.lang.Generics;
 import org.apache.wicket.util.string.AppendingStringBuffer;
 import org.apache.wicket.util.string.interpolator.PropertyVariableInterpolator;
@@ -43,6 +44,11 @@ import org.slf4j.LoggerFactory;
  * You may register additional IStringResourceLoader to extend or replace Wickets default search
  * strategy for the properties. E.g. string resource loaders which load the properties from a
  * database. There should be hardly any need to extend Localizer.
+ * <p>
+ * Strings are cached per key, component path, locale and style. By default the cache holds at most
+ * {@value #DEFAULT_MAX_CACHE_SIZE} entries and expires the least recently used ones, see
+ * {@link #setMaxCacheSize(int)}. The component path is interned to a number, which keeps the keys
+ * short for deeply nested components.
  * 
  * @see org.apache.wicket.settings.Settings#getLocalizer()
  * @see org.apache.wicket.resource.loader.IStringResourceLoader
@@ -55,8 +61,16 @@ public class Localizer
 {
 	private static final Logger log = LoggerFactory.getLogger(Localizer.class);
 
-	/** ConcurrentHashMap does not allow null values */
-	private static final String NULL_VALUE = "<null-value>";
+	/**
+	 * Cached value of a string that was not found, ConcurrentHashMap does not allow null values
+	 */
+	protected static final String NULL_VALUE = "<null-value>";
+
+	/** Default maximum number of cached strings */
+	public static final int DEFAULT_MAX_CACHE_SIZE = 10000;
+
+	/** Maximum number of cached strings, 0 for no maximum */
+	private volatile int maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
 
 	/** Cache properties */
 	private Map<String, String> cache = newCache();
@@ -64,6 +78,15 @@ public class Localizer
 	/** */
 	private final ClassMetaDatabase metaDatabase = new ClassMetaDatabase();
 
+	/** */
+	private final ComponentPathDatabase pathDatabase = new ComponentPathDatabase();
+
+	private final AtomicLong cacheHits = new AtomicLong();
+	private final AtomicLong cacheMisses = new AtomicLong();
+
+	/** evictions of caches that have been replaced by {@link #clearCache()} */
+	private final AtomicLong clearedCacheEvictions = new AtomicLong();
+
 	/**
 	 * Create the utils instance class backed by the configuration information contained within the
 	 * supplied application object.
@@ -79,8 +102,84 @@ public class Localizer
 	{
 		if (cache != null)
 		{
-			cache = newCache();
+			replaceCache(newCache());
+		}
+	}
+
+	private void replaceCache(Map<String, String> newCache)
+	{
+		Map<String, String> old = cache;
+		if (old instanceof ConcurrentMostRecentlyUsedMap)
+		{
+			clearedCacheEvictions.addAndGet(((ConcurrentMostRecentlyUsedMap<String, String>)old)
+				.getEvictions());
+		}
+		cache = newCache;
+	}
+
+	/**
+	 * @return number of strings found in the cache
+	 */
+	public final long getCacheHits()
+	{
+		return cacheHits.get();
+	}
+
+	/**
+	 * @return number of strings that had to be loaded because they were not in the cache
+	 */
+	public final long getCacheMisses()
+	{
+		return cacheMisses.get();
+	}
+
+	/**
+	 * @return number of strings expired from the cache because it was full, 0 if the cache
+	 *         returned by {@link #newCache()} doesn't expire entries
+	 */
+	public final long getCacheEvictions()
+	{
+		long evictions = clearedCacheEvictions.get();
+		Map<String, String> current = cache;
+		if (current instanceof ConcurrentMostRecentlyUsedMap)
+		{
+			evictions += ((ConcurrentMostRecentlyUsedMap<String, String>)current).getEvictions();
+		}
+		return evictions;
+	}
+
+	/**
+	 * @return number of cached strings
+	 */
+	public final int getCacheSize()
+	{
+		Map<String, String> current = cache;
+		return current != null ? current.size() : 0;
+	}
+
+	/**
+	 * @return maximum number of cached strings, 0 if there is no maximum
+	 */
+	public final int getMaxCacheSize()
+	{
+		return maxCacheSize;
+	}
+
+	/**
+	 * Sets the maximum number of cached strings. When the cache is full the least recently used
+	 * strings are expired. Changing the maximum clears the cache.
+	 * 
+	 * @param maxCacheSize
+	 *            maximum number of cached strings, 0 for no maximum
+	 */
+	public final void setMaxCacheSize(int maxCacheSize)
+	{
+		if (maxCacheSize < 0)
+		{
+			throw new IllegalArgumentException("maxCacheSize can not be negative");
 		}
+		this.maxCacheSize = maxCacheSize;
+		clearCache();
 	}
 
 	/**
@@ -205,18 +304,23 @@ public class Localizer
 
 		String cacheKey = null;
 		String value = null;
+		String cached = null;
 
 		// If this component is not yet added to page we do not want to check
 		// cache as we can generate an invalid cache key
 		if ((cache != null) && ((component == null) || addedToPage))
 		{
 			cacheKey = getCacheKey(key, component);
+
+			// a single lookup, the entry may be expired between two of them
+			cached = getFromCache(cacheKey);
 		}
 
 		// Value not found are cached as well (value = null)
-		if ((cacheKey != null) && cache.containsKey(cacheKey))
+		if (cached != null)
 		{
-			value = getFromCache(cacheKey);
+			cacheHits.incrementAndGet();
+			value = (cached == NULL_VALUE) ? null : cached;
 			if (log.isDebugEnabled())
 			{
 				log.debug("Property found in cache: '" + key + "'; Component: '" +
@@ -226,6 +330,10 @@ public class Localizer
 		}
 		else
 		{
+			if (cacheKey != null)
+			{
+				cacheMisses.incrementAndGet();
+			}
 			if (log.isDebugEnabled())
 			{
 				log.debug("Locate property: key: '" + key + "'; Component: '" +
@@ -373,26 +481,21 @@ public class Localizer
 	}
 
 	/**
-	 * Get the value associated with the key from the cache.
+	 * Get the value associated with the key from the cache. Strings that were not found are cached
+	 * as {@link #NULL_VALUE}, so a single lookup tells them apart from strings that are not cached.
 	 * 
 	 * @param cacheKey
-	 * @return The value of the key
+	 * @return The value of the key, {@link #NULL_VALUE} if the string was not found or null if it
+	 *         is not cached
 	 */
 	protected String getFromCache(final String cacheKey)
 	{
-		if (cache == null)
-		{
-			return null;
-		}
-
-		final String value = cache.get(cacheKey);
-
-		// ConcurrentHashMap does not allow null values
-		if (value == NULL_VALUE)
+		Map<String, String> current = cache;
+		if (current == null)
 		{
 			return null;
 		}
-		return value;
+		return current.get(cacheKey);
 	}
 
 	/**
@@ -407,34 +510,9 @@ public class Localizer
 		String cacheKey = key;
 		if (component != null)
 		{
-			AppendingStringBuffer buffer = new AppendingStringBuffer(200);
+			AppendingStringBuffer buffer = new AppendingStringBuffer(key.length() + 40);
 			buffer.append(key);
-
-			Component cursor = component;
-			while (cursor != null)
-			{
-				buffer.append("-").append(metaDatabase.id(cursor.getClass()));
-
-				if (cursor instanceof Page)
-				{
-					break;
-				}
-
-				if (cursor.getParent() != null && !(cursor.getParent() instanceof AbstractRepeater))
-				{
-					/*
-					 * only append component id if parent is not a repeater because
-					 * 
-					 * (a) these ids are irrelevant when generating resource cache keys
-					 * 
-					 * (b) they cause a lot of redundant keys to be generated
-					 */
-					buffer.append(":").append(cursor.getId());
-				}
-				cursor = cursor.getParent();
-
-			}
-
+			buffer.append("-").append(getPathId(component));
 			buffer.append("-").append(component.getLocale());
 			buffer.append("-").append(component.getStyle());
 			// TODO 1.4 look if we want to properly separate getstyle/getvariation
@@ -452,6 +530,33 @@ public class Localizer
 		return cacheKey;
 	}
 
+	/**
+	 * Gets the id of the path of the component up to the page. The path consists of the classes of
+	 * the component and its parents, and the ids of the components that are not repeater items.
+	 * 
+	 * @param component
+	 * @return id of the path
+	 */
+	private long getPathId(final Component component)
+	{
+		long classId = metaDatabase.id(component.getClass());
+		MarkupContainer parent = component.getParent();
+		if ((component instanceof Page) || (parent == null))
+		{
+			return pathDatabase.id(0, classId, null);
+		}
+
+		/*
+		 * only use the component id if parent is not a repeater because
+		 * 
+		 * (a) these ids are irrelevant when generating resource cache keys
+		 * 
+		 * (b) they cause a lot of redundant keys to be generated
+		 */
+		String id = (parent instanceof AbstractRepeater) ? null : component.getId();
+		return pathDatabase.id(getPathId(parent), classId, id);
+	}
+
 	/**
 	 * Helper method to handle property variable substitution in strings.
 	 * 
@@ -487,20 +592,24 @@ public class Localizer
 		}
 		else if (cache == null)
 		{
-			cache = newCache();
+			replaceCache(newCache());
 		}
 	}
 
 	/**
-	 * Create a new cache, override this method if you want a different map to store the cache keys,
-	 * for example a map that hold only the last X number of elements..
+	 * Create a new cache, override this method if you want a different map to store the cache keys.
 	 * 
-	 * By default it uses the {@link ConcurrentHashMap}
+	 * By default it uses a {@link ConcurrentMostRecentlyUsedMap} that holds at most
+	 * {@link #getMaxCacheSize()} entries, or a {@link ConcurrentHashMap} if there is no maximum.
 	 * 
 	 * @return cache
 	 */
 	protected Map<String, String> newCache()
 	{
+		if (maxCacheSize > 0)
+		{
+			return new ConcurrentMostRecentlyUsedMap<String, String>(maxCacheSize);
+		}
 		return new ConcurrentHashMap<String, String>();
 	}
 
@@ -538,4 +647,92 @@ public class Localizer
 			return id;
 		}
 	}
+
+	/**
+	 * Database that maps component paths to a long id. A path is identified by the id of its parent
+	 * path, the id of the component class and the component id. The database is cleared when it
+	 * gets too large; ids are never reused, so cache keys built with old ids just won't match
+	 * anymore.
+	 */
+	private static class ComponentPathDatabase
+	{
+		private static final int MAX_PATHS = 50000;
+
+		private final ConcurrentMap<PathElement, Long> pathToId = Generics.newConcurrentHashMap();
+		private final AtomicLong pathCounter = new AtomicLong();
+
+		/**
+		 * @param parentId
+		 *            id of the path of the parent, 0 if there is no parent
+		 * @param classId
+		 *            id of the component class
+		 * @param componentId
+		 *            component id or null
+		 * @return id of the path
+		 */
+		public long id(long parentId, long classId, String componentId)
+		{
+			PathElement element = new PathElement(parentId, classId, componentId);
+			Long id = pathToId.get(element);
+			if (id == null)
+			{
+				if (pathToId.size() >= MAX_PATHS)
+				{
+					pathToId.clear();
+				}
+				id = pathCounter.incrementAndGet();
+				Long previousId = pathToId.putIfAbsent(element, id);
+				if (previousId != null)
+				{
+					id = previousId;
+				}
+			}
+			return id;
+		}
+	}
+
+	/**
+	 * Key of {@link ComponentPathDatabase}
+	 */
+	private static final class PathElement
+	{
+		private final long parentId;
+		private final long classId;
+		private final String componentId;
+		private final int hash;
+
+		private PathElement(long parentId, long classId, String componentId)
+		{
+			this.parentId = parentId;
+			this.classId = classId;
+			this.componentId = componentId;
+			int h = (int)(parentId ^ (parentId >>> 32));
+			h = 31 * h + (int)(classId ^ (classId >>> 32));
+			h = 31 * h + (componentId != null ? componentId.hashCode() : 0);
+			hash = h;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this == obj)
+			{
+				return true;
+			}
+			if (!(obj instanceof PathElement))
+			{
+				return false;
+			}
+			PathElement other = (PathElement)obj;
+			return hash == other.hash && parentId == other.parentId && classId == other.classId &&
+				(componentId == null ? other.componentId == null
+					: componentId.equals(other.componentId));
+		}
+	}
 }
\ No newline at end of file
@@ -20,6 +20,7 @@ import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 
@@ -28,6 +29,7 @@ import org.apache.wicket.markup.MarkupElement;
 import org.apache.wicket.markup.MarkupException;
 import org.apache.wicket.markup.MarkupNotFoundException;
 import org.apache.wicket.markup.MarkupStream;
+import org.apache.wicket.markup.RawMarkup;
 import org.apache.wicket.markup.WicketTag;
 import org.apache.wicket.markup.html.internal.InlineEnclosure;
 import org.apache.wicket.markup.resolver.ComponentResolvers;
@@ -88,9 +90,15 @@ public abstract class MarkupContainer extends Component
 	/** Log for reporting. */
 	private static final Logger log = LoggerFactory.getLogger(MarkupContainer.class);
 
+	/** Number of children above which the children are indexed by id */
+	private static final int CHILD_INDEX_THRESHOLD = 32;
+
 	/** List of children or single child */
 	private Object children;
 
+	/** Positions of the children by id, only used if there are many children */
+	private transient ChildIndex childIndex;
+
 	/**
 	 * The markup stream for this container. This variable is used only during the render phase to
 	 * provide access to the current element within the stream.
@@ -655,6 +663,7 @@ public abstract class MarkupContainer extends Component
 			}
 
 			children = null;
+			childIndex = null;
 		}
 	}
 
@@ -1027,6 +1036,11 @@ public abstract class MarkupContainer extends Component
 				children = new ChildList(children);
 			}
 			((ChildList)children).add(child);
+
+			if (childIndex != null && childIndex.children == children)
+			{
+				childIndex.positions.put(child.getId(), ((ChildList)children).size - 1);
+			}
 		}
 	}
 
@@ -1150,50 +1164,8 @@ public abstract class MarkupContainer extends Component
 	 */
 	private final Component children_get(final String id)
 	{
-		if (children == null)
-		{
-			return null;
-		}
-		Component component = null;
-		if ((children instanceof Object[] == false) && (children instanceof List == false))
-		{
-			if (getId(children).equals(id))
-			{
-				component = (Component)postprocess(children, true, this, 0);
-				if (children != component)
-				{
-					children = component;
-				}
-			}
-		}
-		else
-		{
-			Object[] children = null;
-			int size = 0;
-			if (this.children instanceof ChildList)
-			{
-				children = ((ChildList)this.children).childs;
-				size = ((ChildList)this.children).size;
-			}
-			else
-			{
-				children = (Object[])this.children;
-				size = children.length;
-			}
-			for (int i = 0; i < size; i++)
-			{
-				if (getId(children[i]).equals(id))
-				{
-					component = (Component)postprocess(children[i], true, this, i);
-					if (children[i] != component)
-					{
-						children[i] = component;
-					}
-					break;
-				}
-			}
-		}
-		return component;
+		int index = children_indexOf(id);
+		return index != -1 ? children_get(index) : null;
 	}
 
 	/**
@@ -1202,6 +1174,16 @@ public abstract class MarkupContainer extends Component
 	 * @return The index of the given child component
 	 */
 	private final int children_indexOf(Component child)
+	{
+		return children_indexOf(child.getId());
+	}
+
+	/**
+	 * 
+	 * @param id
+	 * @return The index of the child with the given id
+	 */
+	private final int children_indexOf(final String id)
 	{
 		if (children == null)
 		{
@@ -1209,7 +1191,7 @@ public abstract class MarkupContainer extends Component
 		}
 		if (children instanceof Object[] == false && children instanceof ChildList == false)
 		{
-			if (getId(children).equals(child.getId()))
+			if (getId(children).equals(id))
 			{
 				return 0;
 			}
@@ -1229,9 +1211,28 @@ public abstract class MarkupContainer extends Component
 				size = ((ChildList)this.children).size;
 			}
 
+			if (size > CHILD_INDEX_THRESHOLD)
+			{
+				if (childIndex == null || childIndex.children != this.children)
+				{
+					childIndex = new ChildIndex(this.children, children, size);
+				}
+				Integer index = childIndex.positions.get(id);
+				if (index == null)
+				{
+					return -1;
+				}
+				if (index.intValue() < size && getId(children[index.intValue()]).equals(id))
+				{
+					return index.intValue();
+				}
+				// the index is out of date, fall back to searching
+				childIndex = null;
+			}
+
 			for (int i = 0; i < size; i++)
 			{
-				if (getId(children[i]).equals(child.getId()))
+				if (getId(children[i]).equals(id))
 				{
 					return i;
 				}
@@ -1267,6 +1268,9 @@ public abstract class MarkupContainer extends Component
 			return null;
 		}
 
+		// the positions of the following children change
+		childIndex = null;
+
 		if (children instanceof Component || children instanceof ComponentSourceEntry)
 		{
 			if (index == 0)
@@ -1350,6 +1354,10 @@ public abstract class MarkupContainer extends Component
 		{
 			throw new IndexOutOfBoundsException();
 		}
+		if (childIndex != null && !getId(child).equals(getId(replaced)))
+		{
+			childIndex = null;
+		}
 		return postprocess(replaced, reconstruct, null, -1);
 	}
 
@@ -1499,7 +1507,14 @@ public abstract class MarkupContainer extends Component
 			{
 				log.debug("Rendering raw markup");
 			}
-			getResponse().write(element.toCharSequence());
+			if (element instanceof RawMarkup)
+			{
+				getResponse().write((RawMarkup)element);
+			}
+			else
+			{
+				getResponse().write(element.toCharSequence());
+			}
 			markupStream.next();
 		}
 	}
@@ -1715,6 +1730,11 @@ public abstract class MarkupContainer extends Component
 			Object[] tmp = new Object[lst.size];
 			System.arraycopy(lst.childs, 0, tmp, 0, lst.size);
 			children = tmp;
+			if (childIndex != null && childIndex.children == lst)
+			{
+				// same positions
+				childIndex.children = tmp;
+			}
 		}
 	}
 
@@ -1971,6 +1991,37 @@ public abstract class MarkupContainer extends Component
 		}
 	}
 
+	/**
+	 * Positions of the children by id, so containers with many children, e.g. repeaters, don't
+	 * have to search all children to find one.
+	 */
+	private static final class ChildIndex
+	{
+		/** The children the positions are of, the index is rebuilt when they are replaced */
+		private Object children;
+
+		private final HashMap<String, Integer> positions;
+
+		/**
+		 * Construct.
+		 * 
+		 * @param children
+		 * @param array
+		 * @param size
+		 */
+		private ChildIndex(Object children, Object[] array, int size)
+		{
+			this.children = children;
+			positions = new HashMap<String, Integer>((int)(size / 0.75f) + 1);
+			for (int i = 0; i < size; i++)
+			{
+				final Object child = array[i];
+				positions.put(child instanceof Component ? ((Component)child).getId()
+					: ((ComponentSourceEntry)child).id, i);
+			}
+		}
+	}
+
 	/**
 	 * Swaps position of children. This method is particularly useful for adjusting positions of
 	 * repeater's items without rebuilding the component hierarchy
@@ -2015,6 +2066,12 @@ public abstract class MarkupContainer extends Component
 			list.childs[idx2] = tmp;
 		}
 
+		if (childIndex != null && childIndex.children == children)
+		{
+			childIndex.positions.put(getId(children_get(idx1, false)), idx1);
+			childIndex.positions.put(getId(children_get(idx2, false)), idx2);
+		}
+
 	}
 
 }
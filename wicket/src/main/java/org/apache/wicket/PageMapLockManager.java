@@ -0,0 +1,497 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.wicket.protocol.http.IgnoreAjaxRequestException;
+import org.apache.wicket.util.string.AppendingStringBuffer;
+import org.apache.wicket.util.time.Duration;
+
+/**
+ * Keeps track of the page maps used by the requests of a session. Only one request at a time can
+ * use a page map, other requests for the same page map are queued and get the page map in the order
+ * they asked for it.
+ * <p>
+ * A page map is owned by the request cycle that acquired it (or by the thread, if there is no
+ * request cycle) until the request is detached. When the owner releases the page map it is handed
+ * directly to the first waiting request, so only that request is woken up. Waiting doesn't hold a
+ * monitor, which keeps blocked requests cheap, also when they run on virtual threads. The lock of a
+ * page map is dropped as soon as nobody owns or waits for it, so page maps that are no longer used
+ * are not kept reachable.
+ * <p>
+ * Requests can be acquired with a coalescing key (see
+ * {@link org.apache.wicket.settings.IRequestCycleSettings#setCoalesceAjaxRequests(boolean)}). When
+ * a request with a key is queued, waiting requests with the same key are dropped; they throw an
+ * {@link IgnoreAjaxRequestException} so only the latest of them is processed.
+ */
+public final class PageMapLockManager
+{
+	private final Session session;
+
+	private final ConcurrentMap<IPageMap, PageMapLock> locks = new ConcurrentHashMap<IPageMap, PageMapLock>();
+
+	private final AtomicLong acquisitions = new AtomicLong();
+	private final AtomicLong contendedAcquisitions = new AtomicLong();
+	private final AtomicLong totalWaitTime = new AtomicLong();
+	private final AtomicLong maxWaitTime = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong coalescedRequests = new AtomicLong();
+
+	/**
+	 * Construct.
+	 *
+	 * @param session
+	 */
+	PageMapLockManager(Session session)
+	{
+		this.session = session;
+	}
+
+	/**
+	 * Acquires the page map for the current request, waiting for other requests that use it.
+	 *
+	 * @param pageMap
+	 * @param timeout
+	 *            how long to wait for the page map
+	 * @param componentPath
+	 *            path of the requested component, used for the error message
+	 * @throws IgnoreAjaxRequestException
+	 *             if the page map is used by a request that doesn't allow the current request to
+	 *             wait
+	 * @throws WicketRuntimeException
+	 *             if the page map is still used after the timeout
+	 */
+	void acquire(IPageMap pageMap, Duration timeout, String componentPath)
+	{
+		acquire(pageMap, timeout, componentPath, null);
+	}
+
+	/**
+	 * Acquires the page map for the current request, waiting for other requests that use it. When
+	 * the request has to wait, requests already waiting with the same coalescing key are dropped,
+	 * and this request is dropped when a later request with the same key arrives while it waits.
+	 *
+	 * @param pageMap
+	 * @param timeout
+	 *            how long to wait for the page map
+	 * @param componentPath
+	 *            path of the requested component, used for the error message
+	 * @param coalescingKey
+	 *            key of the requests that can be coalesced with this request, or null
+	 * @throws IgnoreAjaxRequestException
+	 *             if the page map is used by a request that doesn't allow the current request to
+	 *             wait, or the request was dropped in favor of a later request
+	 * @throws WicketRuntimeException
+	 *             if the page map is still used after the timeout
+	 */
+	void acquire(IPageMap pageMap, Duration timeout, String componentPath, String coalescingKey)
+	{
+		// the lock may be dropped between looking it up and locking it
+		while (!getLock(pageMap).acquire(timeout, componentPath, coalescingKey))
+		{
+		}
+	}
+
+	/**
+	 * Drops the lock of a page map that is removed from the session, unless it is still used.
+	 *
+	 * @param pageMap
+	 */
+	void remove(IPageMap pageMap)
+	{
+		PageMapLock lock = locks.get(pageMap);
+		if (lock != null)
+		{
+			lock.dropIfUnused();
+		}
+	}
+
+	/**
+	 * @return number of page maps that are locked or waited for
+	 */
+	int getLockCount()
+	{
+		return locks.size();
+	}
+
+	/**
+	 * Releases the page map if it is owned by the current request.
+	 *
+	 * @param pageMap
+	 */
+	void release(IPageMap pageMap)
+	{
+		PageMapLock lock = locks.get(pageMap);
+		if (lock != null)
+		{
+			lock.release(RequestCycle.get(), Thread.currentThread());
+		}
+	}
+
+	/**
+	 * Releases all page maps owned by the current request.
+	 */
+	void releaseAll()
+	{
+		RequestCycle cycle = RequestCycle.get();
+		Thread thread = Thread.currentThread();
+		for (Iterator<PageMapLock> i = locks.values().iterator(); i.hasNext();)
+		{
+			i.next().release(cycle, thread);
+		}
+	}
+
+	/**
+	 * Hands the page maps owned by one thread to another thread.
+	 *
+	 * @param from
+	 * @param to
+	 */
+	void moveOwner(Thread from, Thread to)
+	{
+		for (Iterator<PageMapLock> i = locks.values().iterator(); i.hasNext();)
+		{
+			i.next().moveOwner(from, to);
+		}
+	}
+
+	private PageMapLock getLock(IPageMap pageMap)
+	{
+		PageMapLock lock = locks.get(pageMap);
+		if (lock == null)
+		{
+			lock = new PageMapLock(pageMap);
+			PageMapLock existing = locks.putIfAbsent(pageMap, lock);
+			if (existing != null)
+			{
+				lock = existing;
+			}
+		}
+		return lock;
+	}
+
+	/**
+	 * @return number of times a page map was acquired
+	 */
+	public long getAcquisitions()
+	{
+		return acquisitions.get();
+	}
+
+	/**
+	 * @return number of times a request had to wait for a page map
+	 */
+	public long getContendedAcquisitions()
+	{
+		return contendedAcquisitions.get();
+	}
+
+	/**
+	 * @return total time in milliseconds requests waited for page maps
+	 */
+	public long getTotalWaitTime()
+	{
+		return totalWaitTime.get();
+	}
+
+	/**
+	 * @return longest time in milliseconds a request waited for a page map
+	 */
+	public long getMaxWaitTime()
+	{
+		return maxWaitTime.get();
+	}
+
+	/**
+	 * @return number of requests that gave up waiting for a page map
+	 */
+	public long getTimeouts()
+	{
+		return timeouts.get();
+	}
+
+	/**
+	 * @return number of waiting requests that were dropped in favor of a later request
+	 */
+	public long getCoalescedRequests()
+	{
+		return coalescedRequests.get();
+	}
+
+	private void recordWait(long millis)
+	{
+		contendedAcquisitions.incrementAndGet();
+		totalWaitTime.addAndGet(millis);
+		long max = maxWaitTime.get();
+		while (millis > max && !maxWaitTime.compareAndSet(max, millis))
+		{
+			max = maxWaitTime.get();
+		}
+	}
+
+	/**
+	 * A request waiting for a page map.
+	 */
+	private static final class Waiter
+	{
+		private final RequestCycle cycle;
+		private final Thread thread;
+		private final Condition granted;
+		private final String key;
+		private boolean owner;
+		private boolean superseded;
+
+		private Waiter(RequestCycle cycle, Thread thread, Condition granted, String key)
+		{
+			this.cycle = cycle;
+			this.thread = thread;
+			this.granted = granted;
+			this.key = key;
+		}
+	}
+
+	private final class PageMapLock
+	{
+		private final IPageMap pageMap;
+
+		// guards the fields below, only held for short periods
+		private final ReentrantLock lock = new ReentrantLock();
+
+		private RequestCycle ownerCycle;
+		private Thread ownerThread;
+
+		private final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+
+		// set when the lock is no longer in the map of locks
+		private boolean dropped;
+
+		private PageMapLock(IPageMap pageMap)
+		{
+			this.pageMap = pageMap;
+		}
+
+		private boolean isOwner(RequestCycle cycle, Thread thread)
+		{
+			return (cycle != null && cycle == ownerCycle) || thread == ownerThread;
+		}
+
+		/**
+		 * @return false if the lock was dropped and a new one must be looked up
+		 */
+		private boolean acquire(Duration timeout, String componentPath, String coalescingKey)
+		{
+			RequestCycle cycle = RequestCycle.get();
+			Thread thread = Thread.currentThread();
+
+			lock.lock();
+			try
+			{
+				if (dropped)
+				{
+					return false;
+				}
+				acquisitions.incrementAndGet();
+				if (ownerThread == null || isOwner(cycle, thread))
+				{
+					ownerCycle = cycle;
+					ownerThread = thread;
+					return true;
+				}
+
+				if (ownerCycle != null && session.isCurrentRequestValid(ownerCycle) == false)
+				{
+					// we need to ignore this request. That's because it is an ajax request
+					// while regular page request is being processed
+					throw new IgnoreAjaxRequestException();
+				}
+
+				long start = System.currentTimeMillis();
+				if (coalescingKey != null)
+				{
+					supersede(coalescingKey);
+				}
+				Waiter waiter = new Waiter(cycle, thread, lock.newCondition(), coalescingKey);
+				waiters.addLast(waiter);
+				try
+				{
+					long remaining = TimeUnit.MILLISECONDS.toNanos(timeout.getMilliseconds());
+					while (!waiter.owner && !waiter.superseded && remaining > 0)
+					{
+						remaining = waiter.granted.awaitNanos(remaining);
+
+						// the page map may have been handed to a regular page request
+						if (!waiter.owner && !waiter.superseded && ownerCycle != null &&
+							session.isCurrentRequestValid(ownerCycle) == false)
+						{
+							waiters.remove(waiter);
+							recordWait(System.currentTimeMillis() - start);
+							throw new IgnoreAjaxRequestException();
+						}
+					}
+				}
+				catch (InterruptedException ex)
+				{
+					if (!waiter.owner)
+					{
+						waiters.remove(waiter);
+						if (waiter.superseded)
+						{
+							throw new IgnoreAjaxRequestException();
+						}
+						throw new WicketRuntimeException(ex);
+					}
+					// we got the page map anyway, keep the interrupt for the request
+					thread.interrupt();
+				}
+				recordWait(System.currentTimeMillis() - start);
+
+				if (waiter.superseded)
+				{
+					// a later request of the same behavior will do the work
+					throw new IgnoreAjaxRequestException();
+				}
+				if (!waiter.owner)
+				{
+					waiters.remove(waiter);
+					timeouts.incrementAndGet();
+
+					// This either points to long running code (a report page?) or a deadlock or
+					// such
+					AppendingStringBuffer asb = new AppendingStringBuffer(100);
+					asb.append("After " + timeout + " the Pagemap " + pageMap.getName() +
+						" is still locked by: " + ownerThread +
+						", giving up trying to get the page for path: " + componentPath);
+					WicketRuntimeException ex = new WicketRuntimeException(asb.toString());
+					ex.setStackTrace(ownerThread.getStackTrace());
+					throw ex;
+				}
+				return true;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Drops the waiting requests with the given key. Must be called with the lock held.
+		 *
+		 * @param coalescingKey
+		 */
+		private void supersede(String coalescingKey)
+		{
+			for (Iterator<Waiter> i = waiters.iterator(); i.hasNext();)
+			{
+				Waiter waiting = i.next();
+				if (coalescingKey.equals(waiting.key))
+				{
+					i.remove();
+					waiting.superseded = true;
+					waiting.granted.signal();
+					coalescedRequests.incrementAndGet();
+				}
+			}
+		}
+
+		private void release(RequestCycle cycle, Thread thread)
+		{
+			lock.lock();
+			try
+			{
+				if (ownerThread != null && isOwner(cycle, thread))
+				{
+					Waiter next = waiters.poll();
+					if (next != null)
+					{
+						next.owner = true;
+						ownerCycle = next.cycle;
+						ownerThread = next.thread;
+						next.granted.signal();
+
+						// the other waiters check whether they may wait for the new owner
+						for (Iterator<Waiter> i = waiters.iterator(); i.hasNext();)
+						{
+							i.next().granted.signal();
+						}
+					}
+					else
+					{
+						ownerCycle = null;
+						ownerThread = null;
+						drop();
+					}
+				}
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		private void dropIfUnused()
+		{
+			lock.lock();
+			try
+			{
+				if (ownerThread == null && waiters.isEmpty())
+				{
+					drop();
+				}
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Removes the lock from the map of locks. Must be called with the lock held.
+		 */
+		private void drop()
+		{
+			if (!dropped)
+			{
+				dropped = true;
+				locks.remove(pageMap, this);
+			}
+		}
+
+		private void moveOwner(Thread from, Thread to)
+		{
+			lock.lock();
+			try
+			{
+				if (ownerThread == from)
+				{
+					ownerThread = to;
+				}
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+	}
+}
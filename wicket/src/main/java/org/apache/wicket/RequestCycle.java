@@ -22,6 +22,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import org.apache.wicket.behavior.IBehavior;
+import org.apache.wicket.markup.html.PackageResource;
 import org.apache.wicket.protocol.http.BufferedWebResponse;
 import org.apache.wicket.protocol.http.IRequestLogger;
 import org.apache.wicket.protocol.http.PageExpiredException;
@@ -1096,6 +1097,18 @@ public abstract class RequestCycle
 		RequestParameters requestParameters = new RequestParameters();
 		requestParameters.setResourceKey(resourceReference.getSharedResourceKey());
 		String name = resourceReference.getName();
+		if (parameters == null &&
+			getApplication().getResourceSettings().getFingerprintPackageResourceUrls() &&
+			resourceReference.getResource() instanceof PackageResource && !Strings.isEmpty(name) &&
+			!name.endsWith("/"))
+		{
+			String fingerprint = ((PackageResource)resourceReference.getResource()).getFingerprint();
+			if (fingerprint != null)
+			{
+				parameters = new ValueMap();
+				parameters.put(PackageResource.FINGERPRINT_PARAMETER, fingerprint);
+			}
+		}
 		if (getApplication().getResourceSettings().getAddLastModifiedTimeToResourceReferenceUrl() &&
 			!Strings.isEmpty(name) && !name.endsWith("/")) // test for / because it could be a
 		// resource reference to a path..
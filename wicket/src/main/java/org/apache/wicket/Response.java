@@ -28,6 +28,7 @@ import java.util.Locale;
 import javax.servlet.ServletContext;
 
 import org.apache.wicket.markup.ComponentTag;
+import org.apache.wicket.markup.RawMarkup;
 import org.apache.wicket.protocol.http.WebApplication;
 import org.apache.wicket.util.io.Streams;
 import org.apache.wicket.util.string.AppendingStringBuffer;
@@ -230,6 +231,18 @@ public abstract class Response
 		write(tag.toString());
 	}
 
+	/**
+	 * Writes raw markup of a markup file. Subclasses may write the markup in a more efficient way
+	 * than as a string, see {@link RawMarkup#getBytes(String)}.
+	 * 
+	 * @param markup
+	 *            The raw markup to write
+	 */
+	public void write(final RawMarkup markup)
+	{
+		write(markup.toCharSequence());
+	}
+
 	/**
 	 * Writes the given string to the Response subclass output destination.
 	 * 
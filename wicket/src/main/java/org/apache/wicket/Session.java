@@ -34,11 +34,10 @@ import org.apache.wicket.application.IClassResolver;
 import org.apache.wicket.authorization.IAuthorizationStrategy;
 import org.apache.wicket.feedback.FeedbackMessage;
 import org.apache.wicket.feedback.FeedbackMessages;
-import org.apache.wicket.protocol.http.IgnoreAjaxRequestException;
+import org.apache.wicket.protocol.http.request.WebRequestCodingStrategy;
 import org.apache.wicket.request.ClientInfo;
 import org.apache.wicket.session.ISessionStore;
 import org.apache.wicket.util.lang.Objects;
-import org.apache.wicket.util.string.AppendingStringBuffer;
 import org.apache.wicket.util.string.Strings;
 import org.apache.wicket.util.time.Duration;
 import org.slf4j.Logger;
@@ -318,16 +317,8 @@ public abstract class Session implements IClusterable
 	/** Application level meta data. */
 	private MetaDataEntry<?>[] metaData;
 
-	/**
-	 * We need to know both thread that keeps the pagemap lock and the RequestCycle
-	 */
-	private static class PageMapsUsedInRequestEntry
-	{
-		Thread thread;
-		RequestCycle requestCycle;
-	};
-
-	private transient Map<IPageMap, PageMapsUsedInRequestEntry> pageMapsUsedInRequest;
+	/** Page maps used by the current requests of this session */
+	private transient volatile PageMapLockManager pageMapLockManager;
 
 	/** True, if session has been invalidated */
 	private transient boolean sessionInvalidated = false;
@@ -706,89 +697,54 @@ public abstract class Session implements IClusterable
 		IPageMap pageMap = pageMapForName(pageMapName, pageMapName == PageMap.DEFAULT_NAME);
 		if (pageMap != null)
 		{
-			synchronized (usedPageMapNames) // get a lock so be sure that only one
-			// is made
+			// TODO For now only use the setting. Might be extended with
+			// something overridable on request/ page/ request target level
+			// later
+			Duration timeout = Application.get().getRequestCycleSettings().getTimeout();
+
+			PageMapLockManager lockManager = getPageMapLockManager();
+			lockManager.acquire(pageMap, timeout, componentPath, getCoalescingKey(componentPath));
+
+			final String id = Strings.firstPathComponent(componentPath, Component.PATH_SEPARATOR);
+			Page page = pageMap.get(Integer.parseInt(id), versionNumber);
+			if (page == null)
 			{
-				if (pageMapsUsedInRequest == null)
-				{
-					pageMapsUsedInRequest = new HashMap<IPageMap, PageMapsUsedInRequestEntry>(3);
-				}
+				lockManager.release(pageMap);
 			}
-			synchronized (pageMapsUsedInRequest)
+			else
 			{
-				long startTime = System.currentTimeMillis();
-
-				// TODO For now only use the setting. Might be extended with
-				// something overridable on request/ page/ request target level
-				// later
-				Duration timeout = Application.get().getRequestCycleSettings().getTimeout();
-
-				PageMapsUsedInRequestEntry entry = pageMapsUsedInRequest.get(pageMap);
-
-				// Get page entry for id and version
-				Thread t = entry != null ? entry.thread : null;
-				while (t != null && t != Thread.currentThread())
-				{
-					if (isCurrentRequestValid(entry.requestCycle) == false)
-					{
-						// we need to ignore this request. That's because it is
-						// an ajax request
-						// while regular page request is being processed
-						throw new IgnoreAjaxRequestException();
-					}
-
-					try
-					{
-						pageMapsUsedInRequest.wait(timeout.getMilliseconds());
-					}
-					catch (InterruptedException ex)
-					{
-						throw new WicketRuntimeException(ex);
-					}
-
-					entry = pageMapsUsedInRequest.get(pageMap);
-					t = entry != null ? entry.thread : null;
-
-					if (t != null && t != Thread.currentThread() &&
-						(startTime + timeout.getMilliseconds()) < System.currentTimeMillis())
-					{
-						AppendingStringBuffer asb = new AppendingStringBuffer(100);
-						asb.append("After " + timeout + " the Pagemap " + pageMapName +
-							" is still locked by: " + t +
-							", giving up trying to get the page for path: " + componentPath);
-						// if it is still not the right thread..
-						// This either points to long running code (a report
-						// page?) or a deadlock or such
-						WicketRuntimeException ex = new WicketRuntimeException(asb.toString());
-						ex.setStackTrace(t.getStackTrace());
-						throw ex;
-					}
-				}
-
-				PageMapsUsedInRequestEntry newEntry = new PageMapsUsedInRequestEntry();
-				newEntry.thread = Thread.currentThread();
-				newEntry.requestCycle = RequestCycle.get();
-				pageMapsUsedInRequest.put(pageMap, newEntry);
-				final String id = Strings.firstPathComponent(componentPath,
-					Component.PATH_SEPARATOR);
-				Page page = pageMap.get(Integer.parseInt(id), versionNumber);
-				if (page == null)
-				{
-					pageMapsUsedInRequest.remove(pageMap);
-					pageMapsUsedInRequest.notifyAll();
-				}
-				else
-				{
-					// attach the page now.
-					page.onPageAttached();
-					touch(page);
-				}
-				return page;
+				// attach the page now.
+				page.onPageAttached();
+				touch(page);
 			}
+			return page;
 		}
 		return null;
 	}
 
+	/**
+	 * Gets the key under which the current request may be coalesced with later requests while it
+	 * waits for a page map.
+	 * 
+	 * @param componentPath
+	 * @return the key or null if the current request must not be coalesced
+	 */
+	private String getCoalescingKey(String componentPath)
+	{
+		if (!Application.get().getRequestCycleSettings().getCoalesceAjaxRequests())
+		{
+			return null;
+		}
+		RequestCycle cycle = RequestCycle.get();
+		if (cycle == null || cycle.getRequest() == null ||
+			cycle.getRequest().getParameter(WebRequestCodingStrategy.COALESCE_PARAMETER_NAME) == null)
+		{
+			return null;
+		}
+		String behaviorId = cycle.getRequest().getRequestParameters().getBehaviorId();
+		return componentPath + ':' + behaviorId;
+	}
+
 	/**
 	 * @return The page factory for this session
 	 */
@@ -1011,6 +967,13 @@ public abstract class Session implements IClusterable
 		// the requestDetached method will end up adding it back into session
 		getDirtyObjectsList().remove(pageMap);
 
+		// don't keep the page map reachable through its lock
+		PageMapLockManager manager = pageMapLockManager;
+		if (manager != null)
+		{
+			manager.remove(pageMap);
+		}
+
 		removeAttribute(attributeForPageMapName(pageMap.getName()));
 		dirty();
 	}
@@ -1451,48 +1414,52 @@ public abstract class Session implements IClusterable
 	}
 
 	/**
-	 * @param form
-	 * @param to
+	 * Returns the manager of the page map locks held by the requests of this session. The manager
+	 * provides statistics about the time requests had to wait for a page map.
+	 * 
+	 * @return page map lock manager
 	 */
-	public final void moveUsedPage(Thread form, Thread to)
+	public final PageMapLockManager getPageMapLockManager()
 	{
-		if (pageMapsUsedInRequest != null)
+		PageMapLockManager manager = pageMapLockManager;
+		if (manager == null)
 		{
-			synchronized (pageMapsUsedInRequest)
+			synchronized (usedPageMapNames) // get a lock so be sure that only one is made
 			{
-				Iterator<Entry<IPageMap, PageMapsUsedInRequestEntry>> it = pageMapsUsedInRequest.entrySet()
-					.iterator();
-				while (it.hasNext())
+				manager = pageMapLockManager;
+				if (manager == null)
 				{
-					Entry<IPageMap, PageMapsUsedInRequestEntry> entry = it.next();
-					if ((entry.getValue()).thread == form)
-					{
-						(entry.getValue()).thread = to;
-					}
+					manager = new PageMapLockManager(this);
+					pageMapLockManager = manager;
 				}
 			}
 		}
+		return manager;
+	}
+
+	/**
+	 * Hands the page maps used by a thread to another thread. Page maps are owned by the request
+	 * cycle that uses them, so this is only needed if the other thread doesn't have the request
+	 * cycle set.
+	 * 
+	 * @param form
+	 * @param to
+	 */
+	public final void moveUsedPage(Thread form, Thread to)
+	{
+		PageMapLockManager manager = pageMapLockManager;
+		if (manager != null)
+		{
+			manager.moveOwner(form, to);
+		}
 	}
 
 	protected void releaseLocks()
 	{
-		if (pageMapsUsedInRequest != null)
+		PageMapLockManager manager = pageMapLockManager;
+		if (manager != null)
 		{
-			synchronized (pageMapsUsedInRequest)
-			{
-				Thread t = Thread.currentThread();
-				Iterator<Entry<IPageMap, PageMapsUsedInRequestEntry>> it = pageMapsUsedInRequest.entrySet()
-					.iterator();
-				while (it.hasNext())
-				{
-					Entry<IPageMap, PageMapsUsedInRequestEntry> entry = it.next();
-					if ((entry.getValue()).thread == t)
-					{
-						it.remove();
-					}
-				}
-				pageMapsUsedInRequest.notifyAll();
-			}
+			manager.releaseAll();
 		}
 	}
 
@@ -1599,25 +1566,7 @@ public abstract class Session implements IClusterable
 		}
 		finally
 		{
-
-			if (pageMapsUsedInRequest != null)
-			{
-				synchronized (pageMapsUsedInRequest)
-				{
-					Thread t = Thread.currentThread();
-					Iterator<Entry<IPageMap, PageMapsUsedInRequestEntry>> it = pageMapsUsedInRequest.entrySet()
-						.iterator();
-					while (it.hasNext())
-					{
-						Entry<IPageMap, PageMapsUsedInRequestEntry> entry = it.next();
-						if ((entry.getValue()).thread == t)
-						{
-							it.remove();
-						}
-					}
-					pageMapsUsedInRequest.notifyAll();
-				}
-			}
+			releaseLocks();
 		}
 	}
 
@@ -27,6 +27,7 @@ import org.apache.wicket.markup.html.IHeaderResponse;
 import org.apache.wicket.markup.html.WicketEventReference;
 import org.apache.wicket.markup.html.resources.JavascriptResourceReference;
 import org.apache.wicket.protocol.http.WebApplication;
+import org.apache.wicket.protocol.http.request.WebRequestCodingStrategy;
 import org.apache.wicket.settings.IDebugSettings;
 import org.apache.wicket.util.string.AppendingStringBuffer;
 import org.apache.wicket.util.string.Strings;
@@ -271,6 +272,41 @@ public abstract class AbstractDefaultAjaxBehavior extends AbstractAjaxBehavior
 		return null;
 	}
 
+	/**
+	 * Whether a request of this behavior that is still waiting for the page map may be dropped when
+	 * a newer request of this behavior arrives. Only return true when processing just the latest
+	 * request gives the same result as processing all of them, like suggestions for the current
+	 * input. A dropped request gets an empty response, so behaviors that schedule their next
+	 * request in their response, like timers, must not allow it. Only used when
+	 * {@link org.apache.wicket.settings.IRequestCycleSettings#getCoalesceAjaxRequests()} is
+	 * enabled.
+	 * 
+	 * @return true if requests of this behavior may be coalesced, false by default
+	 */
+	protected boolean isCoalescable()
+	{
+		return false;
+	}
+
+	/**
+	 * @see org.apache.wicket.behavior.AbstractAjaxBehavior#getCallbackUrl(boolean)
+	 */
+	@Override
+	public CharSequence getCallbackUrl(final boolean onlyTargetActivePage)
+	{
+		CharSequence url = super.getCallbackUrl(onlyTargetActivePage);
+		if (isCoalescable() &&
+			Application.get().getRequestCycleSettings().getCoalesceAjaxRequests())
+		{
+			AppendingStringBuffer buffer = new AppendingStringBuffer(url.length() + 30);
+			buffer.append(url);
+			buffer.append(url.toString().indexOf('?') == -1 ? '?' : '&');
+			buffer.append(WebRequestCodingStrategy.COALESCE_PARAMETER_NAME).append("=true");
+			url = buffer;
+		}
+		return url;
+	}
+
 	/**
 	 * Finds the markup id of the indicator. The default search order is: component, behavior,
 	 * component's parent hieararchy.
@@ -49,4 +49,12 @@ public class ComponentFeedbackMessageFilter implements IFeedbackMessageFilter
 	{
 		return Objects.equal(component, message.getReporter());
 	}
+
+	/**
+	 * @return the component to accept feedback messages for
+	 */
+	final Component getComponent()
+	{
+		return component;
+	}
 }
@@ -18,10 +18,12 @@ package org.apache.wicket.feedback;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
 
 import org.apache.wicket.Component;
 import org.apache.wicket.IClusterable;
@@ -33,6 +35,10 @@ import org.slf4j.LoggerFactory;
 /**
  * Holds list of feedback messages. The list can be added to, cleared, queried and filtered.
  * <p>
+ * The messages are indexed by their reporter, so looking up the messages of a component doesn't
+ * go through all messages. Iterating the messages works on a snapshot, like before, so messages
+ * may be added while iterating.
+ * <p>
  * WARNING: This class should typically NOT be used directly.
  * <p>
  * 
@@ -51,12 +57,18 @@ public final class FeedbackMessages implements IClusterable, Iterable<FeedbackMe
 	 */
 	private List<FeedbackMessage> messages = null;
 
+	/** The messages as they were when last iterated, null if they changed since */
+	private transient FeedbackMessage[] snapshot;
+
+	/** The messages by reporter, null until needed after messages were removed */
+	private transient Map<Component, Reported> reported;
+
 	/**
 	 * Construct.
 	 */
 	public FeedbackMessages()
 	{
-		messages = new CopyOnWriteArrayList<FeedbackMessage>();
+		messages = new ArrayList<FeedbackMessage>();
 	}
 
 	/**
@@ -88,7 +100,7 @@ public final class FeedbackMessages implements IClusterable, Iterable<FeedbackMe
 	 *            Filter for selecting messages. If null, all messages will be returned
 	 * @return The number of messages deleted
 	 */
-	public final int clear(final IFeedbackMessageFilter filter)
+	public final synchronized int clear(final IFeedbackMessageFilter filter)
 	{
 		if (messages.size() == 0)
 		{
@@ -96,16 +108,42 @@ public final class FeedbackMessages implements IClusterable, Iterable<FeedbackMe
 		}
 
 		List<FeedbackMessage> toDelete = messages(filter);
-
+		if (toDelete.isEmpty())
+		{
+			return 0;
+		}
 
 		for (FeedbackMessage message : toDelete)
 		{
 			message.detach();
 		}
 
-		messages.removeAll(toDelete);
+		if (toDelete.size() == messages.size())
+		{
+			messages.clear();
+		}
+		else
+		{
+			// messages don't override equals, so compare by identity without searching the list
+			Map<FeedbackMessage, Boolean> deleted = new IdentityHashMap<FeedbackMessage, Boolean>();
+			for (FeedbackMessage message : toDelete)
+			{
+				deleted.put(message, Boolean.TRUE);
+			}
+			List<FeedbackMessage> kept = new ArrayList<FeedbackMessage>(messages.size() -
+				toDelete.size());
+			for (FeedbackMessage message : messages)
+			{
+				if (!deleted.containsKey(message))
+				{
+					kept.add(message);
+				}
+			}
+			messages = kept;
+		}
+		snapshot = null;
+		reported = null;
 
-		trimToSize();
 		return toDelete.size();
 	}
 
@@ -193,16 +231,10 @@ public final class FeedbackMessages implements IClusterable, Iterable<FeedbackMe
 	 *            The level of the message
 	 * @return Whether the given component registered a message with this list with the given level
 	 */
-	public final boolean hasMessageFor(Component component, int level)
+	public final synchronized boolean hasMessageFor(Component component, int level)
 	{
-		for (FeedbackMessage message : messages)
-		{
-			if (message.getReporter() == component && message.isLevel(level))
-			{
-				return true;
-			}
-		}
-		return false;
+		Reported messages = getReported().get(component);
+		return messages != null && messages.maxLevel >= level;
 	}
 
 	/**
@@ -223,19 +255,20 @@ public final class FeedbackMessages implements IClusterable, Iterable<FeedbackMe
 	 * 
 	 * @return True when there are no messages
 	 */
-	public final boolean isEmpty()
+	public final synchronized boolean isEmpty()
 	{
 		return messages.isEmpty();
 	}
 
 	/**
-	 * Gets an iterator over stored messages
+	 * Gets an iterator over stored messages. The iterator doesn't see messages that are added or
+	 * removed afterwards, and doesn't support {@link Iterator#remove()}.
 	 * 
 	 * @return iterator over stored messages
 	 */
 	public final Iterator<FeedbackMessage> iterator()
 	{
-		return messages.iterator();
+		return Collections.unmodifiableList(Arrays.asList(getSnapshot())).iterator();
 	}
 
 	/**
@@ -248,17 +281,10 @@ public final class FeedbackMessages implements IClusterable, Iterable<FeedbackMe
 	 * @return the message that is found for the given component (first match) or null if none was
 	 *         found
 	 */
-	public final FeedbackMessage messageForComponent(final Component component)
+	public final synchronized FeedbackMessage messageForComponent(final Component component)
 	{
-		for (Iterator<FeedbackMessage> iterator = messages.iterator(); iterator.hasNext();)
-		{
-			FeedbackMessage message = iterator.next();
-			if (message.getReporter() == component)
-			{
-				return message;
-			}
-		}
-		return null;
+		Reported messages = getReported().get(component);
+		return messages != null ? messages.messages.get(0) : null;
 	}
 
 	/**
@@ -270,18 +296,33 @@ public final class FeedbackMessages implements IClusterable, Iterable<FeedbackMe
 	 */
 	public final List<FeedbackMessage> messages(final IFeedbackMessageFilter filter)
 	{
-		if (messages.size() == 0)
+		final FeedbackMessage[] messages;
+		synchronized (this)
 		{
-			return Collections.emptyList();
+			if (this.messages.size() == 0)
+			{
+				return Collections.emptyList();
+			}
+
+			if (filter != null && filter.getClass() == ComponentFeedbackMessageFilter.class)
+			{
+				// the messages of the component are all accepted
+				Reported reported = getReported().get(
+					((ComponentFeedbackMessageFilter)filter).getComponent());
+				return reported != null ? new ArrayList<FeedbackMessage>(reported.messages)
+					: new ArrayList<FeedbackMessage>();
+			}
+
+			messages = getSnapshot();
 		}
 
+		// the filter may add messages
 		final List<FeedbackMessage> list = new ArrayList<FeedbackMessage>();
-		for (final Iterator<FeedbackMessage> iterator = messages.iterator(); iterator.hasNext();)
+		for (int i = 0; i < messages.length; i++)
 		{
-			final FeedbackMessage message = iterator.next();
-			if (filter == null || filter.accept(message))
+			if (filter == null || filter.accept(messages[i]))
 			{
-				list.add(message);
+				list.add(messages[i]);
 			}
 		}
 		return list;
@@ -292,7 +333,7 @@ public final class FeedbackMessages implements IClusterable, Iterable<FeedbackMe
 	 * 
 	 * @return the number of messages
 	 */
-	public final int size()
+	public final synchronized int size()
 	{
 		return messages.size();
 	}
@@ -307,11 +348,15 @@ public final class FeedbackMessages implements IClusterable, Iterable<FeedbackMe
 	 */
 	public final int size(final IFeedbackMessageFilter filter)
 	{
+		if (filter == null)
+		{
+			return size();
+		}
 		int count = 0;
-		for (final Iterator<FeedbackMessage> iterator = messages.iterator(); iterator.hasNext();)
+		final FeedbackMessage[] messages = getSnapshot();
+		for (int i = 0; i < messages.length; i++)
 		{
-			final FeedbackMessage message = iterator.next();
-			if (filter == null || filter.accept(message))
+			if (filter.accept(messages[i]))
 			{
 				count++;
 			}
@@ -325,17 +370,16 @@ public final class FeedbackMessages implements IClusterable, Iterable<FeedbackMe
 	@Override
 	public String toString()
 	{
-		return "[feedbackMessages = " + StringList.valueOf(messages) + "]";
+		return "[feedbackMessages = " + StringList.valueOf(Arrays.asList(getSnapshot())) + "]";
 	}
 
 	/**
 	 * Frees any unnecessary internal storage
 	 * 
-	 * @deprecated because {@link #messages} is actually {@link CopyOnWriteArrayList} and cannot be
-	 *             trimmed. Will be removed in Wicket 1.5
+	 * @deprecated Will be removed in Wicket 1.5
 	 */
 	@Deprecated
-	public final void trimToSize()
+	public final synchronized void trimToSize()
 	{
 		if (messages instanceof ArrayList<?>)
 		{
@@ -362,12 +406,74 @@ public final class FeedbackMessages implements IClusterable, Iterable<FeedbackMe
 	 * @param message
 	 *            the message
 	 */
-	public final void add(FeedbackMessage message)
+	public final synchronized void add(FeedbackMessage message)
 	{
 		if (log.isDebugEnabled())
 		{
 			log.debug("Adding feedback message " + message);
 		}
 		messages.add(message);
+		snapshot = null;
+		if (reported != null)
+		{
+			index(message);
+		}
+	}
+
+	/**
+	 * @return the current messages, which aren't changed anymore
+	 */
+	private synchronized FeedbackMessage[] getSnapshot()
+	{
+		if (snapshot == null)
+		{
+			snapshot = messages.toArray(new FeedbackMessage[messages.size()]);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @return the messages by reporter
+	 */
+	private Map<Component, Reported> getReported()
+	{
+		if (reported == null)
+		{
+			reported = new IdentityHashMap<Component, Reported>();
+			for (FeedbackMessage message : messages)
+			{
+				index(message);
+			}
+		}
+		return reported;
+	}
+
+	/**
+	 * Adds the message to the messages of its reporter.
+	 * 
+	 * @param message
+	 */
+	private void index(FeedbackMessage message)
+	{
+		Reported messages = reported.get(message.getReporter());
+		if (messages == null)
+		{
+			messages = new Reported();
+			reported.put(message.getReporter(), messages);
+		}
+		messages.messages.add(message);
+		messages.maxLevel = Math.max(messages.maxLevel, message.getLevel());
+	}
+
+	/**
+	 * The messages of a reporter.
+	 */
+	private static final class Reported
+	{
+		/** The messages in the order they were added */
+		private final List<FeedbackMessage> messages = new ArrayList<FeedbackMessage>(2);
+
+		/** The highest level of the messages */
+		private int maxLevel = Integer.MIN_VALUE;
 	}
 }
\ No newline at end of file
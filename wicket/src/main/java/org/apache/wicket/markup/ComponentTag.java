@@ -16,6 +16,9 @@
  */
 package org.apache.wicket.markup;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -30,6 +33,7 @@ import org.apache.wicket.behavior.IBehavior;
 import org.apache.wicket.markup.parser.XmlTag;
 import org.apache.wicket.markup.parser.XmlTag.Type;
 import org.apache.wicket.markup.parser.filter.HtmlHandler;
+import org.apache.wicket.util.lang.Classes;
 import org.apache.wicket.util.string.AppendingStringBuffer;
 import org.apache.wicket.util.string.StringValue;
 import org.apache.wicket.util.string.Strings;
@@ -46,6 +50,8 @@ import org.apache.wicket.util.value.IValueMap;
  */
 public class ComponentTag extends MarkupElement
 {
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Standard component id attribute always available for components regardless of user
 	 * ApplicationSettings for id attribute; value == 'wicket'.
@@ -89,7 +95,7 @@ public class ComponentTag extends MarkupElement
 	 * about the tags origin is lost. In some cases like wicket:head and wicket:link this
 	 * information however is required.
 	 */
-	private WeakReference<Class<? extends Component>> markupClassRef = null;
+	private transient WeakReference<Class<? extends Component>> markupClassRef = null;
 
 	/**
 	 * Tags which are detected to have only an open tag, which is allowed with some HTML tags like
@@ -938,4 +944,19 @@ public class ComponentTag extends MarkupElement
 	public void onBeforeRender(final Component component, final MarkupStream markupStream)
 	{
 	}
+
+	private void writeObject(final ObjectOutputStream out) throws IOException
+	{
+		out.defaultWriteObject();
+		Class<?> markupClass = getMarkupClass();
+		out.writeObject(markupClass == null ? null : markupClass.getName());
+	}
+
+	private void readObject(final ObjectInputStream in) throws IOException,
+		ClassNotFoundException
+	{
+		in.defaultReadObject();
+		Class<Component> markupClass = Classes.resolveClass((String)in.readObject());
+		setMarkupClass(markupClass);
+	}
 }
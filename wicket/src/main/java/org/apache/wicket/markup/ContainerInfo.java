@@ -16,10 +16,15 @@
  */
 package org.apache.wicket.markup;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.lang.ref.WeakReference;
 import java.util.Locale;
 
 import org.apache.wicket.MarkupContainer;
+import org.apache.wicket.util.lang.Classes;
 
 /**
  * Because a Component has reference to its parents, which eventually is the Page, and because the
@@ -29,9 +34,12 @@ import org.apache.wicket.MarkupContainer;
  * 
  * @author Juergen Donnerstag
  */
-public class ContainerInfo
+public class ContainerInfo implements Serializable
 {
-	private final WeakReference<Class<?>> containerClassRef;
+	private static final long serialVersionUID = 1L;
+
+	/** Serialized as the class name */
+	private transient WeakReference<Class<?>> containerClassRef;
 	private final Locale locale;
 	private final String style;
 	private final String variation;
@@ -123,4 +131,19 @@ public class ContainerInfo
 	{
 		return containerClassRef.get().getName() + ":" + locale + ":" + style + ":" + fileExtension;
 	}
+
+	private void writeObject(final ObjectOutputStream out) throws IOException
+	{
+		out.defaultWriteObject();
+		Class<?> containerClass = getContainerClass();
+		out.writeObject(containerClass == null ? null : containerClass.getName());
+	}
+
+	private void readObject(final ObjectInputStream in) throws IOException,
+		ClassNotFoundException
+	{
+		in.defaultReadObject();
+		Class<?> containerClass = Classes.resolveClass((String)in.readObject());
+		containerClassRef = new WeakReference<Class<?>>(containerClass);
+	}
 }
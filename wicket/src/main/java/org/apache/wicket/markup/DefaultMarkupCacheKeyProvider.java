@@ -17,20 +17,33 @@
 package org.apache.wicket.markup;
 
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.wicket.MarkupContainer;
+import org.apache.wicket.util.lang.Objects;
 import org.apache.wicket.util.string.AppendingStringBuffer;
 
-
 /**
  * Wicket default implementation for the cache key used to reference the cached markup resource
  * stream.
+ * <p>
+ * The keys are interned per class: the key for a class, locale, style and markup type is built
+ * only once and the same String instance is returned for every later request, so looking up the
+ * markup of a container doesn't allocate anything.
  * 
  * @author Jonathan Locke
  * @author Juergen Donnerstag
  */
 public class DefaultMarkupCacheKeyProvider implements IMarkupCacheKeyProvider
 {
+	/** Max number of (locale, style, markup type) combinations interned per class */
+	private static final int MAX_KEYS_PER_CLASS = 32;
+
+	private static final CacheKey[] NO_KEYS = new CacheKey[0];
+
+	/** The interned keys by class, arrays are replaced when a key is added */
+	private final ConcurrentHashMap<Class<?>, CacheKey[]> keys = new ConcurrentHashMap<Class<?>, CacheKey[]>();
+
 	/**
 	 * Constructor.
 	 */
@@ -50,12 +63,67 @@ public class DefaultMarkupCacheKeyProvider implements IMarkupCacheKeyProvider
 	 */
 	public String getCacheKey(final MarkupContainer container, final Class<?> clazz)
 	{
-		final String classname = clazz.getName();
 		final Locale locale = container.getLocale();
 		// TODO until now getStyle() == style + variation
 		final String style = container.getStyle();
 		final String markupType = container.getMarkupType();
 
+		CacheKey[] classKeys = keys.get(clazz);
+		if (classKeys != null)
+		{
+			for (int i = 0; i < classKeys.length; i++)
+			{
+				if (classKeys[i].matches(locale, style, markupType))
+				{
+					return classKeys[i].key;
+				}
+			}
+		}
+
+		final String key = newCacheKey(clazz.getName(), locale, style, markupType);
+		intern(clazz, new CacheKey(locale, style, markupType, key));
+		return key;
+	}
+
+	/**
+	 * Adds the key to the keys of the class, unless the class has too many keys already.
+	 * 
+	 * @param clazz
+	 * @param cacheKey
+	 */
+	private void intern(final Class<?> clazz, final CacheKey cacheKey)
+	{
+		while (true)
+		{
+			CacheKey[] current = keys.get(clazz);
+			CacheKey[] base = current != null ? current : NO_KEYS;
+			if (base.length >= MAX_KEYS_PER_CLASS)
+			{
+				return;
+			}
+			CacheKey[] added = new CacheKey[base.length + 1];
+			System.arraycopy(base, 0, added, 0, base.length);
+			added[base.length] = cacheKey;
+			if (current == null ? keys.putIfAbsent(clazz, added) == null : keys.replace(clazz,
+				current, added))
+			{
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Builds the key string.
+	 * 
+	 * @param classname
+	 * @param locale
+	 * @param style
+	 * @param markupType
+	 * @return the key
+	 */
+	private static String newCacheKey(final String classname, final Locale locale,
+		final String style, final String markupType)
+	{
 		final AppendingStringBuffer buffer = new AppendingStringBuffer(classname.length() + 64);
 		buffer.append(classname);
 
@@ -88,4 +156,29 @@ public class DefaultMarkupCacheKeyProvider implements IMarkupCacheKeyProvider
 		buffer.append(markupType);
 		return buffer.toString();
 	}
+
+	/**
+	 * The parts a key is built from and the key itself.
+	 */
+	private static final class CacheKey
+	{
+		private final Locale locale;
+		private final String style;
+		private final String markupType;
+		private final String key;
+
+		private CacheKey(Locale locale, String style, String markupType, String key)
+		{
+			this.locale = locale;
+			this.style = style;
+			this.markupType = markupType;
+			this.key = key;
+		}
+
+		private boolean matches(Locale locale, String style, String markupType)
+		{
+			return Objects.equal(this.locale, locale) && Objects.equal(this.style, style) &&
+				Objects.equal(this.markupType, markupType);
+		}
+	}
 }
@@ -16,6 +16,7 @@
  */
 package org.apache.wicket.markup;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -41,8 +42,10 @@ import org.slf4j.LoggerFactory;
  * 
  * @author Juergen Donnerstag
  */
-public class Markup
+public class Markup implements Serializable
 {
+	private static final long serialVersionUID = 1L;
+
 	private static final Logger log = LoggerFactory.getLogger(Markup.class);
 
 	/** Placeholder that indicates no markup */
@@ -19,7 +19,13 @@ package org.apache.wicket.markup;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.apache.wicket.Application;
 import org.apache.wicket.MarkupContainer;
@@ -30,6 +36,7 @@ import org.apache.wicket.settings.IMarkupSettings;
 import org.apache.wicket.util.listener.IChangeListener;
 import org.apache.wicket.util.resource.IResourceStream;
 import org.apache.wicket.util.resource.ResourceStreamNotFoundException;
+import org.apache.wicket.util.resource.locator.IResourceStreamLocator;
 import org.apache.wicket.util.watch.IModifiable;
 import org.apache.wicket.util.watch.IModificationWatcher;
 import org.apache.wicket.util.watch.ModificationWatcher;
@@ -43,6 +50,9 @@ import org.slf4j.LoggerFactory;
  * If the application is in development mode and a markup file changes, it'll automatically be
  * removed from the cache and reloaded when needed.
  * <p>
+ * Markup is loaded only once per cache key: requests that need markup which is being loaded by
+ * another request wait for that request to finish instead of loading it as well.
+ * <p>
  * MarkupCache is registered with {@link IMarkupSettings} and thus can be replaced with a subclassed
  * version.
  * 
@@ -74,6 +84,9 @@ public class MarkupCache implements IMarkupCache
 	/** The application object */
 	private final Application application;
 
+	/** Markup currently being loaded, by cache key */
+	private final ConcurrentHashMap<String, LoadMarkupTask> loadingMarkup = new ConcurrentHashMap<String, LoadMarkupTask>();
+
 	/**
 	 * Constructor.
 	 * 
@@ -295,42 +308,249 @@ public class MarkupCache implements IMarkupCache
 		Markup markup = (enforceReload == false ? getMarkupFromCache(cacheKey, container) : null);
 		if (markup == null)
 		{
-			if (log.isDebugEnabled())
+			if (cacheKey != null && enforceReload == false)
+			{
+				markup = loadMarkupOnce(container, containerClass, cacheKey);
+			}
+			else
 			{
-				log.debug("Load markup: cacheKey=" + cacheKey);
+				markup = locateAndLoadMarkup(container, containerClass, cacheKey, enforceReload);
 			}
+		}
+		return markup;
+	}
 
-			// Who is going to provide the markup resource stream?
-			// And ask the provider to locate the markup resource stream
-			final IResourceStream resourceStream = getMarkupResourceStreamProvider(container).getMarkupResourceStream(
-				container, containerClass);
+	/**
+	 * Loads the markup unless another thread is already loading the markup for the same cache key,
+	 * in which case the markup loaded by that thread is returned.
+	 * 
+	 * @param container
+	 * @param containerClass
+	 * @param cacheKey
+	 * @return The markup
+	 */
+	private Markup loadMarkupOnce(final MarkupContainer container, final Class<?> containerClass,
+		final String cacheKey)
+	{
+		LoadMarkupTask task = new LoadMarkupTask(new Callable<Markup>()
+		{
+			public Markup call() throws Exception
+			{
+				return locateAndLoadMarkup(container, containerClass, cacheKey, false);
+			}
+		});
 
-			// Found markup?
-			if (resourceStream != null)
+		LoadMarkupTask loading = loadingMarkup.putIfAbsent(cacheKey, task);
+		if (loading == null)
+		{
+			try
 			{
-				final MarkupResourceStream markupResourceStream;
-				if (resourceStream instanceof MarkupResourceStream)
-				{
-					markupResourceStream = (MarkupResourceStream)resourceStream;
-				}
-				else
-				{
-					markupResourceStream = new MarkupResourceStream(resourceStream,
-						new ContainerInfo(container), containerClass);
-				}
+				task.run();
+			}
+			finally
+			{
+				loadingMarkup.remove(cacheKey, task);
+			}
+			loading = task;
+		}
+		else if (loading.thread == Thread.currentThread())
+		{
+			// the markup (indirectly) needs itself, e.g. a custom cache key provider returning the
+			// same key for a base class. Don't wait for ourselves.
+			return locateAndLoadMarkup(container, containerClass, cacheKey, false);
+		}
+		else if (log.isDebugEnabled())
+		{
+			log.debug("Wait for markup being loaded by another thread: cacheKey=" + cacheKey);
+		}
 
-				markupResourceStream.setCacheKey(cacheKey);
+		try
+		{
+			return loading.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new WicketRuntimeException("Interrupted while waiting for markup: " + cacheKey, e);
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException)cause;
+			}
+			if (cause instanceof Error)
+			{
+				throw (Error)cause;
+			}
+			throw new WicketRuntimeException(cause);
+		}
+	}
 
-				// load the markup and watch for changes
-				markup = loadMarkupAndWatchForChanges(container, markupResourceStream,
-					enforceReload);
+	/**
+	 * Locates the markup resource stream and loads the markup.
+	 * 
+	 * @param container
+	 * @param containerClass
+	 * @param cacheKey
+	 * @param enforceReload
+	 * @return The markup
+	 */
+	private Markup locateAndLoadMarkup(final MarkupContainer container,
+		final Class<?> containerClass, final String cacheKey, final boolean enforceReload)
+	{
+		if (log.isDebugEnabled())
+		{
+			log.debug("Load markup: cacheKey=" + cacheKey);
+		}
+
+		// Who is going to provide the markup resource stream?
+		// And ask the provider to locate the markup resource stream
+		final IResourceStream resourceStream = getMarkupResourceStreamProvider(container).getMarkupResourceStream(
+			container, containerClass);
+
+		// Found markup?
+		if (resourceStream != null)
+		{
+			final MarkupResourceStream markupResourceStream;
+			if (resourceStream instanceof MarkupResourceStream)
+			{
+				markupResourceStream = (MarkupResourceStream)resourceStream;
 			}
 			else
 			{
-				markup = onMarkupNotFound(cacheKey, container);
+				markupResourceStream = new MarkupResourceStream(resourceStream,
+					new ContainerInfo(container), containerClass);
+			}
+
+			markupResourceStream.setCacheKey(cacheKey);
+
+			// load the markup and watch for changes
+			return loadMarkupAndWatchForChanges(container, markupResourceStream, enforceReload);
+		}
+		return onMarkupNotFound(cacheKey, container);
+	}
+
+	/**
+	 * Parses the markup file of a container class without a container instance, so that the first
+	 * request that needs it finds it in the cache. Used to warm up the cache when the application
+	 * starts, see {@link MarkupPreloader}.
+	 * <p>
+	 * Only markup that doesn't depend on the container instance is preloaded: markup that extends
+	 * base markup is skipped, as are all classes if the resources are watched for changes or a
+	 * custom markup loader is used.
+	 * 
+	 * @param containerClass
+	 *            The class to load the markup file for
+	 * @param locale
+	 *            The locale to load the markup for
+	 * @param style
+	 *            The style to load the markup for, may be null
+	 * @param markupType
+	 *            The markup type (file extension), e.g. "html"
+	 * @return true if the markup was loaded into the cache
+	 * @throws IOException
+	 * @throws ResourceStreamNotFoundException
+	 */
+	public boolean preloadMarkup(final Class<? extends MarkupContainer> containerClass,
+		final Locale locale, final String style, final String markupType) throws IOException,
+		ResourceStreamNotFoundException
+	{
+		if (application.getResourceSettings().getResourcePollFrequency() != null ||
+			getMarkupLoader().getClass() != DefaultMarkupLoader.class)
+		{
+			return false;
+		}
+
+		final IResourceStreamLocator locator = application.getResourceSettings()
+			.getResourceStreamLocator();
+		IResourceStream resourceStream = locator.locate(containerClass, containerClass.getName()
+			.replace('.', '/'), style, locale, markupType);
+		if (resourceStream == null)
+		{
+			return false;
+		}
+
+		MarkupResourceStream markupResourceStream = new MarkupResourceStream(resourceStream,
+			new ContainerInfo(containerClass, locale, style, null, markupType), containerClass);
+		String locationString = markupResourceStream.locationAsString();
+		if (locationString == null || markupCache.containsKey(locationString))
+		{
+			return false;
+		}
+
+		Markup markup = application.getMarkupSettings()
+			.getMarkupParserFactory()
+			.newMarkupParser(markupResourceStream)
+			.parse();
+		for (int i = 0; i < markup.size(); i++)
+		{
+			MarkupElement element = markup.get(i);
+			if (element instanceof WicketTag && ((WicketTag)element).isExtendTag())
+			{
+				// must be merged with the markup of the base class
+				return false;
 			}
 		}
-		return markup;
+
+		if (log.isDebugEnabled())
+		{
+			log.debug("Preloaded markup: " + locationString);
+		}
+		markupCache.put(locationString, markup);
+		return true;
+	}
+
+	/**
+	 * Gets the markup in the cache by its cache key, without the markup that wasn't found.
+	 * 
+	 * @return cache key to markup
+	 * @see MarkupSnapshot
+	 */
+	final Map<String, Markup> getMarkupByCacheKey()
+	{
+		Map<String, Markup> result = new LinkedHashMap<String, Markup>();
+		for (Iterator<CharSequence> i = markupKeyCache.getKeys().iterator(); i.hasNext();)
+		{
+			CharSequence cacheKey = i.next();
+			CharSequence locationString = markupKeyCache.get(cacheKey);
+			Markup markup = locationString == null ? null : markupCache.get(locationString);
+			if (markup != null && markup != Markup.NO_MARKUP)
+			{
+				result.put(cacheKey.toString(), markup);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Puts markup that was loaded by another cache into this cache, unless markup for the cache key
+	 * has already been loaded. Like {@link #preloadMarkup(Class, Locale, String, String)} this does
+	 * nothing if the resources are watched for changes.
+	 * 
+	 * @param cacheKey
+	 * @param markup
+	 * @return true if the markup was put into the cache
+	 * @see MarkupSnapshot
+	 */
+	final boolean putLoadedMarkup(final String cacheKey, final Markup markup)
+	{
+		if (application.getResourceSettings().getResourcePollFrequency() != null)
+		{
+			return false;
+		}
+		String locationString = markup.locationAsString();
+		if (locationString == null || markupKeyCache.containsKey(cacheKey))
+		{
+			return false;
+		}
+		if (markupCache.containsKey(locationString) == false)
+		{
+			markupCache.put(locationString, markup);
+		}
+		markupKeyCache.put(cacheKey, locationString);
+		return true;
 	}
 
 	/**
@@ -704,6 +924,19 @@ public class MarkupCache implements IMarkupCache
 		void shutdown();
 	}
 
+	/**
+	 * Markup being loaded by a thread.
+	 */
+	private static final class LoadMarkupTask extends FutureTask<Markup>
+	{
+		private final Thread thread = Thread.currentThread();
+
+		private LoadMarkupTask(Callable<Markup> callable)
+		{
+			super(callable);
+		}
+	}
+
 	/**
 	 * @param <K>
 	 * @param <V>
@@ -16,6 +16,8 @@
  */
 package org.apache.wicket.markup;
 
+import java.io.Serializable;
+
 /**
  * Base class for different kinds of markup elements. Markup elements are held in a Markup container
  * object.
@@ -32,8 +34,10 @@ package org.apache.wicket.markup;
  * @see ComponentTag
  * @author Jonathan Locke
  */
-public abstract class MarkupElement
+public abstract class MarkupElement implements Serializable
 {
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Constructor.
 	 */
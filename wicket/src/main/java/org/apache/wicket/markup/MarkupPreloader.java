@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.markup;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.wicket.Application;
+import org.apache.wicket.MarkupContainer;
+import org.apache.wicket.WicketRuntimeException;
+import org.apache.wicket.request.IRequestTargetMountsInfo;
+import org.apache.wicket.request.target.coding.BookmarkablePageRequestTargetUrlCodingStrategy;
+import org.apache.wicket.request.target.coding.IRequestTargetUrlCodingStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the markup of a set of container classes into the {@link MarkupCache} in parallel, so
+ * that the first requests after the application started don't have to parse it.
+ *
+ * @see MarkupCache#preloadMarkup(Class, Locale, String, String)
+ * @see org.apache.wicket.settings.IMarkupSettings#setMarkupPreloadThreads(int)
+ */
+public class MarkupPreloader
+{
+	/** Log for reporting. */
+	private static final Logger log = LoggerFactory.getLogger(MarkupPreloader.class);
+
+	private final Application application;
+
+	private final Set<Class<? extends MarkupContainer>> classes = new LinkedHashSet<Class<? extends MarkupContainer>>();
+
+	/**
+	 * Construct.
+	 *
+	 * @param application
+	 */
+	public MarkupPreloader(Application application)
+	{
+		this.application = application;
+	}
+
+	/**
+	 * Adds a class of which the markup must be loaded.
+	 *
+	 * @param containerClass
+	 * @return this
+	 */
+	public MarkupPreloader add(Class<? extends MarkupContainer> containerClass)
+	{
+		if (containerClass != null)
+		{
+			classes.add(containerClass);
+		}
+		return this;
+	}
+
+	/**
+	 * Adds the classes of all mounted bookmarkable pages.
+	 *
+	 * @param mounts
+	 * @return this
+	 */
+	public MarkupPreloader addMounts(IRequestTargetMountsInfo mounts)
+	{
+		IRequestTargetUrlCodingStrategy[] strategies = mounts.listMounts();
+		for (int i = 0; i < strategies.length; i++)
+		{
+			if (strategies[i] instanceof BookmarkablePageRequestTargetUrlCodingStrategy)
+			{
+				add(((BookmarkablePageRequestTargetUrlCodingStrategy)strategies[i]).getBookmarkablePageClass());
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * @return the classes of which the markup will be loaded
+	 */
+	public Set<Class<? extends MarkupContainer>> getClasses()
+	{
+		return classes;
+	}
+
+	/**
+	 * Loads the markup of all classes and waits until it is loaded. Markup that can't be loaded is
+	 * skipped; it will be loaded by the first request that needs it.
+	 *
+	 * @param threads
+	 *            number of threads to use
+	 * @return number of markup files loaded into the cache
+	 */
+	public int preload(int threads)
+	{
+		IMarkupCache markupCache = application.getMarkupSettings().getMarkupCache();
+		if (!(markupCache instanceof MarkupCache) || classes.isEmpty())
+		{
+			return 0;
+		}
+		final MarkupCache cache = (MarkupCache)markupCache;
+		final Locale locale = Locale.getDefault();
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads),
+			new PreloadThreadFactory(application.getName()));
+		try
+		{
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(classes.size());
+			for (Iterator<Class<? extends MarkupContainer>> i = classes.iterator(); i.hasNext();)
+			{
+				final Class<? extends MarkupContainer> containerClass = i.next();
+				results.add(executor.submit(new Callable<Boolean>()
+				{
+					public Boolean call() throws Exception
+					{
+						Application.set(application);
+						try
+						{
+							return Boolean.valueOf(cache.preloadMarkup(containerClass, locale,
+								null, "html"));
+						}
+						catch (Exception e)
+						{
+							log.debug("Unable to preload markup of " + containerClass.getName(), e);
+							return Boolean.FALSE;
+						}
+						finally
+						{
+							Application.unset();
+						}
+					}
+				}));
+			}
+
+			int loaded = 0;
+			for (Iterator<Future<Boolean>> i = results.iterator(); i.hasNext();)
+			{
+				if (i.next().get().booleanValue())
+				{
+					loaded++;
+				}
+			}
+			return loaded;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new WicketRuntimeException("Interrupted while preloading markup", e);
+		}
+		catch (ExecutionException e)
+		{
+			throw new WicketRuntimeException(e.getCause());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	private static final class PreloadThreadFactory implements ThreadFactory
+	{
+		private final String applicationName;
+		private final AtomicInteger count = new AtomicInteger();
+
+		private PreloadThreadFactory(String applicationName)
+		{
+			this.applicationName = applicationName;
+		}
+
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "Wicket-MarkupPreloader-" + applicationName +
+				"-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -16,6 +16,8 @@
  */
 package org.apache.wicket.markup;
 
+import java.io.Serializable;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,8 +35,10 @@ import org.slf4j.LoggerFactory;
  * @TODO 1.5 It is confusing to have MarkupResourceStream and MarkupResourceData. MRA should be
  *       moved into MRS
  */
-public class MarkupResourceData
+public class MarkupResourceData implements Serializable
 {
+	private static final long serialVersionUID = 1L;
+
 	private static final Logger log = LoggerFactory.getLogger(MarkupResourceData.class);
 
 	/** Placeholder that indicates no markup */
@@ -38,7 +38,7 @@ public class MarkupResourceStream implements IResourceStream, IFixedLocationReso
 	private static final long serialVersionUID = 1846489965076612828L;
 
 	/** The associated markup resource stream */
-	private final IResourceStream resourceStream;
+	private IResourceStream resourceStream;
 
 	/**
 	 * Container info like Class, locale and style which were used to locate the resource
@@ -177,6 +177,22 @@ public class MarkupResourceStream implements IResourceStream, IFixedLocationReso
 		return Classes.resolveClass(markupClassName);
 	}
 
+	/**
+	 * Replaces the associated resource stream with the same resource located again, e.g. on
+	 * another machine.
+	 * 
+	 * @param resourceStream
+	 * @see MarkupSnapshot
+	 */
+	final void setResourceStream(final IResourceStream resourceStream)
+	{
+		if (resourceStream == null)
+		{
+			throw new IllegalArgumentException("Parameter 'resourceStream' must not be null");
+		}
+		this.resourceStream = resourceStream;
+	}
+
 	/**
 	 * Get the container info associated with the markup
 	 * 
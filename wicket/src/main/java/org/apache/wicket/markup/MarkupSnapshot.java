@@ -0,0 +1,384 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.markup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.wicket.Application;
+import org.apache.wicket.util.io.IOUtils;
+import org.apache.wicket.util.lang.Classes;
+import org.apache.wicket.util.resource.IResourceStream;
+import org.apache.wicket.util.resource.ResourceStreamNotFoundException;
+import org.apache.wicket.util.resource.locator.IResourceStreamLocator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves the parsed and merged markup in the {@link MarkupCache} to a compressed binary snapshot,
+ * and loads such a snapshot into the markup cache, so that a freshly started application doesn't
+ * have to parse the markup again. A snapshot can be written at build time, e.g. after rendering
+ * all pages with the WicketTester, or by a running application after it warmed up. It is loaded
+ * in {@link Application#init()}:
+ *
+ * <pre>
+ * InputStream in = getServletContext().getResourceAsStream(&quot;/WEB-INF/markup.snapshot&quot;);
+ * if (in != null)
+ * {
+ * 	new MarkupSnapshot(this).read(in);
+ * }
+ * </pre>
+ *
+ * Each markup file is located again when the snapshot is loaded, and its content must have the
+ * same checksum as when the snapshot was written; otherwise the markup is skipped and parsed when
+ * it is first needed. Markup that isn't located by class, e.g. markup provided by an
+ * {@link IMarkupResourceStreamProvider}, is never loaded from a snapshot. Like
+ * {@link MarkupCache#preloadMarkup(Class, java.util.Locale, String, String) preloaded} markup, a
+ * snapshot is not loaded if the resources are watched for changes.
+ */
+public class MarkupSnapshot
+{
+	/** Log for reporting. */
+	private static final Logger log = LoggerFactory.getLogger(MarkupSnapshot.class);
+
+	/** Version of the snapshot format */
+	private static final int VERSION = 1;
+
+	private final Application application;
+
+	/**
+	 * Construct.
+	 *
+	 * @param application
+	 */
+	public MarkupSnapshot(Application application)
+	{
+		this.application = application;
+	}
+
+	/**
+	 * Writes the markup in the cache to a snapshot. The stream is closed.
+	 *
+	 * @param out
+	 * @return number of markup entries written
+	 * @throws IOException
+	 */
+	public int write(final OutputStream out) throws IOException
+	{
+		List<Entry> entries = new ArrayList<Entry>();
+		MarkupCache cache = getMarkupCache();
+		if (cache != null)
+		{
+			Map<String, Markup> markup = cache.getMarkupByCacheKey();
+			for (Iterator<Map.Entry<String, Markup>> i = markup.entrySet().iterator(); i.hasNext();)
+			{
+				Map.Entry<String, Markup> entry = i.next();
+				long[] checksums = getChecksums(entry.getValue());
+				if (checksums != null)
+				{
+					entries.add(new Entry(entry.getKey(), entry.getValue(), checksums));
+				}
+			}
+		}
+
+		ObjectOutputStream oos = new ObjectOutputStream(new GZIPOutputStream(out));
+		try
+		{
+			oos.writeInt(VERSION);
+			oos.writeObject(entries);
+		}
+		finally
+		{
+			oos.close();
+		}
+		if (log.isDebugEnabled())
+		{
+			log.debug("Wrote " + entries.size() + " markup entries to the snapshot");
+		}
+		return entries.size();
+	}
+
+	/**
+	 * Loads the markup of a snapshot into the cache. The stream is closed. A snapshot that can't be
+	 * read, e.g. because it was written by another Wicket version, is ignored.
+	 *
+	 * @param in
+	 * @return number of markup entries loaded into the cache
+	 */
+	@SuppressWarnings("unchecked")
+	public int read(final InputStream in)
+	{
+		MarkupCache cache = getMarkupCache();
+		if (cache == null || application.getResourceSettings().getResourcePollFrequency() != null)
+		{
+			IOUtils.closeQuietly(in);
+			return 0;
+		}
+
+		List<Entry> entries;
+		ObjectInputStream ois = null;
+		try
+		{
+			ois = new SnapshotInputStream(new GZIPInputStream(in));
+			if (ois.readInt() != VERSION)
+			{
+				log.info("Ignoring markup snapshot of another version");
+				return 0;
+			}
+			entries = (List<Entry>)ois.readObject();
+		}
+		catch (Exception e)
+		{
+			log.warn("Ignoring markup snapshot that can't be read: " + e.getMessage());
+			return 0;
+		}
+		finally
+		{
+			IOUtils.closeQuietly(ois != null ? ois : in);
+		}
+
+		int loaded = 0;
+		for (Iterator<Entry> i = entries.iterator(); i.hasNext();)
+		{
+			Entry entry = i.next();
+			if (relocate(entry.markup, entry.checksums) &&
+				cache.putLoadedMarkup(entry.cacheKey, entry.markup))
+			{
+				loaded++;
+			}
+			else if (log.isDebugEnabled())
+			{
+				log.debug("Markup of the snapshot not loaded: " + entry.cacheKey);
+			}
+		}
+		if (log.isDebugEnabled())
+		{
+			log.debug("Loaded " + loaded + " of " + entries.size() +
+				" markup entries from the snapshot");
+		}
+		return loaded;
+	}
+
+	private MarkupCache getMarkupCache()
+	{
+		IMarkupCache cache = application.getMarkupSettings().getMarkupCache();
+		return cache instanceof MarkupCache ? (MarkupCache)cache : null;
+	}
+
+	/**
+	 * @param markup
+	 * @return the checksums of the resources of the markup and its base markup, or null if they
+	 *         can't be located again
+	 */
+	private long[] getChecksums(final Markup markup)
+	{
+		List<MarkupResourceStream> resources = getResources(markup);
+		if (resources == null)
+		{
+			return null;
+		}
+		long[] checksums = new long[resources.size()];
+		for (int i = 0; i < checksums.length; i++)
+		{
+			checksums[i] = checksum(resources.get(i));
+			if (checksums[i] < 0)
+			{
+				return null;
+			}
+		}
+		return checksums;
+	}
+
+	/**
+	 * Locates the resources of the markup and attaches them to the markup if they didn't change.
+	 *
+	 * @param markup
+	 * @param checksums
+	 * @return true if all resources were found and are unchanged
+	 */
+	private boolean relocate(final Markup markup, final long[] checksums)
+	{
+		List<MarkupResourceStream> resources = getResources(markup);
+		if (resources == null || resources.size() != checksums.length)
+		{
+			return false;
+		}
+
+		IResourceStreamLocator locator = application.getResourceSettings()
+			.getResourceStreamLocator();
+		List<IResourceStream> located = new ArrayList<IResourceStream>(checksums.length);
+		for (int i = 0; i < checksums.length; i++)
+		{
+			MarkupResourceStream resource = resources.get(i);
+			ContainerInfo info = resource.getContainerInfo();
+			Class<?> markupClass = resource.getMarkupClass();
+			if (info.getContainerClass() == null || markupClass == null)
+			{
+				return false;
+			}
+
+			// the same way DefaultMarkupResourceStreamProvider locates it
+			IResourceStream stream = locator.locate(info.getContainerClass(),
+				markupClass.getName().replace('.', '/'), info.getStyle(), info.getLocale(),
+				info.getFileExtension());
+			if (stream == null ||
+				checksum(new MarkupResourceStream(stream, info, markupClass)) != checksums[i])
+			{
+				return false;
+			}
+			located.add(stream);
+		}
+
+		for (int i = 0; i < checksums.length; i++)
+		{
+			resources.get(i).setResourceStream(located.get(i));
+		}
+		return true;
+	}
+
+	/**
+	 * @param markup
+	 * @return the resources of the markup and its base markup, or null if one of them wasn't
+	 *         located by class
+	 */
+	private static List<MarkupResourceStream> getResources(Markup markup)
+	{
+		List<MarkupResourceStream> resources = new ArrayList<MarkupResourceStream>();
+		while (markup != null)
+		{
+			MarkupResourceStream resource = markup.getMarkupResourceData().getResource();
+			if (resource == null || resource.getContainerInfo() == null ||
+				resource.getMarkupClass() == null)
+			{
+				return null;
+			}
+			resources.add(resource);
+			markup = markup.getMarkupResourceData().getBaseMarkup();
+		}
+		return resources;
+	}
+
+	/**
+	 * @param resource
+	 * @return CRC32 of the content of the resource, or -1 if it can't be read
+	 */
+	private static long checksum(final MarkupResourceStream resource)
+	{
+		// the stream may still hold the input stream the markup was parsed from
+		close(resource);
+
+		InputStream in = null;
+		try
+		{
+			in = resource.getInputStream();
+			CRC32 crc = new CRC32();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+			{
+				crc.update(buffer, 0, read);
+			}
+			return crc.getValue();
+		}
+		catch (IOException e)
+		{
+			return -1;
+		}
+		catch (ResourceStreamNotFoundException e)
+		{
+			return -1;
+		}
+		finally
+		{
+			IOUtils.closeQuietly(in);
+			close(resource);
+		}
+	}
+
+	private static void close(final MarkupResourceStream resource)
+	{
+		try
+		{
+			resource.close();
+		}
+		catch (IOException e)
+		{
+			log.debug("Unable to close " + resource, e);
+		}
+	}
+
+	/**
+	 * Markup of a cache key, and the checksums of its resources.
+	 */
+	private static final class Entry implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String cacheKey;
+		private final Markup markup;
+		private final long[] checksums;
+
+		private Entry(final String cacheKey, final Markup markup, final long[] checksums)
+		{
+			this.cacheKey = cacheKey;
+			this.markup = markup;
+			this.checksums = checksums;
+		}
+	}
+
+	/**
+	 * Resolves classes with the application's class resolver.
+	 */
+	private static final class SnapshotInputStream extends ObjectInputStream
+	{
+		private SnapshotInputStream(final InputStream in) throws IOException
+		{
+			super(in);
+		}
+
+		@Override
+		protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException,
+			ClassNotFoundException
+		{
+			try
+			{
+				return super.resolveClass(desc);
+			}
+			catch (ClassNotFoundException e)
+			{
+				Class<?> clazz = Classes.resolveClass(desc.getName());
+				if (clazz == null)
+				{
+					throw e;
+				}
+				return clazz;
+			}
+		}
+	}
+}
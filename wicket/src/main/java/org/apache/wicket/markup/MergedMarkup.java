@@ -45,6 +45,8 @@ import org.slf4j.LoggerFactory;
  */
 public class MergedMarkup extends Markup
 {
+	private static final long serialVersionUID = 1L;
+
 	private final static Logger log = LoggerFactory.getLogger(MergedMarkup.class);
 
 	/**
@@ -16,6 +16,8 @@
  */
 package org.apache.wicket.markup;
 
+import java.io.UnsupportedEncodingException;
+
 /**
  * This class is for framework purposes only, which is why the class is (default) protected.
  * <p>
@@ -26,9 +28,14 @@ package org.apache.wicket.markup;
  */
 public final class RawMarkup extends MarkupElement
 {
+	private static final long serialVersionUID = 1L;
+
 	/** The raw markup string * */
 	private final CharSequence string;
 
+	/** The raw markup encoded in the charset it was last requested in */
+	private transient volatile EncodedMarkup encoded;
+
 	/**
 	 * Create a RawMarkup element referencing an uninterpreted markup string.
 	 * 
@@ -96,6 +103,26 @@ public final class RawMarkup extends MarkupElement
 		return string;
 	}
 
+	/**
+	 * Gets the raw markup encoded in a charset. The bytes are kept for the next request for the
+	 * same charset, so don't modify them.
+	 * 
+	 * @param charset
+	 *            The charset
+	 * @return The encoded markup
+	 * @throws UnsupportedEncodingException
+	 */
+	public byte[] getBytes(final String charset) throws UnsupportedEncodingException
+	{
+		EncodedMarkup result = encoded;
+		if (result == null || !result.charset.equals(charset))
+		{
+			result = new EncodedMarkup(charset, string.toString().getBytes(charset));
+			encoded = result;
+		}
+		return result.bytes;
+	}
+
 	/**
 	 * @return This raw markup string
 	 */
@@ -113,4 +140,19 @@ public final class RawMarkup extends MarkupElement
 	{
 		return "[Raw markup]";
 	}
+
+	/**
+	 * Raw markup encoded in a charset.
+	 */
+	private static final class EncodedMarkup
+	{
+		private final String charset;
+		private final byte[] bytes;
+
+		private EncodedMarkup(final String charset, final byte[] bytes)
+		{
+			this.charset = charset;
+			this.bytes = bytes;
+		}
+	}
 }
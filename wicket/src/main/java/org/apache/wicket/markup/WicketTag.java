@@ -32,6 +32,8 @@ import org.apache.wicket.markup.parser.XmlTag;
  */
 public class WicketTag extends ComponentTag
 {
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Constructor
 	 * 
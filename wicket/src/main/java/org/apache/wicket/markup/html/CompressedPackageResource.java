@@ -250,7 +250,8 @@ public class CompressedPackageResource extends PackageResource
 	 */
 	protected IResourceStream getPackageResourceStream()
 	{
-		return CompressedPackageResource.super.getResourceStream();
+		// not from the package resource cache, the compressing stream is cached as a whole
+		return getResourceStream(true);
 	}
 
 	/**
@@ -262,6 +263,19 @@ public class CompressedPackageResource extends PackageResource
 	@Override
 	public IResourceStream getResourceStream()
 	{
+		final PackageResourceCache cache = Application.get()
+			.getResourceSettings()
+			.getPackageResourceCache();
+		if (cache != null && resourceStream instanceof CompressingResourceStream)
+		{
+			final IResourceStream cached = cache.getResourceStream(getCacheKey(),
+				((CompressingResourceStream)resourceStream).getOriginalResourceStream(),
+				supportsCompression());
+			if (cached != null)
+			{
+				return cached;
+			}
+		}
 		return resourceStream;
 	}
 
@@ -286,6 +300,19 @@ public class CompressedPackageResource extends PackageResource
 		}
 	}
 
+	/**
+	 * @see org.apache.wicket.markup.html.PackageResource#getETag(java.lang.String)
+	 */
+	@Override
+	protected String getETag(String fingerprint)
+	{
+		if (supportsCompression())
+		{
+			return "\"" + fingerprint + "-gzip\"";
+		}
+		return super.getETag(fingerprint);
+	}
+
 	/**
 	 * @see org.apache.wicket.markup.html.WebResource#setHeaders(org.apache.wicket.protocol.http.WebResponse)
 	 */
@@ -293,6 +320,8 @@ public class CompressedPackageResource extends PackageResource
 	protected void setHeaders(WebResponse response)
 	{
 		super.setHeaders(response);
+		// caches must not serve the compressed content to clients that don't support it
+		response.setHeader("Vary", "Accept-Encoding");
 		if (supportsCompression())
 		{
 			response.setHeader("Content-Encoding", "gzip");
@@ -18,11 +18,14 @@ package org.apache.wicket.markup.html;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.JarURLConnection;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
@@ -39,13 +42,17 @@ import org.apache.wicket.RequestCycle;
 import org.apache.wicket.SharedResources;
 import org.apache.wicket.WicketRuntimeException;
 import org.apache.wicket.protocol.http.WebRequestCycle;
+import org.apache.wicket.protocol.http.WebResponse;
 import org.apache.wicket.protocol.http.servlet.AbortWithWebErrorCodeException;
 import org.apache.wicket.settings.IResourceSettings;
+import org.apache.wicket.util.io.IOUtils;
 import org.apache.wicket.util.lang.Classes;
+import org.apache.wicket.util.lang.Objects;
 import org.apache.wicket.util.lang.PackageName;
 import org.apache.wicket.util.lang.Packages;
 import org.apache.wicket.util.resource.IFixedLocationResourceStream;
 import org.apache.wicket.util.resource.IResourceStream;
+import org.apache.wicket.util.resource.ResourceStreamNotFoundException;
 import org.apache.wicket.util.string.Strings;
 import org.apache.wicket.util.time.Time;
 import org.apache.wicket.util.watch.IModifiable;
@@ -109,6 +116,16 @@ public class PackageResource extends WebResource implements IModifiable, IPackag
 	@Deprecated
 	public static final Pattern EXTENSION_JS = Pattern.compile(".*\\.js");
 
+	/**
+	 * Name of the URL parameter with the hash of the content.
+	 * 
+	 * @see IResourceSettings#setFingerprintPackageResourceUrls(boolean)
+	 */
+	public static final String FINGERPRINT_PARAMETER = "w:fp";
+
+	/** Seconds a response to a URL with the hash of the content may be cached: one year */
+	public static final int FINGERPRINT_CACHE_DURATION = 365 * 24 * 60 * 60;
+
 	/** log. */
 	private static final Logger log = LoggerFactory.getLogger(PackageResource.class);
 
@@ -558,7 +575,28 @@ public class PackageResource extends WebResource implements IModifiable, IPackag
 	@Override
 	public IResourceStream getResourceStream()
 	{
-		return getResourceStream(true);
+		final IResourceStream resourceStream = getResourceStream(true);
+		final PackageResourceCache cache = Application.get()
+			.getResourceSettings()
+			.getPackageResourceCache();
+		if (cache != null)
+		{
+			final IResourceStream cached = cache.getResourceStream(getCacheKey(),
+				resourceStream, false);
+			if (cached != null)
+			{
+				return cached;
+			}
+		}
+		return resourceStream;
+	}
+
+	/**
+	 * @return the key of the content of this resource in the {@link PackageResourceCache}
+	 */
+	final String getCacheKey()
+	{
+		return getClass().getName() + ':' + absolutePath + ':' + locale + ':' + style;
 	}
 
 	/**
@@ -682,6 +720,188 @@ public class PackageResource extends WebResource implements IModifiable, IPackag
 
 	}
 
+	private transient volatile Fingerprint fingerprint = null;
+
+	/**
+	 * Gets the hash of the content of the resource. It is computed once, and again only if the
+	 * resources are watched for changes and the resource was modified.
+	 * 
+	 * @return hex encoded MD5 hash of the content, or null if the resource can't be read
+	 */
+	public final String getFingerprint()
+	{
+		Fingerprint current = fingerprint;
+		if (current == null || (isWatched() && !Objects.equal(current.lastModified,
+			lastModifiedTime())))
+		{
+			current = newFingerprint();
+			fingerprint = current;
+		}
+		return current != null ? current.hash : null;
+	}
+
+	/**
+	 * @return whether the resources are watched for changes
+	 */
+	private static boolean isWatched()
+	{
+		return Application.get().getResourceSettings().getResourcePollFrequency() != null;
+	}
+
+	/**
+	 * Gets the ETag of a response with the given content hash. Subclasses that serve the content
+	 * in several encodings must return a different tag for each encoding.
+	 * 
+	 * @param fingerprint
+	 *            the hash of the content
+	 * @return the quoted ETag
+	 */
+	protected String getETag(final String fingerprint)
+	{
+		return "\"" + fingerprint + "\"";
+	}
+
+	/**
+	 * Gets the tag of an If-None-Match header that matches the current content of the resource.
+	 * The tags of all encodings of the content match.
+	 * 
+	 * @param ifNoneMatch
+	 *            the value of the If-None-Match header
+	 * @return the matching tag, or null if no tag matches the content
+	 */
+	public final String getMatchingETag(final String ifNoneMatch)
+	{
+		final String fingerprint = getFingerprint();
+		if (fingerprint == null || ifNoneMatch == null)
+		{
+			return null;
+		}
+		final String[] tags = Strings.split(ifNoneMatch, ',');
+		for (int i = 0; i < tags.length; i++)
+		{
+			String tag = tags[i].trim();
+			if (tag.startsWith("W/"))
+			{
+				tag = tag.substring(2);
+			}
+			// the hash may be followed by the encoding
+			if (tag.startsWith("\"" + fingerprint) && tag.endsWith("\"") &&
+				(tag.length() == fingerprint.length() + 2 ||
+					tag.charAt(fingerprint.length() + 1) == '-'))
+			{
+				return tag;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @see org.apache.wicket.markup.html.WebResource#setHeaders(org.apache.wicket.protocol.http.WebResponse)
+	 */
+	@Override
+	protected void setHeaders(WebResponse response)
+	{
+		super.setHeaders(response);
+		if (isCacheable() &&
+			Application.get().getResourceSettings().getFingerprintPackageResourceUrls())
+		{
+			String fingerprint = getFingerprint();
+			if (fingerprint != null)
+			{
+				response.setHeader("ETag", getETag(fingerprint));
+				if (fingerprint.equals(getParameters().getString(FINGERPRINT_PARAMETER)))
+				{
+					// the URL changes with the content
+					response.setDateHeader("Expires", System.currentTimeMillis() +
+						FINGERPRINT_CACHE_DURATION * 1000L);
+					response.setHeader("Cache-Control", "public,max-age=" +
+						FINGERPRINT_CACHE_DURATION + ",immutable");
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the hash of the current content, or null if the resource can't be read
+	 */
+	private Fingerprint newFingerprint()
+	{
+		final IResourceStream resourceStream;
+		try
+		{
+			resourceStream = getResourceStream(false);
+		}
+		catch (PackageResourceBlockedException e)
+		{
+			return null;
+		}
+		if (resourceStream == null)
+		{
+			return null;
+		}
+
+		InputStream in = null;
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			in = resourceStream.getInputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+			{
+				digest.update(buffer, 0, read);
+			}
+			byte[] hash = digest.digest();
+			StringBuilder hex = new StringBuilder(hash.length * 2);
+			for (int i = 0; i < hash.length; i++)
+			{
+				hex.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+				hex.append(Character.forDigit(hash[i] & 0xF, 16));
+			}
+			return new Fingerprint(hex.toString(), resourceStream.lastModifiedTime());
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new WicketRuntimeException(e);
+		}
+		catch (IOException e)
+		{
+			log.warn("Unable to compute the hash of " + this, e);
+			return null;
+		}
+		catch (ResourceStreamNotFoundException e)
+		{
+			return null;
+		}
+		finally
+		{
+			IOUtils.closeQuietly(in);
+			try
+			{
+				resourceStream.close();
+			}
+			catch (IOException e)
+			{
+				log.debug("Unable to close " + resourceStream, e);
+			}
+		}
+	}
+
+	/**
+	 * The hash of the content, and the last modified time of the content it was computed from.
+	 */
+	private static final class Fingerprint
+	{
+		private final String hash;
+		private final Time lastModified;
+
+		private Fingerprint(final String hash, final Time lastModified)
+		{
+			this.hash = hash;
+			this.lastModified = lastModified;
+		}
+	}
+
 	/**
 	 * @see org.apache.wicket.markup.html.IPackageResourceGuard#accept(java.lang.Class,
 	 *      java.lang.String)
@@ -0,0 +1,461 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.markup.html;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.wicket.WicketRuntimeException;
+import org.apache.wicket.util.io.IOUtils;
+import org.apache.wicket.util.io.Streams;
+import org.apache.wicket.util.lang.Bytes;
+import org.apache.wicket.util.lang.Objects;
+import org.apache.wicket.util.resource.IResourceStream;
+import org.apache.wicket.util.resource.IResourceStreamWriter;
+import org.apache.wicket.util.resource.ResourceStreamNotFoundException;
+import org.apache.wicket.util.time.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the content of package resources in memory, as is and gzip compressed, so they are served
+ * without reading and compressing them again. The cache holds up to a maximum number of bytes; the
+ * least recently used content is dropped when it is full. A resource that is larger than a quarter
+ * of the maximum is not cached, so a single large resource can't push out all others. Unlike the
+ * soft references {@link CompressedPackageResource} uses otherwise, the content is only dropped
+ * when the cache is full, not whenever memory gets low.
+ * <p>
+ * The cache is enabled with
+ * 
+ * <pre>
+ * getResourceSettings().setPackageResourceCache(new PackageResourceCache(Bytes.megabytes(16)));
+ * </pre>
+ * 
+ * The content is read and compressed when it is first requested. If the resources are watched for
+ * changes, content is read again when its last modified time changed. The resources are spread
+ * over a number of segments with their own lock, so requests for different resources seldom wait
+ * for each other.
+ */
+public class PackageResourceCache
+{
+	/** Log. */
+	private static final Logger log = LoggerFactory.getLogger(PackageResourceCache.class);
+
+	private static final int SEGMENTS = 16;
+
+	/** Maximum number of bytes held */
+	private final long maxSize;
+
+	/** Content by resource key, each segment has the least recently used content first */
+	private final Segment[] segments;
+
+	/** Number of bytes held */
+	private final AtomicLong size = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Construct.
+	 * 
+	 * @param maxSize
+	 *            maximum number of bytes to hold
+	 */
+	public PackageResourceCache(final Bytes maxSize)
+	{
+		this.maxSize = maxSize.bytes();
+		segments = new Segment[SEGMENTS];
+		for (int i = 0; i < segments.length; i++)
+		{
+			segments[i] = new Segment();
+		}
+	}
+
+	/**
+	 * Gets a stream that serves the content of the given stream from memory, and writes it
+	 * directly to the response.
+	 * 
+	 * @param key
+	 *            the key of the resource
+	 * @param stream
+	 *            the stream of the resource
+	 * @param compressed
+	 *            whether to serve the gzip compressed content
+	 * @return a stream with the cached content, or null if the resource is too large to be cached
+	 */
+	public IResourceStream getResourceStream(final String key, final IResourceStream stream,
+		final boolean compressed)
+	{
+		final byte[] content = getContent(key, stream, compressed);
+		return content != null ? new CachedResourceStream(stream, content) : null;
+	}
+
+	/**
+	 * Gets the content of the stream of a resource, reading it if it isn't cached yet or if it
+	 * changed.
+	 * 
+	 * @param key
+	 *            the key of the resource
+	 * @param stream
+	 *            the stream of the resource
+	 * @param compressed
+	 *            whether to get the gzip compressed content
+	 * @return the content, or null if the resource is too large to be cached
+	 */
+	public byte[] getContent(final String key, final IResourceStream stream,
+		final boolean compressed)
+	{
+		final Time lastModified = stream.lastModifiedTime();
+		final Segment segment = segment(key);
+		Entry entry;
+		synchronized (segment)
+		{
+			entry = segment.get(key);
+			if (entry != null && !Objects.equal(entry.lastModified, lastModified))
+			{
+				entry = null;
+			}
+			byte[] content = entry == null ? null : compressed ? entry.compressed : entry.content;
+			if (content != null)
+			{
+				entry.lastUsed = System.nanoTime();
+				hits.incrementAndGet();
+				return content;
+			}
+		}
+		misses.incrementAndGet();
+
+		final long length = stream.length();
+		if (length < 0 || length > maxSize / 4)
+		{
+			return null;
+		}
+
+		// read outside of the lock, another thread may do the same
+		byte[] content = entry != null ? entry.content : read(stream);
+		if (content.length > maxSize / 4)
+		{
+			return null;
+		}
+		byte[] compressedContent = entry != null ? entry.compressed : null;
+		if (compressed)
+		{
+			compressedContent = compress(content);
+		}
+		put(key, new Entry(lastModified, content, compressedContent));
+		return compressed ? compressedContent : content;
+	}
+
+	/**
+	 * Drops all content.
+	 */
+	public void clear()
+	{
+		for (int i = 0; i < segments.length; i++)
+		{
+			synchronized (segments[i])
+			{
+				for (Entry entry : segments[i].values())
+				{
+					size.addAndGet(-entry.size());
+				}
+				segments[i].clear();
+			}
+		}
+	}
+
+	/**
+	 * @return number of bytes held
+	 */
+	public long getSize()
+	{
+		return size.get();
+	}
+
+	/**
+	 * @return number of requests for content that was cached
+	 */
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	/**
+	 * @return number of requests for content that had to be read or compressed
+	 */
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString()
+	{
+		int resources = 0;
+		for (int i = 0; i < segments.length; i++)
+		{
+			synchronized (segments[i])
+			{
+				resources += segments[i].size();
+			}
+		}
+		return "[PackageResourceCache resources = " + resources + ", size = " +
+			Bytes.bytes(size.get()) + ", maxSize = " + Bytes.bytes(maxSize) + ", hits = " +
+			hits.get() + ", misses = " + misses.get() + "]";
+	}
+
+	private Segment segment(final String key)
+	{
+		int hash = key.hashCode();
+		// spread the bits, string hash codes often differ in the low bits only
+		hash ^= (hash >>> 16);
+		hash ^= (hash >>> 7);
+		return segments[(hash & Integer.MAX_VALUE) % segments.length];
+	}
+
+	private void put(final String key, final Entry entry)
+	{
+		final Segment segment = segment(key);
+		synchronized (segment)
+		{
+			entry.lastUsed = System.nanoTime();
+			Entry previous = segment.put(key, entry);
+			size.addAndGet(entry.size() - (previous != null ? previous.size() : 0));
+		}
+
+		while (size.get() > maxSize && dropLeastRecentlyUsed())
+		{
+			// drop until the content fits
+		}
+	}
+
+	/**
+	 * Drops the least recently used content of all segments.
+	 * 
+	 * @return false if there was no content to drop
+	 */
+	private boolean dropLeastRecentlyUsed()
+	{
+		Segment eldestSegment = null;
+		long eldestUsed = 0;
+		for (int i = 0; i < segments.length; i++)
+		{
+			synchronized (segments[i])
+			{
+				if (!segments[i].isEmpty())
+				{
+					long used = segments[i].values().iterator().next().lastUsed;
+					if (eldestSegment == null || used - eldestUsed < 0)
+					{
+						eldestSegment = segments[i];
+						eldestUsed = used;
+					}
+				}
+			}
+		}
+		if (eldestSegment == null)
+		{
+			return false;
+		}
+
+		synchronized (eldestSegment)
+		{
+			// the segment may have changed since, then its current eldest is dropped
+			Iterator<Map.Entry<String, Entry>> i = eldestSegment.entrySet().iterator();
+			if (i.hasNext())
+			{
+				Map.Entry<String, Entry> eldest = i.next();
+				size.addAndGet(-eldest.getValue().size());
+				i.remove();
+				if (log.isDebugEnabled())
+				{
+					log.debug("Dropped the content of " + eldest.getKey());
+				}
+			}
+		}
+		return true;
+	}
+
+	private static byte[] read(final IResourceStream stream)
+	{
+		InputStream in = null;
+		try
+		{
+			in = stream.getInputStream();
+			final int length = (int)stream.length();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0 ? length : 4096);
+			Streams.copy(in, out);
+			return out.toByteArray();
+		}
+		catch (IOException e)
+		{
+			throw new WicketRuntimeException(e);
+		}
+		catch (ResourceStreamNotFoundException e)
+		{
+			throw new WicketRuntimeException(e);
+		}
+		finally
+		{
+			IOUtils.closeQuietly(in);
+			try
+			{
+				stream.close();
+			}
+			catch (IOException e)
+			{
+				log.debug("Unable to close " + stream, e);
+			}
+		}
+	}
+
+	private static byte[] compress(final byte[] content)
+	{
+		try
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 2 + 32);
+			GZIPOutputStream zout = new GZIPOutputStream(out);
+			zout.write(content);
+			zout.close();
+			return out.toByteArray();
+		}
+		catch (IOException e)
+		{
+			throw new WicketRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Content by resource key, least recently used first. Guarded by its own lock.
+	 */
+	private static final class Segment extends LinkedHashMap<String, Entry>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private Segment()
+		{
+			super(16, 0.75f, true);
+		}
+	}
+
+	/**
+	 * The content of a resource.
+	 */
+	private static final class Entry
+	{
+		private final Time lastModified;
+		private final byte[] content;
+		private final byte[] compressed;
+
+		/** When the content was last used, guarded by the lock of the segment */
+		private long lastUsed;
+
+		private Entry(final Time lastModified, final byte[] content, final byte[] compressed)
+		{
+			this.lastModified = lastModified;
+			this.content = content;
+			this.compressed = compressed;
+		}
+
+		private long size()
+		{
+			return content.length + (compressed != null ? compressed.length : 0);
+		}
+	}
+
+	/**
+	 * Serves cached content, and takes everything else from the stream of the resource.
+	 */
+	private static final class CachedResourceStream implements IResourceStreamWriter
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final IResourceStream stream;
+		private final byte[] content;
+
+		private CachedResourceStream(final IResourceStream stream, final byte[] content)
+		{
+			this.stream = stream;
+			this.content = content;
+		}
+
+		public void write(final OutputStream output)
+		{
+			try
+			{
+				output.write(content);
+			}
+			catch (IOException e)
+			{
+				throw new WicketRuntimeException("Unable to write " + stream, e);
+			}
+		}
+
+		public InputStream getInputStream()
+		{
+			return new ByteArrayInputStream(content);
+		}
+
+		public long length()
+		{
+			return content.length;
+		}
+
+		public void close() throws IOException
+		{
+		}
+
+		public String getContentType()
+		{
+			return stream.getContentType();
+		}
+
+		public Locale getLocale()
+		{
+			return stream.getLocale();
+		}
+
+		public void setLocale(final Locale locale)
+		{
+			stream.setLocale(locale);
+		}
+
+		public Time lastModifiedTime()
+		{
+			return stream.lastModifiedTime();
+		}
+
+		@Override
+		public String toString()
+		{
+			return stream.toString();
+		}
+	}
+}
@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
@@ -391,6 +392,9 @@ public class Form<T> extends WebMarkupContainer implements IFormSubmitListener,
 	/** True if the form has enctype of multipart/form-data */
 	private short multiPart = 0;
 
+	/** Form components and nested forms, only set on a root form while it is submitted */
+	private transient FormComponentIndex formComponentIndex;
+
 	/**
 	 * A user has explicitly called {@link #setMultiPart(boolean)} with value {@code true}forcing it
 	 * to be true
@@ -883,51 +887,63 @@ public class Form<T> extends WebMarkupContainer implements IFormSubmitListener,
 	 */
 	public final void onFormSubmitted()
 	{
-		markFormsSubmitted();
-
-		if (handleMultiPart())
+		if (getApplication().getApplicationSettings().getIndexFormComponents() && isRootForm() &&
+			findParent(Border.class) == null)
 		{
-			// Tells FormComponents that a new user input has come
-			inputChanged();
+			formComponentIndex = new FormComponentIndex(this);
+		}
+		try
+		{
+			markFormsSubmitted();
 
-			String url = getRequest().getParameter(getHiddenFieldId());
-			if (!Strings.isEmpty(url))
+			if (handleMultiPart())
 			{
-				dispatchEvent(getPage(), url);
-			}
-			else
-			{
-				// First, see if the processing was triggered by a Wicket IFormSubmittingComponent
-				final IFormSubmittingComponent submittingComponent = findSubmittingButton();
+				// Tells FormComponents that a new user input has come
+				inputChanged();
 
-				// When processing was triggered by a Wicket IFormSubmittingComponent and that
-				// component indicates it wants to be called immediately
-				// (without processing), call IFormSubmittingComponent.onSubmit() right away.
-				if (submittingComponent != null && !submittingComponent.getDefaultFormProcessing())
+				String url = getRequest().getParameter(getHiddenFieldId());
+				if (!Strings.isEmpty(url))
 				{
-					submittingComponent.onSubmit();
+					dispatchEvent(getPage(), url);
 				}
 				else
 				{
-					// this is the root form
-					Form<?> formToProcess = this;
+					// First, see if the processing was triggered by a Wicket IFormSubmittingComponent
+					final IFormSubmittingComponent submittingComponent = findSubmittingButton();
 
-					// find out whether it was a nested form that was submitted
-					if (submittingComponent != null)
+					// When processing was triggered by a Wicket IFormSubmittingComponent and that
+					// component indicates it wants to be called immediately
+					// (without processing), call IFormSubmittingComponent.onSubmit() right away.
+					if (submittingComponent != null && !submittingComponent.getDefaultFormProcessing())
 					{
-						formToProcess = submittingComponent.getForm();
+						submittingComponent.onSubmit();
 					}
+					else
+					{
+						// this is the root form
+						Form<?> formToProcess = this;
+
+						// find out whether it was a nested form that was submitted
+						if (submittingComponent != null)
+						{
+							formToProcess = submittingComponent.getForm();
+						}
 
-					// process the form for this request
-					formToProcess.process(submittingComponent);
+						// process the form for this request
+						formToProcess.process(submittingComponent);
+					}
 				}
 			}
+			// If multi part did fail check if an error is registered and call
+			// onError
+			else if (hasError())
+			{
+				callOnError();
+			}
 		}
-		// If multi part did fail check if an error is registered and call
-		// onError
-		else if (hasError())
+		finally
 		{
-			callOnError();
+			formComponentIndex = null;
 		}
 	}
 
@@ -1017,51 +1033,59 @@ public class Form<T> extends WebMarkupContainer implements IFormSubmitListener,
 	@Deprecated
 	public boolean process()
 	{
-		if (!isEnabledInHierarchy() || !isVisibleInHierarchy())
-		{
-			// since process() can be called outside of the default form workflow, an additional
-			// check is needed
-			return false;
-		}
-
-		// run validation
-		validate();
-
-		// If a validation error occurred
-		if (hasError())
+		try
 		{
-			// mark all children as invalid
-			markFormComponentsInvalid();
-
-			// let subclass handle error
-			callOnError();
-
-			// Form has an error
-			return false;
-		}
-		else
-		{
-			// mark all children as valid
-			markFormComponentsValid();
-
-			// before updating, call the interception method for clients
-			beforeUpdateFormComponentModels();
+			if (!isEnabledInHierarchy() || !isVisibleInHierarchy())
+			{
+				// since process() can be called outside of the default form workflow, an additional
+				// check is needed
+				return false;
+			}
 
-			// Update model using form data
-			updateFormComponentModels();
+			// run validation
+			validate();
 
-			onValidateModelObjects();
+			// If a validation error occurred
 			if (hasError())
 			{
+				// mark all children as invalid
+				markFormComponentsInvalid();
+
+				// let subclass handle error
 				callOnError();
+
+				// Form has an error
 				return false;
 			}
+			else
+			{
+				// mark all children as valid
+				markFormComponentsValid();
 
-			// Persist FormComponents if requested
-			persistFormComponentData();
+				// before updating, call the interception method for clients
+				beforeUpdateFormComponentModels();
 
-			// Form has no error
-			return true;
+				// Update model using form data
+				updateFormComponentModels();
+
+				onValidateModelObjects();
+				if (hasError())
+				{
+					callOnError();
+					return false;
+				}
+
+				// Persist FormComponents if requested
+				persistFormComponentData();
+
+				// Form has no error
+				return true;
+			}
+		}
+		finally
+		{
+			// the submitting component and onSubmit may change the hierarchy
+			getRootForm().formComponentIndex = null;
 		}
 	}
 
@@ -1099,11 +1123,10 @@ public class Form<T> extends WebMarkupContainer implements IFormSubmitListener,
 	{
 		setFlag(FLAG_SUBMITTED, true);
 
-		visitChildren(Form.class, new IVisitor<Component>()
+		visitNestedForms(new IVisitor<Form<?>>()
 		{
-			public Object component(Component component)
+			public Object component(Form<?> form)
 			{
-				Form<?> form = (Form<?>)component;
 				if (form.isEnabledInHierarchy() && isVisibleInHierarchy())
 				{
 					form.setFlag(FLAG_SUBMITTED, true);
@@ -1268,6 +1291,61 @@ public class Form<T> extends WebMarkupContainer implements IFormSubmitListener,
 		}
 	}
 
+	/**
+	 * Visits the form components like {@link #visitFormComponentsPostOrder(FormComponent.IVisitor)}
+	 * does, but uses the form components collected when the form was submitted, if they were
+	 * indexed.
+	 * 
+	 * @param visitor
+	 *            The visitor to call
+	 */
+	private void visitProcessedFormComponents(final FormComponent.IVisitor visitor)
+	{
+		final FormComponentIndex index = getRootForm().formComponentIndex;
+		if (index != null)
+		{
+			final int[] range = index.getRange(this);
+			if (range != null)
+			{
+				for (int i = range[1]; i < range[2]; i++)
+				{
+					visitor.formComponent(index.formComponents.get(i));
+				}
+				return;
+			}
+		}
+		visitFormComponentsPostOrder(visitor);
+	}
+
+	/**
+	 * Visits the nested forms like <code>visitChildren(Form.class, visitor)</code> does, but uses
+	 * the forms collected when the form was submitted, if they were indexed.
+	 * 
+	 * @param visitor
+	 *            The visitor to call
+	 */
+	private void visitNestedForms(final IVisitor<Form<?>> visitor)
+	{
+		final FormComponentIndex index = getRootForm().formComponentIndex;
+		final int[] range = index != null ? index.getRange(this) : null;
+		if (range != null)
+		{
+			int start = index.root == this ? 0 : index.indexOf(this) + 1;
+			for (int i = start; i < range[0];)
+			{
+				Object value = visitor.component(index.forms.get(i));
+				if (value == IVisitor.STOP_TRAVERSAL)
+				{
+					break;
+				}
+				i = value == IVisitor.CONTINUE_TRAVERSAL_BUT_DONT_GO_DEEPER
+					? index.ranges.get(i)[0] : i + 1;
+			}
+			return;
+		}
+		visitChildren(Form.class, visitor);
+	}
+
 	/**
 	 * TODO Post 1.2 General: Maybe we should re-think how Borders are implemented, because there
 	 * are just too many exceptions in the code base because of borders. This time it is to solve
@@ -1457,7 +1535,7 @@ public class Form<T> extends WebMarkupContainer implements IFormSubmitListener,
 	 */
 	private void inputChanged()
 	{
-		visitFormComponentsPostOrder(new FormComponent.AbstractVisitor()
+		visitProcessedFormComponents(new FormComponent.AbstractVisitor()
 		{
 			@Override
 			public void onFormComponent(final FormComponent<?> formComponent)
@@ -1487,7 +1565,7 @@ public class Form<T> extends WebMarkupContainer implements IFormSubmitListener,
 			final IValuePersister persister = getValuePersister();
 
 			// Search for FormComponent children. Ignore all other
-			visitFormComponentsPostOrder(new FormComponent.AbstractVisitor()
+			visitProcessedFormComponents(new FormComponent.AbstractVisitor()
 			{
 				@Override
 				public void onFormComponent(final FormComponent<?> formComponent)
@@ -1833,7 +1911,7 @@ public class Form<T> extends WebMarkupContainer implements IFormSubmitListener,
 	protected final void markFormComponentsInvalid()
 	{
 		// call invalidate methods of all nested form components
-		visitFormComponentsPostOrder(new FormComponent.AbstractVisitor()
+		visitProcessedFormComponents(new FormComponent.AbstractVisitor()
 		{
 			@Override
 			public void onFormComponent(final FormComponent<?> formComponent)
@@ -1860,7 +1938,7 @@ public class Form<T> extends WebMarkupContainer implements IFormSubmitListener,
 	 */
 	private void markNestedFormComponentsValid()
 	{
-		visitChildren(Form.class, new IVisitor<Form<?>>()
+		visitNestedForms(new IVisitor<Form<?>>()
 		{
 			public Object component(Form<?> component)
 			{
@@ -1881,7 +1959,7 @@ public class Form<T> extends WebMarkupContainer implements IFormSubmitListener,
 	private void internalMarkFormComponentsValid()
 	{
 		// call valid methods of all nested form components
-		visitFormComponentsPostOrder(new FormComponent.AbstractVisitor()
+		visitProcessedFormComponents(new FormComponent.AbstractVisitor()
 		{
 			@Override
 			public void onFormComponent(final FormComponent<?> formComponent)
@@ -2134,7 +2212,7 @@ public class Form<T> extends WebMarkupContainer implements IFormSubmitListener,
 	 */
 	private final void updateNestedFormComponentModels()
 	{
-		visitChildren(Form.class, new IVisitor<Form<?>>()
+		visitNestedForms(new IVisitor<Form<?>>()
 		{
 			public Object component(Form<?> form)
 			{
@@ -2155,6 +2233,21 @@ public class Form<T> extends WebMarkupContainer implements IFormSubmitListener,
 	 */
 	private void internalUpdateFormComponentModels()
 	{
+		final FormComponentIndex index = getRootForm().formComponentIndex;
+		if (index != null)
+		{
+			final int[] range = index.getRange(this);
+			if (range != null)
+			{
+				final FormModelUpdateVisitor visitor = new FormModelUpdateVisitor(this);
+				for (int i = range[3]; i < range[4]; i++)
+				{
+					visitor.component(index.updateListeners.get(i));
+				}
+				return;
+			}
+		}
+
 		FormComponent.visitComponentsPostOrder(this, new FormModelUpdateVisitor(this));
 
 		MarkupContainer border = findParent(Border.class);
@@ -2198,7 +2291,7 @@ public class Form<T> extends WebMarkupContainer implements IFormSubmitListener,
 	 */
 	protected final void validateComponents()
 	{
-		visitFormComponentsPostOrder(new ValidationVisitor()
+		visitProcessedFormComponents(new ValidationVisitor()
 		{
 			@Override
 			public void validate(final FormComponent<?> formComponent)
@@ -2300,7 +2393,7 @@ public class Form<T> extends WebMarkupContainer implements IFormSubmitListener,
 	 */
 	private void validateNestedForms()
 	{
-		visitChildren(Form.class, new IVisitor<Form<?>>()
+		visitNestedForms(new IVisitor<Form<?>>()
 		{
 			public Object component(Form<?> form)
 			{
@@ -2316,6 +2409,140 @@ public class Form<T> extends WebMarkupContainer implements IFormSubmitListener,
 		});
 	}
 
+	/**
+	 * The form components and nested forms of a submitted root form, collected in a single
+	 * traversal. The form components, and the components that update their model, are listed in
+	 * the order of {@link FormComponent#visitFormComponentsPostOrder(Component, FormComponent.IVisitor)},
+	 * so those of a nested form are a range of the lists. The nested forms are listed in the order
+	 * of {@link Component#visitChildren(Class, Component.IVisitor)}.
+	 */
+	private static final class FormComponentIndex
+	{
+		private final Form<?> root;
+
+		private final List<FormComponent<?>> formComponents = new ArrayList<FormComponent<?>>();
+
+		private final List<Component> updateListeners = new ArrayList<Component>();
+
+		private final List<Form<?>> forms = new ArrayList<Form<?>>();
+
+		/** Position of each nested form in {@link #forms} */
+		private final Map<Form<?>, Integer> positions = new IdentityHashMap<Form<?>, Integer>();
+
+		/**
+		 * Per nested form: the end of its nested forms, and the start and end of its form
+		 * components and of its update listeners. The starts are -1 if its form components aren't
+		 * in the lists.
+		 */
+		private final List<int[]> ranges = new ArrayList<int[]>();
+
+		/**
+		 * Construct.
+		 * 
+		 * @param root
+		 */
+		private FormComponentIndex(final Form<?> root)
+		{
+			this.root = root;
+			collect(root, true, false);
+		}
+
+		/**
+		 * @param form
+		 * @return the ranges of the form, or null if its form components aren't indexed
+		 */
+		private int[] getRange(final Form<?> form)
+		{
+			if (form == root)
+			{
+				return new int[] { forms.size(), 0, formComponents.size(), 0,
+						updateListeners.size() };
+			}
+			int position = indexOf(form);
+			if (position == -1 || ranges.get(position)[1] == -1)
+			{
+				return null;
+			}
+			return ranges.get(position);
+		}
+
+		/**
+		 * @param form
+		 * @return the position of the nested form in the list of forms, or -1 if it isn't indexed
+		 */
+		private int indexOf(final Form<?> form)
+		{
+			Integer position = positions.get(form);
+			return position != null ? position.intValue() : -1;
+		}
+
+		/**
+		 * Collects like {@link FormComponent#visitFormComponentsPostOrder(Component,
+		 * FormComponent.IVisitor)}, and collects the nested forms also where form components are
+		 * not visited.
+		 * 
+		 * @param component
+		 * @param visit
+		 *            whether the form components are visited
+		 * @param inBorder
+		 *            whether the component is inside a border
+		 */
+		private void collect(final Component component, final boolean visit,
+			final boolean inBorder)
+		{
+			int position = -1;
+			if (component instanceof Form && component != root)
+			{
+				position = forms.size();
+				forms.add((Form<?>)component);
+				positions.put((Form<?>)component, new Integer(position));
+				ranges.add(null);
+			}
+			final int formComponentsStart = formComponents.size();
+			final int updateListenersStart = updateListeners.size();
+
+			if (component instanceof MarkupContainer)
+			{
+				final MarkupContainer container = (MarkupContainer)component;
+				if (container.size() > 0)
+				{
+					boolean visitChildren = visit;
+					if (visit && container instanceof IFormVisitorParticipant)
+					{
+						visitChildren = ((IFormVisitorParticipant)container).processChildren();
+					}
+					final boolean border = inBorder || container instanceof Border;
+					final Iterator<? extends Component> children = container.iterator();
+					while (children.hasNext())
+					{
+						collect(children.next(), visitChildren, border);
+					}
+				}
+			}
+
+			if (visit)
+			{
+				if (component instanceof FormComponent)
+				{
+					formComponents.add((FormComponent<?>)component);
+				}
+				if (component instanceof IFormModelUpdateListener)
+				{
+					updateListeners.add(component);
+				}
+			}
+
+			if (position != -1)
+			{
+				// forms in a border also visit the children of the border
+				final boolean indexed = visit && !inBorder;
+				ranges.set(position, new int[] { forms.size(),
+						indexed ? formComponentsStart : -1, formComponents.size(),
+						indexed ? updateListenersStart : -1, updateListeners.size() });
+			}
+		}
+	}
+
 	/**
 	 * Change object to keep track of form validator removals
 	 * 
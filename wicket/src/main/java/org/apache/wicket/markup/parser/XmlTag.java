@@ -39,6 +39,8 @@ import org.slf4j.LoggerFactory;
  */
 public class XmlTag extends MarkupElement
 {
+	private static final long serialVersionUID = 1L;
+
 	/** Log. */
 	private static final Logger log = LoggerFactory.getLogger(XmlTag.class);
 
@@ -16,9 +16,20 @@
  */
 package org.apache.wicket.protocol.http;
 
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.wicket.Application;
+import org.apache.wicket.IResponseFilter;
 import org.apache.wicket.WicketRuntimeException;
+import org.apache.wicket.markup.RawMarkup;
+import org.apache.wicket.settings.IRequestCycleSettings;
 import org.apache.wicket.util.string.AppendingStringBuffer;
 
 
@@ -35,6 +46,18 @@ public class BufferedWebResponse extends WebResponse
 	/** Buffer to hold page */
 	private AppendingStringBuffer buffer = new AppendingStringBuffer(4096);
 
+	/** Whether raw markup is written as cached bytes, null until the first raw markup */
+	private Boolean writeEncodedMarkup;
+
+	/** Raw markup that isn't in the buffer, because it is written as bytes */
+	private RawMarkup[] markups;
+
+	/** Positions in the buffer where the raw markup must be inserted */
+	private int[] offsets;
+
+	/** Number of raw markup elements written as bytes */
+	private int markupCount;
+
 	/**
 	 * Constructor for testing harness.
 	 */
@@ -69,7 +92,11 @@ public class BufferedWebResponse extends WebResponse
 		else
 		{
 			// Write the buffer to the response stream
-			if (buffer.length() != 0)
+			if (markupCount != 0)
+			{
+				writeSegments();
+			}
+			else if (buffer.length() != 0)
 			{
 				super.write(buffer);
 			}
@@ -84,6 +111,9 @@ public class BufferedWebResponse extends WebResponse
 	{
 		redirectURL = null;
 		buffer.clear();
+		markupCount = 0;
+		markups = null;
+		offsets = null;
 	}
 
 	/**
@@ -117,14 +147,154 @@ public class BufferedWebResponse extends WebResponse
 		buffer.append(string);
 	}
 
+	/**
+	 * Writes raw markup as cached bytes if enabled, see
+	 * {@link IRequestCycleSettings#setCacheEncodedRawMarkup(boolean)}.
+	 * 
+	 * @see org.apache.wicket.Response#write(org.apache.wicket.markup.RawMarkup)
+	 */
+	@Override
+	public void write(final RawMarkup markup)
+	{
+		if (isWriteEncodedMarkup() == false)
+		{
+			buffer.append(markup.toCharSequence());
+			return;
+		}
+
+		if (markups == null)
+		{
+			markups = new RawMarkup[64];
+			offsets = new int[64];
+		}
+		else if (markupCount == markups.length)
+		{
+			RawMarkup[] newMarkups = new RawMarkup[markupCount * 2];
+			System.arraycopy(markups, 0, newMarkups, 0, markupCount);
+			markups = newMarkups;
+			int[] newOffsets = new int[markupCount * 2];
+			System.arraycopy(offsets, 0, newOffsets, 0, markupCount);
+			offsets = newOffsets;
+		}
+		markups[markupCount] = markup;
+		offsets[markupCount] = buffer.length();
+		markupCount++;
+	}
+
+	/**
+	 * @return whether raw markup is written as cached bytes
+	 */
+	private boolean isWriteEncodedMarkup()
+	{
+		if (writeEncodedMarkup == null)
+		{
+			IRequestCycleSettings settings = Application.get().getRequestCycleSettings();
+			List<IResponseFilter> filters = settings.getResponseFilters();
+			writeEncodedMarkup = Boolean.valueOf(getHttpServletResponse() != null &&
+				settings.getCacheEncodedRawMarkup() && (filters == null || filters.isEmpty()));
+		}
+		return writeEncodedMarkup.booleanValue();
+	}
+
+	/**
+	 * Writes the buffer and the raw markup to the servlet output stream. Only the buffer is encoded.
+	 */
+	private void writeSegments()
+	{
+		HttpServletResponse response = getHttpServletResponse();
+		String charset = response.getCharacterEncoding();
+		if (charset == null)
+		{
+			charset = getCharacterEncoding();
+		}
+		try
+		{
+			final OutputStream out = response.getOutputStream();
+
+			// don't flush the servlet output stream every time the writer is flushed
+			Writer writer = new OutputStreamWriter(new FilterOutputStream(out)
+			{
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException
+				{
+					out.write(b, off, len);
+				}
+
+				@Override
+				public void flush()
+				{
+				}
+			}, charset);
+
+			char[] chars = buffer.getValue();
+			int start = 0;
+			for (int i = 0; i < markupCount; i++)
+			{
+				if (offsets[i] > start)
+				{
+					writer.write(chars, start, offsets[i] - start);
+					writer.flush();
+					start = offsets[i];
+				}
+				out.write(markups[i].getBytes(charset));
+			}
+			writer.write(chars, start, buffer.length() - start);
+			writer.flush();
+		}
+		catch (IOException e)
+		{
+			throw new WicketRuntimeException("Error while writing to servlet output stream.", e);
+		}
+	}
+
+	/**
+	 * @return the buffer with the raw markup that is written as bytes inserted
+	 */
+	private AppendingStringBuffer getText()
+	{
+		if (markupCount == 0)
+		{
+			return buffer;
+		}
+		AppendingStringBuffer text = new AppendingStringBuffer(buffer.length() * 2);
+		int start = 0;
+		for (int i = 0; i < markupCount; i++)
+		{
+			text.append(buffer.getValue(), start, offsets[i] - start);
+			text.append(markups[i].toCharSequence());
+			start = offsets[i];
+		}
+		text.append(buffer.getValue(), start, buffer.length() - start);
+		return text;
+	}
+
 	/**
 	 * THIS METHOD IS NOT PART OF THE WICKET PUBLIC API.
 	 */
 	public final void filter()
 	{
-		if (redirectURL == null && buffer.length() != 0)
+		if (redirectURL == null)
 		{
-			buffer = filter(buffer);
+			if (markupCount != 0)
+			{
+				List<IResponseFilter> filters = Application.get()
+					.getRequestCycleSettings()
+					.getResponseFilters();
+				if (filters == null || filters.isEmpty())
+				{
+					return;
+				}
+
+				// a filter was added while rendering, it needs all of the text
+				buffer = getText();
+				markupCount = 0;
+				markups = null;
+				offsets = null;
+			}
+			if (buffer.length() != 0)
+			{
+				buffer = filter(buffer);
+			}
 		}
 	}
 
@@ -135,6 +305,6 @@ public class BufferedWebResponse extends WebResponse
 	@Override
 	public String toString()
 	{
-		return buffer.toString();
+		return getText().toString();
 	}
 }
@@ -41,7 +41,7 @@ public class MockHttpSession implements HttpSession, Serializable
 
 	private final long creationTime = System.currentTimeMillis();
 
-	private final String id = java.util.UUID.randomUUID().toString().replace('-', '_');
+	private String id = newId();
 
 	private long lastAccessedTime = 0;
 
@@ -170,11 +170,18 @@ public class MockHttpSession implements HttpSession, Serializable
 	}
 
 	/**
-	 * Invalidate the session.
+	 * Invalidate the session. The session gets a new id, like the session a servlet container
+	 * creates after the old one is invalidated.
 	 */
 	public void invalidate()
 	{
 		attributes.clear();
+		id = newId();
+	}
+
+	private static String newId()
+	{
+		return java.util.UUID.randomUUID().toString().replace('-', '_');
 	}
 
 	/**
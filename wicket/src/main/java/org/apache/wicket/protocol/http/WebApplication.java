@@ -27,6 +27,7 @@ import javax.servlet.http.HttpSession;
 
 import org.apache.wicket.Application;
 import org.apache.wicket.IRequestTarget;
+import org.apache.wicket.MarkupContainer;
 import org.apache.wicket.Page;
 import org.apache.wicket.Request;
 import org.apache.wicket.RequestCycle;
@@ -36,13 +37,16 @@ import org.apache.wicket.WicketRuntimeException;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.markup.html.form.AutoLabelTextResolver;
 import org.apache.wicket.markup.html.form.AutoLabelResolver;
+import org.apache.wicket.markup.MarkupPreloader;
 import org.apache.wicket.markup.html.pages.AccessDeniedPage;
 import org.apache.wicket.markup.html.pages.InternalErrorPage;
 import org.apache.wicket.markup.html.pages.PageExpiredErrorPage;
 import org.apache.wicket.markup.resolver.AutoLinkResolver;
 import org.apache.wicket.protocol.http.pagestore.DiskPageStore;
 import org.apache.wicket.protocol.http.servlet.ServletWebRequest;
+import org.apache.wicket.request.IRequestCodingStrategy;
 import org.apache.wicket.request.IRequestCycleProcessor;
+import org.apache.wicket.request.IRequestTargetMountsInfo;
 import org.apache.wicket.request.target.coding.BookmarkablePageRequestTargetUrlCodingStrategy;
 import org.apache.wicket.request.target.coding.IRequestTargetUrlCodingStrategy;
 import org.apache.wicket.request.target.coding.PackageRequestTargetUrlCodingStrategy;
@@ -747,6 +751,35 @@ public abstract class WebApplication extends Application
 		responsesPerSession.put(bufferKey, renderedResponse);
 	}
 
+	/**
+	 * Loads the markup of the mounted bookmarkable pages and the
+	 * {@link org.apache.wicket.settings.IMarkupSettings#getPreloadMarkupClasses() preload markup
+	 * classes} into the markup cache, if enabled with
+	 * {@link org.apache.wicket.settings.IMarkupSettings#setMarkupPreloadThreads(int)}.
+	 */
+	final void preloadMarkup()
+	{
+		int threads = getMarkupSettings().getMarkupPreloadThreads();
+		if (threads > 0)
+		{
+			long start = System.currentTimeMillis();
+			MarkupPreloader preloader = new MarkupPreloader(this);
+			IRequestCodingStrategy codingStrategy = getRequestCycleProcessor().getRequestCodingStrategy();
+			if (codingStrategy instanceof IRequestTargetMountsInfo)
+			{
+				preloader.addMounts((IRequestTargetMountsInfo)codingStrategy);
+			}
+			for (Class<? extends MarkupContainer> containerClass : getMarkupSettings().getPreloadMarkupClasses())
+			{
+				preloader.add(containerClass);
+			}
+			int loaded = preloader.preload(threads);
+			log.info("[" + getName() + "] Preloaded " + loaded + " of " +
+				preloader.getClasses().size() + " markup files in " +
+				(System.currentTimeMillis() - start) + "ms");
+		}
+	}
+
 	/**
 	 * Log that this application is started.
 	 */
@@ -42,6 +42,7 @@ import org.apache.wicket.RequestCycle;
 import org.apache.wicket.Resource;
 import org.apache.wicket.Session;
 import org.apache.wicket.WicketRuntimeException;
+import org.apache.wicket.markup.html.PackageResource;
 import org.apache.wicket.markup.parser.XmlPullParser;
 import org.apache.wicket.markup.parser.XmlTag;
 import org.apache.wicket.protocol.http.portlet.FilterRequestContext;
@@ -310,6 +311,11 @@ public class WicketFilter implements Filter
 				// Set the webapplication for this thread
 				Application.set(webApplication);
 
+				if (respondNotModified(httpServletRequest, httpServletResponse))
+				{
+					return;
+				}
+
 				// last modified time stamp
 				long lastModified = getLastModified(httpServletRequest);
 				if (lastModified == -1)
@@ -731,6 +737,9 @@ public class WicketFilter implements Filter
 			// component.
 			webApplication.initializeComponents();
 
+			// Load the markup of the mounted pages before the first request needs it
+			webApplication.preloadMarkup();
+
 			// Give the application the option to log that it is started
 			webApplication.logStarted();
 
@@ -1128,6 +1137,77 @@ public class WicketFilter implements Filter
 		return result.substring(1, result.length() - 1);
 	}
 
+	/**
+	 * Answers a conditional request for a package resource with an ETag that matches the current
+	 * content of the resource, without reading the resource.
+	 * 
+	 * @see org.apache.wicket.settings.IResourceSettings#setFingerprintPackageResourceUrls(boolean)
+	 * 
+	 * @param servletRequest
+	 * @param servletResponse
+	 * @return true if the request was answered with 304 Not Modified
+	 */
+	private boolean respondNotModified(final HttpServletRequest servletRequest,
+		final HttpServletResponse servletResponse)
+	{
+		if (!webApplication.getResourceSettings().getFingerprintPackageResourceUrls())
+		{
+			return false;
+		}
+		final String ifNoneMatch = servletRequest.getHeader("If-None-Match");
+		final String pathInfo = getRelativePath(servletRequest);
+		if (ifNoneMatch == null || Strings.isEmpty(pathInfo))
+		{
+			return false;
+		}
+
+		final String resourceReferenceKey;
+		if (pathInfo.startsWith(WebRequestCodingStrategy.RESOURCES_PATH_PREFIX))
+		{
+			resourceReferenceKey = WicketURLDecoder.PATH_INSTANCE.decode(pathInfo.substring(WebRequestCodingStrategy.RESOURCES_PATH_PREFIX.length()));
+		}
+		else
+		{
+			IRequestTargetUrlCodingStrategy sharedResourceMount = webApplication.getRequestCycleProcessor()
+				.getRequestCodingStrategy()
+				.urlCodingStrategyForPath(pathInfo);
+			if (!(sharedResourceMount instanceof SharedResourceRequestTargetUrlCodingStrategy))
+			{
+				return false;
+			}
+			resourceReferenceKey = ((SharedResourceRequestTargetUrlCodingStrategy)sharedResourceMount).getResourceKey();
+		}
+
+		final Resource resource = webApplication.getSharedResources().get(resourceReferenceKey);
+		if (!(resource instanceof PackageResource) || !resource.isCacheable())
+		{
+			return false;
+		}
+		final PackageResource packageResource = (PackageResource)resource;
+		final String tag = packageResource.getMatchingETag(ifNoneMatch);
+		if (tag == null)
+		{
+			return false;
+		}
+
+		servletResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		servletResponse.setHeader("ETag", tag);
+		final String fingerprint = servletRequest.getParameter(PackageResource.FINGERPRINT_PARAMETER);
+		if (fingerprint != null && fingerprint.equals(packageResource.getFingerprint()))
+		{
+			servletResponse.setDateHeader("Expires", System.currentTimeMillis() +
+				PackageResource.FINGERPRINT_CACHE_DURATION * 1000L);
+			servletResponse.setHeader("Cache-Control", "public,max-age=" +
+				PackageResource.FINGERPRINT_CACHE_DURATION + ",immutable");
+		}
+		else
+		{
+			servletResponse.setDateHeader("Expires", System.currentTimeMillis() +
+				Duration.hours(1).getMilliseconds());
+		}
+		return true;
+	}
+
 	/**
 	 * Gets the last modified time stamp for the given request if the request is for a resource.
 	 * 
@@ -1210,8 +1290,15 @@ public class WicketFilter implements Filter
 					// Set parameters from servlet request
 					resource.setParameters(rp.getParameters());
 
-					// Get resource stream
-					IResourceStream stream = resource.getResourceStream();
+					// Get resource stream, for package resources the stream that is located
+					// without reading its content into the package resource cache
+					IResourceStream stream = (resource instanceof PackageResource)
+						? ((PackageResource)resource).getResourceStream(false)
+						: resource.getResourceStream();
+					if (stream == null)
+					{
+						return -1;
+					}
 
 					// Get last modified time from stream
 					Time time = stream.lastModifiedTime();
@@ -22,7 +22,9 @@ import java.io.ObjectOutputStream;
 import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.wicket.Page;
 import org.apache.wicket.Session;
@@ -31,6 +33,8 @@ import org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IPageStore;
 import org.apache.wicket.session.pagemap.IPageMapEntry;
 import org.apache.wicket.util.collections.IntHashMap;
 import org.apache.wicket.util.lang.Objects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Abstract page store that implements the serialization logic so that the subclasses can
@@ -40,6 +44,102 @@ import org.apache.wicket.util.lang.Objects;
  */
 public abstract class AbstractPageStore implements IPageStore
 {
+	private static final Logger log = LoggerFactory.getLogger(AbstractPageStore.class);
+
+	private volatile boolean compressSerializedPages = false;
+
+	private final AtomicLong compressedPageCount = new AtomicLong();
+	private final AtomicLong uncompressedBytes = new AtomicLong();
+	private final AtomicLong compressedBytes = new AtomicLong();
+
+	/**
+	 * Sets whether the serialized pages should be compressed before they are stored. Pages stored
+	 * uncompressed can still be loaded after the compression is turned on and vice versa.
+	 * 
+	 * @see SerializedPageCompressor
+	 * 
+	 * @param compressSerializedPages
+	 */
+	public void setCompressSerializedPages(boolean compressSerializedPages)
+	{
+		this.compressSerializedPages = compressSerializedPages;
+	}
+
+	/**
+	 * @return whether the serialized pages are compressed before they are stored
+	 */
+	public boolean getCompressSerializedPages()
+	{
+		return compressSerializedPages;
+	}
+
+	/**
+	 * @return number of serialized pages that have been compressed
+	 */
+	public long getCompressedPageCount()
+	{
+		return compressedPageCount.get();
+	}
+
+	/**
+	 * @return summed size of serialized pages before compression
+	 */
+	public long getUncompressedBytes()
+	{
+		return uncompressedBytes.get();
+	}
+
+	/**
+	 * @return summed size of serialized pages after compression
+	 */
+	public long getCompressedBytes()
+	{
+		return compressedBytes.get();
+	}
+
+	/**
+	 * @return average ratio of compressed to uncompressed page size (0.25 means the pages take a
+	 *         quarter of their original size), or 1 if no page has been compressed yet
+	 */
+	public double getCompressionRatio()
+	{
+		long uncompressed = uncompressedBytes.get();
+		return uncompressed > 0 ? (double)compressedBytes.get() / uncompressed : 1;
+	}
+
+	/**
+	 * Compresses the data of serialized pages if the compression is turned on.
+	 * 
+	 * @param pages
+	 */
+	private void compress(List<SerializedPage> pages)
+	{
+		if (compressSerializedPages)
+		{
+			for (Iterator<SerializedPage> i = pages.iterator(); i.hasNext();)
+			{
+				SerializedPage page = i.next();
+				byte[] data = page.getData();
+				if (data != null && SerializedPageCompressor.isCompressed(data) == false)
+				{
+					byte[] compressed = SerializedPageCompressor.compress(data);
+					page.setData(compressed);
+
+					compressedPageCount.incrementAndGet();
+					uncompressedBytes.addAndGet(data.length);
+					compressedBytes.addAndGet(compressed.length);
+
+					if (log.isDebugEnabled())
+					{
+						log.debug("Compressed page " + page.getPageId() + " from " + data.length +
+							" to " + compressed.length + " bytes (ratio " +
+							((float)compressed.length / data.length) + ")");
+					}
+				}
+			}
+		}
+	}
+
 
 	/**
 	 * Immutable class that contains a serialized page instance.
@@ -207,6 +307,8 @@ public abstract class AbstractPageStore implements IPageStore
 			Page.serializer.set(null);
 		}
 
+		compress(result);
+
 		return result;
 	}
 
@@ -215,7 +317,7 @@ public abstract class AbstractPageStore implements IPageStore
 	 * page.
 	 * 
 	 * @param data
-	 *            Serialized page instance data as byte array
+	 *            Serialized page instance data as byte array, possibly compressed
 	 * @param versionNumber
 	 *            Requested page version or -1 if original version (the one serialized) should be
 	 *            kept
@@ -231,6 +333,7 @@ public abstract class AbstractPageStore implements IPageStore
 			{
 				Page.serializer.set(new PageSerializer(null));
 			}
+			data = SerializedPageCompressor.decompress(data);
 			IPageMapEntry entry = (IPageMapEntry)Objects.byteArrayToObject(data);
 			if (entry != null)
 			{
@@ -17,6 +17,11 @@
 package org.apache.wicket.protocol.http.pagestore;
 
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -30,11 +35,19 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.wicket.Application;
 import org.apache.wicket.Page;
@@ -45,6 +58,7 @@ import org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.ISerializati
 import org.apache.wicket.protocol.http.pagestore.PageWindowManager.PageWindow;
 import org.apache.wicket.protocol.http.pagestore.SerializedPagesCache.SerializedPageWithSession;
 import org.apache.wicket.util.lang.Bytes;
+import org.apache.wicket.util.lang.Objects;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -75,6 +89,18 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 		private String fileName;
 		private PageWindowManager manager;
 
+		// reads and writes of the pagemap file that are in progress (concurrent mode only)
+		private transient List<PendingFileAccess> pendingFileAccesses;
+
+		private List<PendingFileAccess> getPendingFileAccesses()
+		{
+			if (pendingFileAccesses == null)
+			{
+				pendingFileAccesses = new ArrayList<PendingFileAccess>();
+			}
+			return pendingFileAccesses;
+		}
+
 		/**
 		 * @return the name of pagemap
 		 */
@@ -100,6 +126,122 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 		}
 	}
 
+	/**
+	 * Region of a pagemap file that is being read or written outside of the {@link SessionEntry}
+	 * lock. Used in concurrent mode to make sure that a page is not read while its window is being
+	 * written and that a window is not overwritten while it is being read.
+	 */
+	private static class PendingFileAccess
+	{
+		private final long sequence;
+		private final int offset;
+		private final int size;
+		private final boolean write;
+
+		private PendingFileAccess(long sequence, int offset, int size, boolean write)
+		{
+			this.sequence = sequence;
+			this.offset = offset;
+			this.size = size;
+			this.write = write;
+		}
+
+		/**
+		 * @param other
+		 * @return <code>true</code> if this access must wait for the other access to finish
+		 */
+		private boolean mustWaitFor(PendingFileAccess other)
+		{
+			return other.sequence < sequence && (write || other.write) &&
+				other.offset < offset + size && offset < other.offset + other.size;
+		}
+	}
+
+	/**
+	 * Uncompressed data of the last stored version of a page.
+	 */
+	private static class StoredVersion
+	{
+		private final int versionNumber;
+		private final int ajaxVersionNumber;
+		private final byte[] data;
+
+		// version and ajax version numbers of the versions this version is stored as delta
+		// against, the nearest first, empty for a full snapshot
+		private int[] bases = NO_BASES;
+
+		private static final int[] NO_BASES = new int[0];
+
+		private StoredVersion(int versionNumber, int ajaxVersionNumber, byte[] data)
+		{
+			this.versionNumber = versionNumber;
+			this.ajaxVersionNumber = ajaxVersionNumber;
+			this.data = data;
+		}
+
+		/**
+		 * @return number of deltas between this version and the last full snapshot
+		 */
+		private int getChainLength()
+		{
+			return bases.length / 2;
+		}
+
+		/**
+		 * @param versionNumber
+		 * @param ajaxVersionNumber
+		 * @return <code>true</code> if the given version is this version or one it builds on
+		 */
+		private boolean contains(int versionNumber, int ajaxVersionNumber)
+		{
+			if (this.versionNumber == versionNumber && this.ajaxVersionNumber == ajaxVersionNumber)
+			{
+				return true;
+			}
+			for (int i = 0; i < bases.length; i += 2)
+			{
+				if (bases[i] == versionNumber && bases[i + 1] == ajaxVersionNumber)
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * @param base
+		 * @return the bases of a version stored as delta against the given version
+		 */
+		private static int[] basesOn(StoredVersion base)
+		{
+			int[] result = new int[base.bases.length + 2];
+			result[0] = base.versionNumber;
+			result[1] = base.ajaxVersionNumber;
+			System.arraycopy(base.bases, 0, result, 2, base.bases.length);
+			return result;
+		}
+	}
+
+	/**
+	 * Page stored as delta. Keeps the full page, which is written instead when a version the delta
+	 * builds on gets overwritten by the window of the delta itself.
+	 */
+	private static class DeltaPage extends SerializedPage
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final SerializedPage full;
+		private final StoredVersion version;
+
+		private DeltaPage(SerializedPage full, StoredVersion version, byte[] delta)
+		{
+			super(full.getPageId(), full.getPageMapName(), full.getVersionNumber(),
+				full.getAjaxVersionNumber(), delta);
+			this.full = full;
+			this.version = version;
+		}
+	}
+
 	/**
 	 * Represents a session,
 	 * 
@@ -109,10 +251,25 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 	{
 		private static final long serialVersionUID = 1L;
 
+		// pages per session whose last stored version is kept for delta encoding
+		private static final int MAX_STORED_VERSIONS = 16;
+
 		private String sessionId;
 		private final List<PageMapEntry> pageMapEntryList = new ArrayList<PageMapEntry>();
 		private transient DiskPageStore diskPageStore;
 
+		// orders the pending file accesses (concurrent mode only)
+		private transient long fileAccessSequence;
+
+		// files of removed pagemaps that still wait for pending accesses (concurrent mode only)
+		private transient Set<String> fileNamesBeingRemoved;
+
+		// last stored version of recently saved pages, the base for the next delta
+		private transient Map<String, StoredVersion> storedVersions;
+
+		// summed size of the data of the stored versions, guarded by storedVersions
+		private transient long storedVersionsSize;
+
 		protected SessionEntry(DiskPageStore diskPageStore)
 		{
 			this.diskPageStore = diskPageStore;
@@ -174,9 +331,20 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 			}
 			if (result == null && create)
 			{
+				String fileName = diskPageStore.getPageMapFileName(sessionId, pageMapName, true);
+
+				// the previous file with the same name might still be waiting to be deleted
+				while (fileNamesBeingRemoved != null && fileNamesBeingRemoved.contains(fileName))
+				{
+					if (waitForFileAccess() == false)
+					{
+						return null;
+					}
+				}
+
 				result = new PageMapEntry();
 				result.pageMapName = pageMapName;
-				result.fileName = diskPageStore.getPageMapFileName(sessionId, pageMapName, true);
+				result.fileName = fileName;
 				result.manager = new PageWindowManager(diskPageStore.getMaxSizePerPageMap());
 				pageMapEntryList.add(result);
 			}
@@ -190,8 +358,110 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 		 */
 		private void removePageMapEntry(PageMapEntry entry)
 		{
-			diskPageStore.fileChannelPool.closeAndDeleteFileChannel(entry.fileName);
 			pageMapEntryList.remove(entry);
+
+			if (entry.pendingFileAccesses != null && entry.pendingFileAccesses.isEmpty() == false)
+			{
+				// the entry is not reachable anymore, wait for the reads and writes already in
+				// progress before deleting the file
+				if (fileNamesBeingRemoved == null)
+				{
+					fileNamesBeingRemoved = new HashSet<String>();
+				}
+				fileNamesBeingRemoved.add(entry.fileName);
+				try
+				{
+					while (entry.pendingFileAccesses.isEmpty() == false)
+					{
+						if (waitForFileAccess() == false)
+						{
+							break;
+						}
+					}
+				}
+				finally
+				{
+					fileNamesBeingRemoved.remove(entry.fileName);
+					notifyAll();
+				}
+			}
+
+			diskPageStore.deletePageMapFile(entry.fileName);
+			forgetStoredVersions(entry.pageMapName, -1);
+		}
+
+		/**
+		 * Waits until another thread finishes a pending file access. Must be called with the
+		 * monitor of this entry held.
+		 * 
+		 * @return <code>false</code> if the thread has been interrupted
+		 */
+		private boolean waitForFileAccess()
+		{
+			try
+			{
+				wait();
+				return true;
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+
+		/**
+		 * Registers access to the given part of pagemap file and waits until all conflicting
+		 * accesses registered before are finished. Must be called with the monitor of this entry
+		 * held. Every successful call must be followed by
+		 * {@link #endFileAccess(PageMapEntry, PendingFileAccess)}.
+		 * 
+		 * @param entry
+		 * @param offset
+		 * @param size
+		 * @param write
+		 * @return pending access or null if the thread has been interrupted while waiting
+		 */
+		private PendingFileAccess beginFileAccess(PageMapEntry entry, int offset, int size,
+			boolean write)
+		{
+			PendingFileAccess access = new PendingFileAccess(++fileAccessSequence, offset, size,
+				write);
+			List<PendingFileAccess> pending = entry.getPendingFileAccesses();
+			pending.add(access);
+
+			boolean conflict = true;
+			while (conflict)
+			{
+				conflict = false;
+				for (Iterator<PendingFileAccess> i = pending.iterator(); i.hasNext();)
+				{
+					if (access.mustWaitFor(i.next()))
+					{
+						conflict = true;
+						break;
+					}
+				}
+				if (conflict && waitForFileAccess() == false)
+				{
+					pending.remove(access);
+					notifyAll();
+					return null;
+				}
+			}
+			return access;
+		}
+
+		/**
+		 * Unregisters the pending file access and wakes up waiting threads.
+		 * 
+		 * @param entry
+		 * @param access
+		 */
+		private synchronized void endFileAccess(PageMapEntry entry, PendingFileAccess access)
+		{
+			entry.getPendingFileAccesses().remove(access);
+			notifyAll();
 		}
 
 		/**
@@ -210,50 +480,121 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 
 		/**
 		 * Saves the serialized page to appropriate pagemap file.
+		 * <p>
+		 * In concurrent mode the lock of this entry is only held while the page window is being
+		 * allocated, the data itself is written without holding it.
 		 * 
 		 * @param page
 		 */
-		public synchronized void savePage(SerializedPage page)
+		public void savePage(SerializedPage page)
 		{
 			// only save page that has some data
-			if (page.getData() != null)
+			if (page.getData() == null)
 			{
-				PageMapEntry entry = getPageMapEntry(page.getPageMapName(), true);
-
-				// allocate window for page
-				PageWindow window = entry.manager.createPageWindow(page.getPageId(),
-					page.getVersionNumber(), page.getAjaxVersionNumber(), page.getData().length);
+				return;
+			}
 
-				// remove the entry and add it to the end of entry list (to mark
-				// it as last accessed(
-				pageMapEntryList.remove(entry);
-				pageMapEntryList.add(entry);
+			if (diskPageStore.getDeltaChainLength() > 0)
+			{
+				page = encodeDelta(page);
+			}
 
-				// if we exceeded maximum session size, try to remove as many
-				// pagemap as necessary and possible
-				while (getTotalSize() > diskPageStore.getMaxSizePerSession() &&
-					pageMapEntryList.size() > 1)
+			if (diskPageStore.isConcurrent() == false)
+			{
+				synchronized (this)
 				{
-					removePageMapEntry(pageMapEntryList.get(0));
+					PageMapEntry entry = getPageMapEntry(page.getPageMapName(), true);
+					PageWindow window = allocatePageWindow(entry, page);
+					SerializedPage checked = checkDeltaBases(entry, page);
+					if (checked != page)
+					{
+						page = checked;
+						window = allocatePageWindow(entry, page);
+					}
+					diskPageStore.writePageData(entry.fileName, window.getFilePartOffset(), page.getData());
 				}
+				return;
+			}
 
-				// take the filechannel from the pool
-				FileChannel channel = diskPageStore.fileChannelPool.getFileChannel(entry.fileName,
-					true);
-				try
+			PageMapEntry entry;
+			PendingFileAccess access;
+			synchronized (this)
+			{
+				entry = getPageMapEntry(page.getPageMapName(), true);
+				if (entry == null)
 				{
-					// write the content
-					channel.write(ByteBuffer.wrap(page.getData()), window.getFilePartOffset());
+					log.warn("Interrupted while saving page " + page.getPageId() +
+						" for session " + sessionId);
+					return;
 				}
-				catch (IOException e)
+				PageWindow window = entry.manager.createPageWindow(page.getPageId(),
+					page.getVersionNumber(), page.getAjaxVersionNumber(), page.getData().length);
+				SerializedPage checked = checkDeltaBases(entry, page);
+				if (checked != page)
 				{
-					log.error("Error writing to a channel " + channel, e);
+					page = checked;
+					window = entry.manager.createPageWindow(page.getPageId(),
+						page.getVersionNumber(), page.getAjaxVersionNumber(),
+						page.getData().length);
 				}
-				finally
+
+				// register the write before anything else can release the lock
+				access = beginFileAccess(entry, window.getFilePartOffset(),
+					window.getFilePartSize(), true);
+				if (access == null)
 				{
-					// return the "borrowed" file channel
-					diskPageStore.fileChannelPool.returnFileChannel(channel);
+					log.warn("Interrupted while saving page " + page.getPageId() +
+						" for session " + sessionId);
+					return;
 				}
+				markAccessedAndReduceSize(entry);
+			}
+			try
+			{
+				diskPageStore.writePageData(entry.fileName, access.offset, page.getData());
+			}
+			finally
+			{
+				endFileAccess(entry, access);
+			}
+		}
+
+		/**
+		 * Allocates the window for given page in the pagemap file.
+		 * 
+		 * @param entry
+		 * @param page
+		 * @return page window
+		 */
+		private PageWindow allocatePageWindow(PageMapEntry entry, SerializedPage page)
+		{
+			// allocate window for page
+			PageWindow window = entry.manager.createPageWindow(page.getPageId(),
+				page.getVersionNumber(), page.getAjaxVersionNumber(), page.getData().length);
+
+			markAccessedAndReduceSize(entry);
+
+			return window;
+		}
+
+		/**
+		 * Marks the entry as last accessed and removes other pagemaps if the session got too big.
+		 * 
+		 * @param entry
+		 */
+		private void markAccessedAndReduceSize(PageMapEntry entry)
+		{
+			// remove the entry and add it to the end of entry list (to mark
+			// it as last accessed(
+			pageMapEntryList.remove(entry);
+			pageMapEntryList.add(entry);
+
+			// if we exceeded maximum session size, try to remove as many
+			// pagemap as necessary and possible
+			while (getTotalSize() > diskPageStore.getMaxSizePerSession() &&
+				pageMapEntryList.size() > 1)
+			{
+				removePageMapEntry(pageMapEntryList.get(0));
 			}
 		}
 
@@ -270,98 +611,407 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 			{
 				entry.manager.removePage(pageId);
 			}
+			forgetStoredVersions(pageMapName, pageId);
+		}
+
+		private synchronized Map<String, StoredVersion> getStoredVersions()
+		{
+			if (storedVersions == null)
+			{
+				storedVersions = new LinkedHashMap<String, StoredVersion>(16, 0.75f, true);
+			}
+			return storedVersions;
 		}
 
 		/**
-		 * Loads the part of pagemap file specified by the given PageWindow.
-		 * 
-		 * @param window
-		 * @param pageMapFileName
-		 * @return serialized page data
+		 * Keeps the stored version as base for the next delta and drops the least recently
+		 * stored versions if there are too many or their data exceeds
+		 * {@link DiskPageStore#getDeltaBaseSizePerSession()}. Must be called with the lock of the
+		 * versions held.
+		 *
+		 * @param versions
+		 * @param key
+		 * @param version
 		 */
-		public byte[] loadPage(PageWindow window, String pageMapFileName)
+		private void putStoredVersion(Map<String, StoredVersion> versions, String key,
+			StoredVersion version)
 		{
-			byte[] result = null;
-			FileChannel channel = diskPageStore.fileChannelPool.getFileChannel(pageMapFileName,
-				false);
-			if (channel != null)
+			StoredVersion previous = versions.put(key, version);
+			if (previous != null)
 			{
-				ByteBuffer buffer = ByteBuffer.allocate(window.getFilePartSize());
-				try
-				{
-					channel.read(buffer, window.getFilePartOffset());
-					if (buffer.hasArray())
-					{
-						result = buffer.array();
-					}
-				}
-				catch (IOException e)
+				storedVersionsSize -= previous.data.length;
+			}
+			storedVersionsSize += version.data.length;
+
+			long maxSize = diskPageStore.getDeltaBaseSizePerSession().bytes();
+			for (Iterator<StoredVersion> i = versions.values().iterator(); i.hasNext() &&
+				(versions.size() > MAX_STORED_VERSIONS || storedVersionsSize > maxSize);)
+			{
+				storedVersionsSize -= i.next().data.length;
+				i.remove();
+			}
+		}
+
+		private static String getStoredVersionKey(String pageMapName, int pageId)
+		{
+			return pageMapName + ":" + pageId;
+		}
+
+		/**
+		 * Replaces the page data with delta against the last stored version of the page, if
+		 * possible and worth it.
+		 *
+		 * @param page
+		 * @return page to store
+		 */
+		private SerializedPage encodeDelta(SerializedPage page)
+		{
+			byte[] data = SerializedPageCompressor.decompress(page.getData());
+			StoredVersion current = new StoredVersion(page.getVersionNumber(),
+				page.getAjaxVersionNumber(), data);
+			String key = getStoredVersionKey(page.getPageMapName(), page.getPageId());
+
+			Map<String, StoredVersion> versions = getStoredVersions();
+			StoredVersion last;
+			synchronized (versions)
+			{
+				last = versions.get(key);
+			}
+
+			byte[] delta = null;
+			// a version stored again would overwrite the base of its own delta
+			if (last != null && last.getChainLength() < diskPageStore.getDeltaChainLength() &&
+				last.contains(current.versionNumber, current.ajaxVersionNumber) == false &&
+				canBuildOn(page.getPageMapName(), page.getPageId(), last))
+			{
+				delta = SerializedPageDelta.create(last.versionNumber, last.ajaxVersionNumber,
+					last.data, data);
+				if (delta.length < page.getData().length / 2)
 				{
-					log.error("Error reading from file channel " + channel, e);
+					current.bases = StoredVersion.basesOn(last);
 				}
-				finally
+				else
 				{
-					diskPageStore.fileChannelPool.returnFileChannel(channel);
+					delta = null;
 				}
 			}
-			return result;
+
+			synchronized (versions)
+			{
+				putStoredVersion(versions, key, current);
+			}
+
+			if (delta != null)
+			{
+				return new DeltaPage(page, current, delta);
+			}
+			else
+			{
+				return page;
+			}
 		}
 
 		/**
-		 * Loads the specified page data.
-		 * 
+		 * Checks whether a delta can be stored against the given version. The version and the
+		 * versions it builds on must still be in the pagemap file, and at least half of the file
+		 * must be written again before they are overwritten. Otherwise the delta would be lost
+		 * long before a full snapshot stored in its place.
+		 *
 		 * @param pageMapName
-		 * @param id
-		 * @param versionNumber
-		 * @param ajaxVersionNumber
-		 * @return page data or null if the page is no longer in pagemap file
+		 * @param pageId
+		 * @param base
+		 * @return <code>true</code> if the delta can be stored
 		 */
-		public synchronized byte[] loadPage(String pageMapName, int id, int versionNumber,
-			int ajaxVersionNumber)
+		private synchronized boolean canBuildOn(String pageMapName, int pageId, StoredVersion base)
 		{
-			byte[] result = null;
 			PageMapEntry entry = getPageMapEntry(pageMapName, false);
-			if (entry != null)
+			if (entry == null)
 			{
-				PageWindow window = entry.manager.getPageWindow(id, versionNumber,
-					ajaxVersionNumber);
-				if (window != null)
+				return false;
+			}
+			int minimum = diskPageStore.getMaxSizePerPageMap() / 2;
+			if (entry.manager.getRemainingSize(pageId, base.versionNumber,
+				base.ajaxVersionNumber) < minimum)
+			{
+				return false;
+			}
+			for (int i = 0; i < base.bases.length; i += 2)
+			{
+				if (entry.manager.getRemainingSize(pageId, base.bases[i], base.bases[i + 1]) < minimum)
 				{
-					result = loadPage(window, entry.fileName);
+					return false;
 				}
 			}
-			return result;
+			return true;
 		}
 
 		/**
-		 * Deletes all files for this session.
+		 * Checks that the versions a delta builds on are still in the pagemap file after the
+		 * window for the delta has been allocated, which may have overwritten them. Must be
+		 * called with the lock of this entry held.
+		 *
+		 * @param entry
+		 * @param page
+		 * @return the page, or the full page if the delta can not be loaded anymore
 		 */
-		public synchronized void unbind()
+		private SerializedPage checkDeltaBases(PageMapEntry entry, SerializedPage page)
 		{
-			while (pageMapEntryList.size() > 0)
+			if (page instanceof DeltaPage == false)
 			{
-				removePageMapEntry(pageMapEntryList.get(pageMapEntryList.size() - 1));
+				return page;
 			}
-			File sessionFolder = diskPageStore.getSessionFolder(sessionId, false);
-			if (sessionFolder.exists())
+			DeltaPage delta = (DeltaPage)page;
+			int[] bases = delta.version.bases;
+			for (int i = 0; i < bases.length; i += 2)
 			{
-				sessionFolder.delete();
-				cleanup(sessionFolder);
+				if (entry.manager.getPageWindow(page.getPageId(), bases[i], bases[i + 1]) == null)
+				{
+					synchronized (getStoredVersions())
+					{
+						delta.version.bases = StoredVersion.NO_BASES;
+					}
+					return delta.full;
+				}
 			}
+			return page;
 		}
 
 		/**
-		 * Returns true if the given page exists for specified pageMap
-		 * 
+		 * Forgets the last stored versions of removed pages, so that no delta is created against
+		 * them.
+		 *
 		 * @param pageMapName
 		 * @param pageId
-		 * @param versionNumber
-		 * @return true if page exists
+		 *            page id or -1 for all pages of the pagemap
 		 */
-		public synchronized boolean exists(String pageMapName, int pageId, int versionNumber)
+		private void forgetStoredVersions(String pageMapName, int pageId)
 		{
-			PageMapEntry entry = getPageMapEntry(pageMapName, false);
-			return entry != null &&
+			Map<String, StoredVersion> versions = getStoredVersions();
+			synchronized (versions)
+			{
+				if (pageId != -1)
+				{
+					StoredVersion removed = versions.remove(getStoredVersionKey(pageMapName,
+						pageId));
+					if (removed != null)
+					{
+						storedVersionsSize -= removed.data.length;
+					}
+				}
+				else
+				{
+					String prefix = pageMapName + ":";
+					for (Iterator<Entry<String, StoredVersion>> i = versions.entrySet()
+						.iterator(); i.hasNext();)
+					{
+						Entry<String, StoredVersion> entry = i.next();
+						if (entry.getKey().startsWith(prefix))
+						{
+							storedVersionsSize -= entry.getValue().data.length;
+							i.remove();
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Loads the part of pagemap file specified by the given PageWindow.
+		 * 
+		 * @param window
+		 * @param pageMapFileName
+		 * @return serialized page data
+		 */
+		public byte[] loadPage(PageWindow window, String pageMapFileName)
+		{
+			return diskPageStore.readPageData(pageMapFileName, window.getFilePartOffset(),
+				window.getFilePartSize());
+		}
+
+		/**
+		 * Loads the specified page data.
+		 * <p>
+		 * In concurrent mode the lock of this entry is only held while looking up the page window,
+		 * so pages can be read in parallel with writes to other windows.
+		 * 
+		 * @param pageMapName
+		 * @param id
+		 * @param versionNumber
+		 * @param ajaxVersionNumber
+		 * @return page data or null if the page is no longer in pagemap file
+		 */
+		public byte[] loadPage(String pageMapName, int id, int versionNumber,
+			int ajaxVersionNumber)
+		{
+			return loadPage(pageMapName, id, versionNumber, ajaxVersionNumber, 0);
+		}
+
+		/**
+		 * Loads the specified page data and reconstructs it if it has been stored as delta.
+		 *
+		 * @param pageMapName
+		 * @param id
+		 * @param versionNumber
+		 * @param ajaxVersionNumber
+		 * @param depth
+		 *            number of deltas already being reconstructed
+		 * @return page data or null if the page (or a version it depends on) is no longer in
+		 *         pagemap file
+		 */
+		private byte[] loadPage(String pageMapName, int id, int versionNumber,
+			int ajaxVersionNumber, int depth)
+		{
+			byte[] data = loadPageData(pageMapName, id, versionNumber, ajaxVersionNumber);
+			if (SerializedPageDelta.isDelta(data) == false)
+			{
+				return data;
+			}
+
+			// versions stored again after a rollback can in theory form a cycle
+			if (depth > diskPageStore.getDeltaChainLength())
+			{
+				log.warn("Delta chain of page " + id + " in pagemap " + pageMapName +
+					" is too long");
+				return null;
+			}
+
+			byte[] base = loadPage(pageMapName, id,
+				SerializedPageDelta.getBaseVersionNumber(data),
+				SerializedPageDelta.getBaseAjaxVersionNumber(data), depth + 1);
+			if (base == null)
+			{
+				log.debug("Version " + SerializedPageDelta.getBaseVersionNumber(data) +
+					" of page " + id + " in pagemap " + pageMapName +
+					" is not in the pagemap file anymore, the delta can not be loaded");
+				return null;
+			}
+			return SerializedPageDelta.apply(SerializedPageCompressor.decompress(base), data);
+		}
+
+		private byte[] loadPageData(String pageMapName, int id, int versionNumber,
+			int ajaxVersionNumber)
+		{
+			if (diskPageStore.isConcurrent() == false)
+			{
+				synchronized (this)
+				{
+					byte[] result = null;
+					PageMapEntry entry = getPageMapEntry(pageMapName, false);
+					if (entry != null)
+					{
+						PageWindow window = entry.manager.getPageWindow(id, versionNumber,
+							ajaxVersionNumber);
+						if (window != null)
+						{
+							result = loadPage(window, entry.fileName);
+						}
+					}
+					return result;
+				}
+			}
+
+			PageMapEntry entry;
+			PendingFileAccess access;
+			synchronized (this)
+			{
+				entry = getPageMapEntry(pageMapName, false);
+				if (entry == null)
+				{
+					return null;
+				}
+				PageWindow window = entry.manager.getPageWindow(id, versionNumber,
+					ajaxVersionNumber);
+				if (window == null)
+				{
+					return null;
+				}
+				access = beginFileAccess(entry, window.getFilePartOffset(),
+					window.getFilePartSize(), false);
+				if (access == null)
+				{
+					return null;
+				}
+			}
+			try
+			{
+				return diskPageStore.readPageData(entry.fileName, access.offset, access.size);
+			}
+			finally
+			{
+				endFileAccess(entry, access);
+			}
+		}
+
+		/**
+		 * Writes the pagemap entries of this session for the binary index.
+		 * 
+		 * @param out
+		 * @throws IOException
+		 */
+		private synchronized void writeTo(DataOutputStream out) throws IOException
+		{
+			out.writeInt(pageMapEntryList.size());
+			for (Iterator<PageMapEntry> i = pageMapEntryList.iterator(); i.hasNext();)
+			{
+				PageMapEntry entry = i.next();
+				out.writeBoolean(entry.pageMapName != null);
+				if (entry.pageMapName != null)
+				{
+					out.writeUTF(entry.pageMapName);
+				}
+				out.writeUTF(entry.fileName);
+				entry.manager.writeTo(out);
+			}
+		}
+
+		/**
+		 * Reads the pagemap entries written by {@link #writeTo(DataOutputStream)}.
+		 * 
+		 * @param in
+		 * @throws IOException
+		 */
+		private void readFrom(DataInputStream in) throws IOException
+		{
+			int count = in.readInt();
+			for (int i = 0; i < count; ++i)
+			{
+				PageMapEntry entry = new PageMapEntry();
+				entry.pageMapName = in.readBoolean() ? in.readUTF() : null;
+				entry.fileName = in.readUTF();
+				entry.manager = PageWindowManager.readFrom(in);
+				pageMapEntryList.add(entry);
+			}
+		}
+
+		/**
+		 * Deletes all files for this session.
+		 */
+		public synchronized void unbind()
+		{
+			while (pageMapEntryList.size() > 0)
+			{
+				removePageMapEntry(pageMapEntryList.get(pageMapEntryList.size() - 1));
+			}
+			File sessionFolder = diskPageStore.getSessionFolder(sessionId, false);
+			if (sessionFolder.exists())
+			{
+				sessionFolder.delete();
+				cleanup(sessionFolder);
+			}
+		}
+
+		/**
+		 * Returns true if the given page exists for specified pageMap
+		 * 
+		 * @param pageMapName
+		 * @param pageId
+		 * @param versionNumber
+		 * @return true if page exists
+		 */
+		public synchronized boolean exists(String pageMapName, int pageId, int versionNumber)
+		{
+			PageMapEntry entry = getPageMapEntry(pageMapName, false);
+			return entry != null &&
 				entry.getManager().getPageWindow(pageId, versionNumber, -1) != null;
 		}
 
@@ -389,6 +1039,89 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 		}
 	}
 
+	/**
+	 * Writes the serialized page data to the given position of the pagemap file. The file is
+	 * created if it doesn't exist.
+	 * 
+	 * @param pageMapFileName
+	 * @param offset
+	 * @param data
+	 */
+	protected void writePageData(String pageMapFileName, int offset, byte[] data)
+	{
+		// take the filechannel from the pool
+		FileChannel channel = fileChannelPool.getFileChannel(pageMapFileName, true);
+		try
+		{
+			// write the content
+			channel.write(ByteBuffer.wrap(data), offset);
+		}
+		catch (IOException e)
+		{
+			log.error("Error writing to a channel " + channel, e);
+		}
+		finally
+		{
+			// return the "borrowed" file channel
+			fileChannelPool.returnFileChannel(channel);
+		}
+	}
+
+	/**
+	 * Reads the part of the pagemap file.
+	 * 
+	 * @param pageMapFileName
+	 * @param offset
+	 * @param size
+	 * @return serialized page data or null if the file doesn't exist
+	 */
+	protected byte[] readPageData(String pageMapFileName, int offset, int size)
+	{
+		byte[] result = null;
+		FileChannel channel = fileChannelPool.getFileChannel(pageMapFileName, false);
+		if (channel != null)
+		{
+			ByteBuffer buffer = ByteBuffer.allocate(size);
+			try
+			{
+				channel.read(buffer, offset);
+				if (buffer.hasArray())
+				{
+					result = buffer.array();
+				}
+			}
+			catch (IOException e)
+			{
+				log.error("Error reading from file channel " + channel, e);
+			}
+			finally
+			{
+				fileChannelPool.returnFileChannel(channel);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Deletes the pagemap file. The file channel is closed once all borrowers returned it.
+	 * 
+	 * @param pageMapFileName
+	 */
+	protected void deletePageMapFile(String pageMapFileName)
+	{
+		fileChannelPool.closeAndDeleteFileChannel(pageMapFileName);
+	}
+
+	/**
+	 * Returns the pool of opened pagemap files.
+	 * 
+	 * @return file channel pool
+	 */
+	protected FileChannelPool getFileChannelPool()
+	{
+		return fileChannelPool;
+	}
+
 	private File getStoreFolder()
 	{
 		File storeFolder = new File(fileStoreFolder, appName + "-filestore");
@@ -495,6 +1228,8 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 
 	private final File fileStoreFolder;
 
+	private final OffHeapPageCache offHeapPageCache;
+
 	/**
 	 * Returns the "root" file store folder.
 	 * 
@@ -525,9 +1260,27 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 	{
 		maxSizePerPageMap = maxSizePerPagemap;
 		this.maxSizePerSession = maxSizePerSession;
-		fileChannelPool = new FileChannelPool(fileChannelPoolCapacity);
+		if (isConcurrent())
+		{
+			fileChannelPool = new StripedFileChannelPool(fileChannelPoolCapacity,
+				getFileChannelPoolStripeCount());
+		}
+		else
+		{
+			fileChannelPool = new FileChannelPool(fileChannelPoolCapacity);
+		}
 		this.fileStoreFolder = fileStoreFolder;
 
+		Bytes offHeapPageCacheSize = getOffHeapPageCacheSize();
+		if (offHeapPageCacheSize != null && offHeapPageCacheSize.bytes() > 0)
+		{
+			offHeapPageCache = new OffHeapPageCache(offHeapPageCacheSize.bytes());
+		}
+		else
+		{
+			offHeapPageCache = null;
+		}
+
 		if (maxSizePerSession < maxSizePerPageMap)
 		{
 			throw new IllegalArgumentException(
@@ -542,11 +1295,44 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 		initPageSavingThread();
 	}
 
-	@SuppressWarnings("unchecked")
+	private static final String INDEX_FILE_NAME = "DiskPageStoreIndex.bin";
+
+	// the index being read lazily, renamed so that a crash doesn't leave it behind as valid index
+	private static final String LOADED_INDEX_FILE_NAME = "DiskPageStoreIndex.bin.loaded";
+
+	// index written by previous versions (serialized session entry map)
+	private static final String LEGACY_INDEX_FILE_NAME = "DiskPageStoreIndex";
+
+	// sessions of the index file that haven't been accessed since the store was created
+	private volatile DiskPageStoreIndex unloadedIndex;
+
 	private void loadIndex()
 	{
 		File storeFolder = getStoreFolder();
-		File index = new File(storeFolder, "DiskPageStoreIndex");
+
+		File loaded = new File(storeFolder, LOADED_INDEX_FILE_NAME);
+		loaded.delete();
+
+		File index = new File(storeFolder, INDEX_FILE_NAME);
+		if (index.exists() && index.renameTo(loaded))
+		{
+			try
+			{
+				unloadedIndex = new DiskPageStoreIndex(loaded);
+			}
+			catch (Exception e)
+			{
+				log.error("Couldn't load DiskPageStore index from file " + index + ".", e);
+				loaded.delete();
+			}
+		}
+
+		loadLegacyIndex(new File(storeFolder, LEGACY_INDEX_FILE_NAME));
+	}
+
+	@SuppressWarnings("unchecked")
+	private void loadLegacyIndex(File index)
+	{
 		if (index.exists() && index.length() > 0)
 		{
 			try
@@ -573,28 +1359,100 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 		index.delete();
 	}
 
+	/**
+	 * Reads the entry of given session from the index file, if the session hasn't been accessed
+	 * yet. Must be called with the sessionIdToEntryMap monitor held.
+	 * 
+	 * @param sessionId
+	 * @return session entry or null if the session is not in the index
+	 */
+	private SessionEntry loadIndexedSessionEntry(String sessionId)
+	{
+		DiskPageStoreIndex index = unloadedIndex;
+		if (index == null || index.contains(sessionId) == false)
+		{
+			return null;
+		}
+		try
+		{
+			byte[] body = index.remove(sessionId);
+			if (body == null)
+			{
+				return null;
+			}
+			SessionEntry entry = new SessionEntry(this);
+			entry.sessionId = sessionId;
+			entry.readFrom(new DataInputStream(new ByteArrayInputStream(body)));
+			sessionIdToEntryMap.put(sessionId, entry);
+			return entry;
+		}
+		catch (IOException e)
+		{
+			log.error("Couldn't load DiskPageStore index entry of session " + sessionId + ".", e);
+			return null;
+		}
+	}
+
 	private void saveIndex()
 	{
 		File storeFolder = getStoreFolder();
 		if (storeFolder.exists())
 		{
-			File index = new File(storeFolder, "DiskPageStoreIndex");
-			index.delete();
+			File index = new File(storeFolder, INDEX_FILE_NAME);
+			File temp = new File(storeFolder, INDEX_FILE_NAME + ".tmp");
 			try
 			{
-				OutputStream stream = new FileOutputStream(index);
-				ObjectOutputStream oos = new ObjectOutputStream(stream);
-				oos.writeObject(sessionIdToEntryMap);
-				stream.close();
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(temp)));
+				try
+				{
+					DiskPageStoreIndex.writeHeader(out);
+					ByteArrayOutputStream body = new ByteArrayOutputStream();
+					for (Iterator<SessionEntry> i = sessionIdToEntryMap.values().iterator(); i.hasNext();)
+					{
+						SessionEntry entry = i.next();
+						body.reset();
+						DataOutputStream bodyOut = new DataOutputStream(body);
+						entry.writeTo(bodyOut);
+						bodyOut.flush();
+						DiskPageStoreIndex.writeRecord(out, entry.sessionId, body.toByteArray());
+					}
+					if (unloadedIndex != null)
+					{
+						unloadedIndex.copyRecordsTo(out);
+					}
+				}
+				finally
+				{
+					out.close();
+				}
+				index.delete();
+				if (temp.renameTo(index) == false)
+				{
+					log.error("Couldn't rename DiskPageStore index file " + temp + " to " + index +
+						".");
+				}
 			}
 			catch (Exception e)
 			{
 				log.error("Couldn't write DiskPageStore index to file " + index + ".", e);
+				temp.delete();
 			}
 		}
+		if (unloadedIndex != null)
+		{
+			unloadedIndex.delete();
+			unloadedIndex = null;
+		}
 	}
 
-	private static File getDefaultFileStoreFolder()
+	/**
+	 * Returns the folder used when no file store folder is specified, i.e. the servlet context
+	 * temporary directory.
+	 * 
+	 * @return default file store folder
+	 */
+	protected static File getDefaultFileStoreFolder()
 	{
 		final File dir = (File)((WebApplication)Application.get()).getServletContext()
 			.getAttribute("javax.servlet.context.tempdir");
@@ -648,6 +1506,8 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 	{
 		if (!isSynchronous())
 		{
+			stopPageSavingThreads();
+
 			// make sure that all pages are saved in asynchronous mode
 			synchronized (pagesToSaveAll)
 			{
@@ -666,17 +1526,22 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 		saveIndex();
 
 		fileChannelPool.destroy();
-		if (pageSavingThread != null)
-		{
-			pageSavingThread.stop();
-		}
 	}
 
 	private Map<String, SessionEntry> sessionIdToEntryMap = new ConcurrentHashMap<String, SessionEntry>();
 
+	private boolean isIndexed(String sessionId)
+	{
+		DiskPageStoreIndex index = unloadedIndex;
+		return index != null && index.contains(sessionId);
+	}
+
 	/**
 	 * Returns the SessionEntry for session with given id. If the entry does not yet exist and the
 	 * createIfDoesNotExist attribute is set, new SessionEntry will be created.
+	 * <p>
+	 * Entries of sessions stored in the index file are read when they are accessed for the first
+	 * time.
 	 * 
 	 * @param sessionId
 	 * @param createIfDoesNotExist
@@ -685,12 +1550,16 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 	protected SessionEntry getSessionEntry(String sessionId, boolean createIfDoesNotExist)
 	{
 		SessionEntry entry = sessionIdToEntryMap.get(sessionId);
-		if (entry == null && createIfDoesNotExist)
+		if (entry == null && (createIfDoesNotExist || isIndexed(sessionId)))
 		{
 			synchronized (sessionIdToEntryMap)
 			{
 				entry = sessionIdToEntryMap.get(sessionId);
 				if (entry == null)
+				{
+					entry = loadIndexedSessionEntry(sessionId);
+				}
+				if (entry == null && createIfDoesNotExist)
 				{
 					entry = new SessionEntry(this);
 					entry.sessionId = sessionId;
@@ -716,7 +1585,7 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 
 			if (isSynchronous())
 			{
-				data = entry.loadPage(pagemap, id, versionNumber, ajaxVersionNumber);
+				data = loadPageData(entry, pagemap, id, versionNumber, ajaxVersionNumber);
 			}
 			else
 			{
@@ -726,7 +1595,7 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 				synchronized (pages)
 				{
 					flushPagesToSaveList(sessionId, pages);
-					data = entry.loadPage(pagemap, id, versionNumber, ajaxVersionNumber);
+					data = loadPageData(entry, pagemap, id, versionNumber, ajaxVersionNumber);
 				}
 			}
 
@@ -741,8 +1610,57 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 	}
 
 	/**
-	 * @see org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IPageStore#pageAccessed(java.lang.String,
-	 *      org.apache.wicket.Page)
+	 * Loads the page data from the off-heap cache if possible, otherwise from the pagemap file.
+	 * 
+	 * @param entry
+	 * @param pageMapName
+	 * @param id
+	 * @param versionNumber
+	 *            version number or -1 for last version
+	 * @param ajaxVersionNumber
+	 *            ajax version number or -1 for last ajax version
+	 * @return page data or null if the page is no longer in pagemap file
+	 */
+	private byte[] loadPageData(SessionEntry entry, String pageMapName, int id,
+		int versionNumber, int ajaxVersionNumber)
+	{
+		if (offHeapPageCache == null)
+		{
+			return entry.loadPage(pageMapName, id, versionNumber, ajaxVersionNumber);
+		}
+
+		// the cache only knows exact versions, -1 is resolved by the pagemap file index. Only
+		// pages that are still in the file are returned from cache
+		synchronized (entry)
+		{
+			PageMapEntry pageMapEntry = entry.getPageMapEntry(pageMapName, false);
+			PageWindow window = pageMapEntry != null ? pageMapEntry.manager.getPageWindow(id,
+				versionNumber, ajaxVersionNumber) : null;
+			if (window == null)
+			{
+				return null;
+			}
+			versionNumber = window.getVersionNumber();
+			ajaxVersionNumber = window.getAjaxVersionNumber();
+		}
+
+		byte[] data = offHeapPageCache.getPage(entry.getSessionId(), pageMapName, id,
+			versionNumber, ajaxVersionNumber);
+		if (data == null)
+		{
+			data = entry.loadPage(pageMapName, id, versionNumber, ajaxVersionNumber);
+			if (data != null)
+			{
+				offHeapPageCache.storePage(entry.getSessionId(), pageMapName, id, versionNumber,
+					ajaxVersionNumber, data);
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.SecondLevelCacheSessionStore.IPageStore#pageAccessed(java.lang.String,
+	 *      org.apache.wicket.Page)
 	 */
 	public void pageAccessed(String sessionId, Page page)
 	{
@@ -774,6 +1692,11 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 	 */
 	public void removePage(String sessionId, String pageMap, int id)
 	{
+		if (offHeapPageCache != null)
+		{
+			offHeapPageCache.removePages(sessionId, pageMap, id, false);
+		}
+
 		SessionEntry entry = getSessionEntry(sessionId, false);
 		if (entry != null)
 		{
@@ -806,6 +1729,19 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 	{
 		SessionEntry entry = getSessionEntry(sessionId, true);
 
+		if (offHeapPageCache != null)
+		{
+			for (Iterator<SerializedPage> i = pages.iterator(); i.hasNext();)
+			{
+				SerializedPage page = i.next();
+				if (page.getData() != null)
+				{
+					offHeapPageCache.storePage(sessionId, page.getPageMapName(), page.getPageId(),
+						page.getVersionNumber(), page.getAjaxVersionNumber(), page.getData());
+				}
+			}
+		}
+
 		if (isSynchronous())
 		{
 			for (Iterator<SerializedPage> i = pages.iterator(); i.hasNext();)
@@ -851,6 +1787,14 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 	 */
 	public void unbind(String sessionId)
 	{
+		if (offHeapPageCache != null)
+		{
+			offHeapPageCache.removePages(sessionId, null, -1, true);
+		}
+
+		// make sure that entry of session that hasn't been accessed since restart is read
+		getSessionEntry(sessionId, false);
+
 		SessionEntry entry = sessionIdToEntryMap.remove(sessionId);
 		if (entry != null)
 		{
@@ -865,11 +1809,12 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 				{
 					synchronized (pages)
 					{
-						pages.clear();
+						clearPagesToSaveList(pages);
 					}
 					entry.unbind();
 				}
 				pagesToSaveAll.remove(sessionId);
+				pagesToSaveActive.remove(sessionId);
 			}
 		}
 	}
@@ -921,7 +1866,7 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 				try
 				{
 					SerializedPage page = i.next();
-					getSessionEntry(sessionId, true).savePage(page);
+					savePage(sessionId, page);
 				}
 				catch (Exception e)
 				{
@@ -930,10 +1875,49 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 					log.error("Error flushing page", e);
 				}
 			}
-			list.clear();
+			clearPagesToSaveList(list);
 		}
 	}
 
+	/**
+	 * Policy applied when a page should be scheduled for saving but the number of pages waiting to
+	 * be saved has reached {@link DiskPageStore#getSavingQueueCapacity()}.
+	 */
+	public static enum SavingQueueOverflowPolicy {
+		/**
+		 * The request thread waits until the page saving threads make room in the queue.
+		 */
+		BLOCK,
+
+		/**
+		 * The page (and all pages of the same session waiting in queue) is saved by the request
+		 * thread.
+		 */
+		WRITE_THROUGH,
+
+		/**
+		 * The oldest waiting version of the same page (or the oldest waiting page of the session)
+		 * is discarded and will not be available anymore. If the session has no pages waiting, the
+		 * page is saved by the request thread.
+		 */
+		DROP_OLDEST_VERSION
+	}
+
+	/**
+	 * Clears the list of pages to be saved and frees their slots in the saving queue. Must be called
+	 * with the list monitor held.
+	 * 
+	 * @param list
+	 */
+	private void clearPagesToSaveList(List<SerializedPage> list)
+	{
+		if (savingQueueSlots != null && list.isEmpty() == false)
+		{
+			savingQueueSlots.release(list.size());
+		}
+		list.clear();
+	}
+
 	/**
 	 * Schedules the pages to be saved by the worker thread.
 	 * 
@@ -943,15 +1927,134 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 	private void schedulePagesSave(String sessionId, List<SerializedPage> pages)
 	{
 		List<SerializedPage> list = getPagesToSaveList(sessionId);
-		synchronized (list)
+		for (Iterator<SerializedPage> i = pages.iterator(); i.hasNext();)
+		{
+			SerializedPage page = i.next();
+			if (reserveSavingQueueSlot(list, page))
+			{
+				synchronized (list)
+				{
+					list.add(page);
+
+					if (pagesToSaveActive.containsKey(sessionId) == false)
+					{
+						pagesToSaveActive.put(sessionId, list);
+						getPageSavingWorker(sessionId).schedule(sessionId);
+					}
+				}
+			}
+			else
+			{
+				// queue is full, save the page in this thread
+				synchronized (list)
+				{
+					flushPagesToSaveList(sessionId, list);
+					savePage(sessionId, page);
+				}
+				writeThroughPageCount.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Makes room in the saving queue for the page according to the overflow policy.
+	 * 
+	 * @param list
+	 *            list of pages waiting to be saved for the page's session
+	 * @param page
+	 * @return <code>true</code> if the page can be added to queue, <code>false</code> if it must
+	 *         be saved by the calling thread
+	 */
+	private boolean reserveSavingQueueSlot(List<SerializedPage> list, SerializedPage page)
+	{
+		if (savingQueueSlots.tryAcquire())
 		{
-			list.addAll(pages);
+			return true;
+		}
 
-			if (list.size() > 0 && pagesToSaveActive.containsKey(sessionId) == false)
+		SavingQueueOverflowPolicy policy = getSavingQueueOverflowPolicy();
+		if (policy == SavingQueueOverflowPolicy.BLOCK)
+		{
+			try
+			{
+				savingQueueSlots.acquire();
+				return true;
+			}
+			catch (InterruptedException e)
 			{
-				pagesToSaveActive.put(sessionId, list);
+				Thread.currentThread().interrupt();
+				return false;
 			}
 		}
+		else if (policy == SavingQueueOverflowPolicy.DROP_OLDEST_VERSION)
+		{
+			synchronized (list)
+			{
+				if (list.isEmpty())
+				{
+					return false;
+				}
+
+				int index = 0;
+				for (int i = 0; i < list.size(); ++i)
+				{
+					SerializedPage candidate = list.get(i);
+					if (candidate.getPageId() == page.getPageId() &&
+						Objects.equal(candidate.getPageMapName(), page.getPageMapName()))
+					{
+						index = i;
+						break;
+					}
+				}
+
+				// the slot of the removed page is taken over by the new one
+				SerializedPage dropped = list.remove(index);
+				droppedPageCount.incrementAndGet();
+				if (log.isDebugEnabled())
+				{
+					log.debug("Saving queue is full, dropping page " + dropped.getPageId() +
+						" version " + dropped.getVersionNumber());
+				}
+				return true;
+			}
+		}
+		else
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Saves the page and records the time it took.
+	 * 
+	 * @param sessionId
+	 * @param page
+	 */
+	private void savePage(String sessionId, SerializedPage page)
+	{
+		long start = System.nanoTime();
+		getSessionEntry(sessionId, true).savePage(page);
+		long time = System.nanoTime() - start;
+
+		savedPageCount.incrementAndGet();
+		totalPageSaveNanos.addAndGet(time);
+		long max = maxPageSaveNanos.get();
+		while (time > max && maxPageSaveNanos.compareAndSet(max, time) == false)
+		{
+			max = maxPageSaveNanos.get();
+		}
+	}
+
+	/**
+	 * Returns the worker responsible for saving pages of given session. All pages of one session
+	 * are saved by the same worker, so they are written in the order they were stored.
+	 * 
+	 * @param sessionId
+	 * @return page saving worker
+	 */
+	private PageSavingWorker getPageSavingWorker(String sessionId)
+	{
+		return pageSavingWorkers[(sessionId.hashCode() & 0x7FFFFFFF) % pageSavingWorkers.length];
 	}
 
 	/**
@@ -960,38 +2063,43 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 	 * 
 	 * @author Matej Knopp
 	 */
-	private class PageSavingThread implements Runnable
+	private class PageSavingWorker implements Runnable
 	{
-		private volatile Boolean stop = Boolean.FALSE;
+		private volatile boolean stop = false;
+
+		// ids of sessions that have pages waiting to be saved
+		private final BlockingQueue<String> sessionIds = new LinkedBlockingQueue<String>();
+
+		private Thread thread;
+
+		private void schedule(String sessionId)
+		{
+			sessionIds.add(sessionId);
+		}
 
 		public void run()
 		{
-			try {
-				while (stop == Boolean.FALSE)
+			while (stop == false)
+			{
+				String sessionId;
+				try
 				{
-					// TODO: At some point change to wait/notify
-					// wait until we have something to save
-					while (pagesToSaveActive.isEmpty() && stop == false)
-					{
-						try
-						{
-							Thread.sleep(getSavingThreadSleepTime());
-						}
-						catch (InterruptedException ignore)
-						{
-						}
-					}
+					// wake up periodically to check the stop flag
+					sessionId = sessionIds.poll(getSavingThreadSleepTime(), TimeUnit.MILLISECONDS);
+				}
+				catch (InterruptedException ignore)
+				{
+					continue;
+				}
 
-					// iterate through lists of pages to be saved
-					for (Iterator<Entry<String, List<SerializedPage>>> i = pagesToSaveActive.entrySet()
-						.iterator(); i.hasNext();)
+				if (sessionId != null)
+				{
+					List<SerializedPage> pages = pagesToSaveActive.get(sessionId);
+					if (pages != null)
 					{
-						Entry<String, List<SerializedPage>> entry = i.next();
-						String sessionId = entry.getKey();
-						List<SerializedPage> pages = entry.getValue();
-
 						synchronized (pages)
 						{
+							pagesToSaveActive.remove(sessionId);
 							try
 							{
 								flushPagesToSaveList(sessionId, pages);
@@ -1002,61 +2110,174 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 									"Error flushing serialized pages from worker thread for session " +
 										sessionId, e);
 							}
-							i.remove();
 						}
 					}
 				}
-			} finally {
-				stop = null;
 			}
 		}
 
 		/**
-		 * Stops the worker thread.
+		 * Stops the worker thread and blocks the calling thread until it has really stopped.
 		 */
 		public void stop()
 		{
-			if (stop == null)
-			{
-				return;
-			}
-
-			stop = Boolean.TRUE;
-
-			// Block the calling thread until this thread has really stopped running
-			while (stop != null)
+			stop = true;
+			boolean interrupted = false;
+			while (thread.isAlive())
 			{
 				try
 				{
-					Thread.sleep(getSavingThreadSleepTime());
+					thread.join();
 				}
-				catch (InterruptedException ignore)
+				catch (InterruptedException e)
 				{
+					interrupted = true;
 				}
 			}
+			if (interrupted)
+			{
+				Thread.currentThread().interrupt();
+			}
 		}
 	};
 
 	/**
-	 * Initializes the worker thread.
+	 * Initializes the worker threads.
 	 */
 	private void initPageSavingThread()
 	{
 		if (isSynchronous() == false)
 		{
-			pageSavingThread = new PageSavingThread();
-			Thread t = new Thread(pageSavingThread, "PageSavingThread-" + appName);
-			t.setDaemon(true);
-			t.setPriority(Thread.MAX_PRIORITY);
-			t.start();
+			savingQueueSlots = new Semaphore(getSavingQueueCapacity());
+
+			int count = getSavingThreadCount();
+			pageSavingWorkers = new PageSavingWorker[count];
+			for (int i = 0; i < count; ++i)
+			{
+				PageSavingWorker worker = new PageSavingWorker();
+				String name = "PageSavingThread-" + appName + (count > 1 ? "-" + i : "");
+				worker.thread = new Thread(worker, name);
+				worker.thread.setDaemon(true);
+				worker.thread.setPriority(Thread.MAX_PRIORITY);
+				pageSavingWorkers[i] = worker;
+				worker.thread.start();
+			}
 		}
 	}
 
-	private PageSavingThread pageSavingThread = null;
+	/**
+	 * Stops the worker threads.
+	 */
+	private void stopPageSavingThreads()
+	{
+		if (pageSavingWorkers != null)
+		{
+			for (int i = 0; i < pageSavingWorkers.length; ++i)
+			{
+				pageSavingWorkers[i].stop();
+			}
+		}
+	}
+
+	private PageSavingWorker[] pageSavingWorkers = null;
+
+	// limits the number of pages waiting to be saved
+	private Semaphore savingQueueSlots;
+
+	private final AtomicLong savedPageCount = new AtomicLong();
+	private final AtomicLong totalPageSaveNanos = new AtomicLong();
+	private final AtomicLong maxPageSaveNanos = new AtomicLong();
+	private final AtomicLong droppedPageCount = new AtomicLong();
+	private final AtomicLong writeThroughPageCount = new AtomicLong();
+
+	/**
+	 * Returns the number of threads saving pages in asynchronous mode. Pages of one session are
+	 * always saved by the same thread.
+	 * 
+	 * @return number of page saving threads
+	 */
+	protected int getSavingThreadCount()
+	{
+		return 1;
+	}
+
+	/**
+	 * Returns the maximum number of pages waiting to be saved in asynchronous mode. When the
+	 * number is reached, {@link #getSavingQueueOverflowPolicy()} is applied.
+	 * 
+	 * @return saving queue capacity
+	 */
+	protected int getSavingQueueCapacity()
+	{
+		return 1000;
+	}
+
+	/**
+	 * Returns what to do when the saving queue is full.
+	 * 
+	 * @see #getSavingQueueCapacity()
+	 * 
+	 * @return overflow policy
+	 */
+	protected SavingQueueOverflowPolicy getSavingQueueOverflowPolicy()
+	{
+		return SavingQueueOverflowPolicy.WRITE_THROUGH;
+	}
+
+	/**
+	 * @return number of pages currently waiting to be saved
+	 */
+	public int getPagesToSaveCount()
+	{
+		return savingQueueSlots != null ? getSavingQueueCapacity() -
+			savingQueueSlots.availablePermits() : 0;
+	}
+
+	/**
+	 * @return number of pages saved to disk
+	 */
+	public long getSavedPageCount()
+	{
+		return savedPageCount.get();
+	}
+
+	/**
+	 * @return summed time (in nanoseconds) of writing the pages to disk
+	 */
+	public long getTotalPageSaveNanos()
+	{
+		return totalPageSaveNanos.get();
+	}
+
+	/**
+	 * @return longest time (in nanoseconds) of writing a page to disk
+	 */
+	public long getMaxPageSaveNanos()
+	{
+		return maxPageSaveNanos.get();
+	}
 
 	/**
-	 * Returns the amount time in milliseconds for the saving thread to sleep between checking
-	 * whether there are pending serialized pages to be saved.
+	 * @return number of pages discarded because the saving queue was full
+	 * @see SavingQueueOverflowPolicy#DROP_OLDEST_VERSION
+	 */
+	public long getDroppedPageCount()
+	{
+		return droppedPageCount.get();
+	}
+
+	/**
+	 * @return number of pages saved by the request thread because the saving queue was full
+	 * @see SavingQueueOverflowPolicy#WRITE_THROUGH
+	 */
+	public long getWriteThroughPageCount()
+	{
+		return writeThroughPageCount.get();
+	}
+
+	/**
+	 * Returns the amount time in milliseconds for the saving threads to wait for pending
+	 * serialized pages before checking whether they should stop.
 	 * 
 	 * @return sleep time
 	 */
@@ -1067,7 +2288,7 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 
 	/**
 	 * Returns whether the {@link DiskPageStore} should work in synchronous or asynchronous mode.
-	 * Asynchronous mode uses a worker thread to save pages, which results in smoother performance.
+	 * Asynchronous mode uses worker threads to save pages, which results in smoother performance.
 	 * 
 	 * @return <code>true</code> store is synchronous
 	 */
@@ -1076,8 +2297,80 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 		return false;
 	}
 
+	/**
+	 * Returns whether the {@link DiskPageStore} should work in concurrent mode. In concurrent mode
+	 * the pages of one session are read and written without holding the session lock (only the
+	 * page window bookkeeping is done under the lock) and the file channel pool is split into
+	 * stripes by pagemap file name, so that concurrent sessions do not serialize on a single
+	 * monitor.
+	 * 
+	 * @return <code>true</code> if store is concurrent
+	 */
+	protected boolean isConcurrent()
+	{
+		return false;
+	}
+
+	/**
+	 * Returns the number of stripes of the file channel pool in concurrent mode.
+	 * 
+	 * @see #isConcurrent()
+	 * @see StripedFileChannelPool
+	 * 
+	 * @return number of stripes
+	 */
+	protected int getFileChannelPoolStripeCount()
+	{
+		return 16;
+	}
+
+	/**
+	 * Returns the maximum number of consecutive page versions stored as deltas. If greater than
+	 * zero, a page version is stored as binary delta against the previously stored version of the
+	 * same page (see {@link SerializedPageDelta}) whenever that's considerably smaller than the
+	 * full serialized data. After the given number of deltas a full snapshot is stored again.
+	 * Loading a version then needs to read and apply at most that many deltas.
+	 * <p>
+	 * Note that a delta can only be loaded as long as the versions it builds on are still in the
+	 * pagemap file. Longer chains save more space but make more versions depend on the oldest
+	 * snapshot.
+	 *
+	 * @return maximum delta chain length, 0 to store every version as full snapshot
+	 */
+	protected int getDeltaChainLength()
+	{
+		return 0;
+	}
+
+	/**
+	 * Returns how much uncompressed page data each session keeps on the heap as the base for the
+	 * next delta (see {@link #getDeltaChainLength()}). Pages whose last version isn't kept
+	 * anymore are stored as full snapshot.
+	 *
+	 * @return maximum size of the delta bases per session
+	 */
+	protected Bytes getDeltaBaseSizePerSession()
+	{
+		return Bytes.kilobytes(512);
+	}
+
+	/**
+	 * Returns the size of the off-heap cache of serialized pages. The cache keeps the data of
+	 * recently stored and loaded pages in direct memory outside of the Java heap, so that going
+	 * back to a previous page version usually doesn't need to read the pagemap file. The memory is
+	 * allocated when the store is created.
+	 * 
+	 * @return size of the off-heap page cache, zero (or null) to disable the cache
+	 */
+	protected Bytes getOffHeapPageCacheSize()
+	{
+		return Bytes.bytes(0);
+	}
+
 	private int lastRecentlySerializedPagesCacheSize = 50;
 
+	private long lastRecentlySerializedPagesCacheMaxBytes = Bytes.megabytes(10).bytes();
+
 	/**
 	 * Sets the number of last recently serialized pages kept in cache. The cache is used to aid
 	 * performance on session replication.
@@ -1087,6 +2380,7 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 	public void setLastRecentlySerializedPagesCacheSize(int lastRecentlySerializedPagesCacheSize)
 	{
 		this.lastRecentlySerializedPagesCacheSize = lastRecentlySerializedPagesCacheSize;
+		serializedPagesCache.setSize(lastRecentlySerializedPagesCacheSize);
 	}
 
 	/**
@@ -1097,8 +2391,94 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 		return lastRecentlySerializedPagesCacheSize;
 	}
 
+	/**
+	 * Sets the maximum summed size of serialized pages kept in the last recently serialized pages
+	 * cache. The last recently used pages are removed from cache when the size is exceeded.
+	 * 
+	 * @param maxBytes
+	 */
+	public void setLastRecentlySerializedPagesCacheMaxBytes(Bytes maxBytes)
+	{
+		lastRecentlySerializedPagesCacheMaxBytes = maxBytes.bytes();
+		serializedPagesCache.setMaxBytes(lastRecentlySerializedPagesCacheMaxBytes);
+	}
+
+	/**
+	 * @return maximum summed size of serialized pages in cache
+	 */
+	protected Bytes getLastRecentlySerializedPagesCacheMaxBytes()
+	{
+		return Bytes.bytes(lastRecentlySerializedPagesCacheMaxBytes);
+	}
+
+	/**
+	 * @return number of lookups of serialized pages that have been found in cache
+	 */
+	public long getSerializedPagesCacheHits()
+	{
+		return serializedPagesCache.getHits();
+	}
+
+	/**
+	 * @return number of lookups of serialized pages that have not been found in cache
+	 */
+	public long getSerializedPagesCacheMisses()
+	{
+		return serializedPagesCache.getMisses();
+	}
+
+	/**
+	 * @return number of serialized pages removed from cache because it was full
+	 */
+	public long getSerializedPagesCacheEvictions()
+	{
+		return serializedPagesCache.getEvictions();
+	}
+
+	/**
+	 * @return summed size of serialized pages currently held in cache
+	 */
+	public Bytes getSerializedPagesCacheSize()
+	{
+		return Bytes.bytes(serializedPagesCache.getBytes());
+	}
+
+	/**
+	 * @return number of page loads served by the off-heap page cache, 0 if the cache is disabled
+	 */
+	public long getOffHeapPageCacheHits()
+	{
+		return offHeapPageCache != null ? offHeapPageCache.getHits() : 0;
+	}
+
+	/**
+	 * @return number of page loads that had to read the pagemap file although the off-heap page
+	 *         cache is enabled
+	 */
+	public long getOffHeapPageCacheMisses()
+	{
+		return offHeapPageCache != null ? offHeapPageCache.getMisses() : 0;
+	}
+
+	/**
+	 * @return number of pages removed from the off-heap page cache because it was full
+	 */
+	public long getOffHeapPageCacheEvictions()
+	{
+		return offHeapPageCache != null ? offHeapPageCache.getEvictions() : 0;
+	}
+
+	/**
+	 * @return off-heap memory currently used by cached pages
+	 */
+	public Bytes getOffHeapPageCacheUsedSize()
+	{
+		return Bytes.bytes(offHeapPageCache != null ? offHeapPageCache.getBytes() : 0);
+	}
+
 	private final SerializedPagesCache serializedPagesCache = new SerializedPagesCache(
-		getLastRecentlySerializedPagesCacheSize());
+		getLastRecentlySerializedPagesCacheSize(), getLastRecentlySerializedPagesCacheMaxBytes()
+			.bytes());
 
 	/**
 	 * Strips the actual serialized page data. This is used to store
@@ -1131,7 +2511,7 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 
 			if (isSynchronous())
 			{
-				data = entry.loadPage(pageMapName, pageId, versionNumber, ajaxVersionNumber);
+				data = loadPageData(entry, pageMapName, pageId, versionNumber, ajaxVersionNumber);
 			}
 			else
 			{
@@ -1141,7 +2521,7 @@ public class DiskPageStore extends AbstractPageStore implements ISerializationAw
 				synchronized (pages)
 				{
 					flushPagesToSaveList(sessionId, pages);
-					data = entry.loadPage(pageMapName, pageId, versionNumber, ajaxVersionNumber);
+					data = loadPageData(entry, pageMapName, pageId, versionNumber, ajaxVersionNumber);
 				}
 			}
 			return data;
@@ -0,0 +1,254 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binary index file of {@link DiskPageStore}.
+ * <p>
+ * The file starts with a header followed by one record per session. Each record consists of the
+ * session id, the length of the record body and the body itself (the pagemap entries of the
+ * session with their fixed width page window tables). Opening the index only reads the session ids
+ * and skips the bodies, the body of a session is read when the session is accessed for the first
+ * time. Bodies of sessions that haven't been accessed are copied unchanged when the index is
+ * written again.
+ */
+class DiskPageStoreIndex
+{
+	private static final int MAGIC = 0x57505358; // WPSX
+
+	private static final int FORMAT_VERSION = 1;
+
+	private final File file;
+
+	// session id to position of the record body in the file
+	private final Map<String, Record> records = new ConcurrentHashMap<String, Record>();
+
+	private static final class Record
+	{
+		private final long offset;
+		private final int length;
+
+		private Record(long offset, int length)
+		{
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Opens the index and reads the session ids.
+	 *
+	 * @param file
+	 * @throws IOException
+	 *             if the file can't be read or is not an index file
+	 */
+	DiskPageStoreIndex(File file) throws IOException
+	{
+		this.file = file;
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+			new FileInputStream(file)));
+		try
+		{
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+			{
+				throw new IOException("Unsupported index file format");
+			}
+			long offset = 8;
+			while (true)
+			{
+				int idLength;
+				try
+				{
+					idLength = in.readInt();
+				}
+				catch (EOFException e)
+				{
+					break;
+				}
+				byte[] id = new byte[idLength];
+				in.readFully(id);
+				int length = in.readInt();
+				offset += 4 + idLength + 4;
+				records.put(new String(id, "UTF-8"), new Record(offset, length));
+				offset += length;
+				skipFully(in, length);
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private static void skipFully(DataInputStream in, int length) throws IOException
+	{
+		int remaining = length;
+		while (remaining > 0)
+		{
+			int skipped = in.skipBytes(remaining);
+			if (skipped <= 0)
+			{
+				throw new EOFException("Index file is truncated");
+			}
+			remaining -= skipped;
+		}
+	}
+
+	/**
+	 * @return number of sessions whose records haven't been read yet
+	 */
+	int getSessionCount()
+	{
+		return records.size();
+	}
+
+	/**
+	 * @param sessionId
+	 * @return <code>true</code> if the session record hasn't been read yet
+	 */
+	boolean contains(String sessionId)
+	{
+		return records.containsKey(sessionId);
+	}
+
+	/**
+	 * Reads the record body of given session and removes the session from this index.
+	 *
+	 * @param sessionId
+	 * @return record body or null if the session is not in the index
+	 * @throws IOException
+	 */
+	synchronized byte[] remove(String sessionId) throws IOException
+	{
+		Record record = records.remove(sessionId);
+		if (record == null)
+		{
+			return null;
+		}
+		byte[] result = new byte[record.length];
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			raf.seek(record.offset);
+			raf.readFully(result);
+		}
+		finally
+		{
+			raf.close();
+		}
+		return result;
+	}
+
+	/**
+	 * Copies the records of sessions that haven't been read yet to another index.
+	 *
+	 * @param out
+	 *            output stream positioned after the header written by {@link #writeHeader}
+	 * @throws IOException
+	 */
+	synchronized void copyRecordsTo(DataOutputStream out) throws IOException
+	{
+		if (records.isEmpty())
+		{
+			return;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			byte[] buffer = new byte[4096];
+			for (Iterator<Entry<String, Record>> i = records.entrySet().iterator(); i.hasNext();)
+			{
+				Entry<String, Record> entry = i.next();
+				Record record = entry.getValue();
+				writeSessionId(out, entry.getKey());
+				out.writeInt(record.length);
+				raf.seek(record.offset);
+				int remaining = record.length;
+				while (remaining > 0)
+				{
+					int count = Math.min(remaining, buffer.length);
+					raf.readFully(buffer, 0, count);
+					out.write(buffer, 0, count);
+					remaining -= count;
+				}
+			}
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	/**
+	 * Deletes the index file.
+	 */
+	void delete()
+	{
+		records.clear();
+		file.delete();
+	}
+
+	/**
+	 * Writes the index file header.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	static void writeHeader(DataOutputStream out) throws IOException
+	{
+		out.writeInt(MAGIC);
+		out.writeInt(FORMAT_VERSION);
+	}
+
+	/**
+	 * Writes a session record.
+	 *
+	 * @param out
+	 * @param sessionId
+	 * @param body
+	 * @throws IOException
+	 */
+	static void writeRecord(DataOutputStream out, String sessionId, byte[] body)
+		throws IOException
+	{
+		writeSessionId(out, sessionId);
+		out.writeInt(body.length);
+		out.write(body);
+	}
+
+	private static void writeSessionId(DataOutputStream out, String sessionId)
+		throws IOException
+	{
+		byte[] id = sessionId.getBytes("UTF-8");
+		out.writeInt(id.length);
+		out.write(id);
+	}
+}
@@ -141,6 +141,7 @@ public class FileChannelPool
 			{
 				log.error("Error closing file channel", e);
 			}
+			onChannelClosed(channel);
 			--channelsToReduce;
 		}
 
@@ -257,6 +258,7 @@ public class FileChannelPool
 		{
 			log.error("Error closing file channel", e);
 		}
+		onChannelClosed(channel);
 
 		File file = new File(name);
 		file.delete();
@@ -310,8 +312,19 @@ public class FileChannelPool
 			{
 				log.error("Error closing file channel", e);
 			}
+			onChannelClosed(channel);
 		}
 	}
 
+	/**
+	 * Called after the pool has closed the given channel. The channel will not be handed out
+	 * anymore.
+	 * 
+	 * @param channel
+	 */
+	protected void onChannelClosed(FileChannel channel)
+	{
+	}
+
 	private static final Logger log = LoggerFactory.getLogger(FileChannelPool.class);
 }
\ No newline at end of file
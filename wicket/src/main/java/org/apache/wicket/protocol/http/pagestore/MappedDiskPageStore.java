@@ -0,0 +1,419 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.wicket.protocol.http.SecondLevelCacheSessionStore;
+import org.apache.wicket.util.lang.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link DiskPageStore} that accesses the pagemap files through memory mapped buffers instead of
+ * reading and writing through file channels.
+ * <p>
+ * The {@link PageWindowManager} already treats each pagemap file as a ring buffer of at most
+ * {@link #getMaxSizePerPageMap()} bytes, so serialized pages are written to and read from a
+ * mapping of the file directly, which saves a system call per page access. The data is still
+ * copied once between the mapping and the byte arrays the pages are serialized to. Windows that
+ * cross the maximum size (the last window in the file can exceed it) fall back to the file
+ * channel.
+ * <p>
+ * A file is only mapped as far as it is used, the mapping grows (up to the maximum size) when a
+ * page is written beyond its end, so small pagemaps don't occupy the maximum size on disk. Each
+ * mapping has its own lock, so pages of different pagemap files are accessed in parallel.
+ * <p>
+ * At most {@code mappedFileCapacity} files are mapped at the same time, the last recently used
+ * mappings are released first. Mappings of evicted and deleted files are unmapped right away
+ * where the JVM allows it, otherwise they are unmapped when they are garbage collected.
+ * <p>
+ * To use this store, override {@link org.apache.wicket.Application#newSessionStore()}:
+ *
+ * <pre>
+ * protected ISessionStore newSessionStore()
+ * {
+ * 	return new SecondLevelCacheSessionStore(this, new MappedDiskPageStore());
+ * }
+ * </pre>
+ *
+ * @see SecondLevelCacheSessionStore
+ */
+public class MappedDiskPageStore extends DiskPageStore
+{
+	/** Size the mappings of new files start with */
+	private static final int MIN_MAPPING_SIZE = 64 * 1024;
+
+	private final Map<String, Mapping> mappedFiles;
+
+	// mappings evicted from mappedFiles, released outside of its lock
+	private final List<Mapping> evictedMappings = new ArrayList<Mapping>();
+
+	/**
+	 * Creates a new {@link MappedDiskPageStore} instance.
+	 *
+	 * @param fileStoreFolder
+	 *            folder in which the session folders containing pagemap files will be stored
+	 * @param maxSizePerPagemap
+	 *            the maximum size of pagemap file (in bytes), also the maximum size of each
+	 *            mapping
+	 * @param maxSizePerSession
+	 *            the maximum size of session (in bytes)
+	 * @param fileChannelPoolCapacity
+	 *            the maximum number of concurrently opened files
+	 * @param mappedFileCapacity
+	 *            the maximum number of concurrently mapped pagemap files
+	 */
+	public MappedDiskPageStore(File fileStoreFolder, int maxSizePerPagemap,
+		int maxSizePerSession, int fileChannelPoolCapacity, final int mappedFileCapacity)
+	{
+		super(fileStoreFolder, maxSizePerPagemap, maxSizePerSession, fileChannelPoolCapacity);
+
+		if (mappedFileCapacity < 1)
+		{
+			throw new IllegalArgumentException("Mapped file capacity must be at least one.");
+		}
+
+		mappedFiles = new LinkedHashMap<String, Mapping>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Mapping> eldest)
+			{
+				if (size() > mappedFileCapacity)
+				{
+					evictedMappings.add(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Creates a new {@link MappedDiskPageStore} instance.
+	 *
+	 * @param maxSizePerPagemap
+	 *            the maximum size of pagemap file (in bytes), also the maximum size of each
+	 *            mapping
+	 * @param maxSizePerSession
+	 *            the maximum size of session (in bytes)
+	 * @param fileChannelPoolCapacity
+	 *            the maximum number of concurrently opened files
+	 * @param mappedFileCapacity
+	 *            the maximum number of concurrently mapped pagemap files
+	 */
+	public MappedDiskPageStore(int maxSizePerPagemap, int maxSizePerSession,
+		int fileChannelPoolCapacity, int mappedFileCapacity)
+	{
+		this(getDefaultFileStoreFolder(), maxSizePerPagemap, maxSizePerSession,
+			fileChannelPoolCapacity, mappedFileCapacity);
+	}
+
+	/**
+	 * Creates a new {@link MappedDiskPageStore} instance.
+	 */
+	public MappedDiskPageStore()
+	{
+		this((int)Bytes.megabytes(10).bytes(), (int)Bytes.megabytes(100).bytes(), 50, 100);
+	}
+
+	/**
+	 * Returns the mapping of the given pagemap file, the file is mapped when it is first
+	 * accessed through the returned mapping.
+	 *
+	 * @param pageMapFileName
+	 * @return mapping
+	 */
+	private Mapping getMapping(String pageMapFileName)
+	{
+		Mapping mapping;
+		List<Mapping> evicted = null;
+		synchronized (mappedFiles)
+		{
+			mapping = mappedFiles.get(pageMapFileName);
+			if (mapping == null)
+			{
+				mapping = new Mapping(pageMapFileName);
+				mappedFiles.put(pageMapFileName, mapping);
+				if (evictedMappings.isEmpty() == false)
+				{
+					evicted = new ArrayList<Mapping>(evictedMappings);
+					evictedMappings.clear();
+				}
+			}
+		}
+		if (evicted != null)
+		{
+			release(evicted);
+		}
+		return mapping;
+	}
+
+	private static void release(Collection<Mapping> mappings)
+	{
+		for (Iterator<Mapping> i = mappings.iterator(); i.hasNext();)
+		{
+			i.next().release();
+		}
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.pagestore.DiskPageStore#writePageData(java.lang.String,
+	 *      int, byte[])
+	 */
+	@Override
+	protected void writePageData(String pageMapFileName, int offset, byte[] data)
+	{
+		if (offset + data.length > getMaxSizePerPageMap() ||
+			getMapping(pageMapFileName).write(offset, data) == false)
+		{
+			super.writePageData(pageMapFileName, offset, data);
+		}
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.pagestore.DiskPageStore#readPageData(java.lang.String,
+	 *      int, int)
+	 */
+	@Override
+	protected byte[] readPageData(String pageMapFileName, int offset, int size)
+	{
+		if (offset + size > getMaxSizePerPageMap())
+		{
+			return super.readPageData(pageMapFileName, offset, size);
+		}
+
+		byte[] result = new byte[size];
+		if (getMapping(pageMapFileName).read(offset, result))
+		{
+			return result;
+		}
+		return super.readPageData(pageMapFileName, offset, size);
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.pagestore.DiskPageStore#deletePageMapFile(java.lang.String)
+	 */
+	@Override
+	protected void deletePageMapFile(String pageMapFileName)
+	{
+		Mapping mapping;
+		synchronized (mappedFiles)
+		{
+			mapping = mappedFiles.remove(pageMapFileName);
+		}
+		if (mapping != null)
+		{
+			mapping.release();
+		}
+		super.deletePageMapFile(pageMapFileName);
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.pagestore.DiskPageStore#destroy()
+	 */
+	@Override
+	public void destroy()
+	{
+		super.destroy();
+
+		List<Mapping> mappings;
+		synchronized (mappedFiles)
+		{
+			mappings = new ArrayList<Mapping>(mappedFiles.values());
+			mappedFiles.clear();
+		}
+		release(mappings);
+	}
+
+	/**
+	 * @return number of currently mapped pagemap files
+	 */
+	int getMappedFileCount()
+	{
+		synchronized (mappedFiles)
+		{
+			return mappedFiles.size();
+		}
+	}
+
+	/**
+	 * The mapping of a pagemap file. Pages are copied from and to the mapping with its lock held,
+	 * so the mapping can not be grown or unmapped while it is in use.
+	 */
+	private class Mapping
+	{
+		private final String fileName;
+
+		private MappedByteBuffer buffer;
+
+		// once released, accesses fall back to the file channel
+		private boolean released;
+
+		private Mapping(String fileName)
+		{
+			this.fileName = fileName;
+		}
+
+		/**
+		 * @param offset
+		 * @param data
+		 * @return <code>false</code> if the file can't be accessed through this mapping
+		 */
+		private synchronized boolean write(int offset, byte[] data)
+		{
+			if (ensureSize(offset + data.length, true) == false)
+			{
+				return false;
+			}
+			ByteBuffer view = buffer.duplicate();
+			view.position(offset);
+			view.put(data);
+			return true;
+		}
+
+		/**
+		 * @param offset
+		 * @param result
+		 * @return <code>false</code> if the file can't be accessed through this mapping
+		 */
+		private synchronized boolean read(int offset, byte[] result)
+		{
+			if (ensureSize(offset + result.length, false) == false)
+			{
+				return false;
+			}
+			ByteBuffer view = buffer.duplicate();
+			view.position(offset);
+			view.get(result);
+			return true;
+		}
+
+		/**
+		 * Maps the file so that the mapping covers at least the given size. When writing, the
+		 * mapping (and with it the file) grows at least twice the size it had before. When
+		 * reading, the file is not grown.
+		 *
+		 * @param size
+		 * @param write
+		 * @return <code>false</code> if the mapping can't cover the given size
+		 */
+		private boolean ensureSize(int size, boolean write)
+		{
+			if (released)
+			{
+				return false;
+			}
+			if (buffer != null && buffer.capacity() >= size)
+			{
+				return true;
+			}
+
+			FileChannel channel = getFileChannelPool().getFileChannel(fileName, write);
+			if (channel == null)
+			{
+				return false;
+			}
+			try
+			{
+				long mappedSize = Math.min(channel.size(), getMaxSizePerPageMap());
+				if (write)
+				{
+					int current = buffer != null ? buffer.capacity() : MIN_MAPPING_SIZE / 2;
+					mappedSize = Math.max(mappedSize, Math.min(Math.max(size,
+						(long)current * 2), getMaxSizePerPageMap()));
+				}
+				if (mappedSize < size)
+				{
+					return false;
+				}
+				// the mapping stays valid after the channel is returned (or closed)
+				MappedByteBuffer grown = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+					mappedSize);
+				if (buffer != null)
+				{
+					unmap(buffer);
+				}
+				buffer = grown;
+				return true;
+			}
+			catch (IOException e)
+			{
+				log.error("Error mapping file " + fileName, e);
+				return false;
+			}
+			finally
+			{
+				getFileChannelPool().returnFileChannel(channel);
+			}
+		}
+
+		/**
+		 * Unmaps the file. Waits until the mapping is not in use anymore.
+		 */
+		private synchronized void release()
+		{
+			released = true;
+			if (buffer != null)
+			{
+				unmap(buffer);
+				buffer = null;
+			}
+		}
+	}
+
+	/**
+	 * Unmaps the buffer if the JVM supports it. The buffer must not be accessed anymore.
+	 *
+	 * @param buffer
+	 */
+	private static void unmap(MappedByteBuffer buffer)
+	{
+		try
+		{
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null)
+			{
+				Method cleanMethod = cleaner.getClass().getMethod("clean");
+				cleanMethod.setAccessible(true);
+				cleanMethod.invoke(cleaner);
+			}
+		}
+		catch (Exception e)
+		{
+			// not supported by this JVM, the buffer is unmapped when it is garbage collected
+			log.debug("Unable to unmap buffer", e);
+		}
+	}
+
+	private static final Logger log = LoggerFactory.getLogger(MappedDiskPageStore.class);
+}
@@ -0,0 +1,320 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.wicket.util.lang.Objects;
+
+/**
+ * Cache of serialized page data kept outside of the Java heap.
+ * <p>
+ * The cache is split into segments, chosen by the key of the page version, so the pages of a single
+ * session are spread over all segments and a session can use the whole cache. Each segment owns
+ * one direct {@link ByteBuffer} slab that is allocated up front and divided into blocks of
+ * {@value #BLOCK_SIZE} bytes. Page data is copied into free blocks, which don't need to be
+ * contiguous, so the slab never fragments. When a segment runs out of free blocks, its last
+ * recently used entries are evicted. Pages larger than a segment are not cached. Only the small bookkeeping objects live on the heap, so the
+ * cache can be much larger than the heap based {@link SerializedPagesCache} without adding to the
+ * garbage collection work.
+ */
+class OffHeapPageCache
+{
+	static final int BLOCK_SIZE = 4096;
+
+	private static final int MAX_SEGMENT_COUNT = 16;
+
+	// don't split small caches into segments that can only hold a few pages
+	private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+
+	private final Segment[] segments;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Construct.
+	 *
+	 * @param maxBytes
+	 *            size of the off-heap memory allocated by the cache
+	 */
+	public OffHeapPageCache(long maxBytes)
+	{
+		this(maxBytes, (int)Math.max(1, Math.min(MAX_SEGMENT_COUNT, maxBytes / MIN_SEGMENT_SIZE)));
+	}
+
+	/**
+	 * Construct.
+	 *
+	 * @param maxBytes
+	 *            size of the off-heap memory allocated by the cache
+	 * @param segmentCount
+	 *            number of independently locked segments
+	 */
+	public OffHeapPageCache(long maxBytes, int segmentCount)
+	{
+		if (segmentCount < 1)
+		{
+			throw new IllegalArgumentException("Segment count must be at least one.");
+		}
+		long blocksPerSegment = maxBytes / segmentCount / BLOCK_SIZE;
+		if (blocksPerSegment < 1)
+		{
+			throw new IllegalArgumentException("Cache size must be at least " + BLOCK_SIZE +
+				" bytes per segment.");
+		}
+		if (blocksPerSegment * BLOCK_SIZE > Integer.MAX_VALUE)
+		{
+			throw new IllegalArgumentException("Cache segment can not exceed 2GB.");
+		}
+		segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; ++i)
+		{
+			segments[i] = new Segment((int)blocksPerSegment);
+		}
+	}
+
+	private Segment getSegment(PageKey key)
+	{
+		return segments[PageKey.segmentIndex(key.hashCode(), segments.length)];
+	}
+
+	/**
+	 * Returns copy of the cached page data.
+	 *
+	 * @param sessionId
+	 * @param pageMapName
+	 * @param pageId
+	 * @param versionNumber
+	 * @param ajaxVersionNumber
+	 * @return page data or null if the page is not cached
+	 */
+	byte[] getPage(String sessionId, String pageMapName, int pageId, int versionNumber,
+		int ajaxVersionNumber)
+	{
+		PageKey key = new PageKey(sessionId, pageMapName, pageId, versionNumber,
+			ajaxVersionNumber);
+		byte[] result = getSegment(key).get(key);
+		if (result != null)
+		{
+			hits.incrementAndGet();
+		}
+		else
+		{
+			misses.incrementAndGet();
+		}
+		return result;
+	}
+
+	/**
+	 * Copies the page data to the cache. Replaces data cached for the same page version.
+	 *
+	 * @param sessionId
+	 * @param pageMapName
+	 * @param pageId
+	 * @param versionNumber
+	 * @param ajaxVersionNumber
+	 * @param data
+	 */
+	void storePage(String sessionId, String pageMapName, int pageId, int versionNumber,
+		int ajaxVersionNumber, byte[] data)
+	{
+		PageKey key = new PageKey(sessionId, pageMapName, pageId, versionNumber,
+			ajaxVersionNumber);
+		getSegment(key).put(key, data);
+	}
+
+	/**
+	 * Removes all versions of the page, all pages of the pagemap or all pages of the session.
+	 *
+	 * @param sessionId
+	 * @param pageMapName
+	 *            pagemap name, ignored if <code>allPageMaps</code> is set
+	 * @param pageId
+	 *            page id or -1 for all pages
+	 * @param allPageMaps
+	 *            whether pages of all pagemaps should be removed
+	 */
+	void removePages(String sessionId, String pageMapName, int pageId, boolean allPageMaps)
+	{
+		for (int i = 0; i < segments.length; ++i)
+		{
+			segments[i].removePages(sessionId, pageMapName, pageId, allPageMaps);
+		}
+	}
+
+	/**
+	 * @return number of lookups that found the page
+	 */
+	long getHits()
+	{
+		return hits.get();
+	}
+
+	/**
+	 * @return number of lookups that didn't find the page
+	 */
+	long getMisses()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * @return number of entries evicted to make room for new ones
+	 */
+	long getEvictions()
+	{
+		return evictions.get();
+	}
+
+	/**
+	 * @return number of bytes held by cached pages (including the unused part of the last block)
+	 */
+	long getBytes()
+	{
+		long result = 0;
+		for (int i = 0; i < segments.length; ++i)
+		{
+			result += segments[i].getUsedBlocks();
+		}
+		return result * BLOCK_SIZE;
+	}
+
+	/**
+	 * Page data stored in the blocks of a segment.
+	 */
+	private static final class CacheEntry
+	{
+		private final int[] blocks;
+		private final int length;
+
+		private CacheEntry(int[] blocks, int length)
+		{
+			this.blocks = blocks;
+			this.length = length;
+		}
+	}
+
+	private final class Segment
+	{
+		private final ByteBuffer slab;
+
+		// stack of unused block indices
+		private final int[] freeBlocks;
+		private int freeBlockCount;
+
+		private final LinkedHashMap<PageKey, CacheEntry> entries = new LinkedHashMap<PageKey, CacheEntry>(
+			16, 0.75f, true);
+
+		private Segment(int blockCount)
+		{
+			slab = ByteBuffer.allocateDirect(blockCount * BLOCK_SIZE);
+			freeBlocks = new int[blockCount];
+			for (int i = 0; i < blockCount; ++i)
+			{
+				freeBlocks[i] = blockCount - 1 - i;
+			}
+			freeBlockCount = blockCount;
+		}
+
+		private synchronized int getUsedBlocks()
+		{
+			return freeBlocks.length - freeBlockCount;
+		}
+
+		private synchronized byte[] get(PageKey key)
+		{
+			CacheEntry entry = entries.get(key);
+			if (entry == null)
+			{
+				return null;
+			}
+			byte[] result = new byte[entry.length];
+			ByteBuffer buffer = slab.duplicate();
+			for (int i = 0, offset = 0; offset < entry.length; ++i, offset += BLOCK_SIZE)
+			{
+				buffer.position(entry.blocks[i] * BLOCK_SIZE);
+				buffer.get(result, offset, Math.min(BLOCK_SIZE, entry.length - offset));
+			}
+			return result;
+		}
+
+		private synchronized void put(PageKey key, byte[] data)
+		{
+			release(entries.remove(key));
+
+			int blockCount = (data.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			if (blockCount > freeBlocks.length)
+			{
+				// would evict everything and still not fit
+				evictions.incrementAndGet();
+				return;
+			}
+
+			Iterator<CacheEntry> eldest = entries.values().iterator();
+			while (freeBlockCount < blockCount)
+			{
+				release(eldest.next());
+				eldest.remove();
+				evictions.incrementAndGet();
+			}
+
+			int[] blocks = new int[blockCount];
+			ByteBuffer buffer = slab.duplicate();
+			for (int i = 0, offset = 0; i < blockCount; ++i, offset += BLOCK_SIZE)
+			{
+				blocks[i] = freeBlocks[--freeBlockCount];
+				buffer.position(blocks[i] * BLOCK_SIZE);
+				buffer.put(data, offset, Math.min(BLOCK_SIZE, data.length - offset));
+			}
+			entries.put(key, new CacheEntry(blocks, data.length));
+		}
+
+		private void release(CacheEntry entry)
+		{
+			if (entry != null)
+			{
+				for (int i = 0; i < entry.blocks.length; ++i)
+				{
+					freeBlocks[freeBlockCount++] = entry.blocks[i];
+				}
+			}
+		}
+
+		private synchronized void removePages(String sessionId, String pageMapName, int pageId,
+			boolean allPageMaps)
+		{
+			for (Iterator<Map.Entry<PageKey, CacheEntry>> i = entries.entrySet().iterator(); i.hasNext();)
+			{
+				Map.Entry<PageKey, CacheEntry> entry = i.next();
+				PageKey key = entry.getKey();
+				if (Objects.equal(sessionId, key.getSessionId()) &&
+					(allPageMaps || Objects.equal(pageMapName, key.getPageMapName())) &&
+					(pageId == -1 || pageId == key.getPageId()))
+				{
+					release(entry.getValue());
+					i.remove();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import org.apache.wicket.util.lang.Objects;
+
+/**
+ * Key of a single page version in a session, used by the caches of serialized pages.
+ */
+final class PageKey
+{
+	private final String sessionId;
+	private final String pageMapName;
+	private final int pageId;
+	private final int versionNumber;
+	private final int ajaxVersionNumber;
+	private final int hash;
+
+	PageKey(String sessionId, String pageMapName, int pageId, int versionNumber,
+		int ajaxVersionNumber)
+	{
+		this.sessionId = sessionId;
+		this.pageMapName = pageMapName;
+		this.pageId = pageId;
+		this.versionNumber = versionNumber;
+		this.ajaxVersionNumber = ajaxVersionNumber;
+
+		int h = sessionId != null ? sessionId.hashCode() : 0;
+		h = 31 * h + (pageMapName != null ? pageMapName.hashCode() : 0);
+		h = 31 * h + pageId;
+		h = 31 * h + versionNumber;
+		hash = 31 * h + ajaxVersionNumber;
+	}
+
+	/**
+	 * @return session id
+	 */
+	String getSessionId()
+	{
+		return sessionId;
+	}
+
+	/**
+	 * @return pagemap name
+	 */
+	String getPageMapName()
+	{
+		return pageMapName;
+	}
+
+	/**
+	 * @return page id
+	 */
+	int getPageId()
+	{
+		return pageId;
+	}
+
+	/**
+	 * Returns the index of the segment (or stripe) a name belongs to. The bits of the hash code
+	 * are spread a little first, since names like session ids or file names of one session often
+	 * share a long prefix.
+	 *
+	 * @param name
+	 * @param segmentCount
+	 * @return index between 0 and segmentCount - 1
+	 */
+	static int segmentIndex(String name, int segmentCount)
+	{
+		return segmentIndex(name != null ? name.hashCode() : 0, segmentCount);
+	}
+
+	/**
+	 * Returns the index of the segment a hash code belongs to, see
+	 * {@link #segmentIndex(String, int)}.
+	 *
+	 * @param hash
+	 * @param segmentCount
+	 * @return index between 0 and segmentCount - 1
+	 */
+	static int segmentIndex(int hash, int segmentCount)
+	{
+		hash ^= (hash >>> 20) ^ (hash >>> 12);
+		hash ^= (hash >>> 7) ^ (hash >>> 4);
+		return (hash & 0x7FFFFFFF) % segmentCount;
+	}
+
+	/**
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode()
+	{
+		return hash;
+	}
+
+	/**
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (this == obj)
+		{
+			return true;
+		}
+		if (obj instanceof PageKey == false)
+		{
+			return false;
+		}
+		PageKey rhs = (PageKey)obj;
+		return hash == rhs.hash && pageId == rhs.pageId && versionNumber == rhs.versionNumber &&
+			ajaxVersionNumber == rhs.ajaxVersionNumber && Objects.equal(sessionId, rhs.sessionId) &&
+			Objects.equal(pageMapName, rhs.pageMapName);
+	}
+}
@@ -16,6 +16,12 @@
  */
 package org.apache.wicket.protocol.http.pagestore;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -29,16 +35,33 @@ import org.apache.wicket.util.collections.IntHashMap;
  * The pages are stored inside the file in a cyclic way. Newer pages are placed after older ones,
  * until the maximum file size is reached. After that, the next page is stored in the beginning of
  * the file.
- * 
+ * <p>
+ * The windows are kept in parallel primitive arrays. Each window occupies a slot that doesn't
+ * change while the window exists and the order of windows in the file is a linked list of slots,
+ * so splitting and merging windows doesn't shift other windows. Exact page versions are found
+ * through an open addressing hash table keyed by page id, version number and ajax version number.
+ * The windows of one page are linked from the most recently stored one, which is found through a
+ * second hash table keyed by page id.
+ * <p>
+ * The serialized form is still the list of windows previous versions serialized, so that
+ * serialized indexes written by them can be read.
+ *
  * @author Matej Knopp
  */
 public class PageWindowManager implements Serializable
 {
 	private static final long serialVersionUID = 1L;
 
+	private static final ObjectStreamField[] serialPersistentFields = {
+			new ObjectStreamField("windows", List.class),
+			new ObjectStreamField("idToWindowIndices", IntHashMap.class),
+			new ObjectStreamField("indexPointer", Integer.TYPE),
+			new ObjectStreamField("totalSize", Integer.TYPE),
+			new ObjectStreamField("maxSize", Integer.TYPE) };
+
 	/**
-	 * Contains information about a page inside the file.
-	 * 
+	 * A window in the serialized form.
+	 *
 	 * @author Matej Knopp
 	 */
 	private static class PageWindowInternal implements Serializable
@@ -58,343 +81,599 @@ public class PageWindowManager implements Serializable
 		private int filePartSize;
 	}
 
-	// list of PageWindowInternal objects
-	private final List<PageWindowInternal> windows = new ArrayList<PageWindowInternal>();
+	private static final int INITIAL_CAPACITY = 16;
+
+	// id of page or -1 if the window is empty
+	private transient int[] pageIds;
+
+	private transient short[] versionNumbers;
+	private transient short[] ajaxVersionNumbers;
+
+	// offset in the file where the serialized page data begins
+	private transient int[] filePartOffsets;
+
+	// size of serialized page data
+	private transient int[] filePartSizes;
 
-	// map from page id to list of pagewindow indices (referring to the windows
-	// list) - to improve searching speed
-	// the index must be cleaned when the instances in the windows list
-	// change their indexes (e.g. items are shifted on page window removal)
-	private IntHashMap<List<Integer>> idToWindowIndices = null;
+	// order of windows in the file, -1 if there is no next (previous) window
+	private transient int[] nextInFile;
+	private transient int[] previousInFile;
+
+	// windows of the same page, ordered from the most recently stored one
+	private transient int[] olderOfPage;
+	private transient int[] newerOfPage;
+
+	private transient int firstWindow;
+	private transient int lastWindow;
+
+	// number of slots ever used
+	private transient int slotCount;
+
+	// unused slots, linked through nextInFile
+	private transient int freeSlots;
+
+	// (page id, version, ajax version) -> slot + 1, 0 is empty entry
+	private transient int[] versionIndex;
+	private transient int versionIndexCount;
+
+	// page id -> slot + 1 of the most recently stored window of the page
+	private transient int[] pageIndex;
+	private transient int pageIndexCount;
+
+	private void initSlots()
+	{
+		pageIds = new int[INITIAL_CAPACITY];
+		versionNumbers = new short[INITIAL_CAPACITY];
+		ajaxVersionNumbers = new short[INITIAL_CAPACITY];
+		filePartOffsets = new int[INITIAL_CAPACITY];
+		filePartSizes = new int[INITIAL_CAPACITY];
+		nextInFile = new int[INITIAL_CAPACITY];
+		previousInFile = new int[INITIAL_CAPACITY];
+		olderOfPage = new int[INITIAL_CAPACITY];
+		newerOfPage = new int[INITIAL_CAPACITY];
+		firstWindow = -1;
+		lastWindow = -1;
+		slotCount = 0;
+		freeSlots = -1;
+		indexPointer = -1;
+	}
 
-	private void putWindowIndex(int pageId, int windowIndex)
+	private int newSlot()
 	{
-		if (pageId != -1 && idToWindowIndices != null)
+		int slot;
+		if (freeSlots != -1)
 		{
-			List<Integer> indices = idToWindowIndices.get(pageId);
-			Integer index = new Integer(windowIndex);
-			if (indices == null)
-			{
-				indices = new ArrayList<Integer>();
-				indices.add(index);
-				idToWindowIndices.put(pageId, indices);
-			}
-			else if (indices.contains(index) == false)
+			slot = freeSlots;
+			freeSlots = nextInFile[slot];
+		}
+		else
+		{
+			if (slotCount == pageIds.length)
 			{
-				indices.add(index);
+				growSlots();
 			}
+			slot = slotCount++;
 		}
+		pageIds[slot] = -1;
+		nextInFile[slot] = -1;
+		previousInFile[slot] = -1;
+		olderOfPage[slot] = -1;
+		newerOfPage[slot] = -1;
+		return slot;
+	}
+
+	private void freeSlot(int slot)
+	{
+		pageIds[slot] = -1;
+		nextInFile[slot] = freeSlots;
+		freeSlots = slot;
+	}
+
+	private void growSlots()
+	{
+		int capacity = pageIds.length * 2;
+		pageIds = grow(pageIds, capacity);
+		versionNumbers = grow(versionNumbers, capacity);
+		ajaxVersionNumbers = grow(ajaxVersionNumbers, capacity);
+		filePartOffsets = grow(filePartOffsets, capacity);
+		filePartSizes = grow(filePartSizes, capacity);
+		nextInFile = grow(nextInFile, capacity);
+		previousInFile = grow(previousInFile, capacity);
+		olderOfPage = grow(olderOfPage, capacity);
+		newerOfPage = grow(newerOfPage, capacity);
+	}
+
+	private static int[] grow(int[] array, int capacity)
+	{
+		int[] result = new int[capacity];
+		System.arraycopy(array, 0, result, 0, array.length);
+		return result;
 	}
 
-	private void removeWindowIndex(int pageId, int windowIndex)
+	private static short[] grow(short[] array, int capacity)
 	{
-		if (pageId != -1 && idToWindowIndices != null)
+		short[] result = new short[capacity];
+		System.arraycopy(array, 0, result, 0, array.length);
+		return result;
+	}
+
+	/**
+	 * Inserts the window to the file order after the given window.
+	 *
+	 * @param after
+	 *            slot of the previous window or -1 to insert the window as first
+	 * @param slot
+	 */
+	private void linkInFile(int after, int slot)
+	{
+		int next = after != -1 ? nextInFile[after] : firstWindow;
+		previousInFile[slot] = after;
+		nextInFile[slot] = next;
+		if (after != -1)
 		{
-			List<Integer> indices = idToWindowIndices.get(pageId);
-			if (indices != null)
-			{
-				indices.remove(new Integer(windowIndex));
-			}
+			nextInFile[after] = slot;
+		}
+		else
+		{
+			firstWindow = slot;
+		}
+		if (next != -1)
+		{
+			previousInFile[next] = slot;
+		}
+		else
+		{
+			lastWindow = slot;
 		}
 	}
 
-	private void rebuildIndices()
+	private void unlinkInFile(int slot)
 	{
-		idToWindowIndices = new IntHashMap<List<Integer>>();
-		for (int i = 0; i < windows.size(); ++i)
+		int previous = previousInFile[slot];
+		int next = nextInFile[slot];
+		if (previous != -1)
 		{
-			PageWindowInternal window = windows.get(i);
-			putWindowIndex(window.pageId, i);
+			nextInFile[previous] = next;
+		}
+		else
+		{
+			firstWindow = next;
+		}
+		if (next != -1)
+		{
+			previousInFile[next] = previous;
+		}
+		else
+		{
+			lastWindow = previous;
 		}
 	}
 
-	private int getWindowIndex(List<Integer> indices, int pageId, int versionNumber,
+	private static int hash(boolean exactVersion, int pageId, int versionNumber,
 		int ajaxVersionNumber)
 	{
-		int result = -1;
+		int h = exactVersion ? (pageId * 31 + versionNumber) * 31 + ajaxVersionNumber : pageId;
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
 
-		if (versionNumber != -1 && ajaxVersionNumber != -1)
+	private int hash(boolean exactVersion, int slot)
+	{
+		return hash(exactVersion, pageIds[slot], versionNumbers[slot], ajaxVersionNumbers[slot]);
+	}
+
+	/**
+	 * Returns the position of the key in the hash table.
+	 *
+	 * @param table
+	 * @param exactVersion
+	 *            whether the table is keyed by page versions or just by page ids
+	 * @param pageId
+	 * @param versionNumber
+	 * @param ajaxVersionNumber
+	 * @return position in table or -1
+	 */
+	private int find(int[] table, boolean exactVersion, int pageId, int versionNumber,
+		int ajaxVersionNumber)
+	{
+		int mask = table.length - 1;
+		int i = hash(exactVersion, pageId, versionNumber, ajaxVersionNumber) & mask;
+		while (table[i] != 0)
 		{
-			// just find the exact page version
-			for (Iterator<Integer> i = indices.iterator(); i.hasNext();)
+			int slot = table[i] - 1;
+			if (pageIds[slot] == pageId &&
+				(exactVersion == false || (versionNumbers[slot] == versionNumber &&
+					ajaxVersionNumbers[slot] == ajaxVersionNumber)))
 			{
-				int currentIndex = (i.next()).intValue();
-				PageWindowInternal window = windows.get(currentIndex);
-
-				if (window.pageId == pageId && window.versionNumber == versionNumber &&
-					window.ajaxVersionNumber == ajaxVersionNumber)
-				{
-					result = currentIndex;
-					break;
-				}
+				return i;
 			}
+			i = (i + 1) & mask;
 		}
-		else if (versionNumber == -1)
+		return -1;
+	}
+
+	/**
+	 * Inserts window whose key is not in the table yet.
+	 *
+	 * @param table
+	 * @param exactVersion
+	 * @param slot
+	 */
+	private void insert(int[] table, boolean exactVersion, int slot)
+	{
+		int mask = table.length - 1;
+		int i = hash(exactVersion, slot) & mask;
+		while (table[i] != 0)
 		{
-			// we need to find last recently stored page window - that is page
-			// window with index closest to the left of the indexPointer or
-			// farthest
-			// to the right.
-			for (Iterator<Integer> i = indices.iterator(); i.hasNext();)
-			{
-				int currentIndex = (i.next()).intValue();
-				PageWindowInternal window = windows.get(currentIndex);
+			i = (i + 1) & mask;
+		}
+		table[i] = slot + 1;
+	}
 
-				if (window.pageId == pageId)
-				{
-					if ((result == -1) || /**/
-					(currentIndex <= indexPointer && result > indexPointer) || /**/
-					(currentIndex > result && currentIndex <= indexPointer) || /**/
-					(currentIndex > result && result > indexPointer))
-					{
-						result = currentIndex;
-					}
-				}
+	/**
+	 * Removes the entry on given position. The entries that follow are shifted back, so that no
+	 * deleted markers are needed.
+	 *
+	 * @param table
+	 * @param exactVersion
+	 * @param position
+	 */
+	private void removeAt(int[] table, boolean exactVersion, int position)
+	{
+		int mask = table.length - 1;
+		table[position] = 0;
+		for (int i = (position + 1) & mask; table[i] != 0; i = (i + 1) & mask)
+		{
+			int home = hash(exactVersion, table[i] - 1) & mask;
+			// move the entry if the empty position lies between its home and its position
+			boolean move = position <= i ? (home <= position || home > i)
+				: (home <= position && home > i);
+			if (move)
+			{
+				table[position] = table[i];
+				table[i] = 0;
+				position = i;
 			}
 		}
-		else if (ajaxVersionNumber == -1)
+	}
+
+	private int[] rehash(int[] table, boolean exactVersion, int capacity)
+	{
+		int[] result = new int[capacity];
+		if (table != null)
 		{
-			int lastAjaxVersion = -1;
-			// we need to find index with highest ajax version
-			for (Iterator<Integer> i = indices.iterator(); i.hasNext();)
+			for (int i = 0; i < table.length; ++i)
 			{
-				int currentIndex = (i.next()).intValue();
-				PageWindowInternal window = windows.get(currentIndex);
-
-				if (window.pageId == pageId && window.versionNumber == versionNumber &&
-					window.ajaxVersionNumber > lastAjaxVersion)
+				if (table[i] != 0)
 				{
-					result = currentIndex;
-					lastAjaxVersion = window.ajaxVersionNumber;
+					insert(result, exactVersion, table[i] - 1);
 				}
 			}
 		}
-
 		return result;
 	}
 
+	private void ensureIndexCapacity()
+	{
+		if (versionIndex == null || (versionIndexCount + 1) * 2 > versionIndex.length)
+		{
+			versionIndex = rehash(versionIndex, true, versionIndex != null
+				? versionIndex.length * 2 : INITIAL_CAPACITY * 2);
+		}
+		if (pageIndex == null || (pageIndexCount + 1) * 2 > pageIndex.length)
+		{
+			pageIndex = rehash(pageIndex, false, pageIndex != null ? pageIndex.length * 2
+				: INITIAL_CAPACITY * 2);
+		}
+	}
+
 	/**
-	 * Returns the index of the given page in the {@link #windows} list.
-	 * 
-	 * @param pageId
-	 * @param versionNumber
-	 * @param ajaxVersionNumber
-	 * @return window index
+	 * Adds the window to the indices as the most recently stored window of its page.
+	 *
+	 * @param slot
 	 */
-	private int getWindowIndex(int pageId, int versionNumber, int ajaxVersionNumber)
+	private void index(int slot)
 	{
-		int index = -1;
+		ensureIndexCapacity();
+
+		insert(versionIndex, true, slot);
+		++versionIndexCount;
 
-		if (idToWindowIndices == null)
+		int position = find(pageIndex, false, pageIds[slot], 0, 0);
+		newerOfPage[slot] = -1;
+		if (position != -1)
 		{
-			rebuildIndices();
+			int newest = pageIndex[position] - 1;
+			olderOfPage[slot] = newest;
+			newerOfPage[newest] = slot;
+			pageIndex[position] = slot + 1;
 		}
+		else
+		{
+			olderOfPage[slot] = -1;
+			insert(pageIndex, false, slot);
+			++pageIndexCount;
+		}
+	}
+
+	/**
+	 * Removes the window from the indices. Must be called before the page id or the version of
+	 * the window changes.
+	 *
+	 * @param slot
+	 */
+	private void unindex(int slot)
+	{
+		int pageId = pageIds[slot];
 
-		List<Integer> indices = idToWindowIndices.get(pageId);
-		if (indices != null)
+		int position = find(versionIndex, true, pageId, versionNumbers[slot],
+			ajaxVersionNumbers[slot]);
+		removeAt(versionIndex, true, position);
+		--versionIndexCount;
+
+		int newer = newerOfPage[slot];
+		int older = olderOfPage[slot];
+		if (newer != -1)
 		{
-			index = getWindowIndex(indices, pageId, versionNumber, ajaxVersionNumber);
+			olderOfPage[newer] = older;
+		}
+		else
+		{
+			position = find(pageIndex, false, pageId, 0, 0);
+			if (older != -1)
+			{
+				pageIndex[position] = older + 1;
+			}
+			else
+			{
+				removeAt(pageIndex, false, position);
+				--pageIndexCount;
+			}
+		}
+		if (older != -1)
+		{
+			newerOfPage[older] = newer;
 		}
-		return index;
 	}
 
-	// index of last added page
-	private int indexPointer = -1;
+	/**
+	 * Marks the window as empty.
+	 *
+	 * @param slot
+	 */
+	private void clearWindow(int slot)
+	{
+		if (pageIds[slot] != -1)
+		{
+			unindex(slot);
+			pageIds[slot] = -1;
+		}
+	}
 
 	/**
-	 * Increments the {@link #indexPointer}. If the maximum file size has been reached, the
-	 * {@link #indexPointer} is set to 0.
-	 * 
-	 * @return new index pointer
+	 * Returns the slot of the window of given page.
+	 *
+	 * @param pageId
+	 * @param versionNumber
+	 *            version number or -1 for the most recently stored window of the page
+	 * @param ajaxVersionNumber
+	 *            ajax version number or -1 for the highest ajax version
+	 * @return window slot or -1
 	 */
-	private int incrementIndexPointer()
+	private int getWindowSlot(int pageId, int versionNumber, int ajaxVersionNumber)
 	{
-		if (maxSize > 0 && totalSize >= maxSize && indexPointer == windows.size() - 1)
+		if (pageId == -1)
 		{
-			indexPointer = 0;
+			return -1;
 		}
-		else
+
+		if (versionNumber != -1 && ajaxVersionNumber != -1)
 		{
-			++indexPointer;
+			// just find the exact page version
+			int position = find(versionIndex, true, pageId, versionNumber, ajaxVersionNumber);
+			return position != -1 ? versionIndex[position] - 1 : -1;
 		}
-		return indexPointer;
+
+		int position = find(pageIndex, false, pageId, 0, 0);
+		if (position == -1)
+		{
+			return -1;
+		}
+		int newest = pageIndex[position] - 1;
+		if (versionNumber == -1)
+		{
+			return newest;
+		}
+
+		// we need to find the window with highest ajax version
+		int result = -1;
+		for (int slot = newest; slot != -1; slot = olderOfPage[slot])
+		{
+			if (versionNumbers[slot] == versionNumber &&
+				(result == -1 || ajaxVersionNumbers[slot] > ajaxVersionNumbers[result]))
+			{
+				result = slot;
+			}
+		}
+		return result;
 	}
 
+	// slot of last added page
+	private transient int indexPointer = -1;
+
 	/**
-	 * Returns the offset in file of the window on given index. The offset is counted by getting the
-	 * previous page offset and adding the previous page size to it.
-	 * 
-	 * @param index
-	 * @return window file offset
+	 * Moves the {@link #indexPointer} to the next window. If the maximum file size has been
+	 * reached, the {@link #indexPointer} is moved to the first window.
+	 *
+	 * @return new index pointer or -1 if new window needs to be appended
 	 */
-	private int getWindowFileOffset(int index)
+	private int incrementIndexPointer()
 	{
-		if (index > 0)
+		if (maxSize > 0 && totalSize >= maxSize && indexPointer == lastWindow)
+		{
+			indexPointer = firstWindow;
+		}
+		else if (indexPointer == -1)
 		{
-			PageWindowInternal window = windows.get(index - 1);
-			return window.filePartOffset + window.filePartSize;
+			indexPointer = firstWindow;
 		}
 		else
 		{
-			return 0;
+			indexPointer = nextInFile[indexPointer];
 		}
+		return indexPointer;
 	}
 
 	/**
-	 * Splits the window with given index to two windows. First of those will have size specified by
-	 * the argument, the other one will fill up the rest of the original window.
-	 * 
-	 * @param index
+	 * Splits the window to two windows. First of those will have size specified by the argument,
+	 * the other one will fill up the rest of the original window.
+	 *
+	 * @param slot
 	 * @param size
 	 */
-	private void splitWindow(int index, int size)
+	private void splitWindow(int slot, int size)
 	{
-		PageWindowInternal window = windows.get(index);
-		int delta = window.filePartSize - size;
+		int delta = filePartSizes[slot] - size;
 
-		if (index == windows.size() - 1)
+		if (slot == lastWindow)
 		{
 			// if this is last window
 			totalSize -= delta;
-			window.filePartSize = size;
+			filePartSizes[slot] = size;
 		}
-		else if (window.filePartSize != size)
+		else if (filePartSizes[slot] != size)
 		{
-			PageWindowInternal newWindow = new PageWindowInternal();
-			newWindow.pageId = -1;
-			window.filePartSize = size;
-
-			windows.add(index + 1, newWindow);
-
-			newWindow.filePartOffset = getWindowFileOffset(index + 1);
-			newWindow.filePartSize = delta;
+			int newSlot = newSlot();
+			filePartSizes[slot] = size;
+			linkInFile(slot, newSlot);
+			filePartOffsets[newSlot] = filePartOffsets[slot] + size;
+			filePartSizes[newSlot] = delta;
 		}
-
-		idToWindowIndices = null;
 	}
 
 	/**
-	 * Merges the window with given index with the next window. The resulting window will have size
-	 * of the two windows summed together.
-	 * 
-	 * @param index
+	 * Merges the window with the next window. The resulting window will have size of the two
+	 * windows summed together.
+	 *
+	 * @param slot
 	 */
-	private void mergeWindowWithNext(int index)
+	private void mergeWindowWithNext(int slot)
 	{
-		if (index < windows.size() - 1)
+		int next = nextInFile[slot];
+		if (next != -1)
 		{
-			PageWindowInternal window = windows.get(index);
-			PageWindowInternal next = windows.get(index + 1);
-			window.filePartSize += next.filePartSize;
+			filePartSizes[slot] += filePartSizes[next];
 
-			windows.remove(index + 1);
-			idToWindowIndices = null; // reset index
+			clearWindow(next);
+			unlinkInFile(next);
+			freeSlot(next);
 		}
 	}
 
 	/**
-	 * Adjusts the window on given index to the specified size. If the new size is smaller than the
-	 * window size, the window will be split. Otherwise the window will be merged with as many
-	 * subsequent window as necessary. In case the window is last window in the file, the size will
-	 * be adjusted without splitting or merging.
-	 * 
-	 * @param index
+	 * Adjusts the window to the specified size. If the new size is smaller than the window size,
+	 * the window will be split. Otherwise the window will be merged with as many subsequent window
+	 * as necessary. In case the window is last window in the file, the size will be adjusted
+	 * without splitting or merging.
+	 *
+	 * @param slot
 	 * @param size
 	 */
-	private void adjustWindowSize(int index, int size)
+	private void adjustWindowSize(int slot, int size)
 	{
-		PageWindowInternal window = windows.get(index);
-
 		// last window, just adjust size
-		if (index == windows.size() - 1)
+		if (slot == lastWindow)
 		{
-			int delta = size - window.filePartSize;
+			int delta = size - filePartSizes[slot];
 			totalSize += delta;
-			window.filePartSize = size;
+			filePartSizes[slot] = size;
 		}
 		else
 		{
 			// merge as many times as necessary
-			while (window.filePartSize < size && index < windows.size() - 1)
+			while (filePartSizes[slot] < size && slot != lastWindow)
 			{
-				mergeWindowWithNext(index);
+				mergeWindowWithNext(slot);
 			}
 			// done merging - do we have enough room ?
-			if (window.filePartSize < size)
+			if (filePartSizes[slot] < size)
 			{
 				// no, this is the last window
-				int delta = size - window.filePartSize;
+				int delta = size - filePartSizes[slot];
 				totalSize += delta;
-				window.filePartSize = size;
+				filePartSizes[slot] = size;
 			}
 			else
 			{
 				// yes, we might want to split the window, so that we don't lose
-				// space when
-				// the created window was too big
-				splitWindow(index, size);
+				// space when the created window was too big
+				splitWindow(slot, size);
 			}
 		}
-
-		window.pageId = -1;
 	}
 
 	/**
-	 * Allocates window on given index with to size. If the index is pointing to existing window,
-	 * the window size will be adjusted. Otherwise a new window with appropriated size will be
-	 * created.
-	 * 
-	 * @param index
+	 * Allocates window with given size. If the slot is pointing to existing window, the window
+	 * size will be adjusted. Otherwise a new window with appropriated size will be appended to the
+	 * file.
+	 *
+	 * @param slot
+	 *            slot of existing window or -1
 	 * @param size
-	 * @return page window
+	 * @return slot of the (empty) window
 	 */
-	private PageWindowInternal allocatePageWindow(int index, int size)
+	private int allocatePageWindow(int slot, int size)
 	{
-		final PageWindowInternal window;
-
 		// new window
-		if (index == windows.size())
+		if (slot == -1)
 		{
-			// new page window
-			window = new PageWindowInternal();
-			window.filePartOffset = getWindowFileOffset(index);
+			slot = newSlot();
+			filePartOffsets[slot] = lastWindow != -1 ? filePartOffsets[lastWindow] +
+				filePartSizes[lastWindow] : 0;
 			totalSize += size;
-			window.filePartSize = size;
-			windows.add(window);
+			filePartSizes[slot] = size;
+			linkInFile(lastWindow, slot);
+			indexPointer = slot;
 		}
 		else
 		{
-			// get the window
-			window = windows.get(index);
-
 			// adjust if necessary
-			if (window.filePartSize != size)
+			if (filePartSizes[slot] != size)
 			{
-				adjustWindowSize(index, size);
+				adjustWindowSize(slot, size);
 			}
+			clearWindow(slot);
 		}
 
-
-		return window;
+		return slot;
 	}
 
 	/**
 	 * Public (read only) version of page window.
-	 * 
+	 *
 	 * @author Matej Knopp
 	 */
 	public static class PageWindow
 	{
-		private final PageWindowInternal pageWindowInternal;
+		private final int pageId;
+		private final int versionNumber;
+		private final int ajaxVersionNumber;
+		private final int filePartOffset;
+		private final int filePartSize;
 
 		/**
 		 * Construct.
-		 * 
-		 * @param pageWindowInternal
+		 *
+		 * @param manager
+		 * @param slot
 		 */
-		private PageWindow(PageWindowInternal pageWindowInternal)
+		private PageWindow(PageWindowManager manager, int slot)
 		{
-			this.pageWindowInternal = pageWindowInternal;
+			pageId = manager.pageIds[slot];
+			versionNumber = manager.versionNumbers[slot];
+			ajaxVersionNumber = manager.ajaxVersionNumbers[slot];
+			filePartOffset = manager.filePartOffsets[slot];
+			filePartSize = manager.filePartSizes[slot];
 		}
 
 		/**
@@ -402,7 +681,7 @@ public class PageWindowManager implements Serializable
 		 */
 		public int getPageId()
 		{
-			return pageWindowInternal.pageId;
+			return pageId;
 		}
 
 		/**
@@ -410,7 +689,7 @@ public class PageWindowManager implements Serializable
 		 */
 		public int getVersionNumber()
 		{
-			return pageWindowInternal.versionNumber;
+			return versionNumber;
 		}
 
 		/**
@@ -418,7 +697,7 @@ public class PageWindowManager implements Serializable
 		 */
 		public int getAjaxVersionNumber()
 		{
-			return pageWindowInternal.ajaxVersionNumber;
+			return ajaxVersionNumber;
 		}
 
 		/**
@@ -426,7 +705,7 @@ public class PageWindowManager implements Serializable
 		 */
 		public int getFilePartOffset()
 		{
-			return pageWindowInternal.filePartOffset;
+			return filePartOffset;
 		}
 
 		/**
@@ -434,13 +713,13 @@ public class PageWindowManager implements Serializable
 		 */
 		public int getFilePartSize()
 		{
-			return pageWindowInternal.filePartSize;
+			return filePartSize;
 		}
 	}
 
 	/**
 	 * Creates and returns a new page window for given page.
-	 * 
+	 *
 	 * @param pageId
 	 * @param versionNumber
 	 * @param ajaxVersionNumber
@@ -450,35 +729,34 @@ public class PageWindowManager implements Serializable
 	public PageWindow createPageWindow(int pageId, int versionNumber, int ajaxVersionNumber,
 		int size)
 	{
-		int index = getWindowIndex(pageId, versionNumber, ajaxVersionNumber);
+		int slot = getWindowSlot(pageId, versionNumber, ajaxVersionNumber);
 
 		// if we found the page window, mark it as invalid
-		if (index != -1)
+		if (slot != -1)
 		{
-			removeWindowIndex(pageId, index);
-			(windows.get(index)).pageId = -1;
+			clearWindow(slot);
 		}
 
 		// if we are not going to reuse a page window (because it's not on
-		// indexPointor position or because we didn't find it), increment the
+		// indexPointer position or because we didn't find it), increment the
 		// indexPointer
-		if (index == -1 || index != indexPointer)
+		if (slot == -1 || slot != indexPointer)
 		{
-			index = incrementIndexPointer();
+			slot = incrementIndexPointer();
 		}
 
-		PageWindowInternal window = allocatePageWindow(index, size);
-		window.pageId = pageId;
-		window.versionNumber = (short)versionNumber;
-		window.ajaxVersionNumber = (short)ajaxVersionNumber;
+		slot = allocatePageWindow(slot, size);
+		pageIds[slot] = pageId;
+		versionNumbers[slot] = (short)versionNumber;
+		ajaxVersionNumbers[slot] = (short)ajaxVersionNumber;
 
-		putWindowIndex(pageId, index);
-		return new PageWindow(window);
+		index(slot);
+		return new PageWindow(this, slot);
 	}
 
 	/**
 	 * Returns the page window for given page or null if no window was found.
-	 * 
+	 *
 	 * @param pageId
 	 * @param versionNumber
 	 * @param ajaxVersionNumber
@@ -486,10 +764,10 @@ public class PageWindowManager implements Serializable
 	 */
 	public PageWindow getPageWindow(int pageId, int versionNumber, int ajaxVersionNumber)
 	{
-		int index = getWindowIndex(pageId, versionNumber, ajaxVersionNumber);
-		if (index != -1)
+		int slot = getWindowSlot(pageId, versionNumber, ajaxVersionNumber);
+		if (slot != -1)
 		{
-			return new PageWindow(windows.get(index));
+			return new PageWindow(this, slot);
 		}
 		else
 		{
@@ -497,105 +775,290 @@ public class PageWindowManager implements Serializable
 		}
 	}
 
+	/**
+	 * Returns how many bytes can be written to the file before the window of the given page gets
+	 * overwritten.
+	 *
+	 * @param pageId
+	 * @param versionNumber
+	 * @param ajaxVersionNumber
+	 * @return number of bytes or -1 if the page is not in the file
+	 */
+	public int getRemainingSize(int pageId, int versionNumber, int ajaxVersionNumber)
+	{
+		int slot = getWindowSlot(pageId, versionNumber, ajaxVersionNumber);
+		if (slot == -1)
+		{
+			return -1;
+		}
+		if (maxSize <= 0)
+		{
+			return Integer.MAX_VALUE;
+		}
+		int end = indexPointer != -1 ? filePartOffsets[indexPointer] +
+			filePartSizes[indexPointer] : 0;
+		int offset = filePartOffsets[slot];
+		if (offset >= end)
+		{
+			return offset - end;
+		}
+		// the windows up to the end of the file are overwritten (or the file is grown) first
+		return Math.max(totalSize, maxSize) - end + offset;
+	}
+
 	/**
 	 * Removes the page window for given page.
-	 * 
+	 *
 	 * @param pageId
 	 * @param versionNumber
 	 * @param ajaxVersionNumber
 	 */
 	public void removePage(int pageId, int versionNumber, int ajaxVersionNumber)
 	{
-		int index = getWindowIndex(pageId, versionNumber, ajaxVersionNumber);
-		if (index != -1)
+		int slot = getWindowSlot(pageId, versionNumber, ajaxVersionNumber);
+		if (slot != -1)
 		{
-			PageWindowInternal window = windows.get(index);
-			removeWindowIndex(pageId, index);
-			if (index == windows.size() - 1)
-			{
-				windows.remove(index);
-				totalSize -= window.filePartSize;
-				if (indexPointer == index)
-				{
-					--indexPointer;
-				}
-			}
-			else
+			removeWindow(slot);
+		}
+	}
+
+	private void removeWindow(int slot)
+	{
+		clearWindow(slot);
+		if (slot == lastWindow)
+		{
+			totalSize -= filePartSizes[slot];
+			if (indexPointer == slot)
 			{
-				window.pageId = -1;
+				indexPointer = previousInFile[slot];
 			}
+			unlinkInFile(slot);
+			freeSlot(slot);
 		}
 	}
 
 	/**
 	 * Removes all page windows for given page. Removes all page versions.
-	 * 
+	 *
 	 * @param pageId
 	 */
 	public void removePage(int pageId)
 	{
-		if (idToWindowIndices == null)
+		int slot = getWindowSlot(pageId, -1, -1);
+		if (slot == -1)
 		{
-			rebuildIndices();
+			return;
 		}
-		List<Integer> indicesList = idToWindowIndices.get(pageId);
 
-		if (indicesList != null)
+		// from the oldest window, so that the windows before the last window in the file are
+		// only marked as empty
+		while (olderOfPage[slot] != -1)
 		{
-			// we need to make a copy, as the removePage removes index from indicesList
-			Object[] indices = indicesList.toArray();
-			for (int i = 0; i < indices.length; i++)
-			{
-				int index = ((Integer)indices[i]).intValue();
-				PageWindowInternal window = windows.get(index);
-				if (window.pageId == pageId)
-				{
-					removePage(window.pageId, window.versionNumber, window.ajaxVersionNumber);
-				}
-			}
+			slot = olderOfPage[slot];
+		}
+		while (slot != -1)
+		{
+			int newer = newerOfPage[slot];
+			removeWindow(slot);
+			slot = newer;
 		}
 	}
 
 	/**
 	 * Returns last n saved page windows.
-	 * 
+	 *
 	 * @param count
 	 * @return list of page windows
 	 */
 	public synchronized List<PageWindow> getLastPageWindows(int count)
 	{
 		List<PageWindow> result = new ArrayList<PageWindow>();
-		int currentIndex = indexPointer;
+		int slot = indexPointer;
 
-		do
+		while (slot != -1 && result.size() < count)
 		{
-			if (currentIndex == -1)
+			if (pageIds[slot] != -1)
 			{
-				break;
+				result.add(new PageWindow(this, slot));
 			}
 
-			PageWindowInternal window = windows.get(currentIndex);
-			if (window.pageId != -1)
+			// continue with the window before, wrap around to the end of the file
+			slot = previousInFile[slot] != -1 ? previousInFile[slot] : lastWindow;
+			if (slot == indexPointer)
 			{
-				result.add(new PageWindow(window));
+				break;
 			}
+		}
 
-			--currentIndex;
+		return result;
+	}
 
-			if (currentIndex == -1)
+	/**
+	 * Writes the window table in a compact binary form. Each window takes 16 bytes.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public synchronized void writeTo(DataOutput out) throws IOException
+	{
+		int count = 0;
+		int indexPointerPosition = -1;
+		for (int slot = firstWindow; slot != -1; slot = nextInFile[slot])
+		{
+			if (slot == indexPointer)
 			{
-				currentIndex = result.size() - 1;
+				indexPointerPosition = count;
 			}
+			++count;
+		}
 
+		out.writeInt(maxSize);
+		out.writeInt(totalSize);
+		out.writeInt(indexPointerPosition);
+		out.writeInt(count);
+		for (int slot = firstWindow; slot != -1; slot = nextInFile[slot])
+		{
+			out.writeInt(pageIds[slot]);
+			out.writeShort(versionNumbers[slot]);
+			out.writeShort(ajaxVersionNumbers[slot]);
+			out.writeInt(filePartOffsets[slot]);
+			out.writeInt(filePartSizes[slot]);
 		}
-		while (result.size() < count && currentIndex != indexPointer);
+	}
 
+	/**
+	 * Reads the window table written by {@link #writeTo(DataOutput)}.
+	 *
+	 * @param in
+	 * @return page window manager
+	 * @throws IOException
+	 */
+	public static PageWindowManager readFrom(DataInput in) throws IOException
+	{
+		PageWindowManager result = new PageWindowManager(in.readInt());
+		result.totalSize = in.readInt();
+		int indexPointerPosition = in.readInt();
+		int count = in.readInt();
+		for (int i = 0; i < count; ++i)
+		{
+			int slot = result.appendWindow(in.readInt(), in.readShort(), in.readShort(),
+				in.readInt(), in.readInt());
+			if (i == indexPointerPosition)
+			{
+				result.indexPointer = slot;
+			}
+		}
+		result.indexWindows(count);
 		return result;
 	}
 
+	/**
+	 * Appends a window read from the index.
+	 *
+	 * @param pageId
+	 * @param versionNumber
+	 * @param ajaxVersionNumber
+	 * @param filePartOffset
+	 * @param filePartSize
+	 * @return slot of the window
+	 */
+	private int appendWindow(int pageId, short versionNumber, short ajaxVersionNumber,
+		int filePartOffset, int filePartSize)
+	{
+		int slot = newSlot();
+		pageIds[slot] = pageId;
+		versionNumbers[slot] = versionNumber;
+		ajaxVersionNumbers[slot] = ajaxVersionNumber;
+		filePartOffsets[slot] = filePartOffset;
+		filePartSizes[slot] = filePartSize;
+		linkInFile(lastWindow, slot);
+		return slot;
+	}
+
+	/**
+	 * Indexes the windows read from the index from the oldest (the one after index pointer) to
+	 * the newest.
+	 *
+	 * @param count
+	 *            number of windows
+	 */
+	private void indexWindows(int count)
+	{
+		int slot = indexPointer != -1 ? nextInFile[indexPointer] : firstWindow;
+		for (int i = 0; i < count; ++i)
+		{
+			if (slot == -1)
+			{
+				slot = firstWindow;
+			}
+			if (pageIds[slot] != -1)
+			{
+				index(slot);
+			}
+			slot = nextInFile[slot];
+		}
+	}
+
+	private synchronized void writeObject(ObjectOutputStream s) throws IOException
+	{
+		List<PageWindowInternal> windows = new ArrayList<PageWindowInternal>();
+		int indexPointerPosition = -1;
+		for (int slot = firstWindow; slot != -1; slot = nextInFile[slot])
+		{
+			if (slot == indexPointer)
+			{
+				indexPointerPosition = windows.size();
+			}
+			PageWindowInternal window = new PageWindowInternal();
+			window.pageId = pageIds[slot];
+			window.versionNumber = versionNumbers[slot];
+			window.ajaxVersionNumber = ajaxVersionNumbers[slot];
+			window.filePartOffset = filePartOffsets[slot];
+			window.filePartSize = filePartSizes[slot];
+			windows.add(window);
+		}
+
+		ObjectOutputStream.PutField fields = s.putFields();
+		fields.put("windows", windows);
+		fields.put("idToWindowIndices", null);
+		fields.put("indexPointer", indexPointerPosition);
+		fields.put("totalSize", totalSize);
+		fields.put("maxSize", maxSize);
+		s.writeFields();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream s) throws IOException, ClassNotFoundException
+	{
+		ObjectInputStream.GetField fields = s.readFields();
+		List<PageWindowInternal> windows = (List<PageWindowInternal>)fields.get("windows", null);
+		int indexPointerPosition = fields.get("indexPointer", -1);
+		maxSize = fields.get("maxSize", 0);
+
+		totalSize = fields.get("totalSize", 0);
+
+		initSlots();
+		int count = 0;
+		if (windows != null)
+		{
+			for (Iterator<PageWindowInternal> i = windows.iterator(); i.hasNext(); ++count)
+			{
+				PageWindowInternal window = i.next();
+				int slot = appendWindow(window.pageId, window.versionNumber,
+					window.ajaxVersionNumber, window.filePartOffset, window.filePartSize);
+				if (count == indexPointerPosition)
+				{
+					indexPointer = slot;
+				}
+			}
+		}
+		ensureIndexCapacity();
+		indexWindows(count);
+	}
+
 	/**
 	 * Creates a new PageWindowManager.
-	 * 
+	 *
 	 * @param maxSize
 	 *            maximum page size. After this size is exceeded, the pages will be saved starting
 	 *            at the beginning of file
@@ -603,11 +1066,13 @@ public class PageWindowManager implements Serializable
 	public PageWindowManager(int maxSize)
 	{
 		this.maxSize = maxSize;
+		initSlots();
+		ensureIndexCapacity();
 	}
 
 	/**
 	 * Returns the size of all saved pages
-	 * 
+	 *
 	 * @return total size
 	 */
 	public int getTotalSize()
@@ -617,5 +1082,5 @@ public class PageWindowManager implements Serializable
 
 	private int totalSize = 0;
 
-	private final int maxSize;
+	private int maxSize;
 }
@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.wicket.WicketRuntimeException;
+
+/**
+ * Compresses serialized page data using the deflate algorithm with a preset dictionary.
+ * <p>
+ * The dictionary contains class names, field names and type signatures that occur in almost every
+ * serialized page (class descriptors of components, models and collections), so even small pages
+ * compress well. Compressed data starts with a two byte marker followed by the uncompressed length,
+ * which can never be the start of a Java serialization stream. That allows pages stored before the
+ * compression was turned on to be read unchanged.
+ */
+public final class SerializedPageCompressor
+{
+	private static final byte MARKER_0 = 'W';
+	private static final byte MARKER_1 = 'Z';
+
+	private static final int HEADER_LENGTH = 6;
+
+	// most frequent strings are at the end, deflate prefers the closest match
+	private static final byte[] DICTIONARY = toBytes("java.util.HashMap" +
+		"java.util.LinkedList" + "java.lang.Integer" + "java.lang.Number" + "java.lang.Boolean" +
+		"java.lang.Enum" + "org.apache.wicket.PageParameters" +
+		"org.apache.wicket.util.value.ValueMap" +
+		"org.apache.wicket.version.undo.UndoPageVersionManager" +
+		"org.apache.wicket.version.undo.ChangeList" + "org.apache.wicket.markup.html.form.Form" +
+		"org.apache.wicket.markup.html.form.TextField" +
+		"org.apache.wicket.markup.html.form.FormComponent" +
+		"org.apache.wicket.markup.html.form.AbstractTextComponent" +
+		"org.apache.wicket.markup.html.list.ListItem" +
+		"org.apache.wicket.markup.html.list.ListView" +
+		"org.apache.wicket.markup.repeater.RepeatingView" +
+		"org.apache.wicket.markup.repeater.Item" +
+		"org.apache.wicket.markup.html.link.BookmarkablePageLink" +
+		"org.apache.wicket.markup.html.link.Link" +
+		"org.apache.wicket.markup.html.panel.Panel" +
+		"org.apache.wicket.markup.html.WebMarkupContainer" +
+		"org.apache.wicket.markup.html.WebPage" + "org.apache.wicket.markup.html.WebComponent" +
+		"org.apache.wicket.markup.html.basic.Label" + "org.apache.wicket.AttributeModifier" +
+		"org.apache.wicket.behavior.AbstractBehavior" +
+		"org.apache.wicket.model.PropertyModel" +
+		"org.apache.wicket.model.CompoundPropertyModel" +
+		"org.apache.wicket.model.LoadableDetachableModel" + "org.apache.wicket.model.Model" +
+		"org.apache.wicket.Page" + "org.apache.wicket.MarkupContainer" +
+		"org.apache.wicket.Component" + "java.util.ArrayList" + "Ljava/lang/Object;" +
+		"Lorg/apache/wicket/MarkupContainer;" + "Ljava/lang/String;" + "[Ljava.lang.Object;" +
+		"java.lang.String" + "serialVersionUIDxpsrxrtq~" + "markupIdparentchildrenflagsdata" +
+		"id");
+
+	private SerializedPageCompressor()
+	{
+	}
+
+	private static byte[] toBytes(String string)
+	{
+		try
+		{
+			return string.getBytes("UTF-8");
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			throw new WicketRuntimeException(e);
+		}
+	}
+
+	/**
+	 * @param data
+	 * @return <code>true</code> if the data has been produced by {@link #compress(byte[])}
+	 */
+	public static boolean isCompressed(byte[] data)
+	{
+		return data != null && data.length >= HEADER_LENGTH && data[0] == MARKER_0 &&
+			data[1] == MARKER_1;
+	}
+
+	/**
+	 * Compresses the serialized page data.
+	 *
+	 * @param data
+	 * @return compressed data
+	 */
+	public static byte[] compress(byte[] data)
+	{
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try
+		{
+			deflater.setDictionary(DICTIONARY);
+			deflater.setInput(data);
+			deflater.finish();
+
+			// incompressible data grows only slightly
+			byte[] buffer = new byte[HEADER_LENGTH + data.length + data.length / 1000 + 64];
+			int length = HEADER_LENGTH;
+			while (deflater.finished() == false)
+			{
+				if (length == buffer.length)
+				{
+					byte[] bigger = new byte[buffer.length * 2];
+					System.arraycopy(buffer, 0, bigger, 0, length);
+					buffer = bigger;
+				}
+				length += deflater.deflate(buffer, length, buffer.length - length);
+			}
+
+			buffer[0] = MARKER_0;
+			buffer[1] = MARKER_1;
+			buffer[2] = (byte)(data.length >>> 24);
+			buffer[3] = (byte)(data.length >>> 16);
+			buffer[4] = (byte)(data.length >>> 8);
+			buffer[5] = (byte)data.length;
+
+			byte[] result = new byte[length];
+			System.arraycopy(buffer, 0, result, 0, length);
+			return result;
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Decompresses data produced by {@link #compress(byte[])}. Data that is not compressed is
+	 * returned unchanged.
+	 *
+	 * @param data
+	 * @return uncompressed data
+	 */
+	public static byte[] decompress(byte[] data)
+	{
+		if (isCompressed(data) == false)
+		{
+			return data;
+		}
+
+		int length = ((data[2] & 0xFF) << 24) | ((data[3] & 0xFF) << 16) |
+			((data[4] & 0xFF) << 8) | (data[5] & 0xFF);
+		byte[] result = new byte[length];
+
+		Inflater inflater = new Inflater();
+		try
+		{
+			inflater.setInput(data, HEADER_LENGTH, data.length - HEADER_LENGTH);
+			int position = 0;
+			while (position < length)
+			{
+				int count = inflater.inflate(result, position, length - position);
+				if (count == 0)
+				{
+					if (inflater.needsDictionary())
+					{
+						inflater.setDictionary(DICTIONARY);
+					}
+					else if (inflater.finished() || inflater.needsInput())
+					{
+						throw new WicketRuntimeException("Compressed page data is truncated");
+					}
+				}
+				position += count;
+			}
+			return result;
+		}
+		catch (DataFormatException e)
+		{
+			throw new WicketRuntimeException("Compressed page data is corrupted", e);
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+}
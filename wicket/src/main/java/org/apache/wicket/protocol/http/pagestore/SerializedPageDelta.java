@@ -0,0 +1,306 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.Adler32;
+
+import org.apache.wicket.WicketRuntimeException;
+
+/**
+ * Binary delta between two serialized versions of the same page.
+ * <p>
+ * The delta consists of a header that identifies the base version (version number, ajax version
+ * number and checksum of the base data) followed by a sequence of operations that either copy a
+ * range of the base data or insert literal bytes. Matching ranges are found by indexing the base
+ * data in blocks of {@value #BLOCK_SIZE} bytes and scanning the new data with a rolling hash, so
+ * inserted or removed bytes (which shift the rest of the serialized stream) don't break the
+ * matching.
+ * <p>
+ * Deltas start with a two byte marker that can not be the start of a Java serialization stream or
+ * of data produced by {@link SerializedPageCompressor}.
+ */
+public final class SerializedPageDelta
+{
+	private static final byte MARKER_0 = 'W';
+	private static final byte MARKER_1 = 'D';
+
+	private static final int HEADER_LENGTH = 18;
+
+	private static final int BLOCK_SIZE = 16;
+
+	private static final int HASH_MULTIPLIER = 31;
+
+	private static final byte OP_COPY = 0;
+	private static final byte OP_INSERT = 1;
+
+	private SerializedPageDelta()
+	{
+	}
+
+	/**
+	 * @param data
+	 * @return <code>true</code> if the data is a delta created by
+	 *         {@link #create(int, int, byte[], byte[])}
+	 */
+	public static boolean isDelta(byte[] data)
+	{
+		return data != null && data.length >= HEADER_LENGTH && data[0] == MARKER_0 &&
+			data[1] == MARKER_1;
+	}
+
+	/**
+	 * @param delta
+	 * @return version number of the page version the delta has been created against
+	 */
+	public static int getBaseVersionNumber(byte[] delta)
+	{
+		return readInt(delta, 2);
+	}
+
+	/**
+	 * @param delta
+	 * @return ajax version number of the page version the delta has been created against
+	 */
+	public static int getBaseAjaxVersionNumber(byte[] delta)
+	{
+		return readInt(delta, 6);
+	}
+
+	private static int readInt(byte[] data, int offset)
+	{
+		return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16) |
+			((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+	}
+
+	private static int checksum(byte[] data)
+	{
+		Adler32 adler = new Adler32();
+		adler.update(data, 0, data.length);
+		return (int)adler.getValue();
+	}
+
+	private static int hash(byte[] data, int offset)
+	{
+		int hash = 0;
+		for (int i = 0; i < BLOCK_SIZE; ++i)
+		{
+			hash = hash * HASH_MULTIPLIER + data[offset + i];
+		}
+		return hash;
+	}
+
+	private static int mix(int hash)
+	{
+		hash ^= (hash >>> 20) ^ (hash >>> 12);
+		return hash ^ (hash >>> 7) ^ (hash >>> 4);
+	}
+
+	/**
+	 * Creates delta that transforms the base data to the target data.
+	 *
+	 * @param baseVersionNumber
+	 * @param baseAjaxVersionNumber
+	 * @param base
+	 *            uncompressed serialized data of the base version
+	 * @param target
+	 *            uncompressed serialized data of the new version
+	 * @return delta
+	 */
+	public static byte[] create(int baseVersionNumber, int baseAjaxVersionNumber, byte[] base,
+		byte[] target)
+	{
+		// index of block hashes of the base, direct mapped (collisions are verified on match)
+		int blocks = base.length / BLOCK_SIZE;
+		int tableSize = 16;
+		while (tableSize < blocks * 2)
+		{
+			tableSize <<= 1;
+		}
+		int mask = tableSize - 1;
+		int[] table = new int[tableSize];
+		for (int i = blocks - 1; i >= 0; --i)
+		{
+			// offset + 1, so that 0 means empty slot; lower offsets win
+			table[mix(hash(base, i * BLOCK_SIZE)) & mask] = i * BLOCK_SIZE + 1;
+		}
+
+		int power = 1;
+		for (int i = 1; i < BLOCK_SIZE; ++i)
+		{
+			power *= HASH_MULTIPLIER;
+		}
+
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(target.length / 8 + 64);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(MARKER_0);
+			out.writeByte(MARKER_1);
+			out.writeInt(baseVersionNumber);
+			out.writeInt(baseAjaxVersionNumber);
+			out.writeInt(checksum(base));
+			out.writeInt(target.length);
+
+			int literalStart = 0;
+			int position = 0;
+			int hash = target.length >= BLOCK_SIZE ? hash(target, 0) : 0;
+			while (blocks > 0 && position + BLOCK_SIZE <= target.length)
+			{
+				int candidate = table[mix(hash) & mask] - 1;
+				if (candidate >= 0 && regionMatches(base, candidate, target, position))
+				{
+					// extend the match backwards into the pending literal and forwards
+					int baseStart = candidate;
+					int targetStart = position;
+					while (baseStart > 0 && targetStart > literalStart &&
+						base[baseStart - 1] == target[targetStart - 1])
+					{
+						--baseStart;
+						--targetStart;
+					}
+					int length = position - targetStart + BLOCK_SIZE;
+					while (baseStart + length < base.length &&
+						targetStart + length < target.length &&
+						base[baseStart + length] == target[targetStart + length])
+					{
+						++length;
+					}
+
+					writeInsert(out, target, literalStart, targetStart);
+					out.writeByte(OP_COPY);
+					out.writeInt(baseStart);
+					out.writeInt(length);
+
+					position = targetStart + length;
+					literalStart = position;
+					if (position + BLOCK_SIZE <= target.length)
+					{
+						hash = hash(target, position);
+					}
+				}
+				else
+				{
+					if (position + BLOCK_SIZE < target.length)
+					{
+						hash = (hash - target[position] * power) * HASH_MULTIPLIER +
+							target[position + BLOCK_SIZE];
+					}
+					++position;
+				}
+			}
+			writeInsert(out, target, literalStart, target.length);
+
+			out.close();
+			return bytes.toByteArray();
+		}
+		catch (IOException e)
+		{
+			// can't happen with byte array stream
+			throw new WicketRuntimeException(e);
+		}
+	}
+
+	private static boolean regionMatches(byte[] base, int baseOffset, byte[] target,
+		int targetOffset)
+	{
+		for (int i = 0; i < BLOCK_SIZE; ++i)
+		{
+			if (base[baseOffset + i] != target[targetOffset + i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void writeInsert(DataOutputStream out, byte[] target, int start, int end)
+		throws IOException
+	{
+		if (end > start)
+		{
+			out.writeByte(OP_INSERT);
+			out.writeInt(end - start);
+			out.write(target, start, end - start);
+		}
+	}
+
+	/**
+	 * Applies the delta to the base data.
+	 *
+	 * @param base
+	 *            uncompressed serialized data of the base version
+	 * @param delta
+	 * @return uncompressed serialized data of the new version or null if the base data is not the
+	 *         data the delta has been created against (e.g. because the base version has been
+	 *         stored again meanwhile)
+	 */
+	public static byte[] apply(byte[] base, byte[] delta)
+	{
+		if (isDelta(delta) == false)
+		{
+			throw new IllegalArgumentException("Data is not a page delta");
+		}
+
+		if (readInt(delta, 10) != checksum(base))
+		{
+			return null;
+		}
+
+		byte[] result = new byte[readInt(delta, 14)];
+		try
+		{
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta,
+				HEADER_LENGTH, delta.length - HEADER_LENGTH));
+			int position = 0;
+			while (position < result.length)
+			{
+				byte op = in.readByte();
+				if (op == OP_COPY)
+				{
+					int offset = in.readInt();
+					int length = in.readInt();
+					System.arraycopy(base, offset, result, position, length);
+					position += length;
+				}
+				else if (op == OP_INSERT)
+				{
+					int length = in.readInt();
+					in.readFully(result, position, length);
+					position += length;
+				}
+				else
+				{
+					throw new WicketRuntimeException("Page delta is corrupted");
+				}
+			}
+			return result;
+		}
+		catch (IOException e)
+		{
+			throw new WicketRuntimeException("Page delta is corrupted", e);
+		}
+		catch (IndexOutOfBoundsException e)
+		{
+			throw new WicketRuntimeException("Page delta is corrupted", e);
+		}
+	}
+}
@@ -17,11 +17,15 @@
 package org.apache.wicket.protocol.http.pagestore;
 
 import java.io.Serializable;
-import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.wicket.Page;
 import org.apache.wicket.protocol.http.pagestore.AbstractPageStore.SerializedPage;
@@ -33,40 +37,117 @@ import org.apache.wicket.protocol.http.pagestore.AbstractPageStore.SerializedPag
  * For example a page is serialized during request, but it might be also later serialized on session
  * replication. The purpose of this cache is to make sure that the data obtained from first
  * serialization is reused on second serialization.
+ * <p>
+ * The entries are kept in segments (chosen by session id), each segment being a last recently used
+ * map guarded by its own lock. The maximum number of entries and of serialized bytes apply to the
+ * whole cache; when it is full the last recently used entry of all segments is evicted, so a single
+ * session can use the whole cache. Entries can also be looked up by the identity of the live page
+ * instance through a separate index.
  * 
  * @author Matej Knopp
  */
 class SerializedPagesCache
 {
+	private static final int DEFAULT_SEGMENT_COUNT = 16;
+
+	/**
+	 * Construct.
+	 * 
+	 * @param size
+	 *            maximum number of entries
+	 * @param maxBytes
+	 *            maximum number of serialized bytes held by the cache
+	 */
+	public SerializedPagesCache(final int size, final long maxBytes)
+	{
+		this(size, maxBytes, DEFAULT_SEGMENT_COUNT);
+	}
+
 	/**
 	 * Construct.
 	 * 
 	 * @param size
+	 *            maximum number of entries
+	 * @param maxBytes
+	 *            maximum number of serialized bytes held by the cache
+	 * @param segmentCount
+	 *            number of independently locked segments
+	 */
+	public SerializedPagesCache(final int size, final long maxBytes, final int segmentCount)
+	{
+		if (segmentCount < 1)
+		{
+			throw new IllegalArgumentException("Segment count must be at least one.");
+		}
+		this.size = size;
+		this.maxBytes = maxBytes;
+		segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; ++i)
+		{
+			segments[i] = new Segment();
+		}
+	}
+
+	private volatile int size;
+
+	private volatile long maxBytes;
+
+	private final Segment[] segments;
+
+	// index of entries by the live page instance
+	private final Map<IdentityKey, CacheEntry> pageToEntry = new ConcurrentHashMap<IdentityKey, CacheEntry>();
+
+	// number of entries and serialized bytes held by all segments
+	private final AtomicInteger entryCount = new AtomicInteger();
+	private final AtomicLong byteCount = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Sets the maximum number of entries. Zero disables the cache.
+	 * 
+	 * @param size
 	 */
-	public SerializedPagesCache(final int size)
+	void setSize(int size)
 	{
 		this.size = size;
-		cache = new ArrayList<SoftReference<SerializedPageWithSession>>(size);
 	}
 
-	private final int size;
+	/**
+	 * Sets the maximum number of serialized bytes kept in cache. Zero disables the cache.
+	 * 
+	 * @param maxBytes
+	 */
+	void setMaxBytes(long maxBytes)
+	{
+		this.maxBytes = maxBytes;
+	}
 
-	private final List<SoftReference<SerializedPageWithSession>> cache;
+	private boolean isEnabled()
+	{
+		return size > 0 && maxBytes > 0;
+	}
+
+	private Segment getSegment(String sessionId)
+	{
+		return segments[PageKey.segmentIndex(sessionId, segments.length)];
+	}
 
 	SerializedPageWithSession removePage(Page page)
 	{
-		if (size > 0)
+		if (isEnabled())
 		{
-			synchronized (cache)
+			CacheEntry entry = pageToEntry.get(new IdentityKey(page));
+			if (entry != null)
 			{
-				for (Iterator<SoftReference<SerializedPageWithSession>> i = cache.iterator(); i.hasNext();)
+				Segment segment = getSegment(entry.key.getSessionId());
+				synchronized (segment)
 				{
-					SoftReference<SerializedPageWithSession> ref = i.next();
-					SerializedPageWithSession entry = ref.get();
-					if (entry != null && entry.page.get() == page)
+					if (segment.remove(entry.key, entry))
 					{
-						i.remove();
-						return entry;
+						return entry.value;
 					}
 				}
 			}
@@ -76,51 +157,50 @@ class SerializedPagesCache
 
 	SerializedPageWithSession getPage(Page page)
 	{
-		SerializedPageWithSession result = null;
-		if (size > 0)
+		if (isEnabled())
 		{
-			synchronized (cache)
+			CacheEntry entry = pageToEntry.get(new IdentityKey(page));
+			if (entry != null)
 			{
-				for (Iterator<SoftReference<SerializedPageWithSession>> i = cache.iterator(); i.hasNext();)
+				Segment segment = getSegment(entry.key.getSessionId());
+				synchronized (segment)
 				{
-					SoftReference<SerializedPageWithSession> ref = i.next();
-					SerializedPageWithSession entry = ref.get();
-					if (entry != null && entry.page.get() == page)
+					// marks the entry as last recently used
+					if (segment.entries.get(entry.key) == entry)
 					{
-						i.remove();
-						result = entry;
-						break;
+						entry.lastUsed = System.nanoTime();
+						hits.incrementAndGet();
+						return entry.value;
 					}
 				}
-
-				if (result != null)
-				{
-					cache.add(new SoftReference<SerializedPageWithSession>(result));
-				}
 			}
+			misses.incrementAndGet();
 		}
-		return result;
+		return null;
 	}
 
 	SerializedPageWithSession getPage(String sessionId, int pageId, String pageMapName,
 		int version, int ajaxVersion)
 	{
-		if (size > 0)
+		if (isEnabled())
 		{
-			synchronized (cache)
+			PageKey key = new PageKey(sessionId, pageMapName, pageId, version, ajaxVersion);
+			Segment segment = getSegment(sessionId);
+			CacheEntry entry;
+			synchronized (segment)
 			{
-				for (Iterator<SoftReference<SerializedPageWithSession>> i = cache.iterator(); i.hasNext();)
+				entry = segment.entries.get(key);
+				if (entry != null)
 				{
-					SoftReference<SerializedPageWithSession> ref = i.next();
-					SerializedPageWithSession entry = ref.get();
-					if (entry != null && entry.sessionId.equals(sessionId) &&
-						entry.pageId == pageId && entry.pageMapName.equals(pageMapName) &&
-						entry.versionNumber == version && entry.ajaxVersionNumber == ajaxVersion)
-					{
-						return entry;
-					}
+					entry.lastUsed = System.nanoTime();
 				}
 			}
+			if (entry != null)
+			{
+				hits.incrementAndGet();
+				return entry.value;
+			}
+			misses.incrementAndGet();
 		}
 		return null;
 	}
@@ -135,24 +215,231 @@ class SerializedPagesCache
 	 */
 	SerializedPageWithSession storePage(String sessionId, Page page, List<SerializedPage> pagesList)
 	{
-		SerializedPageWithSession entry = new SerializedPageWithSession(sessionId, page, pagesList);
-		SoftReference<SerializedPageWithSession> ref = new SoftReference<SerializedPageWithSession>(
-			entry);
+		SerializedPageWithSession value = new SerializedPageWithSession(sessionId, page, pagesList);
 
-		if (size > 0)
+		if (isEnabled())
 		{
-			synchronized (cache)
+			removePage(page);
+
+			CacheEntry entry = new CacheEntry(new PageKey(sessionId, value.pageMapName,
+				value.pageId, value.versionNumber, value.ajaxVersionNumber), new IdentityKey(page),
+				value);
+
+			Segment segment = getSegment(sessionId);
+			synchronized (segment)
 			{
-				removePage(page);
-				cache.add(ref);
-				if (cache.size() > size)
+				segment.put(entry);
+			}
+
+			// evict outside of the segment lock, evicting locks the other segments
+			while (entryCount.get() > size || byteCount.get() > maxBytes)
+			{
+				if (!evictLastRecentlyUsed())
 				{
-					cache.remove(0);
+					break;
 				}
 			}
 		}
 
-		return entry;
+		return value;
+	}
+
+	/**
+	 * @return number of successful lookups
+	 */
+	long getHits()
+	{
+		return hits.get();
+	}
+
+	/**
+	 * @return number of unsuccessful lookups
+	 */
+	long getMisses()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * @return number of entries removed because the cache was full
+	 */
+	long getEvictions()
+	{
+		return evictions.get();
+	}
+
+	/**
+	 * @return number of serialized bytes currently held by the cache
+	 */
+	long getBytes()
+	{
+		return byteCount.get();
+	}
+
+	/**
+	 * Evicts the last recently used entry of all segments.
+	 * 
+	 * @return false if the cache is empty
+	 */
+	private boolean evictLastRecentlyUsed()
+	{
+		Segment eldestSegment = null;
+		long eldestUsed = 0;
+		for (int i = 0; i < segments.length; ++i)
+		{
+			synchronized (segments[i])
+			{
+				if (!segments[i].entries.isEmpty())
+				{
+					long used = segments[i].entries.values().iterator().next().lastUsed;
+					if (eldestSegment == null || used - eldestUsed < 0)
+					{
+						eldestSegment = segments[i];
+						eldestUsed = used;
+					}
+				}
+			}
+		}
+		if (eldestSegment == null)
+		{
+			return false;
+		}
+
+		synchronized (eldestSegment)
+		{
+			// the segment may have changed since, then its current eldest entry is evicted
+			Iterator<CacheEntry> i = eldestSegment.entries.values().iterator();
+			if (i.hasNext())
+			{
+				CacheEntry eldest = i.next();
+				i.remove();
+				eldestSegment.removed(eldest);
+				evictions.incrementAndGet();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Last recently used part of the cache. All methods must be called with the segment monitor
+	 * held.
+	 */
+	private final class Segment
+	{
+		private final LinkedHashMap<PageKey, CacheEntry> entries = new LinkedHashMap<PageKey, CacheEntry>(
+			16, 0.75f, true);
+
+		private void put(CacheEntry entry)
+		{
+			CacheEntry previous = entries.get(entry.key);
+			if (previous != null)
+			{
+				remove(previous.key, previous);
+			}
+
+			if (entry.size > maxBytes)
+			{
+				// would evict the whole cache and still not fit
+				evictions.incrementAndGet();
+				return;
+			}
+
+			entry.lastUsed = System.nanoTime();
+			entries.put(entry.key, entry);
+			pageToEntry.put(entry.identity, entry);
+			entryCount.incrementAndGet();
+			byteCount.addAndGet(entry.size);
+		}
+
+		private boolean remove(PageKey key, CacheEntry entry)
+		{
+			if (entries.get(key) == entry)
+			{
+				entries.remove(key);
+				removed(entry);
+				return true;
+			}
+			return false;
+		}
+
+		private void removed(CacheEntry entry)
+		{
+			entryCount.decrementAndGet();
+			byteCount.addAndGet(-entry.size);
+			// only remove the index entry if it still points to the removed entry
+			if (pageToEntry.get(entry.identity) == entry)
+			{
+				pageToEntry.remove(entry.identity);
+			}
+		}
+	}
+
+	/**
+	 * Cached value with its keys and size.
+	 */
+	private static final class CacheEntry
+	{
+		private final PageKey key;
+		private final IdentityKey identity;
+		private final SerializedPageWithSession value;
+		private final long size;
+
+		// when the entry was last used, guarded by the lock of its segment
+		private long lastUsed;
+
+		private CacheEntry(PageKey key, IdentityKey identity, SerializedPageWithSession value)
+		{
+			this.key = key;
+			this.identity = identity;
+			this.value = value;
+
+			long size = 0;
+			for (Iterator<SerializedPage> i = value.pages.iterator(); i.hasNext();)
+			{
+				byte[] data = i.next().getData();
+				if (data != null)
+				{
+					size += data.length;
+				}
+			}
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Key that compares the (weakly referenced) page instances by identity.
+	 */
+	private static final class IdentityKey
+	{
+		private final WeakReference<Object> page;
+		private final int hash;
+
+		private IdentityKey(Object page)
+		{
+			this.page = new WeakReference<Object>(page);
+			hash = System.identityHashCode(page);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this == obj)
+			{
+				return true;
+			}
+			if (obj instanceof IdentityKey == false)
+			{
+				return false;
+			}
+			Object referent = page.get();
+			return referent != null && referent == ((IdentityKey)obj).page.get();
+		}
 	}
 
 	/**
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link FileChannelPool} that splits the channels into several independent stripes. The stripe is
+ * chosen by the file name, so acquiring and returning channels for different pagemap files rarely
+ * contends on the same lock.
+ * <p>
+ * Each stripe is a regular {@link FileChannelPool} with the proportional part of the total
+ * capacity.
+ */
+public class StripedFileChannelPool extends FileChannelPool
+{
+	private final FileChannelPool[] stripes;
+
+	// stripe that handed out the channel, needed when the channel is returned
+	private final Map<FileChannel, FileChannelPool> channelToStripe = new ConcurrentHashMap<FileChannel, FileChannelPool>();
+
+	/**
+	 * Construct.
+	 *
+	 * @param capacity
+	 *            Maximum number of opened file channels (for all stripes together).
+	 * @param stripeCount
+	 *            Number of stripes. Will be lowered to capacity if necessary.
+	 */
+	public StripedFileChannelPool(int capacity, int stripeCount)
+	{
+		super(capacity);
+
+		if (stripeCount < 1)
+		{
+			throw new IllegalArgumentException("Stripe count must be at least one.");
+		}
+
+		stripeCount = Math.min(stripeCount, capacity);
+		stripes = new FileChannelPool[stripeCount];
+		for (int i = 0; i < stripeCount; ++i)
+		{
+			// spread the remainder over the first stripes
+			int stripeCapacity = capacity / stripeCount + (i < capacity % stripeCount ? 1 : 0);
+			stripes[i] = new FileChannelPool(stripeCapacity)
+			{
+				@Override
+				protected void onChannelClosed(FileChannel channel)
+				{
+					channelToStripe.remove(channel);
+				}
+			};
+		}
+	}
+
+	private FileChannelPool getStripe(String fileName)
+	{
+		return stripes[PageKey.segmentIndex(fileName, stripes.length)];
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.pagestore.FileChannelPool#getFileChannel(java.lang.String,
+	 *      boolean)
+	 */
+	@Override
+	public FileChannel getFileChannel(String fileName, boolean createIfDoesNotExist)
+	{
+		FileChannelPool stripe = getStripe(fileName);
+		FileChannel channel = stripe.getFileChannel(fileName, createIfDoesNotExist);
+		if (channel != null)
+		{
+			// the channel is in use now, so the stripe can not close it before it's returned
+			channelToStripe.put(channel, stripe);
+		}
+		return channel;
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.pagestore.FileChannelPool#returnFileChannel(java.nio.channels.FileChannel)
+	 */
+	@Override
+	public void returnFileChannel(FileChannel channel)
+	{
+		FileChannelPool stripe = channelToStripe.get(channel);
+		if (stripe == null)
+		{
+			throw new IllegalArgumentException("Trying to return unused channel");
+		}
+		stripe.returnFileChannel(channel);
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.pagestore.FileChannelPool#closeAndDeleteFileChannel(java.lang.String)
+	 */
+	@Override
+	public void closeAndDeleteFileChannel(String name)
+	{
+		getStripe(name).closeAndDeleteFileChannel(name);
+	}
+
+	/**
+	 * @see org.apache.wicket.protocol.http.pagestore.FileChannelPool#destroy()
+	 */
+	@Override
+	public void destroy()
+	{
+		for (int i = 0; i < stripes.length; ++i)
+		{
+			stripes[i].destroy();
+		}
+	}
+
+	/**
+	 * @return number of stripes
+	 */
+	public int getStripeCount()
+	{
+		return stripes.length;
+	}
+}
@@ -16,18 +16,23 @@
  */
 package org.apache.wicket.protocol.http.request;
 
+import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.servlet.http.HttpSession;
+
 import org.apache.wicket.Application;
 import org.apache.wicket.IRequestTarget;
+import org.apache.wicket.MetaDataKey;
 import org.apache.wicket.Request;
 import org.apache.wicket.RequestCycle;
 import org.apache.wicket.WicketRuntimeException;
 import org.apache.wicket.protocol.http.PageExpiredException;
 import org.apache.wicket.protocol.http.RequestUtils;
+import org.apache.wicket.protocol.http.WebRequestCycle;
 import org.apache.wicket.protocol.http.WicketURLDecoder;
 import org.apache.wicket.protocol.http.WicketURLEncoder;
 import org.apache.wicket.request.IRequestCodingStrategy;
@@ -35,6 +40,7 @@ import org.apache.wicket.request.RequestParameters;
 import org.apache.wicket.request.target.coding.IRequestTargetUrlCodingStrategy;
 import org.apache.wicket.util.crypt.ICrypt;
 import org.apache.wicket.util.crypt.KeyInSessionSunJceCryptFactory;
+import org.apache.wicket.util.lang.Objects;
 import org.apache.wicket.util.string.AppendingStringBuffer;
 import org.apache.wicket.util.string.Strings;
 import org.apache.wicket.util.string.UrlUtils;
@@ -84,6 +90,10 @@ import org.slf4j.LoggerFactory;
  * encrypted using a session-relative encryption key; however, bookmarkable urls are still available
  * through their mounts.
  * </p>
+ * <p>
+ * The crypt is created once per request, and a query string that is encoded more than once during
+ * a request, e.g. for the same link on every row of a table, is only encrypted once.
+ * </p>
  * 
  * 
  * @author Juergen Donnerstag
@@ -93,6 +103,12 @@ public class CryptedUrlWebRequestCodingStrategy implements IRequestCodingStrateg
 	/** log. */
 	private static final Logger log = LoggerFactory.getLogger(CryptedUrlWebRequestCodingStrategy.class);
 
+	/** The crypt of the current request and the query strings it encrypted */
+	private static final MetaDataKey<RequestCrypt> REQUEST_CRYPT = new MetaDataKey<RequestCrypt>()
+	{
+		private static final long serialVersionUID = 1L;
+	};
+
 	/** The default request coding strategy most of the methods are delegated to */
 	private final IRequestCodingStrategy defaultStrategy;
 
@@ -200,7 +216,7 @@ public class CryptedUrlWebRequestCodingStrategy implements IRequestCodingStrateg
 	protected CharSequence encodeURL(final CharSequence url)
 	{
 		// Get the crypt implementation from the application
-		ICrypt urlCrypt = Application.get().getSecuritySettings().getCryptFactory().newCrypt();
+		RequestCrypt urlCrypt = getRequestCrypt();
 		if (urlCrypt != null)
 		{
 			// The url must have a query string, otherwise keep the url
@@ -219,16 +235,21 @@ public class CryptedUrlWebRequestCodingStrategy implements IRequestCodingStrateg
 				// has been encoded already
 				if (!queryString.startsWith("x="))
 				{
-					// The length of the encrypted string depends on the
-					// length of the original querystring. Let's try to
-					// make the querystring shorter first without loosing
-					// information.
-					queryString = shortenUrl(queryString).toString();
-
-					// encrypt the query string
-					String encryptedQueryString = urlCrypt.encryptUrlSafe(queryString);
-
-					encryptedQueryString = WicketURLEncoder.QUERY_INSTANCE.encode(encryptedQueryString);
+					String encryptedQueryString = urlCrypt.encrypted.get(queryString);
+					if (encryptedQueryString == null)
+					{
+						// The length of the encrypted string depends on the
+						// length of the original querystring. Let's try to
+						// make the querystring shorter first without loosing
+						// information.
+						String shortQueryString = shortenUrl(queryString).toString();
+
+						// encrypt the query string
+						encryptedQueryString = urlCrypt.crypt.encryptUrlSafe(shortQueryString);
+
+						encryptedQueryString = WicketURLEncoder.QUERY_INSTANCE.encode(encryptedQueryString);
+						urlCrypt.encrypted.put(queryString, encryptedQueryString);
+					}
 
 					// build the new complete url
 					return new AppendingStringBuffer(urlPrefix).append("?x=").append(
@@ -241,6 +262,54 @@ public class CryptedUrlWebRequestCodingStrategy implements IRequestCodingStrateg
 		return url;
 	}
 
+	/**
+	 * Gets the crypt of the current request, which is created by the crypt factory of the
+	 * application for the first URL of the request. A new crypt is created when the http session
+	 * changed, e.g. by {@link org.apache.wicket.Session#replaceSession()}, because the crypt
+	 * factory may take the key from the session.
+	 * 
+	 * @return the crypt, or null if the crypt factory didn't provide one
+	 */
+	private RequestCrypt getRequestCrypt()
+	{
+		final RequestCycle requestCycle = RequestCycle.get();
+		RequestCrypt requestCrypt = requestCycle != null ? requestCycle.getMetaData(REQUEST_CRYPT)
+			: null;
+		if (requestCrypt == null ||
+			!Objects.equal(requestCrypt.sessionId, getHttpSessionId(requestCycle)))
+		{
+			ICrypt crypt = Application.get().getSecuritySettings().getCryptFactory().newCrypt();
+			if (crypt == null)
+			{
+				return null;
+			}
+			// the crypt factory may have created the session
+			requestCrypt = new RequestCrypt(crypt, getHttpSessionId(requestCycle));
+			if (requestCycle != null)
+			{
+				requestCycle.setMetaData(REQUEST_CRYPT, requestCrypt);
+			}
+		}
+		return requestCrypt;
+	}
+
+	/**
+	 * @param requestCycle
+	 * @return the id of the http session of the request, or null if there is none
+	 */
+	private static String getHttpSessionId(final RequestCycle requestCycle)
+	{
+		if (requestCycle instanceof WebRequestCycle &&
+			((WebRequestCycle)requestCycle).getWebRequest() != null)
+		{
+			HttpSession session = ((WebRequestCycle)requestCycle).getWebRequest()
+				.getHttpServletRequest()
+				.getSession(false);
+			return session != null ? session.getId() : null;
+		}
+		return null;
+	}
+
 	/**
 	 * Decode the "x" parameter of the querystring
 	 * 
@@ -275,13 +344,10 @@ public class CryptedUrlWebRequestCodingStrategy implements IRequestCodingStrateg
 				secureParam = WicketURLDecoder.QUERY_INSTANCE.decode(secureParam);
 
 				// Get the crypt implementation from the application
-				final ICrypt urlCrypt = Application.get()
-					.getSecuritySettings()
-					.getCryptFactory()
-					.newCrypt();
+				final RequestCrypt urlCrypt = getRequestCrypt();
 
 				// Decrypt the query string
-				String queryString = urlCrypt.decryptUrlSafe(secureParam);
+				String queryString = urlCrypt.crypt.decryptUrlSafe(secureParam);
 
 				// The querystring might have been shortened (length reduced).
 				// In that case, lengthen the query string again.
@@ -639,4 +705,24 @@ public class CryptedUrlWebRequestCodingStrategy implements IRequestCodingStrateg
 			return getMessage();
 		}
 	}
+
+	/**
+	 * The crypt of a request, and the query strings it encrypted.
+	 */
+	private static final class RequestCrypt
+	{
+		private final ICrypt crypt;
+
+		/** Id of the http session the crypt was created for */
+		private final String sessionId;
+
+		/** Encrypted and url encoded query strings by query string */
+		private final Map<String, String> encrypted = new HashMap<String, String>();
+
+		private RequestCrypt(final ICrypt crypt, final String sessionId)
+		{
+			this.crypt = crypt;
+			this.sessionId = sessionId;
+		}
+	}
 }
@@ -113,6 +113,15 @@ public class WebRequestCodingStrategy implements IRequestCodingStrategy, IReques
 	public static final String IGNORE_IF_NOT_ACTIVE_PARAMETER_NAME = NAME_SPACE +
 		"ignoreIfNotActive";
 
+	/**
+	 * Parameter name that marks an Ajax request as one that may be dropped in favor of a later
+	 * request of the same behavior. The value of this parameter is not important, it simply has to
+	 * be present.
+	 * 
+	 * @see org.apache.wicket.settings.IRequestCycleSettings#setCoalesceAjaxRequests(boolean)
+	 */
+	public static final String COALESCE_PARAMETER_NAME = NAME_SPACE + "coalesce";
+
 	/**
 	 * Various settings used to configure this strategy
 	 * 
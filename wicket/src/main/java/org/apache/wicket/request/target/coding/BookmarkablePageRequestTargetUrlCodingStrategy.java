@@ -69,6 +69,14 @@ public class BookmarkablePageRequestTargetUrlCodingStrategy extends
 		this.pageMapName = pageMapName;
 	}
 
+	/**
+	 * @return the class of the bookmarkable page or null if the class has been garbage collected
+	 */
+	public Class<? extends Page> getBookmarkablePageClass()
+	{
+		return bookmarkablePageClassRef.get();
+	}
+
 	/**
 	 * @see org.apache.wicket.request.target.coding.IRequestTargetUrlCodingStrategy#decode(org.apache.wicket.request.RequestParameters)
 	 */
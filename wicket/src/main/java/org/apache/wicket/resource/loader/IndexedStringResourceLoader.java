@@ -0,0 +1,425 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.resource.loader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.wicket.Application;
+import org.apache.wicket.WicketRuntimeException;
+import org.apache.wicket.resource.IPropertiesChangeListener;
+import org.apache.wicket.resource.IPropertiesFactory;
+import org.apache.wicket.resource.Properties;
+import org.apache.wicket.util.io.IOUtils;
+import org.apache.wicket.util.lang.Objects;
+import org.apache.wicket.util.resource.locator.ResourceNameIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A {@link ComponentStringResourceLoader} that resolves the bundles of a class, locale and style
+ * only once. The first lookup collects the properties files that exist for the class and its
+ * superclasses, in search order; every later lookup for the same class, locale and style is a
+ * probe of these tables only, whether or not the key is found.
+ * <p>
+ * The classpath is probed once for every resource name the {@link ResourceNameIterator} produces.
+ * That probing is avoided altogether for packages described by an index file
+ * {@value #INDEX_FILE}, which lists the string resource files of a jar or classes directory, one
+ * path per line (e.g. <code>com/mycompany/MyPage_nl.properties</code>). A package that appears in
+ * an index is assumed to have no other string resources. The index can be generated at build time
+ * with {@link #main(String[])}, or passed to the constructor.
+ * <p>
+ * Use it in place of the {@link ComponentStringResourceLoader}:
+ *
+ * <pre>
+ * List&lt;IStringResourceLoader&gt; loaders = getResourceSettings().getStringResourceLoaders();
+ * loaders.set(0, new IndexedStringResourceLoader());
+ * </pre>
+ *
+ * The tables are dropped when a properties file changes.
+ */
+public class IndexedStringResourceLoader extends ComponentStringResourceLoader
+{
+	/** Log. */
+	private static final Logger log = LoggerFactory.getLogger(IndexedStringResourceLoader.class);
+
+	/** Classpath location of the string resource index files */
+	public static final String INDEX_FILE = "META-INF/wicket-string-resources.idx";
+
+	private static final Properties[] NO_PROPERTIES = new Properties[0];
+
+	/** The bundles of a class, locale and style in search order */
+	private final ConcurrentMap<BundleKey, Properties[]> bundles = new ConcurrentHashMap<BundleKey, Properties[]>();
+
+	private final AtomicBoolean listening = new AtomicBoolean();
+
+	/** Resource names without the extension, null until the index files are read */
+	private volatile Set<String> indexedNames;
+
+	/** Packages described by the index */
+	private volatile Set<String> indexedPackages;
+
+	/**
+	 * Construct a loader using the index files found on the classpath.
+	 */
+	public IndexedStringResourceLoader()
+	{
+	}
+
+	/**
+	 * Construct a loader using the given index instead of the index files on the classpath.
+	 *
+	 * @param resources
+	 *            the paths of all string resource files of the indexed packages, e.g.
+	 *            <code>com/mycompany/MyPage_nl.properties</code>
+	 */
+	public IndexedStringResourceLoader(final Collection<String> resources)
+	{
+		setIndex(resources);
+	}
+
+	/**
+	 * @see org.apache.wicket.resource.loader.ComponentStringResourceLoader#loadStringResource(java.lang.Class,
+	 *      java.lang.String, java.util.Locale, java.lang.String)
+	 */
+	@Override
+	public String loadStringResource(final Class<?> clazz, final String key, final Locale locale,
+		final String style)
+	{
+		if (clazz == null)
+		{
+			return null;
+		}
+
+		BundleKey bundleKey = new BundleKey(clazz, locale, style);
+		Properties[] properties = bundles.get(bundleKey);
+		if (properties == null)
+		{
+			properties = findProperties(clazz, locale, style);
+			bundles.put(bundleKey, properties);
+		}
+
+		for (int i = 0; i < properties.length; i++)
+		{
+			String value = properties[i].getString(key);
+			if (value != null)
+			{
+				return value;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Drops the bundles found so far.
+	 */
+	public void clearCache()
+	{
+		bundles.clear();
+	}
+
+	/**
+	 * @return number of class, locale and style combinations of which the bundles are known
+	 */
+	public int getCacheSize()
+	{
+		return bundles.size();
+	}
+
+	/**
+	 * Collects the existing properties of a class and its superclasses in the order
+	 * {@link ComponentStringResourceLoader} searches them.
+	 *
+	 * @param clazz
+	 * @param locale
+	 * @param style
+	 * @return the properties, never null
+	 */
+	private Properties[] findProperties(Class<?> clazz, final Locale locale, final String style)
+	{
+		IPropertiesFactory propertiesFactory = getPropertiesFactory();
+		if (listening.compareAndSet(false, true))
+		{
+			propertiesFactory.addListener(new IPropertiesChangeListener()
+			{
+				public void propertiesChanged(final String key)
+				{
+					clearCache();
+				}
+			});
+		}
+		if (indexedNames == null)
+		{
+			setIndex(readIndex());
+		}
+
+		List<Properties> found = new ArrayList<Properties>();
+		while (clazz != null)
+		{
+			String path = clazz.getName().replace('.', '/');
+			boolean indexed = indexedPackages.contains(getPackage(path));
+
+			ResourceNameIterator iter = new ResourceNameIterator(path, style, locale, null);
+			while (iter.hasNext())
+			{
+				String newPath = iter.next();
+				if (indexed && !indexedNames.contains(newPath))
+				{
+					continue;
+				}
+
+				Properties props = propertiesFactory.load(clazz, newPath);
+				if (props != null)
+				{
+					found.add(props);
+				}
+			}
+
+			if (isStopResourceSearch(clazz))
+			{
+				break;
+			}
+			clazz = clazz.getSuperclass();
+		}
+		return found.isEmpty() ? NO_PROPERTIES : found.toArray(new Properties[found.size()]);
+	}
+
+	/**
+	 * Reads all index files on the classpath.
+	 *
+	 * @return the paths listed by the index files
+	 */
+	protected Collection<String> readIndex()
+	{
+		List<String> resources = new ArrayList<String>();
+		Iterator<URL> urls = getIndexFiles();
+		while (urls.hasNext())
+		{
+			URL url = urls.next();
+			InputStream in = null;
+			try
+			{
+				in = url.openStream();
+				BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+				String line;
+				while ((line = reader.readLine()) != null)
+				{
+					line = line.trim();
+					if (line.length() > 0 && !line.startsWith("#"))
+					{
+						resources.add(line);
+					}
+				}
+			}
+			catch (IOException e)
+			{
+				throw new WicketRuntimeException("Unable to read string resource index " + url, e);
+			}
+			finally
+			{
+				IOUtils.closeQuietly(in);
+			}
+		}
+		if (log.isDebugEnabled())
+		{
+			log.debug("Read " + resources.size() + " string resources from the index files");
+		}
+		return resources;
+	}
+
+	/**
+	 * @return the urls of the index files on the classpath
+	 */
+	protected Iterator<URL> getIndexFiles()
+	{
+		if (Application.exists())
+		{
+			return Application.get()
+				.getApplicationSettings()
+				.getClassResolver()
+				.getResources(INDEX_FILE);
+		}
+		try
+		{
+			ClassLoader loader = Thread.currentThread().getContextClassLoader();
+			if (loader == null)
+			{
+				loader = IndexedStringResourceLoader.class.getClassLoader();
+			}
+			return Collections.list(loader.getResources(INDEX_FILE)).iterator();
+		}
+		catch (IOException e)
+		{
+			throw new WicketRuntimeException("Unable to find string resource index files", e);
+		}
+	}
+
+	private void setIndex(final Collection<String> resources)
+	{
+		Set<String> names = new HashSet<String>();
+		Set<String> packages = new HashSet<String>();
+		for (Iterator<String> i = resources.iterator(); i.hasNext();)
+		{
+			String resource = i.next();
+			int dot = resource.lastIndexOf('.');
+			if (dot > resource.lastIndexOf('/'))
+			{
+				// the resource names are probed with a trailing dot
+				resource = resource.substring(0, dot + 1);
+			}
+			names.add(resource);
+			packages.add(getPackage(resource));
+		}
+		indexedPackages = packages;
+		indexedNames = names;
+	}
+
+	private static String getPackage(final String path)
+	{
+		int slash = path.lastIndexOf('/');
+		return slash < 0 ? "" : path.substring(0, slash);
+	}
+
+	/**
+	 * Writes the index of the string resources in a classes directory to
+	 * {@value #INDEX_FILE} in that directory. Every <code>.properties</code> and <code>.xml</code>
+	 * file next to a class file is listed.
+	 *
+	 * @param args
+	 *            the classes directory
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException
+	{
+		if (args.length != 1)
+		{
+			System.err.println("Usage: IndexedStringResourceLoader <classes directory>");
+			return;
+		}
+		File root = new File(args[0]);
+		Set<String> resources = new TreeSet<String>();
+		scan(root, "", resources);
+
+		File index = new File(root, INDEX_FILE);
+		index.getParentFile().mkdirs();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(index), "UTF-8");
+		try
+		{
+			for (Iterator<String> i = resources.iterator(); i.hasNext();)
+			{
+				writer.write(i.next());
+				writer.write('\n');
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	private static void scan(final File dir, final String path, final Set<String> resources)
+	{
+		File[] files = dir.listFiles();
+		if (files == null)
+		{
+			return;
+		}
+		boolean hasClasses = false;
+		List<String> candidates = new ArrayList<String>();
+		for (int i = 0; i < files.length; i++)
+		{
+			String name = files[i].getName();
+			if (files[i].isDirectory())
+			{
+				scan(files[i], path + name + "/", resources);
+			}
+			else if (name.endsWith(".class"))
+			{
+				hasClasses = true;
+			}
+			else if (name.endsWith(".properties") || name.endsWith(".xml"))
+			{
+				candidates.add(path + name);
+			}
+		}
+		if (hasClasses)
+		{
+			resources.addAll(candidates);
+		}
+	}
+
+	/**
+	 * Key of the bundles of a class, locale and style.
+	 */
+	private static final class BundleKey
+	{
+		private final Class<?> clazz;
+		private final Locale locale;
+		private final String style;
+		private final int hash;
+
+		private BundleKey(final Class<?> clazz, final Locale locale, final String style)
+		{
+			this.clazz = clazz;
+			this.locale = locale;
+			this.style = style;
+			hash = Objects.hashCode(clazz, locale, style);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object obj)
+		{
+			if (this == obj)
+			{
+				return true;
+			}
+			if (!(obj instanceof BundleKey))
+			{
+				return false;
+			}
+			BundleKey other = (BundleKey)obj;
+			return clazz == other.clazz && Objects.equal(locale, other.locale) &&
+				Objects.equal(style, other.style);
+		}
+	}
+}
@@ -61,6 +61,14 @@ public interface IApplicationSettings
 	 */
 	Bytes getDefaultMaximumUploadSize();
 
+	/**
+	 * Whether forms collect their form components once per submit, see
+	 * {@link #setIndexFormComponents(boolean)}.
+	 * 
+	 * @return true if form components are indexed when a form is submitted
+	 */
+	boolean getIndexFormComponents();
+
 	/**
 	 * Gets internal error page class.
 	 * 
@@ -104,6 +112,20 @@ public interface IApplicationSettings
 	 */
 	void setDefaultMaximumUploadSize(Bytes defaultUploadSize);
 
+	/**
+	 * Sets whether a submitted form collects its form components and nested forms in a single
+	 * traversal of its children, and runs all processing steps (input changed, validation, marking
+	 * valid or invalid, updating models and persisting values) over that list, instead of
+	 * traversing its children again for every step. This saves traversals of deep component trees
+	 * with many form components, e.g. in repeaters. Changes to the component hierarchy made while
+	 * the form is validated or its models are updated are not seen by the following steps;
+	 * {@link Form#onSubmit()} and {@link Form#onError()} are not affected. Forms inside a border
+	 * are always processed without the index. Disabled by default.
+	 * 
+	 * @param indexFormComponents
+	 */
+	void setIndexFormComponents(boolean indexFormComponents);
+
 	/**
 	 * Sets internal error page class. The class must be bookmarkable and must extend Page.
 	 * 
@@ -16,6 +16,9 @@
  */
 package org.apache.wicket.settings;
 
+import java.util.List;
+
+import org.apache.wicket.MarkupContainer;
 import org.apache.wicket.markup.IMarkupCache;
 import org.apache.wicket.markup.IMarkupParserFactory;
 import org.apache.wicket.markup.MarkupParserFactory;
@@ -78,6 +81,23 @@ public interface IMarkupSettings
 	 */
 	IMarkupCache getMarkupCache();
 
+	/**
+	 * @return number of threads used to preload markup when the application starts, 0 if markup is
+	 *         not preloaded
+	 * @see #setMarkupPreloadThreads(int)
+	 */
+	int getMarkupPreloadThreads();
+
+	/**
+	 * Gets the classes of which the markup is loaded when the application starts, in addition to the
+	 * mounted bookmarkable pages. Applications and {@link org.apache.wicket.IInitializer}s can add
+	 * their (panel) classes to this list.
+	 * 
+	 * @return modifiable list of container classes
+	 * @see #setMarkupPreloadThreads(int)
+	 */
+	List<Class<? extends MarkupContainer>> getPreloadMarkupClasses();
+
 	/**
 	 * @return Returns the stripComments.
 	 * @see IMarkupSettings#setStripComments(boolean)
@@ -154,6 +174,16 @@ public interface IMarkupSettings
 	 */
 	void setDefaultMarkupEncoding(final String encoding);
 
+	/**
+	 * Sets the number of threads used to load the markup of the mounted bookmarkable pages and of
+	 * the {@link #getPreloadMarkupClasses() preload markup classes} into the markup cache before
+	 * the application serves its first request. 0 (the default) disables preloading. Markup is not
+	 * preloaded while resources are watched for changes (development mode).
+	 * 
+	 * @param threads
+	 */
+	void setMarkupPreloadThreads(int threads);
+
 	/**
 	 * Sets the markup parser factory that will be used to generate parsers for markup. By default
 	 * {@link MarkupParserFactory} will be used.
@@ -169,6 +169,22 @@ public interface IRequestCycleSettings
 	 */
 	boolean getBufferResponse();
 
+	/**
+	 * Gets whether raw markup is written as bytes that are encoded once per charset.
+	 * 
+	 * @return Whether encoded raw markup is cached
+	 * @see #setCacheEncodedRawMarkup(boolean)
+	 */
+	boolean getCacheEncodedRawMarkup();
+
+	/**
+	 * Gets whether Ajax requests that wait for the same page map are coalesced.
+	 * 
+	 * @return Whether Ajax requests are coalesced
+	 * @see #setCoalesceAjaxRequests(boolean)
+	 */
+	boolean getCoalesceAjaxRequests();
+
 	/**
 	 * Gets whether Wicket should try to get extensive client info by redirecting to
 	 * {@link BrowserInfoPage a page that polls for client capabilities}. This method is used by the
@@ -221,6 +237,33 @@ public interface IRequestCycleSettings
 	 */
 	void setBufferResponse(boolean bufferResponse);
 
+	/**
+	 * Sets whether raw markup is written as bytes that are encoded once per charset. When enabled,
+	 * the static parts of the markup of a buffered response (see
+	 * {@link #setBufferResponse(boolean)}) are copied to the servlet output stream as they were
+	 * encoded by an earlier request, instead of being encoded again for every request. It is not
+	 * used for responses that are filtered (see {@link #addResponseFilter(IResponseFilter)}) or
+	 * rendered into a buffer by the {@link #REDIRECT_TO_BUFFER} render strategy. Disabled by
+	 * default.
+	 * 
+	 * @param cacheEncodedRawMarkup
+	 *            Whether encoded raw markup is cached
+	 */
+	void setCacheEncodedRawMarkup(boolean cacheEncodedRawMarkup);
+
+	/**
+	 * Sets whether Ajax requests that wait for the same page map are coalesced. When enabled and a
+	 * request of a behavior that allows it (see
+	 * {@link org.apache.wicket.ajax.AbstractDefaultAjaxBehavior#isCoalescable()}) is still waiting
+	 * for the page map when the next request of the same behavior arrives, the waiting request is
+	 * answered with an empty Ajax response and only the latest request is processed. Disabled by
+	 * default.
+	 * 
+	 * @param coalesceAjaxRequests
+	 *            Whether Ajax requests are coalesced
+	 */
+	void setCoalesceAjaxRequests(boolean coalesceAjaxRequests);
+
 	/**
 	 * Sets whether Wicket should try to get extensive client info by redirecting to
 	 * {@link BrowserInfoPage a page that polls for client capabilities}. This method is used by the
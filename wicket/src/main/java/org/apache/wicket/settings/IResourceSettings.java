@@ -23,6 +23,7 @@ import org.apache.wicket.Localizer;
 import org.apache.wicket.javascript.IJavascriptCompressor;
 import org.apache.wicket.markup.html.IPackageResourceGuard;
 import org.apache.wicket.markup.html.JavascriptPackageResource;
+import org.apache.wicket.markup.html.PackageResourceCache;
 import org.apache.wicket.markup.html.PackageResourceGuard;
 import org.apache.wicket.model.IModel;
 import org.apache.wicket.resource.IPropertiesFactory;
@@ -355,6 +356,41 @@ public interface IResourceSettings
 	 */
 	public boolean getAddLastModifiedTimeToResourceReferenceUrl();
 
+	/**
+	 * Sets whether Wicket should add a hash of their content to the resource reference URLs of
+	 * package resources. The hash is computed when the first URL is generated and then kept, so
+	 * the URL changes whenever the content changes. Responses to such URLs are cached for a year,
+	 * and carry the hash as ETag, so conditional requests are answered without reading the
+	 * resource again. For package resources this replaces the last modified time parameter of
+	 * {@link #setAddLastModifiedTimeToResourceReferenceUrl(boolean)}.
+	 * 
+	 * @param value
+	 */
+	public void setFingerprintPackageResourceUrls(boolean value);
+
+	/**
+	 * Returns whether Wicket should add a hash of their content to the URLs of package resources.
+	 * 
+	 * @return whether Wicket should add a hash of their content to the URLs of package resources
+	 */
+	public boolean getFingerprintPackageResourceUrls();
+
+	/**
+	 * Sets the cache that keeps the content of package resources in memory, as is and compressed.
+	 * By default there is no such cache.
+	 * 
+	 * @param cache
+	 *            the cache, or null to read package resources for every request
+	 */
+	public void setPackageResourceCache(PackageResourceCache cache);
+
+	/**
+	 * Gets the cache that keeps the content of package resources in memory.
+	 * 
+	 * @return the cache, or null if package resources are read for every request
+	 */
+	public PackageResourceCache getPackageResourceCache();
+
 	/**
 	 * Placeholder string for '..' within resource urls (which will be crippled by the browser and
 	 * not work anymore). Note that by default the placeholder string is <code>null</code> and thus will not
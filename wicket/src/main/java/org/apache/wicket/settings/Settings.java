@@ -30,6 +30,7 @@ import org.apache.wicket.IPageFactory;
 import org.apache.wicket.IResourceFactory;
 import org.apache.wicket.IResponseFilter;
 import org.apache.wicket.Localizer;
+import org.apache.wicket.MarkupContainer;
 import org.apache.wicket.Page;
 import org.apache.wicket.application.DefaultClassResolver;
 import org.apache.wicket.application.IClassResolver;
@@ -42,6 +43,7 @@ import org.apache.wicket.markup.IMarkupParserFactory;
 import org.apache.wicket.markup.MarkupCache;
 import org.apache.wicket.markup.MarkupParserFactory;
 import org.apache.wicket.markup.html.IPackageResourceGuard;
+import org.apache.wicket.markup.html.PackageResourceCache;
 import org.apache.wicket.markup.html.SecurePackageResourceGuard;
 import org.apache.wicket.markup.html.form.persistence.CookieValuePersisterSettings;
 import org.apache.wicket.markup.html.pages.BrowserInfoPage;
@@ -168,6 +170,12 @@ public final class Settings
 	 */
 	private boolean gatherExtendedBrowserInfo = false;
 
+	/** Whether Ajax requests waiting for the same page map are coalesced. False by default. */
+	private boolean coalesceAjaxRequests = false;
+
+	/** Whether raw markup is written as bytes encoded once per charset. False by default. */
+	private boolean cacheEncodedRawMarkup = false;
+
 	/** Class of internal error page. */
 	private WeakReference<Class<? extends Page>> internalErrorPage;
 
@@ -195,6 +203,12 @@ public final class Settings
 	/** A markup cache which will load the markup if required. */
 	private IMarkupCache markupCache;
 
+	/** Number of threads used to preload markup at startup, 0 to disable */
+	private int markupPreloadThreads = 0;
+
+	/** Classes of which the markup is preloaded at startup */
+	private final List<Class<? extends MarkupContainer>> preloadMarkupClasses = new ArrayList<Class<? extends MarkupContainer>>();
+
 	/** if true than throw an exception if the xml declaration is missing from the markup file */
 	private boolean throwExceptionOnMissingXmlDeclaration = false;
 
@@ -328,9 +342,18 @@ public final class Settings
 
 	private boolean addLastModifiedTimeToResourceReferenceUrl = false;
 
+	/** Whether the URLs of package resources contain a hash of their content */
+	private boolean fingerprintPackageResourceUrls = false;
+
+	/** Keeps the content of package resources in memory */
+	private PackageResourceCache packageResourceCache;
+
 	/** */
 	private Bytes defaultMaximumUploadSize = Bytes.MAX;
 
+	/** Whether forms index their form components when submitted */
+	private boolean indexFormComponents = false;
+
 	/** escape string for '..' within resource keys */
 	private CharSequence parentFolderPlaceholder = null;
 
@@ -552,6 +575,22 @@ public final class Settings
 		return enforceMounts;
 	}
 
+	/**
+	 * @see org.apache.wicket.settings.IRequestCycleSettings#getCacheEncodedRawMarkup()
+	 */
+	public boolean getCacheEncodedRawMarkup()
+	{
+		return cacheEncodedRawMarkup;
+	}
+
+	/**
+	 * @see org.apache.wicket.settings.IRequestCycleSettings#getCoalesceAjaxRequests()
+	 */
+	public boolean getCoalesceAjaxRequests()
+	{
+		return coalesceAjaxRequests;
+	}
+
 	/**
 	 * @see org.apache.wicket.settings.IRequestCycleSettings#getGatherExtendedBrowserInfo()
 	 */
@@ -588,6 +627,22 @@ public final class Settings
 		this.localizer = localizer;
 	}
 
+	/**
+	 * @see org.apache.wicket.settings.IMarkupSettings#getMarkupPreloadThreads()
+	 */
+	public int getMarkupPreloadThreads()
+	{
+		return markupPreloadThreads;
+	}
+
+	/**
+	 * @see org.apache.wicket.settings.IMarkupSettings#getPreloadMarkupClasses()
+	 */
+	public List<Class<? extends MarkupContainer>> getPreloadMarkupClasses()
+	{
+		return preloadMarkupClasses;
+	}
+
 	/**
 	 * @see org.apache.wicket.settings.IMarkupSettings#getMarkupParserFactory()
 	 */
@@ -983,6 +1038,22 @@ public final class Settings
 		enforceMounts = enforce;
 	}
 
+	/**
+	 * @see org.apache.wicket.settings.IRequestCycleSettings#setCacheEncodedRawMarkup(boolean)
+	 */
+	public void setCacheEncodedRawMarkup(boolean cacheEncodedRawMarkup)
+	{
+		this.cacheEncodedRawMarkup = cacheEncodedRawMarkup;
+	}
+
+	/**
+	 * @see org.apache.wicket.settings.IRequestCycleSettings#setCoalesceAjaxRequests(boolean)
+	 */
+	public void setCoalesceAjaxRequests(boolean coalesceAjaxRequests)
+	{
+		this.coalesceAjaxRequests = coalesceAjaxRequests;
+	}
+
 	/**
 	 * @see org.apache.wicket.settings.IRequestCycleSettings#setGatherExtendedBrowserInfo(boolean)
 	 */
@@ -1005,6 +1076,18 @@ public final class Settings
 		this.internalErrorPage = new WeakReference<Class<? extends Page>>(internalErrorPage);
 	}
 
+	/**
+	 * @see org.apache.wicket.settings.IMarkupSettings#setMarkupPreloadThreads(int)
+	 */
+	public void setMarkupPreloadThreads(int threads)
+	{
+		if (threads < 0)
+		{
+			throw new IllegalArgumentException("threads cannot be negative");
+		}
+		markupPreloadThreads = threads;
+	}
+
 	/**
 	 * @see org.apache.wicket.settings.IMarkupSettings#setMarkupParserFactory(org.apache.wicket.markup.IMarkupParserFactory)
 	 */
@@ -1363,6 +1446,22 @@ public final class Settings
 		this.defaultMaximumUploadSize = defaultMaximumUploadSize;
 	}
 
+	/**
+	 * @see org.apache.wicket.settings.IApplicationSettings#getIndexFormComponents()
+	 */
+	public boolean getIndexFormComponents()
+	{
+		return indexFormComponents;
+	}
+
+	/**
+	 * @see org.apache.wicket.settings.IApplicationSettings#setIndexFormComponents(boolean)
+	 */
+	public void setIndexFormComponents(boolean indexFormComponents)
+	{
+		this.indexFormComponents = indexFormComponents;
+	}
+
 	/**
 	 * 
 	 * @see org.apache.wicket.settings.ISessionSettings#setPageIdUniquePerSession(boolean)
@@ -1435,6 +1534,38 @@ public final class Settings
 		return addLastModifiedTimeToResourceReferenceUrl;
 	}
 
+	/**
+	 * @see org.apache.wicket.settings.IResourceSettings#setFingerprintPackageResourceUrls(boolean)
+	 */
+	public void setFingerprintPackageResourceUrls(boolean value)
+	{
+		fingerprintPackageResourceUrls = value;
+	}
+
+	/**
+	 * @see org.apache.wicket.settings.IResourceSettings#getFingerprintPackageResourceUrls()
+	 */
+	public boolean getFingerprintPackageResourceUrls()
+	{
+		return fingerprintPackageResourceUrls;
+	}
+
+	/**
+	 * @see org.apache.wicket.settings.IResourceSettings#setPackageResourceCache(org.apache.wicket.markup.html.PackageResourceCache)
+	 */
+	public void setPackageResourceCache(PackageResourceCache cache)
+	{
+		packageResourceCache = cache;
+	}
+
+	/**
+	 * @see org.apache.wicket.settings.IResourceSettings#getPackageResourceCache()
+	 */
+	public PackageResourceCache getPackageResourceCache()
+	{
+		return packageResourceCache;
+	}
+
 	/**
 	 * @see org.apache.wicket.settings.IMarkupSettings#getThrowExceptionOnMissingXmlDeclaration()
 	 */
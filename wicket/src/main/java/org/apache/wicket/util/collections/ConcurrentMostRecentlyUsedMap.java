@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.collections;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe map of most recently used items of a given maximum size. The entries are spread over
+ * a number of {@link MostRecentlyUsedMap segments} with their own lock, so threads using different
+ * keys seldom wait for each other. Each segment expires its least recently used entries when it
+ * exceeds its share of the maximum size, which makes the eviction order approximate.
+ * <p>
+ * Null keys and values are not supported. {@link #entrySet()} returns a snapshot.
+ *
+ * @param <K>
+ *            key type
+ * @param <V>
+ *            value type
+ */
+public class ConcurrentMostRecentlyUsedMap<K, V> extends AbstractMap<K, V>
+{
+	private static final int SEGMENTS = 16;
+
+	private final MostRecentlyUsedMap<K, V>[] segments;
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxEntries
+	 *            Maximum number of entries allowed in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public ConcurrentMostRecentlyUsedMap(final int maxEntries)
+	{
+		if (maxEntries <= 0)
+		{
+			throw new IllegalArgumentException("Must have at least one entry");
+		}
+		int segmentCount = Math.min(SEGMENTS, maxEntries);
+		segments = new MostRecentlyUsedMap[segmentCount];
+		for (int i = 0; i < segmentCount; i++)
+		{
+			// spread the remainder over the first segments
+			int max = maxEntries / segmentCount + (i < maxEntries % segmentCount ? 1 : 0);
+			segments[i] = new MostRecentlyUsedMap<K, V>(max);
+		}
+	}
+
+	private MostRecentlyUsedMap<K, V> segment(Object key)
+	{
+		int hash = key.hashCode();
+		// spread the bits, string hash codes often differ in the low bits only
+		hash ^= (hash >>> 16);
+		hash ^= (hash >>> 7);
+		return segments[(hash & Integer.MAX_VALUE) % segments.length];
+	}
+
+	/**
+	 * @return number of entries expired because the map was full
+	 */
+	public long getEvictions()
+	{
+		return evictions.get();
+	}
+
+	/**
+	 * @see java.util.AbstractMap#get(java.lang.Object)
+	 */
+	@Override
+	public V get(Object key)
+	{
+		MostRecentlyUsedMap<K, V> segment = segment(key);
+		synchronized (segment)
+		{
+			return segment.get(key);
+		}
+	}
+
+	/**
+	 * @see java.util.AbstractMap#containsKey(java.lang.Object)
+	 */
+	@Override
+	public boolean containsKey(Object key)
+	{
+		MostRecentlyUsedMap<K, V> segment = segment(key);
+		synchronized (segment)
+		{
+			return segment.containsKey(key);
+		}
+	}
+
+	/**
+	 * @see java.util.AbstractMap#put(java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public V put(K key, V value)
+	{
+		if (value == null)
+		{
+			throw new IllegalArgumentException("Value can not be null");
+		}
+		MostRecentlyUsedMap<K, V> segment = segment(key);
+		synchronized (segment)
+		{
+			V previous = segment.put(key, value);
+			if (previous == null && segment.getRemovedValue() != null)
+			{
+				evictions.incrementAndGet();
+			}
+			return previous;
+		}
+	}
+
+	/**
+	 * @see java.util.AbstractMap#remove(java.lang.Object)
+	 */
+	@Override
+	public V remove(Object key)
+	{
+		MostRecentlyUsedMap<K, V> segment = segment(key);
+		synchronized (segment)
+		{
+			return segment.remove(key);
+		}
+	}
+
+	/**
+	 * @see java.util.AbstractMap#clear()
+	 */
+	@Override
+	public void clear()
+	{
+		for (int i = 0; i < segments.length; i++)
+		{
+			synchronized (segments[i])
+			{
+				segments[i].clear();
+			}
+		}
+	}
+
+	/**
+	 * @see java.util.AbstractMap#size()
+	 */
+	@Override
+	public int size()
+	{
+		int size = 0;
+		for (int i = 0; i < segments.length; i++)
+		{
+			synchronized (segments[i])
+			{
+				size += segments[i].size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @see java.util.AbstractMap#entrySet()
+	 */
+	@Override
+	public Set<Map.Entry<K, V>> entrySet()
+	{
+		Map<K, V> copy = new HashMap<K, V>();
+		for (int i = 0; i < segments.length; i++)
+		{
+			synchronized (segments[i])
+			{
+				copy.putAll(segments[i]);
+			}
+		}
+		return Collections.unmodifiableMap(copy).entrySet();
+	}
+}
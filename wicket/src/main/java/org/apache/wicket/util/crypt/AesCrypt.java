@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.crypt;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.wicket.WicketRuntimeException;
+
+
+/**
+ * Encrypts with AES in CBC mode and authenticates the result with a HMAC-SHA256 code, so
+ * manipulated data is rejected instead of being decrypted to garbage. Every encryption uses a
+ * random initialization vector, so the same text is encrypted differently each time.
+ * <p>
+ * The AES and HMAC keys are derived from the {@link #getKey() encryption key} once, and each
+ * thread reuses its ciphers, which makes this implementation a lot cheaper per call than
+ * {@link SunJceCrypt}. Its results can't be decrypted by {@link SunJceCrypt} and vice versa.
+ * <p>
+ * Use it e.g. with a {@link ClassCryptFactory}:
+ *
+ * <pre>
+ * getSecuritySettings().setCryptFactory(
+ * 	new CryptFactoryCachingDecorator(new ClassCryptFactory(AesCrypt.class, key)));
+ * </pre>
+ */
+public class AesCrypt extends AbstractCrypt
+{
+	/** Name of the encryption method */
+	private static final String CRYPT_METHOD = "AES/CBC/PKCS5Padding";
+
+	/** Name of the authentication method */
+	private static final String MAC_METHOD = "HmacSHA256";
+
+	/** Length of the initialization vector, which is the AES block size */
+	private static final int IV_LENGTH = 16;
+
+	/** Length of the part of the authentication code that is appended */
+	private static final int MAC_LENGTH = 16;
+
+	/** Number of digest iterations to derive a key */
+	private static final int COUNT = 1000;
+
+	/** Salt */
+	private static final byte[] salt = { (byte)0x3e, (byte)0x91, (byte)0x07, (byte)0xd4,
+			(byte)0x5a, (byte)0xc2, (byte)0x68, (byte)0x1f };
+
+	private static final SecureRandom random = new SecureRandom();
+
+	/** Ciphers of the current thread */
+	private static final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>();
+
+	/** Authentication code generators of the current thread */
+	private static final ThreadLocal<Mac> macs = new ThreadLocal<Mac>();
+
+	/** The keys derived from {@link #getKey()} */
+	private volatile DerivedKeys keys;
+
+	/**
+	 * Construct.
+	 */
+	public AesCrypt()
+	{
+	}
+
+	/**
+	 * @see org.apache.wicket.util.crypt.AbstractCrypt#crypt(byte[], int)
+	 */
+	@Override
+	protected byte[] crypt(final byte[] input, final int mode) throws GeneralSecurityException
+	{
+		final DerivedKeys keys = getKeys();
+
+		Cipher cipher = ciphers.get();
+		if (cipher == null)
+		{
+			cipher = Cipher.getInstance(CRYPT_METHOD);
+			ciphers.set(cipher);
+		}
+		Mac mac = macs.get();
+		if (mac == null)
+		{
+			mac = Mac.getInstance(MAC_METHOD);
+			macs.set(mac);
+		}
+		mac.init(keys.macKey);
+
+		if (mode == Cipher.ENCRYPT_MODE)
+		{
+			byte[] iv = new byte[IV_LENGTH];
+			random.nextBytes(iv);
+			cipher.init(mode, keys.cryptKey, new IvParameterSpec(iv));
+
+			byte[] encrypted = cipher.doFinal(input);
+			byte[] output = new byte[IV_LENGTH + encrypted.length + MAC_LENGTH];
+			System.arraycopy(iv, 0, output, 0, IV_LENGTH);
+			System.arraycopy(encrypted, 0, output, IV_LENGTH, encrypted.length);
+			mac.update(output, 0, IV_LENGTH + encrypted.length);
+			System.arraycopy(mac.doFinal(), 0, output, IV_LENGTH + encrypted.length, MAC_LENGTH);
+			return output;
+		}
+		else
+		{
+			if (input.length < IV_LENGTH + MAC_LENGTH)
+			{
+				throw new GeneralSecurityException("Encrypted data is too short");
+			}
+			final int length = input.length - MAC_LENGTH;
+			mac.update(input, 0, length);
+			byte[] code = mac.doFinal();
+
+			// compare all bytes, so the time taken doesn't tell how many are right
+			int difference = 0;
+			for (int i = 0; i < MAC_LENGTH; i++)
+			{
+				difference |= code[i] ^ input[length + i];
+			}
+			if (difference != 0)
+			{
+				throw new GeneralSecurityException("Encrypted data was manipulated");
+			}
+
+			cipher.init(mode, keys.cryptKey, new IvParameterSpec(input, 0, IV_LENGTH));
+			return cipher.doFinal(input, IV_LENGTH, length - IV_LENGTH);
+		}
+	}
+
+	/**
+	 * @return the keys, which are only derived again if the encryption key changed
+	 * @throws GeneralSecurityException
+	 */
+	private DerivedKeys getKeys() throws GeneralSecurityException
+	{
+		final String key = getKey();
+		DerivedKeys derived = keys;
+		if (derived == null || !derived.key.equals(key))
+		{
+			derived = new DerivedKeys(key, new SecretKeySpec(derive(key, 'C', 16), "AES"),
+				new SecretKeySpec(derive(key, 'M', 32), MAC_METHOD));
+			keys = derived;
+		}
+		return derived;
+	}
+
+	/**
+	 * Derives a key from the encryption key by repeatedly hashing it with the salt.
+	 *
+	 * @param key
+	 *            the encryption key
+	 * @param purpose
+	 *            distinguishes the keys derived from the same encryption key
+	 * @param length
+	 *            length of the key in bytes, at most 32
+	 * @return the derived key
+	 * @throws GeneralSecurityException
+	 */
+	private static byte[] derive(final String key, final char purpose, final int length)
+		throws GeneralSecurityException
+	{
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		byte[] bytes;
+		try
+		{
+			bytes = (purpose + key).getBytes("UTF-8");
+		}
+		catch (UnsupportedEncodingException ex)
+		{
+			throw new WicketRuntimeException(ex.getMessage());
+		}
+		for (int i = 0; i < COUNT; i++)
+		{
+			digest.update(salt);
+			bytes = digest.digest(bytes);
+		}
+		byte[] result = new byte[length];
+		System.arraycopy(bytes, 0, result, 0, length);
+		return result;
+	}
+
+	/**
+	 * The keys derived from an encryption key.
+	 */
+	private static final class DerivedKeys
+	{
+		private final String key;
+		private final SecretKey cryptKey;
+		private final SecretKey macKey;
+
+		private DerivedKeys(final String key, final SecretKey cryptKey, final SecretKey macKey)
+		{
+			this.key = key;
+			this.cryptKey = cryptKey;
+			this.macKey = macKey;
+		}
+	}
+}
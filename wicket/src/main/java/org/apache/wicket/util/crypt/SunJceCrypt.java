@@ -54,6 +54,12 @@ public class SunJceCrypt extends AbstractCrypt
 	private final static byte[] salt = { (byte)0x15, (byte)0x8c, (byte)0xa3, (byte)0x4a,
 			(byte)0x66, (byte)0x51, (byte)0x2a, (byte)0xbc };
 
+	/** Ciphers of the current thread; looking up a cipher is expensive, initializing it is not */
+	private static final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>();
+
+	/** The key generated from {@link #getKey()} */
+	private volatile GeneratedKey secretKey;
+
 	/**
 	 * Constructor
 	 */
@@ -94,13 +100,38 @@ public class SunJceCrypt extends AbstractCrypt
 	protected final byte[] crypt(final byte[] input, final int mode)
 		throws GeneralSecurityException
 	{
-		SecretKey key = generateSecretKey();
+		SecretKey key = getSecretKey();
 		PBEParameterSpec spec = new PBEParameterSpec(salt, COUNT);
-		Cipher ciph = Cipher.getInstance(CRYPT_METHOD);
+		Cipher ciph = ciphers.get();
+		if (ciph == null)
+		{
+			ciph = Cipher.getInstance(CRYPT_METHOD);
+			ciphers.set(ciph);
+		}
 		ciph.init(mode, key, spec);
 		return ciph.doFinal(input);
 	}
 
+	/**
+	 * Gets the de-/encryption key, which is only generated again if the encryption key changed.
+	 * 
+	 * @return secretKey the security key
+	 * @throws NoSuchAlgorithmException
+	 * @throws InvalidKeySpecException
+	 */
+	private final SecretKey getSecretKey() throws NoSuchAlgorithmException,
+		InvalidKeySpecException
+	{
+		final String key = getKey();
+		GeneratedKey generated = secretKey;
+		if (generated == null || !generated.key.equals(key))
+		{
+			generated = new GeneratedKey(key, generateSecretKey());
+			secretKey = generated;
+		}
+		return generated.secretKey;
+	}
+
 	/**
 	 * Generate the de-/encryption key.
 	 * <p>
@@ -119,4 +150,19 @@ public class SunJceCrypt extends AbstractCrypt
 		final PBEKeySpec spec = new PBEKeySpec(getKey().toCharArray());
 		return SecretKeyFactory.getInstance(CRYPT_METHOD).generateSecret(spec);
 	}
+
+	/**
+	 * A de-/encryption key and the encryption key it was generated from.
+	 */
+	private static final class GeneratedKey
+	{
+		private final String key;
+		private final SecretKey secretKey;
+
+		private GeneratedKey(final String key, final SecretKey secretKey)
+		{
+			this.key = key;
+			this.secretKey = secretKey;
+		}
+	}
 }
@@ -0,0 +1,261 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.io;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.apache.wicket.util.lang.Classes;
+
+/**
+ * Stable mapping of classes to ids used by {@link WicketObjectOutputStream} and
+ * {@link WicketObjectInputStream} in registered mode.
+ * <p>
+ * Without a registry the streams identify classes by ids that are assigned in the order the
+ * classes are first used in the running JVM, so data written by one node can't be read by another
+ * node or after a restart. With a registry every registered class is written as its two byte id,
+ * and classes that are not registered are written by name the first time they occur in a stream.
+ * Both sides must use registries with the same content; the streams write a fingerprint of the
+ * registry and refuse to read data written with a different one.
+ * <p>
+ * Ids below {@value #FIRST_APPLICATION_ID} are reserved for the built-in registrations (primitive
+ * types, strings, boxed primitives and common collections). Applications register their classes
+ * (typically the page and component classes, or a list generated from a class path scan) before
+ * the registry is used:
+ *
+ * <pre>
+ * ClassRegistry registry = new ClassRegistry();
+ * registry.register(HomePage.class, 64);
+ * registry.register(CustomerPanel.class, 65);
+ * Objects.setObjectStreamFactory(new WicketObjectStreamFactory(registry));
+ * </pre>
+ *
+ * Ids must never be reused for a different class as long as data written with them is kept.
+ */
+public final class ClassRegistry
+{
+	/** Lowest id applications may use. */
+	public static final int FIRST_APPLICATION_ID = 64;
+
+	/** Highest id that can be registered. */
+	public static final int MAX_ID = Short.MAX_VALUE;
+
+	private static final Class<?>[] BUILT_IN = new Class<?>[] { boolean.class, byte.class,
+			short.class, char.class, int.class, long.class, float.class, double.class,
+			Serializable.class, Object.class, String.class, Boolean.class, Byte.class,
+			Short.class, Character.class, Integer.class, Long.class, Float.class, Double.class,
+			ArrayList.class, LinkedList.class, HashMap.class, LinkedHashMap.class, TreeMap.class,
+			HashSet.class, LinkedHashSet.class, TreeSet.class, Date.class, Locale.class,
+			BigInteger.class, BigDecimal.class };
+
+	private final Map<Class<?>, Short> ids = new ConcurrentHashMap<Class<?>, Short>();
+
+	// indexed by id, replaced when it has to grow
+	private volatile Class<?>[] classes = new Class<?>[FIRST_APPLICATION_ID];
+
+	private volatile int fingerprint;
+	private volatile boolean fingerprintValid;
+
+	/**
+	 * Construct a registry that only contains the built-in registrations.
+	 */
+	public ClassRegistry()
+	{
+		for (int i = 0; i < BUILT_IN.length; i++)
+		{
+			put(BUILT_IN[i], i + 1);
+		}
+	}
+
+	/**
+	 * Registers a class.
+	 *
+	 * @param cls
+	 * @param id
+	 *            id between {@value #FIRST_APPLICATION_ID} and {@value #MAX_ID}
+	 * @return this
+	 * @throws IllegalArgumentException
+	 *             if the id is out of range, or the class or the id is already registered
+	 *             differently
+	 */
+	public synchronized ClassRegistry register(Class<?> cls, int id)
+	{
+		if (cls == null)
+		{
+			throw new IllegalArgumentException("Class can not be null");
+		}
+		if (id < FIRST_APPLICATION_ID || id > MAX_ID)
+		{
+			throw new IllegalArgumentException("Id " + id + " of " + cls.getName() +
+				" is not between " + FIRST_APPLICATION_ID + " and " + MAX_ID);
+		}
+		Short existing = ids.get(cls);
+		if (existing != null)
+		{
+			if (existing.intValue() == id)
+			{
+				return this;
+			}
+			throw new IllegalArgumentException(cls.getName() + " is already registered with id " +
+				existing);
+		}
+		Class<?> other = getRegisteredClass(id);
+		if (other != null)
+		{
+			throw new IllegalArgumentException("Id " + id + " is already used by " +
+				other.getName());
+		}
+		put(cls, id);
+		return this;
+	}
+
+	/**
+	 * Registers a class by name.
+	 *
+	 * @param className
+	 * @param id
+	 *            id between {@value #FIRST_APPLICATION_ID} and {@value #MAX_ID}
+	 * @return this
+	 * @throws IllegalArgumentException
+	 *             if the class can't be resolved, the id is out of range, or the class or the id is
+	 *             already registered differently
+	 */
+	public ClassRegistry register(String className, int id)
+	{
+		Class<?> cls = Classes.resolveClass(className);
+		if (cls == null)
+		{
+			throw new IllegalArgumentException("Class " + className + " could not be resolved");
+		}
+		return register(cls, id);
+	}
+
+	/**
+	 * Registers all classes of a generated registry. The keys are the class names, the values
+	 * their ids.
+	 *
+	 * @param registrations
+	 * @return this
+	 * @see #register(String, int)
+	 */
+	public ClassRegistry register(Properties registrations)
+	{
+		for (Iterator<Entry<Object, Object>> i = registrations.entrySet().iterator(); i.hasNext();)
+		{
+			Entry<Object, Object> entry = i.next();
+			String id = ((String)entry.getValue()).trim();
+			try
+			{
+				register(((String)entry.getKey()).trim(), Integer.parseInt(id));
+			}
+			catch (NumberFormatException e)
+			{
+				throw new IllegalArgumentException("Invalid id " + id + " for class " +
+					entry.getKey());
+			}
+		}
+		return this;
+	}
+
+	private void put(Class<?> cls, int id)
+	{
+		Class<?>[] current = classes;
+		if (id >= current.length)
+		{
+			Class<?>[] grown = new Class<?>[Math.min(MAX_ID + 1, Math.max(id + 1,
+				current.length * 2))];
+			System.arraycopy(current, 0, grown, 0, current.length);
+			current = grown;
+		}
+		current[id] = cls;
+		classes = current;
+		ids.put(cls, new Short((short)id));
+		fingerprintValid = false;
+	}
+
+	/**
+	 * @param cls
+	 * @return id of the class or -1 if the class isn't registered
+	 */
+	public int getClassId(Class<?> cls)
+	{
+		Short id = ids.get(cls);
+		return id != null ? id.intValue() : -1;
+	}
+
+	/**
+	 * @param id
+	 * @return class registered with the id or null
+	 */
+	public Class<?> getRegisteredClass(int id)
+	{
+		Class<?>[] current = classes;
+		return id > 0 && id < current.length ? current[id] : null;
+	}
+
+	/**
+	 * Returns the fingerprint of the registrations. Registries with the same classes registered
+	 * under the same ids, and with the same fields in those classes, have the same fingerprint.
+	 *
+	 * @return fingerprint
+	 */
+	public int getFingerprint()
+	{
+		if (!fingerprintValid)
+		{
+			synchronized (this)
+			{
+				CRC32 crc = new CRC32();
+				Class<?>[] current = classes;
+				for (int i = 1; i < current.length; i++)
+				{
+					if (current[i] != null)
+					{
+						String entry = i + "=" + current[i].getName() + ":" +
+							ClassStreamHandler.getFieldLayoutHash(current[i]) + "\n";
+						for (int c = 0; c < entry.length(); c++)
+						{
+							char ch = entry.charAt(c);
+							crc.update(ch >> 8);
+							crc.update(ch);
+						}
+					}
+				}
+				fingerprint = (int)crc.getValue();
+				fingerprintValid = true;
+			}
+		}
+		return fingerprint;
+	}
+}
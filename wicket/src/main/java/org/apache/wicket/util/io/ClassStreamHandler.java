@@ -22,7 +22,6 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
 import java.io.Serializable;
-import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
@@ -30,8 +29,13 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Proxy;
 import java.security.AccessController;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
 
 import org.apache.wicket.util.lang.Generics;
 
@@ -51,6 +55,14 @@ public final class ClassStreamHandler
 {
 	private static Unsafe unsafe;
 
+	private static final Comparator<Field> FIELD_ORDER = new Comparator<Field>()
+	{
+		public int compare(Field f1, Field f2)
+		{
+			return f1.getName().compareTo(f2.getName());
+		}
+	};
+
 	static
 	{
 		try
@@ -78,7 +90,7 @@ public final class ClassStreamHandler
 	private static final ReflectionFactory reflFactory = (ReflectionFactory)AccessController.doPrivileged(new ReflectionFactory.GetReflectionFactoryAction());
 
 
-	private static Map<Object, ClassStreamHandler> handlesClasses = Generics.newHashMap();
+	private static final Map<Object, ClassStreamHandler> handlesClasses = new ConcurrentHashMap<Object, ClassStreamHandler>();
 
 	private static short classCounter = 0;
 
@@ -117,9 +129,16 @@ public final class ClassStreamHandler
 		ClassStreamHandler classHandler = handlesClasses.get(cls.getName());
 		if (classHandler == null)
 		{
-			classHandler = new ClassStreamHandler(cls);
-			handlesClasses.put(cls.getName(), classHandler);
-			handlesClasses.put(new Short(classHandler.getClassId()), classHandler);
+			synchronized (handlesClasses)
+			{
+				classHandler = handlesClasses.get(cls.getName());
+				if (classHandler == null)
+				{
+					classHandler = new ClassStreamHandler(cls);
+					handlesClasses.put(new Short(classHandler.getClassId()), classHandler);
+					handlesClasses.put(cls.getName(), classHandler);
+				}
+			}
 		}
 		return classHandler;
 	}
@@ -153,6 +172,7 @@ public final class ClassStreamHandler
 
 	private final PrimitiveArray primitiveArray;
 
+	private volatile long fieldLayoutHash = -1;
 
 	/**
 	 * Construct.
@@ -293,6 +313,18 @@ public final class ClassStreamHandler
 		return classId;
 	}
 
+	/**
+	 * @return hash of the names and types of the fields that are written for the stream class
+	 */
+	public long getFieldLayoutHash()
+	{
+		if (fieldLayoutHash == -1)
+		{
+			fieldLayoutHash = getFieldLayoutHash(clz);
+		}
+		return fieldLayoutHash;
+	}
+
 	/**
 	 * @return new instance of class
 	 * @throws InvocationTargetException
@@ -306,6 +338,53 @@ public final class ClassStreamHandler
 		return cons.newInstance((Object[])null);
 	}
 
+	/**
+	 * Gets the fields of the given class that are written, sorted by name. The order of
+	 * {@link Class#getDeclaredFields()} is unspecified and may differ between JVMs, so it can't be
+	 * used for streams that are read by another JVM.
+	 * 
+	 * @param cls
+	 * @return the non static, non transient fields declared by the class, sorted by name
+	 */
+	static Field[] getSerializableFields(Class<?> cls)
+	{
+		Field[] declared = cls.getDeclaredFields();
+		List<Field> fields = new ArrayList<Field>(declared.length);
+		for (int i = 0; i < declared.length; i++)
+		{
+			int modifiers = declared[i].getModifiers();
+			if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers))
+			{
+				fields.add(declared[i]);
+			}
+		}
+		Collections.sort(fields, FIELD_ORDER);
+		return fields.toArray(new Field[fields.size()]);
+	}
+
+	/**
+	 * Gets a hash of the names and types of the fields that are written for the given class, in the
+	 * order they are written. Streams written with another layout can't be read.
+	 * 
+	 * @param cls
+	 * @return the hash of the field layout
+	 */
+	static long getFieldLayoutHash(Class<?> cls)
+	{
+		CRC32 crc = new CRC32();
+		for (Class<?> c = cls; c != null && c != Object.class; c = c.getSuperclass())
+		{
+			Field[] fields = getSerializableFields(c);
+			for (int i = 0; i < fields.length; i++)
+			{
+				String field = fields[i].getName() + ":" + fields[i].getType().getName() + ";";
+				crc.update(field.getBytes());
+			}
+			crc.update('/');
+		}
+		return crc.getValue();
+	}
+
 	/**
 	 * @param cls
 	 */
@@ -315,55 +394,51 @@ public final class ClassStreamHandler
 		{
 			return;
 		}
-		Field[] fields = cls.getDeclaredFields();
+		Field[] fields = getSerializableFields(cls);
 		for (int i = 0; i < fields.length; i++)
 		{
 			Field field = fields[i];
 			field.setAccessible(true);
-			if (!Modifier.isStatic(field.getModifiers()) &&
-				!Modifier.isTransient(field.getModifiers()))
+			FieldAndIndex fai = null;
+			Class<?> clz = field.getType();
+			unsafe.objectFieldOffset(field);
+			if (clz == boolean.class)
 			{
-				FieldAndIndex fai = null;
-				Class<?> clz = field.getType();
-				unsafe.objectFieldOffset(field);
-				if (clz == boolean.class)
-				{
-					fai = new BooleanFieldAndIndex(field);
-				}
-				else if (clz == byte.class)
-				{
-					fai = new ByteFieldAndIndex(field);
-				}
-				else if (clz == short.class)
-				{
-					fai = new ShortFieldAndIndex(field);
-				}
-				else if (clz == char.class)
-				{
-					fai = new CharFieldAndIndex(field);
-				}
-				else if (clz == int.class)
-				{
-					fai = new IntFieldAndIndex(field);
-				}
-				else if (clz == long.class)
-				{
-					fai = new LongFieldAndIndex(field);
-				}
-				else if (clz == float.class)
-				{
-					fai = new FloatFieldAndIndex(field);
-				}
-				else if (clz == double.class)
-				{
-					fai = new DoubleFieldAndIndex(field);
-				}
-				else
-				{
-					fai = new ObjectFieldAndIndex(field);
-				}
-				this.fields.add(fai);
+				fai = new BooleanFieldAndIndex(field);
+			}
+			else if (clz == byte.class)
+			{
+				fai = new ByteFieldAndIndex(field);
+			}
+			else if (clz == short.class)
+			{
+				fai = new ShortFieldAndIndex(field);
+			}
+			else if (clz == char.class)
+			{
+				fai = new CharFieldAndIndex(field);
+			}
+			else if (clz == int.class)
+			{
+				fai = new IntFieldAndIndex(field);
+			}
+			else if (clz == long.class)
+			{
+				fai = new LongFieldAndIndex(field);
+			}
+			else if (clz == float.class)
+			{
+				fai = new FloatFieldAndIndex(field);
 			}
+			else if (clz == double.class)
+			{
+				fai = new DoubleFieldAndIndex(field);
+			}
+			else
+			{
+				fai = new ObjectFieldAndIndex(field);
+			}
+			this.fields.add(fai);
 		}
 		cls = cls.getSuperclass();
 		if (cls != Object.class)
@@ -545,7 +620,7 @@ public final class ClassStreamHandler
 			{
 				return null;
 			}
-			cons = reflFactory.newConstructorForSerialization(cl, cons);
+			cons = (Constructor)reflFactory.newConstructorForSerialization(cl, cons);
 			cons.setAccessible(true);
 			return cons;
 		}
@@ -959,11 +1034,11 @@ public final class ClassStreamHandler
 		@Override
 		public void writeArray(Object object, WicketObjectOutputStream dos) throws IOException
 		{
-			int length = Array.getLength(object);
-			dos.writeInt(length);
-			for (int i = 0; i < length; i++)
+			boolean[] array = (boolean[])object;
+			dos.writeInt(array.length);
+			for (int i = 0; i < array.length; i++)
 			{
-				dos.writeBoolean(Array.getBoolean(object, i));
+				dos.writeBoolean(array[i]);
 			}
 		}
 
@@ -973,11 +1048,10 @@ public final class ClassStreamHandler
 		@Override
 		public Object readArray(WicketObjectInputStream dos) throws IOException
 		{
-			int length = dos.readInt();
-			Object array = Array.newInstance(getStreamClass(), length);
-			for (int i = 0; i < length; i++)
+			boolean[] array = new boolean[dos.readInt()];
+			for (int i = 0; i < array.length; i++)
 			{
-				Array.setBoolean(array, i, dos.readBoolean());
+				array[i] = dos.readBoolean();
 			}
 			return array;
 		}
@@ -993,12 +1067,9 @@ public final class ClassStreamHandler
 		@Override
 		public void writeArray(Object object, WicketObjectOutputStream dos) throws IOException
 		{
-			int length = Array.getLength(object);
-			dos.writeInt(length);
-			for (int i = 0; i < length; i++)
-			{
-				dos.writeByte(Array.getByte(object, i));
-			}
+			byte[] array = (byte[])object;
+			dos.writeInt(array.length);
+			dos.write(array);
 		}
 
 		/**
@@ -1007,12 +1078,8 @@ public final class ClassStreamHandler
 		@Override
 		public Object readArray(WicketObjectInputStream dos) throws IOException
 		{
-			int length = dos.readInt();
-			Object array = Array.newInstance(getStreamClass(), length);
-			for (int i = 0; i < length; i++)
-			{
-				Array.setByte(array, i, dos.readByte());
-			}
+			byte[] array = new byte[dos.readInt()];
+			dos.readFully(array);
 			return array;
 		}
 	}
@@ -1027,11 +1094,11 @@ public final class ClassStreamHandler
 		@Override
 		public void writeArray(Object object, WicketObjectOutputStream dos) throws IOException
 		{
-			int length = Array.getLength(object);
-			dos.writeInt(length);
-			for (int i = 0; i < length; i++)
+			short[] array = (short[])object;
+			dos.writeInt(array.length);
+			for (int i = 0; i < array.length; i++)
 			{
-				dos.writeShort(Array.getShort(object, i));
+				dos.writeShort(array[i]);
 			}
 		}
 
@@ -1041,11 +1108,10 @@ public final class ClassStreamHandler
 		@Override
 		public Object readArray(WicketObjectInputStream dos) throws IOException
 		{
-			int length = dos.readInt();
-			Object array = Array.newInstance(getStreamClass(), length);
-			for (int i = 0; i < length; i++)
+			short[] array = new short[dos.readInt()];
+			for (int i = 0; i < array.length; i++)
 			{
-				Array.setShort(array, i, dos.readShort());
+				array[i] = dos.readShort();
 			}
 			return array;
 		}
@@ -1062,11 +1128,11 @@ public final class ClassStreamHandler
 		@Override
 		public void writeArray(Object object, WicketObjectOutputStream dos) throws IOException
 		{
-			int length = Array.getLength(object);
-			dos.writeInt(length);
-			for (int i = 0; i < length; i++)
+			char[] array = (char[])object;
+			dos.writeInt(array.length);
+			for (int i = 0; i < array.length; i++)
 			{
-				dos.writeChar(Array.getChar(object, i));
+				dos.writeChar(array[i]);
 			}
 		}
 
@@ -1076,11 +1142,10 @@ public final class ClassStreamHandler
 		@Override
 		public Object readArray(WicketObjectInputStream dos) throws IOException
 		{
-			int length = dos.readInt();
-			Object array = Array.newInstance(getStreamClass(), length);
-			for (int i = 0; i < length; i++)
+			char[] array = new char[dos.readInt()];
+			for (int i = 0; i < array.length; i++)
 			{
-				Array.setChar(array, i, dos.readChar());
+				array[i] = dos.readChar();
 			}
 			return array;
 		}
@@ -1096,11 +1161,11 @@ public final class ClassStreamHandler
 		@Override
 		public void writeArray(Object object, WicketObjectOutputStream dos) throws IOException
 		{
-			int length = Array.getLength(object);
-			dos.writeInt(length);
-			for (int i = 0; i < length; i++)
+			int[] array = (int[])object;
+			dos.writeInt(array.length);
+			for (int i = 0; i < array.length; i++)
 			{
-				dos.writeInt(Array.getInt(object, i));
+				dos.writeInt(array[i]);
 			}
 		}
 
@@ -1110,11 +1175,10 @@ public final class ClassStreamHandler
 		@Override
 		public Object readArray(WicketObjectInputStream dos) throws IOException
 		{
-			int length = dos.readInt();
-			Object array = Array.newInstance(getStreamClass(), length);
-			for (int i = 0; i < length; i++)
+			int[] array = new int[dos.readInt()];
+			for (int i = 0; i < array.length; i++)
 			{
-				Array.setInt(array, i, dos.readInt());
+				array[i] = dos.readInt();
 			}
 			return array;
 		}
@@ -1130,11 +1194,11 @@ public final class ClassStreamHandler
 		@Override
 		public void writeArray(Object object, WicketObjectOutputStream dos) throws IOException
 		{
-			int length = Array.getLength(object);
-			dos.writeInt(length);
-			for (int i = 0; i < length; i++)
+			long[] array = (long[])object;
+			dos.writeInt(array.length);
+			for (int i = 0; i < array.length; i++)
 			{
-				dos.writeLong(Array.getLong(object, i));
+				dos.writeLong(array[i]);
 			}
 		}
 
@@ -1144,11 +1208,10 @@ public final class ClassStreamHandler
 		@Override
 		public Object readArray(WicketObjectInputStream dos) throws IOException
 		{
-			int length = dos.readInt();
-			Object array = Array.newInstance(getStreamClass(), length);
-			for (int i = 0; i < length; i++)
+			long[] array = new long[dos.readInt()];
+			for (int i = 0; i < array.length; i++)
 			{
-				Array.setLong(array, i, dos.readLong());
+				array[i] = dos.readLong();
 			}
 			return array;
 		}
@@ -1164,11 +1227,11 @@ public final class ClassStreamHandler
 		@Override
 		public void writeArray(Object object, WicketObjectOutputStream dos) throws IOException
 		{
-			int length = Array.getLength(object);
-			dos.writeInt(length);
-			for (int i = 0; i < length; i++)
+			float[] array = (float[])object;
+			dos.writeInt(array.length);
+			for (int i = 0; i < array.length; i++)
 			{
-				dos.writeFloat(Array.getFloat(object, i));
+				dos.writeFloat(array[i]);
 			}
 		}
 
@@ -1178,11 +1241,10 @@ public final class ClassStreamHandler
 		@Override
 		public Object readArray(WicketObjectInputStream dos) throws IOException
 		{
-			int length = dos.readInt();
-			Object array = Array.newInstance(getStreamClass(), length);
-			for (int i = 0; i < length; i++)
+			float[] array = new float[dos.readInt()];
+			for (int i = 0; i < array.length; i++)
 			{
-				Array.setFloat(array, i, dos.readFloat());
+				array[i] = dos.readFloat();
 			}
 			return array;
 		}
@@ -1198,11 +1260,11 @@ public final class ClassStreamHandler
 		@Override
 		public void writeArray(Object object, WicketObjectOutputStream dos) throws IOException
 		{
-			int length = Array.getLength(object);
-			dos.writeInt(length);
-			for (int i = 0; i < length; i++)
+			double[] array = (double[])object;
+			dos.writeInt(array.length);
+			for (int i = 0; i < array.length; i++)
 			{
-				dos.writeDouble(Array.getDouble(object, i));
+				dos.writeDouble(array[i]);
 			}
 		}
 
@@ -1212,11 +1274,10 @@ public final class ClassStreamHandler
 		@Override
 		public Object readArray(WicketObjectInputStream dos) throws IOException
 		{
-			int length = dos.readInt();
-			Object array = Array.newInstance(getStreamClass(), length);
-			for (int i = 0; i < length; i++)
+			double[] array = new double[dos.readInt()];
+			for (int i = 0; i < array.length; i++)
 			{
-				Array.setDouble(array, i, dos.readDouble());
+				array[i] = dos.readDouble();
 			}
 			return array;
 		}
@@ -19,15 +19,19 @@ package org.apache.wicket.util.io;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InvalidClassException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectStreamClass;
 import java.io.Serializable;
+import java.io.StreamCorruptedException;
 import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
+import java.util.List;
 
 import org.apache.wicket.util.collections.IntHashMap;
+import org.apache.wicket.util.lang.Classes;
 import org.apache.wicket.util.lang.Generics;
 
 
@@ -41,7 +45,12 @@ public final class WicketObjectInputStream extends ObjectInputStream
 {
 
 	private final IntHashMap<Object> handledObjects = new IntHashMap<Object>();
-	private short handleCounter = 0;
+	private int handleCounter = 0;
+
+	private final ClassRegistry registry;
+
+	// unregistered classes read by name, registered mode only
+	private final List<ClassStreamHandler> streamClasses;
 
 
 	private final DataInputStream in;
@@ -56,9 +65,109 @@ public final class WicketObjectInputStream extends ObjectInputStream
 	 * @throws IOException
 	 */
 	public WicketObjectInputStream(InputStream in) throws IOException
+	{
+		this(in, null);
+	}
+
+	/**
+	 * Construct a stream that reads data written by a {@link WicketObjectOutputStream} with a
+	 * registry of the same content.
+	 * 
+	 * @param in
+	 * @param registry
+	 *            registry or null to read the default format
+	 * @throws IOException
+	 *             if the data wasn't written with a registry of the same content
+	 */
+	public WicketObjectInputStream(InputStream in, ClassRegistry registry) throws IOException
 	{
 		super();
 		this.in = new DataInputStream(in);
+		this.registry = registry;
+		if (registry != null)
+		{
+			streamClasses = Generics.newArrayList();
+			if (this.in.readInt() != WicketObjectOutputStream.REGISTERED_STREAM_MAGIC)
+			{
+				throw new StreamCorruptedException("Not written in registered mode");
+			}
+			if (this.in.readInt() != registry.getFingerprint())
+			{
+				throw new StreamCorruptedException("Written with a different class registry or different fields in the registered classes");
+			}
+		}
+		else
+		{
+			streamClasses = null;
+		}
+	}
+
+	/**
+	 * Reads a class id and returns the handler of the class.
+	 * 
+	 * @return class handler
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	private ClassStreamHandler readClassHandler() throws IOException, ClassNotFoundException
+	{
+		short id = in.readShort();
+		if (registry == null)
+		{
+			return ClassStreamHandler.lookup(id);
+		}
+		if (id > 0)
+		{
+			Class<?> cls = registry.getRegisteredClass(id);
+			if (cls == null)
+			{
+				throw new ClassNotFoundException("No class registered with id " + id);
+			}
+			return ClassStreamHandler.lookup(cls);
+		}
+		if (id == WicketObjectOutputStream.INLINE_CLASS)
+		{
+			String className = in.readUTF();
+			Class<?> cls = Classes.resolveClass(className);
+			if (cls == null)
+			{
+				throw new ClassNotFoundException(className);
+			}
+			ClassStreamHandler classHandler = ClassStreamHandler.lookup(cls);
+			if (in.readLong() != classHandler.getFieldLayoutHash())
+			{
+				throw new InvalidClassException(className, "The fields changed since it was written");
+			}
+			streamClasses.add(classHandler);
+			return classHandler;
+		}
+		int index = -id - 1;
+		if (index >= streamClasses.size())
+		{
+			throw new StreamCorruptedException("Unknown class index " + index);
+		}
+		return streamClasses.get(index);
+	}
+
+	/**
+	 * @param cls
+	 * @return id the class is written with in put fields
+	 * @throws IOException
+	 */
+	private int getFieldTypeId(Class<?> cls) throws IOException
+	{
+		if (registry != null)
+		{
+			return registry.getClassId(cls);
+		}
+		return ClassStreamHandler.lookup(cls).getClassId();
+	}
+
+	private void assignHandle(Object value)
+	{
+		// the default format writes handles as shorts
+		handledObjects.put(registry != null ? handleCounter : (short)handleCounter, value);
+		handleCounter++;
 	}
 
 	/**
@@ -75,7 +184,7 @@ public final class WicketObjectInputStream extends ObjectInputStream
 		}
 		else if (token == ClassStreamHandler.HANDLE)
 		{
-			short handle = in.readShort();
+			int handle = registry != null ? in.readInt() : in.readShort();
 			value = handledObjects.get(handle);
 			if (value == null)
 			{
@@ -84,20 +193,19 @@ public final class WicketObjectInputStream extends ObjectInputStream
 		}
 		else if (token == ClassStreamHandler.CLASS_DEF)
 		{
-			short classDef = in.readShort();
 			ClassStreamHandler oldStreamHandler = currentStreamHandler;
-			currentStreamHandler = ClassStreamHandler.lookup(classDef);
+			currentStreamHandler = readClassHandler();
 			if (currentStreamHandler.getStreamClass() == String.class)
 			{
 				value = in.readUTF();
-				handledObjects.put(handleCounter++, value);
+				assignHandle(value);
 			}
 			else
 			{
 				try
 				{
 					value = currentStreamHandler.createObject();
-					handledObjects.put(handleCounter++, value);
+					assignHandle(value);
 					stack.push(value);
 					if (!currentStreamHandler.invokeReadMethod(this, value))
 					{
@@ -127,17 +235,15 @@ public final class WicketObjectInputStream extends ObjectInputStream
 		}
 		else if (token == ClassStreamHandler.CLASS)
 		{
-			short classDef = in.readShort();
-			ClassStreamHandler lookup = ClassStreamHandler.lookup(classDef);
+			ClassStreamHandler lookup = readClassHandler();
 			value = lookup.getStreamClass();
 		}
 		else if (token == ClassStreamHandler.ARRAY)
 		{
-			short classDef = in.readShort();
-			ClassStreamHandler lookup = ClassStreamHandler.lookup(classDef);
+			ClassStreamHandler lookup = readClassHandler();
 			int length = in.readInt();
 			Object[] array = (Object[])Array.newInstance(lookup.getStreamClass(), length);
-			handledObjects.put(handleCounter++, array);
+			assignHandle(array);
 			for (int i = 0; i < array.length; i++)
 			{
 				array[i] = readObjectOverride();
@@ -146,10 +252,9 @@ public final class WicketObjectInputStream extends ObjectInputStream
 		}
 		else if (token == ClassStreamHandler.PRIMITIVE_ARRAY)
 		{
-			short classDef = in.readShort();
-			ClassStreamHandler lookup = ClassStreamHandler.lookup(classDef);
+			ClassStreamHandler lookup = readClassHandler();
 			value = lookup.readArray(this);
-			handledObjects.put(handleCounter++, value);
+			assignHandle(value);
 		}
 		else
 		{
@@ -432,8 +537,8 @@ public final class WicketObjectInputStream extends ObjectInputStream
 		private void read() throws IOException, ClassNotFoundException
 		{
 			short token = readShort();
-			ClassStreamHandler lookup = ClassStreamHandler.lookup(boolean.class);
-			if (token == lookup.getClassId())
+			int lookup = getFieldTypeId(boolean.class);
+			if (token == lookup)
 			{
 				short count = readShort();
 				for (int i = 0; i < count; i++)
@@ -447,8 +552,8 @@ public final class WicketObjectInputStream extends ObjectInputStream
 					return;
 				}
 			}
-			lookup = ClassStreamHandler.lookup(byte.class);
-			if (token == lookup.getClassId())
+			lookup = getFieldTypeId(byte.class);
+			if (token == lookup)
 			{
 				short count = readShort();
 				for (int i = 0; i < count; i++)
@@ -462,8 +567,8 @@ public final class WicketObjectInputStream extends ObjectInputStream
 					return;
 				}
 			}
-			lookup = ClassStreamHandler.lookup(short.class);
-			if (token == lookup.getClassId())
+			lookup = getFieldTypeId(short.class);
+			if (token == lookup)
 			{
 				short count = readShort();
 				for (int i = 0; i < count; i++)
@@ -477,8 +582,8 @@ public final class WicketObjectInputStream extends ObjectInputStream
 					return;
 				}
 			}
-			lookup = ClassStreamHandler.lookup(char.class);
-			if (token == lookup.getClassId())
+			lookup = getFieldTypeId(char.class);
+			if (token == lookup)
 			{
 				short count = readShort();
 				for (int i = 0; i < count; i++)
@@ -492,8 +597,8 @@ public final class WicketObjectInputStream extends ObjectInputStream
 					return;
 				}
 			}
-			lookup = ClassStreamHandler.lookup(int.class);
-			if (token == lookup.getClassId())
+			lookup = getFieldTypeId(int.class);
+			if (token == lookup)
 			{
 				short count = readShort();
 				for (int i = 0; i < count; i++)
@@ -507,8 +612,8 @@ public final class WicketObjectInputStream extends ObjectInputStream
 					return;
 				}
 			}
-			lookup = ClassStreamHandler.lookup(long.class);
-			if (token == lookup.getClassId())
+			lookup = getFieldTypeId(long.class);
+			if (token == lookup)
 			{
 				short count = readShort();
 				for (int i = 0; i < count; i++)
@@ -522,8 +627,8 @@ public final class WicketObjectInputStream extends ObjectInputStream
 					return;
 				}
 			}
-			lookup = ClassStreamHandler.lookup(float.class);
-			if (token == lookup.getClassId())
+			lookup = getFieldTypeId(float.class);
+			if (token == lookup)
 			{
 				short count = readShort();
 				for (int i = 0; i < count; i++)
@@ -537,8 +642,8 @@ public final class WicketObjectInputStream extends ObjectInputStream
 					return;
 				}
 			}
-			lookup = ClassStreamHandler.lookup(double.class);
-			if (token == lookup.getClassId())
+			lookup = getFieldTypeId(double.class);
+			if (token == lookup)
 			{
 				short count = readShort();
 				for (int i = 0; i < count; i++)
@@ -552,8 +657,8 @@ public final class WicketObjectInputStream extends ObjectInputStream
 					return;
 				}
 			}
-			lookup = ClassStreamHandler.lookup(Serializable.class);
-			if (token == lookup.getClassId())
+			lookup = getFieldTypeId(Serializable.class);
+			if (token == lookup)
 			{
 				short count = readShort();
 				for (int i = 0; i < count; i++)
@@ -25,6 +25,7 @@ import java.io.Serializable;
 import java.lang.reflect.Array;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -38,6 +39,10 @@ import org.apache.wicket.util.lang.Generics;
  * The Wicket ObjectOutputStream to enable back-button support for the reloading mechanism, be sure
  * to put <tt>Objects.setObjectStreamFactory(new WicketObjectStreamFactory());</tt> in your
  * application's {@link WebApplication#init()} method.
+ * <p>
+ * By default classes are written with ids that are only valid in the running JVM. When the stream
+ * is constructed with a {@link ClassRegistry} the ids of the registry are used instead, which makes
+ * the data readable by other nodes and after a restart.
  * 
  * @see org.apache.wicket.protocol.http.ReloadingWicketFilter
  * @author jcompagner
@@ -320,8 +325,7 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 			// maybe in the further we can really calculate an offset?
 			if (mapBoolean != null)
 			{
-				ClassStreamHandler lookup = ClassStreamHandler.lookup(boolean.class);
-				writeShort(lookup.getClassId());
+				writeClassId(ClassStreamHandler.lookup(boolean.class));
 				writeShort(mapBoolean.size());
 				Iterator<Entry<String, Boolean>> it = mapBoolean.entrySet().iterator();
 				while (it.hasNext())
@@ -334,8 +338,7 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 			}
 			if (mapBytes != null)
 			{
-				ClassStreamHandler lookup = ClassStreamHandler.lookup(byte.class);
-				writeShort(lookup.getClassId());
+				writeClassId(ClassStreamHandler.lookup(byte.class));
 				writeShort(mapBytes.size());
 				Iterator<Entry<String, Byte>> it = mapBytes.entrySet().iterator();
 				while (it.hasNext())
@@ -348,8 +351,7 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 			}
 			if (mapShort != null)
 			{
-				ClassStreamHandler lookup = ClassStreamHandler.lookup(short.class);
-				writeShort(lookup.getClassId());
+				writeClassId(ClassStreamHandler.lookup(short.class));
 				writeShort(mapShort.size());
 				Iterator<Entry<String, Short>> it = mapShort.entrySet().iterator();
 				while (it.hasNext())
@@ -362,8 +364,7 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 			}
 			if (mapChar != null)
 			{
-				ClassStreamHandler lookup = ClassStreamHandler.lookup(char.class);
-				writeShort(lookup.getClassId());
+				writeClassId(ClassStreamHandler.lookup(char.class));
 				writeShort(mapChar.size());
 				Iterator<Entry<String, Character>> it = mapChar.entrySet().iterator();
 				while (it.hasNext())
@@ -376,8 +377,7 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 			}
 			if (mapInt != null)
 			{
-				ClassStreamHandler lookup = ClassStreamHandler.lookup(int.class);
-				writeShort(lookup.getClassId());
+				writeClassId(ClassStreamHandler.lookup(int.class));
 				writeShort(mapInt.size());
 				Iterator<Entry<String, Integer>> it = mapInt.entrySet().iterator();
 				while (it.hasNext())
@@ -390,8 +390,7 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 			}
 			if (mapLong != null)
 			{
-				ClassStreamHandler lookup = ClassStreamHandler.lookup(long.class);
-				writeShort(lookup.getClassId());
+				writeClassId(ClassStreamHandler.lookup(long.class));
 				writeShort(mapLong.size());
 				Iterator<Entry<String, Long>> it = mapLong.entrySet().iterator();
 				while (it.hasNext())
@@ -404,8 +403,7 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 			}
 			if (mapFloat != null)
 			{
-				ClassStreamHandler lookup = ClassStreamHandler.lookup(float.class);
-				writeShort(lookup.getClassId());
+				writeClassId(ClassStreamHandler.lookup(float.class));
 				writeShort(mapFloat.size());
 				Iterator<Entry<String, Float>> it = mapFloat.entrySet().iterator();
 				while (it.hasNext())
@@ -418,8 +416,7 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 			}
 			if (mapDouble != null)
 			{
-				ClassStreamHandler lookup = ClassStreamHandler.lookup(double.class);
-				writeShort(lookup.getClassId());
+				writeClassId(ClassStreamHandler.lookup(double.class));
 				writeShort(mapDouble.size());
 				Iterator<Entry<String, Double>> it = mapDouble.entrySet().iterator();
 				while (it.hasNext())
@@ -432,8 +429,7 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 			}
 			if (mapObject != null)
 			{
-				ClassStreamHandler lookup = ClassStreamHandler.lookup(Serializable.class);
-				writeShort(lookup.getClassId());
+				writeClassId(ClassStreamHandler.lookup(Serializable.class));
 				writeShort(mapObject.size());
 				Iterator<Entry<String, Object>> it = mapObject.entrySet().iterator();
 				while (it.hasNext())
@@ -452,6 +448,21 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 
 	private final HandleTable handledObjects = new HandleTable();
 
+	private final ClassRegistry registry;
+
+	// unregistered classes already written by name, registered mode only
+	private final Map<Class<?>, Integer> streamClasses;
+
+	/**
+	 * Header of streams written in registered mode, followed by the registry fingerprint.
+	 */
+	static final int REGISTERED_STREAM_MAGIC = 0x57524753; // WRGS
+
+	/**
+	 * Class id that is followed by the name of a class that isn't registered (registered mode).
+	 */
+	static final short INLINE_CLASS = 0;
+
 	private final HandleArrayListStack<Object> defaultWrite = new HandleArrayListStack<Object>();
 	private final DataOutputStream out;
 
@@ -468,10 +479,75 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 	 * @throws IOException
 	 */
 	public WicketObjectOutputStream(OutputStream out) throws IOException
+	{
+		this(out, null);
+	}
+
+	/**
+	 * Construct a stream that writes classes with the stable ids of the registry. The data can
+	 * only be read by a {@link WicketObjectInputStream} with a registry of the same content, but
+	 * unlike the default format it can be read in other JVMs, so it can be stored or replicated.
+	 * 
+	 * @param out
+	 * @param registry
+	 *            registry or null to use the default format
+	 * @throws IOException
+	 */
+	public WicketObjectOutputStream(OutputStream out, ClassRegistry registry) throws IOException
 	{
 		super();
 		this.out = new DataOutputStream(out);
+		this.registry = registry;
+		if (registry != null)
+		{
+			streamClasses = new IdentityHashMap<Class<?>, Integer>();
+			this.out.writeInt(REGISTERED_STREAM_MAGIC);
+			this.out.writeInt(registry.getFingerprint());
+		}
+		else
+		{
+			streamClasses = null;
+		}
+	}
 
+	/**
+	 * Writes the id of the class of the handler. In registered mode classes that are not
+	 * registered are written by name and the hash of their fields the first time, and by their
+	 * index in this stream afterwards.
+	 * 
+	 * @param classHandler
+	 * @throws IOException
+	 */
+	private void writeClassId(ClassStreamHandler classHandler) throws IOException
+	{
+		if (registry == null)
+		{
+			out.writeShort(classHandler.getClassId());
+			return;
+		}
+		Class<?> cls = classHandler.getStreamClass();
+		int id = registry.getClassId(cls);
+		if (id > 0)
+		{
+			out.writeShort(id);
+			return;
+		}
+		Integer index = streamClasses.get(cls);
+		if (index != null)
+		{
+			out.writeShort(-index.intValue() - 1);
+		}
+		else
+		{
+			if (streamClasses.size() > Short.MAX_VALUE)
+			{
+				throw new WicketSerializeableException("Too many unregistered classes in stream");
+			}
+			streamClasses.put(cls, new Integer(streamClasses.size()));
+			out.writeShort(INLINE_CLASS);
+			out.writeUTF(cls.getName());
+			out.writeLong(classHandler.getFieldLayoutHash());
+		}
 	}
 
 	/**
@@ -485,6 +561,10 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 		curPut = null;
 		handledObjects.clear();
 		defaultWrite.clear();
+		if (streamClasses != null)
+		{
+			streamClasses.clear();
+		}
 		out.close();
 	}
 
@@ -732,7 +812,14 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 		if (handle != -1)
 		{
 			out.write(ClassStreamHandler.HANDLE);
-			out.writeShort(handle);
+			if (registry != null)
+			{
+				out.writeInt(handle);
+			}
+			else
+			{
+				out.writeShort(handle);
+			}
 		}
 		else
 		{
@@ -740,7 +827,7 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 			{
 				ClassStreamHandler classHandler = ClassStreamHandler.lookup((Class<?>)obj);
 				out.write(ClassStreamHandler.CLASS);
-				out.writeShort(classHandler.getClassId());
+				writeClassId(classHandler);
 			}
 			else
 			{
@@ -756,7 +843,7 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 						try
 						{
 							out.write(ClassStreamHandler.PRIMITIVE_ARRAY);
-							out.writeShort(classHandler.getClassId());
+							writeClassId(classHandler);
 							classHandler.writeArray(obj, this);
 						}
 						catch (WicketSerializeableException wse)
@@ -773,15 +860,16 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 					}
 					else
 					{
-						int length = Array.getLength(obj);
+						Object[] array = (Object[])obj;
+						int length = array.length;
 						try
 						{
 							out.write(ClassStreamHandler.ARRAY);
-							out.writeShort(classHandler.getClassId());
+							writeClassId(classHandler);
 							out.writeInt(length);
 							for (int i = 0; i < length; i++)
 							{
-								writeObjectOverride(Array.get(obj, i));
+								writeObjectOverride(array[i]);
 							}
 						}
 						catch (WicketSerializeableException wse)
@@ -811,7 +899,7 @@ public final class WicketObjectOutputStream extends ObjectOutputStream
 					}
 
 					out.write(ClassStreamHandler.CLASS_DEF);
-					out.writeShort(classHandler.getClassId());
+					writeClassId(classHandler);
 					// handle strings directly.
 					if (obj instanceof String)
 					{
@@ -33,12 +33,35 @@ import java.io.OutputStream;
  */
 public class WicketObjectStreamFactory implements IObjectStreamFactory
 {
+	private final ClassRegistry registry;
+
+	/**
+	 * Construct a factory for streams that use class ids that are only valid in this JVM.
+	 */
+	public WicketObjectStreamFactory()
+	{
+		this(null);
+	}
+
+	/**
+	 * Construct a factory for streams in registered mode. Classes are written with the stable ids
+	 * of the registry, so serialized pages can be stored on disk or replicated to nodes that use a
+	 * registry with the same content.
+	 * 
+	 * @param registry
+	 *            registry or null for the default format
+	 */
+	public WicketObjectStreamFactory(ClassRegistry registry)
+	{
+		this.registry = registry;
+	}
+
 	/**
 	 * @see org.apache.wicket.util.io.IObjectStreamFactory#newObjectInputStream(java.io.InputStream)
 	 */
 	public ObjectInputStream newObjectInputStream(InputStream in) throws IOException
 	{
-		return new WicketObjectInputStream(in);
+		return new WicketObjectInputStream(in, registry);
 	}
 
 	/**
@@ -46,6 +69,6 @@ public class WicketObjectStreamFactory implements IObjectStreamFactory
 	 */
 	public ObjectOutputStream newObjectOutputStream(OutputStream out) throws IOException
 	{
-		return new WicketObjectOutputStream(out);
+		return new WicketObjectOutputStream(out, registry);
 	}
 }
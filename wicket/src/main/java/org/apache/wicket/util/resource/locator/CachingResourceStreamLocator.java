@@ -0,0 +1,374 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.resource.locator;
+
+import java.net.URL;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.wicket.Application;
+import org.apache.wicket.util.collections.ConcurrentMostRecentlyUsedMap;
+import org.apache.wicket.util.file.File;
+import org.apache.wicket.util.listener.IChangeListener;
+import org.apache.wicket.util.resource.FileResourceStream;
+import org.apache.wicket.util.resource.IResourceStream;
+import org.apache.wicket.util.resource.UrlResourceStream;
+import org.apache.wicket.util.time.Duration;
+import org.apache.wicket.util.watch.IModifiable;
+import org.apache.wicket.util.watch.IModificationWatcher;
+
+
+/**
+ * Locator that remembers where resources were found, and which resources were not found, so the
+ * resource finder and the class loaders aren't asked again for the same resource.
+ * <p>
+ * Only the locations of {@link UrlResourceStream}s and {@link FileResourceStream}s are
+ * remembered; a new stream is created for every request. Other streams are always located by the
+ * decorated locator.
+ * <p>
+ * The results are kept for the {@link #setTimeToLive(Duration) time to live}, which defaults to
+ * the resource poll frequency of the application: in development mode a resource that is added is
+ * found after that time, in deployment mode the results are kept until they are expired because
+ * the cache is full. Located resources and misses are held in separate caches of a maximum size,
+ * so requests for many resources that don't exist can't push out the located ones. When resources
+ * are polled, each located resource is watched once, and forgotten as soon as it changes.
+ * <p>
+ * The locator is not used by default, it is enabled with
+ * 
+ * <pre>
+ * getResourceSettings().setResourceStreamLocator(
+ * 	new CachingResourceStreamLocator(new ResourceStreamLocator(getResourceSettings().getResourceFinder())));
+ * </pre>
+ */
+public class CachingResourceStreamLocator implements IResourceStreamLocator
+{
+	/** Default maximum number of located resources that are remembered */
+	public static final int DEFAULT_MAX_LOCATIONS = 5000;
+
+	/** Default maximum number of resources that were not found that are remembered */
+	public static final int DEFAULT_MAX_MISSES = 1000;
+
+	/** Cached value of a resource that could not be found */
+	private static final Location NOT_FOUND = new Location(null, null, null, Long.MAX_VALUE);
+
+	private final IResourceStreamLocator delegate;
+
+	private final Map<String, Location> locations;
+
+	private final Map<String, Location> misses;
+
+	/** Watched resources by the url or file of the resource */
+	private final ConcurrentMap<String, IModifiable> watched = new ConcurrentHashMap<String, IModifiable>();
+
+	/** If null, the resource poll frequency is used */
+	private volatile Duration timeToLive;
+
+	/**
+	 * Construct.
+	 *
+	 * @param delegate
+	 *            the locator that locates the resources that aren't in the cache
+	 */
+	public CachingResourceStreamLocator(final IResourceStreamLocator delegate)
+	{
+		this(delegate, DEFAULT_MAX_LOCATIONS, DEFAULT_MAX_MISSES);
+	}
+
+	/**
+	 * Construct.
+	 *
+	 * @param delegate
+	 *            the locator that locates the resources that aren't in the cache
+	 * @param maxLocations
+	 *            maximum number of located resources that are remembered
+	 * @param maxMisses
+	 *            maximum number of resources that were not found that are remembered
+	 */
+	public CachingResourceStreamLocator(final IResourceStreamLocator delegate,
+		final int maxLocations, final int maxMisses)
+	{
+		if (delegate == null)
+		{
+			throw new IllegalArgumentException("Parameter 'delegate' must not be null");
+		}
+		this.delegate = delegate;
+		locations = new ConcurrentMostRecentlyUsedMap<String, Location>(maxLocations);
+		misses = new ConcurrentMostRecentlyUsedMap<String, Location>(maxMisses);
+	}
+
+	/**
+	 * @return the decorated locator
+	 */
+	public final IResourceStreamLocator getDelegate()
+	{
+		return delegate;
+	}
+
+	/**
+	 * Sets how long results are kept.
+	 *
+	 * @param timeToLive
+	 *            the time to live, {@link Duration#MAXIMUM} to keep results forever or null to use
+	 *            the resource poll frequency of the application
+	 */
+	public void setTimeToLive(final Duration timeToLive)
+	{
+		this.timeToLive = timeToLive;
+	}
+
+	/**
+	 * @return the time to live, or null if the resource poll frequency is used
+	 */
+	public Duration getTimeToLive()
+	{
+		return timeToLive;
+	}
+
+	/**
+	 * Forgets all results.
+	 */
+	public void clearCache()
+	{
+		locations.clear();
+		misses.clear();
+	}
+
+	/**
+	 * @return number of results in the cache
+	 */
+	public int size()
+	{
+		return locations.size() + misses.size();
+	}
+
+	/**
+	 * @see org.apache.wicket.util.resource.locator.IResourceStreamLocator#locate(java.lang.Class,
+	 *      java.lang.String)
+	 */
+	public IResourceStream locate(final Class<?> clazz, final String path)
+	{
+		final String key = newKey(clazz, path);
+		Location location = getLocation(key);
+		if (location != null)
+		{
+			return location.newResourceStream();
+		}
+
+		IResourceStream stream = delegate.locate(clazz, path);
+		cache(key, stream);
+		return stream;
+	}
+
+	/**
+	 * @see org.apache.wicket.util.resource.locator.IResourceStreamLocator#locate(java.lang.Class,
+	 *      java.lang.String, java.lang.String, java.util.Locale, java.lang.String)
+	 */
+	public IResourceStream locate(final Class<?> clazz, final String path, final String style,
+		final Locale locale, final String extension)
+	{
+		final String key = newKey(clazz, path) + ':' + style + ':' + locale + ':' + extension;
+		Location location = getLocation(key);
+		if (location != null)
+		{
+			return location.newResourceStream();
+		}
+
+		IResourceStream stream = delegate.locate(clazz, path, style, locale, extension);
+		cache(key, stream);
+		return stream;
+	}
+
+	/**
+	 * Gets the watcher located resources are registered with.
+	 *
+	 * @return the resource watcher of the application, or null if resources aren't polled
+	 */
+	protected IModificationWatcher getResourceWatcher()
+	{
+		if (Application.exists() &&
+			Application.get().getResourceSettings().getResourcePollFrequency() != null)
+		{
+			return Application.get().getResourceSettings().getResourceWatcher(true);
+		}
+		return null;
+	}
+
+	private static String newKey(final Class<?> clazz, final String path)
+	{
+		return clazz == null ? path : clazz.getName() + ':' + path;
+	}
+
+	/**
+	 * @param key
+	 * @return the location, or null if it is unknown or expired
+	 */
+	private Location getLocation(final String key)
+	{
+		Location location = locations.get(key);
+		Map<String, Location> cache = locations;
+		if (location == null)
+		{
+			location = misses.get(key);
+			cache = misses;
+		}
+		if (location != null && location.expires < System.currentTimeMillis())
+		{
+			cache.remove(key);
+			location = null;
+		}
+		return location;
+	}
+
+	private void cache(final String key, final IResourceStream stream)
+	{
+		Duration ttl = timeToLive;
+		if (ttl == null && Application.exists())
+		{
+			ttl = Application.get().getResourceSettings().getResourcePollFrequency();
+		}
+		long expires = (ttl == null || ttl.equals(Duration.MAXIMUM)) ? Long.MAX_VALUE
+			: System.currentTimeMillis() + ttl.getMilliseconds();
+
+		if (stream == null)
+		{
+			misses.put(key, expires == Long.MAX_VALUE ? NOT_FOUND : new Location(null, null, null,
+				expires));
+			return;
+		}
+
+		final Location location;
+		if (stream.getClass() == UrlResourceStream.class)
+		{
+			location = new Location(((UrlResourceStream)stream).getURL(), null,
+				stream.getLocale(), expires);
+		}
+		else if (stream.getClass() == FileResourceStream.class)
+		{
+			location = new Location(null, ((FileResourceStream)stream).getFile(),
+				stream.getLocale(), expires);
+		}
+		else
+		{
+			return;
+		}
+		locations.put(key, location);
+		watch(location);
+	}
+
+	/**
+	 * Registers the resource with the watcher, unless it is watched already, to forget its
+	 * locations when it changes or disappears.
+	 *
+	 * @param location
+	 */
+	private void watch(final Location location)
+	{
+		final IModificationWatcher watcher = getResourceWatcher();
+		if (watcher == null)
+		{
+			return;
+		}
+		final String resource = location.getResource();
+		final IModifiable modifiable = location.newResourceStream();
+		if (watched.putIfAbsent(resource, modifiable) == null)
+		{
+			watcher.add(modifiable, new IChangeListener()
+			{
+				public void onChange()
+				{
+					watcher.remove(modifiable);
+					watched.remove(resource, modifiable);
+					forget(resource);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Forgets all locations of the given resource.
+	 *
+	 * @param resource
+	 */
+	private void forget(final String resource)
+	{
+		for (Iterator<Map.Entry<String, Location>> i = locations.entrySet().iterator(); i.hasNext();)
+		{
+			Map.Entry<String, Location> entry = i.next();
+			if (resource.equals(entry.getValue().getResource()))
+			{
+				locations.remove(entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Location of a resource, or of a resource that doesn't exist if both the url and the file are
+	 * null.
+	 */
+	private static final class Location
+	{
+		private final URL url;
+		private final File file;
+		private final Locale locale;
+		private final long expires;
+
+		private Location(final URL url, final File file, final Locale locale, final long expires)
+		{
+			this.url = url;
+			this.file = file;
+			this.locale = locale;
+			this.expires = expires;
+		}
+
+		/**
+		 * @return the url or file of the resource, or null if it doesn't exist
+		 */
+		private String getResource()
+		{
+			if (url != null)
+			{
+				return url.toExternalForm();
+			}
+			return file != null ? file.getAbsolutePath() : null;
+		}
+
+		/**
+		 * @return a new stream for the resource, or null if it doesn't exist
+		 */
+		private IResourceStream newResourceStream()
+		{
+			final IResourceStream stream;
+			if (url != null)
+			{
+				stream = new UrlResourceStream(url);
+			}
+			else if (file != null)
+			{
+				stream = new FileResourceStream(file);
+			}
+			else
+			{
+				return null;
+			}
+			stream.setLocale(locale);
+			return stream;
+		}
+	}
+}
@@ -16,17 +16,27 @@
  */
 package org.apache.wicket;
 
+import java.util.Iterator;
+import java.util.List;
+
 import junit.framework.Assert;
 import junit.framework.TestCase;
 
+import org.apache.wicket.feedback.ComponentFeedbackMessageFilter;
+import org.apache.wicket.feedback.ErrorLevelFeedbackMessageFilter;
 import org.apache.wicket.feedback.FeedbackMessage;
+import org.apache.wicket.feedback.FeedbackMessages;
+import org.apache.wicket.markup.html.WebMarkupContainer;
 import org.apache.wicket.util.tester.WicketTester;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author oli
  */
 public class FeedbackMessagesTest extends TestCase
 {
+	private static final Logger log = LoggerFactory.getLogger(FeedbackMessagesTest.class);
 
 	WicketTester tester;
 
@@ -57,4 +67,84 @@ public class FeedbackMessagesTest extends TestCase
 		page.error("error message");
 		Assert.assertTrue(session.getFeedbackMessages().hasMessageFor(page, FeedbackMessage.ERROR));
 	}
+
+	/**
+	 * Messages are looked up by reporter, also after some of them were cleared.
+	 */
+	public void testMessagesByReporter()
+	{
+		Component a = new WebMarkupContainer("a");
+		Component b = new WebMarkupContainer("b");
+		FeedbackMessages messages = new FeedbackMessages();
+		messages.info(a, "a info");
+		messages.error(b, "b error");
+		messages.error(a, "a error");
+		messages.info(null, "session info");
+
+		assertEquals("a info", messages.messageForComponent(a).getMessage());
+		assertTrue(messages.hasMessageFor(a, FeedbackMessage.ERROR));
+		assertFalse(messages.hasMessageFor(a, FeedbackMessage.FATAL));
+		assertTrue(messages.hasMessageFor(null));
+		assertFalse(messages.hasMessageFor(new WebMarkupContainer("c")));
+
+		List<FeedbackMessage> list = messages.messages(new ComponentFeedbackMessageFilter(a));
+		assertEquals(2, list.size());
+		assertEquals("a error", list.get(1).getMessage());
+
+		assertEquals(2, messages.clear(new ErrorLevelFeedbackMessageFilter(FeedbackMessage.ERROR)));
+		assertEquals(2, messages.size());
+		assertFalse(messages.hasErrorMessageFor(a));
+		assertFalse(messages.hasMessageFor(b));
+		assertEquals("a info", messages.messageForComponent(a).getMessage());
+
+		messages.warn(b, "b warning");
+		assertTrue(messages.hasMessageFor(b, FeedbackMessage.WARNING));
+		assertEquals(1, messages.size(new ComponentFeedbackMessageFilter(b)));
+	}
+
+	/**
+	 * An iterator doesn't see the messages added after it was created.
+	 */
+	public void testIterateWhileAdding()
+	{
+		Component a = new WebMarkupContainer("a");
+		FeedbackMessages messages = new FeedbackMessages();
+		messages.info(a, "first");
+		messages.info(a, "second");
+		int count = 0;
+		for (Iterator<FeedbackMessage> iterator = messages.iterator(); iterator.hasNext();)
+		{
+			messages.info(a, "added for " + iterator.next().getMessage());
+			count++;
+		}
+		assertEquals(2, count);
+		assertEquals(4, messages.size());
+	}
+
+	/**
+	 * Times validating 2000 components that each look up their messages.
+	 */
+	public void testManyReportersBenchmark()
+	{
+		Component[] components = new Component[2000];
+		for (int i = 0; i < components.length; i++)
+		{
+			components[i] = new WebMarkupContainer(Integer.toString(i));
+		}
+		FeedbackMessages messages = new FeedbackMessages();
+		long start = System.nanoTime();
+		for (int i = 0; i < components.length; i++)
+		{
+			if (!messages.hasErrorMessageFor(components[i]))
+			{
+				messages.error(components[i], "error " + i);
+			}
+		}
+		for (int i = 0; i < components.length; i++)
+		{
+			assertEquals(1, messages.messages(new ComponentFeedbackMessageFilter(components[i]))
+				.size());
+		}
+		log.debug("2000 reporters: " + (System.nanoTime() - start) / 1000 + "us");
+	}
 }
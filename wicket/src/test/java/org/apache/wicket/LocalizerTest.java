@@ -16,8 +16,10 @@
  */
 package org.apache.wicket;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.MissingResourceException;
 
@@ -198,6 +200,66 @@ public class LocalizerTest extends WicketTestCase
 
 	}
 
+	/**
+	 * Cached strings are looked up through {@link Localizer#getFromCache(String)}, which returns
+	 * {@link Localizer#NULL_VALUE} for strings that were not found.
+	 */
+	public void testGetFromCache()
+	{
+		final List<String> lookups = new ArrayList<String>();
+		final List<String> values = new ArrayList<String>();
+		Localizer localizer = new Localizer()
+		{
+			@Override
+			protected String getFromCache(String cacheKey)
+			{
+				String value = super.getFromCache(cacheKey);
+				lookups.add(cacheKey);
+				values.add(value);
+				return value;
+			}
+		};
+		assertEquals("This is a test", localizer.getString("test.string", null, null, "DEFAULT"));
+		assertEquals("This is a test", localizer.getString("test.string", null, null, "DEFAULT"));
+		assertEquals("DEFAULT", localizer.getString("unknown.string", null, null, "DEFAULT"));
+		assertEquals("DEFAULT", localizer.getString("unknown.string", null, null, "DEFAULT"));
+		assertEquals(4, lookups.size());
+		assertEquals(Arrays.asList(new String[] { null, "This is a test", null,
+				Localizer.NULL_VALUE }), values);
+		assertEquals(2, localizer.getCacheHits());
+		assertEquals(2, localizer.getCacheMisses());
+	}
+
+	/**
+	 * The cache is bounded and counts hits, misses and evictions.
+	 */
+	public void testCacheStatistics()
+	{
+		localizer.setEnableCache(true);
+		localizer.setMaxCacheSize(2);
+		assertEquals(0, localizer.getCacheSize());
+		long hits = localizer.getCacheHits();
+		long misses = localizer.getCacheMisses();
+
+		assertEquals("This is a test", localizer.getString("test.string", null, null, "DEFAULT"));
+		assertEquals("This is a test", localizer.getString("test.string", null, null, "DEFAULT"));
+		assertEquals(hits + 1, localizer.getCacheHits());
+		assertEquals(misses + 1, localizer.getCacheMisses());
+
+		localizer.getString("test.substitute", null, null, "DEFAULT");
+		localizer.getString("unknown.string", null, null, "DEFAULT");
+		assertEquals(misses + 3, localizer.getCacheMisses());
+		assertTrue(localizer.getCacheSize() <= 2);
+		assertTrue(localizer.getCacheEvictions() >= 1);
+
+		localizer.setMaxCacheSize(0);
+		for (int i = 0; i < 10; i++)
+		{
+			localizer.getString("unknown.string" + i, null, null, "DEFAULT");
+		}
+		assertEquals(10, localizer.getCacheSize());
+	}
+
 	/**
 	 * 
 	 */
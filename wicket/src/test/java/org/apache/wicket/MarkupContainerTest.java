@@ -20,6 +20,8 @@ import java.util.Iterator;
 
 import org.apache.wicket.markup.html.WebComponent;
 import org.apache.wicket.markup.html.WebMarkupContainer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
@@ -28,6 +30,8 @@ import org.apache.wicket.markup.html.WebMarkupContainer;
  */
 public class MarkupContainerTest extends WicketTestCase
 {
+	private static final Logger log = LoggerFactory.getLogger(MarkupContainerTest.class);
+
 	/**
 	 * Construct.
 	 * 
@@ -104,4 +108,81 @@ public class MarkupContainerTest extends WicketTestCase
 		assertNull(b.get("..|.."));
 		assertNull(a.get("q"));
 	}
+
+	/**
+	 * Children of containers with many children are found by id after the children changed.
+	 */
+	public void testGetManyChildren()
+	{
+		MarkupContainer container = new WebMarkupContainer("container");
+		for (int i = 0; i < 100; i++)
+		{
+			container.add(new WebComponent(Integer.toString(i)));
+		}
+		assertEquals("50", container.get("50").getId());
+		assertNull(container.get("100"));
+
+		// add
+		container.add(new WebComponent("100"));
+		assertSame(container.get(100), container.get("100"));
+
+		// replace
+		WebComponent replacement = new WebComponent("20");
+		container.replace(replacement);
+		assertSame(replacement, container.get("20"));
+		assertSame(replacement, container.get(20));
+
+		// remove
+		container.remove("10");
+		assertNull(container.get("10"));
+		assertSame(container.get(10), container.get("11"));
+		assertSame(container.get(99), container.get("100"));
+
+		// swap
+		container.swap(0, 98);
+		assertEquals("0", container.get(98).getId());
+		assertSame(container.get(98), container.get("0"));
+		assertSame(container.get(0), container.get("99"));
+
+		// detach
+		container.detach();
+		assertSame(container.get(98), container.get("0"));
+		container.add(new WebComponent("101"));
+		assertSame(container.get(100), container.get("101"));
+
+		// remove all
+		container.removeAll();
+		assertNull(container.get("0"));
+		assertEquals(0, container.size());
+
+		int i = 0;
+		for (Iterator<?> iter = container.iterator(); iter.hasNext(); i++)
+		{
+			iter.next();
+		}
+		assertEquals(0, i);
+	}
+
+	/**
+	 * Adding and looking up the children of containers with 1000 children.
+	 */
+	public void testManyChildrenBenchmark()
+	{
+		int rounds = 20;
+		long start = System.nanoTime();
+		for (int round = 0; round < rounds; round++)
+		{
+			MarkupContainer container = new WebMarkupContainer("container");
+			for (int i = 0; i < 1000; i++)
+			{
+				container.add(new WebComponent(Integer.toString(i)));
+			}
+			for (int i = 0; i < 1000; i++)
+			{
+				assertNotNull(container.get(Integer.toString(i)));
+			}
+		}
+		log.debug("Container with 1000 children: " + (System.nanoTime() - start) / rounds / 1000 +
+			"us to add and get all children");
+	}
 }
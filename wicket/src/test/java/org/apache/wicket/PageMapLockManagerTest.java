@@ -0,0 +1,378 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.wicket.protocol.http.IgnoreAjaxRequestException;
+import org.apache.wicket.protocol.http.WebSession;
+import org.apache.wicket.util.time.Duration;
+
+/**
+ * Tests for {@link PageMapLockManager}.
+ */
+public class PageMapLockManagerTest extends WicketTestCase
+{
+	private PageMapLockManager manager;
+
+	private final IPageMap pm = new AccessStackPageMap("pm");
+
+	private final IPageMap other = new AccessStackPageMap("other");
+
+	/**
+	 * @see org.apache.wicket.WicketTestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		manager = new PageMapLockManager(tester.getWicketSession());
+	}
+
+	/**
+	 * The owner can acquire the page map again, others get it in the order they asked for it.
+	 *
+	 * @throws Exception
+	 */
+	public void testFifoHandoff() throws Exception
+	{
+		final CountDownLatch acquired = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Thread owner = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				manager.acquire(pm, Duration.seconds(10), "1");
+				// reentrant
+				manager.acquire(pm, Duration.seconds(10), "1");
+				acquired.countDown();
+				try
+				{
+					release.await();
+				}
+				catch (InterruptedException e)
+				{
+				}
+				manager.releaseAll();
+			}
+		};
+		owner.start();
+		assertTrue(acquired.await(10, TimeUnit.SECONDS));
+
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		List<Thread> waiters = new ArrayList<Thread>();
+		for (int i = 0; i < 5; i++)
+		{
+			final int index = i;
+			Thread waiter = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					manager.acquire(pm, Duration.seconds(10), "1");
+					order.add(new Integer(index));
+					manager.release(pm);
+				}
+			};
+			waiter.start();
+			waiters.add(waiter);
+			// make sure the waiters queue in order
+			while (waiter.getState() != Thread.State.TIMED_WAITING)
+			{
+				Thread.sleep(5);
+			}
+		}
+
+		// an other page map is not blocked
+		manager.acquire(other, Duration.milliseconds(100), "1");
+		manager.release(other);
+
+		release.countDown();
+		owner.join(10000);
+		for (Thread waiter : waiters)
+		{
+			waiter.join(10000);
+		}
+
+		assertEquals(5, order.size());
+		for (int i = 0; i < 5; i++)
+		{
+			assertEquals(i, order.get(i).intValue());
+		}
+		assertEquals(5, manager.getContendedAcquisitions());
+		assertEquals(0, manager.getTimeouts());
+		assertTrue(manager.getMaxWaitTime() <= manager.getTotalWaitTime());
+	}
+
+	/**
+	 * @throws Exception
+	 */
+	public void testTimeout() throws Exception
+	{
+		final CountDownLatch acquired = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Thread owner = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				manager.acquire(pm, Duration.seconds(10), "1");
+				acquired.countDown();
+				try
+				{
+					release.await();
+				}
+				catch (InterruptedException e)
+				{
+				}
+				manager.releaseAll();
+			}
+		};
+		owner.start();
+		assertTrue(acquired.await(10, TimeUnit.SECONDS));
+		try
+		{
+			manager.acquire(pm, Duration.milliseconds(50), "1:link");
+			fail("page map is locked");
+		}
+		catch (WicketRuntimeException e)
+		{
+			assertTrue(e.getMessage().indexOf("still locked") > 0);
+		}
+		assertEquals(1, manager.getTimeouts());
+
+		release.countDown();
+		owner.join(10000);
+
+		// released and no one waiting
+		manager.acquire(pm, Duration.milliseconds(50), "1");
+		manager.releaseAll();
+	}
+
+	/**
+	 * Waiting requests with the same key are dropped in favor of the latest one.
+	 *
+	 * @throws Exception
+	 */
+	public void testCoalescing() throws Exception
+	{
+		final CountDownLatch acquired = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Thread owner = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				manager.acquire(pm, Duration.seconds(10), "1");
+				acquired.countDown();
+				try
+				{
+					release.await();
+				}
+				catch (InterruptedException e)
+				{
+				}
+				manager.releaseAll();
+			}
+		};
+		owner.start();
+		assertTrue(acquired.await(10, TimeUnit.SECONDS));
+
+		final List<String> processed = Collections.synchronizedList(new ArrayList<String>());
+		final List<String> ignored = Collections.synchronizedList(new ArrayList<String>());
+		String[] requests = new String[] { "timer-1", "other", "timer-2", "timer-3" };
+		List<Thread> waiters = new ArrayList<Thread>();
+		for (int i = 0; i < requests.length; i++)
+		{
+			final String name = requests[i];
+			final String key = name.startsWith("timer") ? "1:timer:0" : null;
+			Thread waiter = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						manager.acquire(pm, Duration.seconds(10), "1", key);
+						processed.add(name);
+						manager.release(pm);
+					}
+					catch (IgnoreAjaxRequestException e)
+					{
+						ignored.add(name);
+					}
+				}
+			};
+			waiter.start();
+			waiters.add(waiter);
+			// make sure the waiters queue in order
+			while (waiter.getState() != Thread.State.TIMED_WAITING)
+			{
+				Thread.sleep(5);
+			}
+		}
+
+		release.countDown();
+		owner.join(10000);
+		for (Thread waiter : waiters)
+		{
+			waiter.join(10000);
+		}
+
+		assertEquals(2, processed.size());
+		assertEquals("other", processed.get(0));
+		assertEquals("timer-3", processed.get(1));
+		assertEquals(2, ignored.size());
+		assertTrue(ignored.contains("timer-1"));
+		assertTrue(ignored.contains("timer-2"));
+		assertEquals(2, manager.getCoalescedRequests());
+	}
+
+	/**
+	 * Locks are dropped when they are released and nobody waits for them, and when the page map is
+	 * removed.
+	 */
+	public void testLocksDropped()
+	{
+		manager.acquire(pm, Duration.seconds(10), "1");
+		manager.acquire(other, Duration.seconds(10), "1");
+		assertEquals(2, manager.getLockCount());
+		manager.release(pm);
+		assertEquals(1, manager.getLockCount());
+
+		// still owned
+		manager.remove(other);
+		assertEquals(1, manager.getLockCount());
+		manager.releaseAll();
+		assertEquals(0, manager.getLockCount());
+
+		manager.acquire(pm, Duration.seconds(10), "1");
+		manager.releaseAll();
+		assertEquals(0, manager.getLockCount());
+	}
+
+	/**
+	 * A request waiting behind a regular page request is ignored as soon as that request gets the
+	 * page map, if the session doesn't allow it to run after the page request.
+	 *
+	 * @throws Exception
+	 */
+	public void testIgnoredBehindPageRequest() throws Exception
+	{
+		final RequestCycle ownerCycle = tester.createRequestCycle();
+		final RequestCycle pageCycle = tester.createRequestCycle();
+		final RequestCycle ajaxCycle = tester.createRequestCycle();
+		manager = new PageMapLockManager(new WebSession(ajaxCycle.getRequest())
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean isCurrentRequestValid(RequestCycle lockedRequestCycle)
+			{
+				return lockedRequestCycle != pageCycle || RequestCycle.get() != ajaxCycle;
+			}
+		});
+
+		final CountDownLatch acquired = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch pageAcquired = new CountDownLatch(1);
+		final CountDownLatch pageRelease = new CountDownLatch(1);
+		final CountDownLatch ajaxIgnored = new CountDownLatch(1);
+		Thread owner = new LockingThread(ownerCycle, acquired, release);
+		owner.start();
+		assertTrue(acquired.await(10, TimeUnit.SECONDS));
+
+		Thread page = new LockingThread(pageCycle, pageAcquired, pageRelease);
+		page.start();
+		waitUntilWaiting(page);
+		Thread ajax = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				RequestCycle.set(ajaxCycle);
+				try
+				{
+					manager.acquire(pm, Duration.seconds(10), "1");
+					manager.releaseAll();
+				}
+				catch (IgnoreAjaxRequestException e)
+				{
+					ajaxIgnored.countDown();
+				}
+			}
+		};
+		ajax.start();
+		waitUntilWaiting(ajax);
+
+		release.countDown();
+		assertTrue(pageAcquired.await(10, TimeUnit.SECONDS));
+		// ignored while the page request still has the page map
+		assertTrue(ajaxIgnored.await(10, TimeUnit.SECONDS));
+		pageRelease.countDown();
+		owner.join(10000);
+		page.join(10000);
+		ajax.join(10000);
+		assertEquals(0, manager.getLockCount());
+	}
+
+	private static void waitUntilWaiting(Thread thread) throws InterruptedException
+	{
+		while (thread.getState() != Thread.State.TIMED_WAITING)
+		{
+			Thread.sleep(5);
+		}
+	}
+
+	/**
+	 * Acquires the page map for a request cycle and holds it until it is told to release it.
+	 */
+	private class LockingThread extends Thread
+	{
+		private final RequestCycle cycle;
+		private final CountDownLatch acquired;
+		private final CountDownLatch release;
+
+		private LockingThread(RequestCycle cycle, CountDownLatch acquired, CountDownLatch release)
+		{
+			this.cycle = cycle;
+			this.acquired = acquired;
+			this.release = release;
+		}
+
+		@Override
+		public void run()
+		{
+			RequestCycle.set(cycle);
+			manager.acquire(pm, Duration.seconds(10), "1");
+			acquired.countDown();
+			try
+			{
+				release.await();
+			}
+			catch (InterruptedException e)
+			{
+			}
+			manager.releaseAll();
+		}
+	}
+}
@@ -27,6 +27,7 @@ import org.apache.wicket.markup.html.WebComponent;
 import org.apache.wicket.markup.html.WebMarkupContainer;
 import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.link.Link;
+import org.apache.wicket.protocol.http.request.WebRequestCodingStrategy;
 import org.apache.wicket.util.tester.ITestPageSource;
 import org.apache.wicket.util.time.Duration;
 import org.slf4j.Logger;
@@ -140,6 +141,40 @@ public class AjaxTimerBehaviorTest extends WicketTestCase
 
 	}
 
+	/**
+	 * Polls are never coalesced: a dropped poll would get an empty response and the timer would
+	 * not be scheduled again.
+	 */
+	public void testNotCoalesced()
+	{
+		tester.getApplication().getRequestCycleSettings().setCoalesceAjaxRequests(true);
+		Duration dur = Duration.seconds(20);
+		final MyAjaxSelfUpdatingTimerBehavior timer = new MyAjaxSelfUpdatingTimerBehavior(dur);
+		final MockPageWithLinkAndComponent page = new MockPageWithLinkAndComponent();
+		Label label = new Label(MockPageWithLinkAndComponent.COMPONENT_ID, "Hello");
+		page.add(label);
+		page.add(new WebMarkupContainer(MockPageWithLinkAndComponent.LINK_ID));
+		label.setOutputMarkupId(true);
+		label.add(timer);
+
+		tester.startPage(new ITestPageSource()
+		{
+			private static final long serialVersionUID = 1L;
+
+			public Page getTestPage()
+			{
+				return page;
+			}
+		});
+
+		assertFalse(timer.isCoalescable());
+		assertEquals(-1, tester.getServletResponse().getDocument().indexOf(
+			WebRequestCodingStrategy.COALESCE_PARAMETER_NAME));
+		validate(timer, true);
+		assertEquals(-1, tester.getServletResponse().getDocument().indexOf(
+			WebRequestCodingStrategy.COALESCE_PARAMETER_NAME));
+	}
+
 	/**
 	 * Validates the reponse, then makes sure the timer injects itself again when called.
 	 * 
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.markup;
+
+import java.util.Locale;
+
+import org.apache.wicket.MarkupContainer;
+import org.apache.wicket.WicketTestCase;
+import org.apache.wicket.markup.html.WebPage;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.panel.Panel;
+import org.apache.wicket.markup.repeater.RepeatingView;
+import org.apache.wicket.util.resource.IResourceStream;
+import org.apache.wicket.util.resource.StringResourceStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests for {@link DefaultMarkupCacheKeyProvider}.
+ */
+public class DefaultMarkupCacheKeyProviderTest extends WicketTestCase
+{
+	private static final Logger log = LoggerFactory.getLogger(DefaultMarkupCacheKeyProviderTest.class);
+
+	/**
+	 * The same key instance is returned for the same class, locale, style and markup type.
+	 */
+	public void testInternedKeys()
+	{
+		DefaultMarkupCacheKeyProvider provider = new DefaultMarkupCacheKeyProvider();
+		BenchmarkPanel panel = new BenchmarkPanel("panel", 0);
+		tester.getWicketSession().setLocale(Locale.GERMANY);
+
+		String key = provider.getCacheKey(panel, BenchmarkPanel.class);
+		assertEquals(BenchmarkPanel.class.getName() + "de_DE.html", key);
+		assertSame(key, provider.getCacheKey(panel, BenchmarkPanel.class));
+
+		assertEquals(Panel.class.getName() + "de_DE.html", provider.getCacheKey(panel,
+			Panel.class));
+
+		tester.getWicketSession().setStyle("blue");
+		String blue = provider.getCacheKey(panel, BenchmarkPanel.class);
+		assertEquals(BenchmarkPanel.class.getName() + "de_DEblue.html", blue);
+		assertSame(blue, provider.getCacheKey(panel, BenchmarkPanel.class));
+
+		tester.getWicketSession().setStyle(null);
+		tester.getWicketSession().setLocale(new Locale("", "", "x"));
+		assertEquals(BenchmarkPanel.class.getName() + ".html", provider.getCacheKey(panel,
+			BenchmarkPanel.class));
+		assertSame(key, provider.getCacheKey(new BenchmarkPanel("other", 1)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public Locale getLocale()
+			{
+				return Locale.GERMANY;
+			}
+		}, BenchmarkPanel.class));
+	}
+
+	/**
+	 * Renders a page with 500 panels with interned keys and with keys built for every lookup.
+	 */
+	public void testRenderBenchmark()
+	{
+		int rounds = 10;
+		tester.startPage(new BenchmarkPage(500));
+		tester.assertContains("panel 499");
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++)
+		{
+			tester.startPage(new BenchmarkPage(500));
+		}
+		long interned = System.nanoTime() - start;
+
+		tester.getApplication().getMarkupSettings().setMarkupCache(
+			new MarkupCache(tester.getApplication())
+			{
+				@Override
+				public IMarkupCacheKeyProvider getMarkupCacheKeyProvider(
+					MarkupContainer container)
+				{
+					return new DefaultMarkupCacheKeyProvider();
+				}
+			});
+		tester.startPage(new BenchmarkPage(500));
+		tester.assertContains("panel 499");
+		start = System.nanoTime();
+		for (int i = 0; i < rounds; i++)
+		{
+			tester.startPage(new BenchmarkPage(500));
+		}
+		long built = System.nanoTime() - start;
+
+		log.debug("Page with 500 panels, interned keys: " + interned / rounds / 1000 +
+			"us per render; keys built per lookup: " + built / rounds / 1000 + "us per render");
+	}
+
+	/**
+	 * Page with a number of panels.
+	 */
+	public static class BenchmarkPage extends WebPage implements IMarkupResourceStreamProvider
+	{
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Construct.
+		 *
+		 * @param panels
+		 */
+		public BenchmarkPage(int panels)
+		{
+			RepeatingView view = new RepeatingView("panels");
+			add(view);
+			for (int i = 0; i < panels; i++)
+			{
+				view.add(new BenchmarkPanel(view.newChildId(), i));
+			}
+		}
+
+		public IResourceStream getMarkupResourceStream(MarkupContainer container,
+			Class<?> containerClass)
+		{
+			return new StringResourceStream("<html><body><div wicket:id=\"panels\"></div></body></html>");
+		}
+	}
+
+	/**
+	 * Panel with a label.
+	 */
+	public static class BenchmarkPanel extends Panel implements IMarkupResourceStreamProvider
+	{
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Construct.
+		 *
+		 * @param id
+		 * @param index
+		 */
+		public BenchmarkPanel(String id, int index)
+		{
+			super(id);
+			add(new Label("label", "panel " + index));
+		}
+
+		public IResourceStream getMarkupResourceStream(MarkupContainer container,
+			Class<?> containerClass)
+		{
+			return new StringResourceStream(
+				"<wicket:panel><span wicket:id=\"label\"></span></wicket:panel>");
+		}
+
+		@Override
+		public String getMarkupType()
+		{
+			return "html";
+		}
+	}
+}
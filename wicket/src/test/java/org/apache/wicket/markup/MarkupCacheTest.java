@@ -16,6 +16,16 @@
  */
 package org.apache.wicket.markup;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import junit.framework.TestCase;
 
 import org.apache.wicket.Application;
@@ -23,6 +33,7 @@ import org.apache.wicket.MarkupContainer;
 import org.apache.wicket.markup.html.panel.Panel;
 import org.apache.wicket.protocol.http.WebApplication;
 import org.apache.wicket.util.resource.IResourceStream;
+import org.apache.wicket.util.resource.StringResourceStream;
 import org.apache.wicket.util.tester.WicketTester;
 
 /**
@@ -32,6 +43,7 @@ public class MarkupCacheTest extends TestCase
 {
 	private MarkupCache cache;
 	private MarkupCachingAssumingComponent component;
+	private WicketTester tester;
 
 	@Override
 	public void setUp()
@@ -44,7 +56,7 @@ public class MarkupCacheTest extends TestCase
 				return Application.DEPLOYMENT;
 			}
 		};
-		WicketTester tester = new WicketTester(application);
+		tester = new WicketTester(application);
 		cache = new MarkupCache(application);
 
 		component = new MarkupCachingAssumingComponent("panel");
@@ -60,6 +72,159 @@ public class MarkupCacheTest extends TestCase
 		assertEquals(Markup.NO_MARKUP, markup);
 	}
 
+	/**
+	 * Concurrent requests for the same markup load it only once.
+	 * 
+	 * @throws Exception
+	 */
+	public void testMarkupIsLoadedOnceByConcurrentRequests() throws Exception
+	{
+		final Application application = Application.get();
+		final SlowLoadingComponent slow = new SlowLoadingComponent("slow");
+		final List<Markup> markups = Collections.synchronizedList(new ArrayList<Markup>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 5; i++)
+		{
+			Thread thread = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					Application.set(application);
+					try
+					{
+						markups.add(cache.getMarkup(slow, null, false));
+					}
+					finally
+					{
+						Application.unset();
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		assertTrue(slow.loading.await(10, TimeUnit.SECONDS));
+		// give the other threads the time to ask for the markup as well
+		Thread.sleep(100);
+		slow.proceed.countDown();
+		for (Thread thread : threads)
+		{
+			thread.join(10000);
+		}
+
+		assertEquals(1, slow.calls.get());
+		assertEquals(5, markups.size());
+		for (Markup markup : markups)
+		{
+			assertSame(markups.get(0), markup);
+			assertNotSame(Markup.NO_MARKUP, markup);
+		}
+	}
+
+	/**
+	 * Markup that doesn't extend base markup can be preloaded without a container instance.
+	 * 
+	 * @throws Exception
+	 */
+	public void testPreloadMarkup() throws Exception
+	{
+		int size = cache.size();
+		assertTrue(cache.preloadMarkup(MarkupInheritanceBase_1.class, Locale.ENGLISH, null, "html"));
+		assertEquals(size + 1, cache.size());
+		// already loaded
+		assertFalse(cache.preloadMarkup(MarkupInheritanceBase_1.class, Locale.ENGLISH, null,
+			"html"));
+		// needs the base markup
+		assertFalse(cache.preloadMarkup(MarkupInheritanceExtension_1.class, Locale.ENGLISH, null,
+			"html"));
+		assertEquals(size + 1, cache.size());
+
+		MarkupPreloader preloader = new MarkupPreloader(Application.get());
+		preloader.add(MarkupInheritanceBase_2.class).add(MarkupInheritanceExtension_2.class).add(
+			MarkupInheritanceBase_4.class);
+		Application.get().getMarkupSettings().setMarkupCache(cache);
+		assertEquals(2, preloader.preload(2));
+		assertEquals(size + 3, cache.size());
+	}
+
+	/**
+	 * Parsed and merged markup can be saved and loaded into another cache.
+	 * 
+	 * @throws Exception
+	 */
+	public void testMarkupSnapshot() throws Exception
+	{
+		tester.startPage(MarkupInheritanceExtension_1.class);
+		String document = tester.getServletResponse().getDocument();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MarkupSnapshot snapshot = new MarkupSnapshot(Application.get());
+		int written = snapshot.write(out);
+		// the merged markup and the base markup
+		assertTrue(written >= 2);
+
+		Application.get().getMarkupSettings().setMarkupCache(cache);
+		assertEquals(0, snapshot.read(new ByteArrayInputStream(new byte[] { 1, 2, 3 })));
+		assertEquals(written, snapshot.read(new ByteArrayInputStream(out.toByteArray())));
+		int size = cache.size();
+		Markup markup = cache.getMarkup(new MarkupInheritanceExtension_1(), null, false);
+		assertTrue(markup instanceof MergedMarkup);
+
+		tester.startPage(MarkupInheritanceExtension_1.class);
+		assertEquals(document, tester.getServletResponse().getDocument());
+		assertEquals(size, cache.size());
+
+		// already loaded
+		assertEquals(0, snapshot.read(new ByteArrayInputStream(out.toByteArray())));
+	}
+
+	private class SlowLoadingComponent extends Panel
+		implements
+			IMarkupResourceStreamProvider,
+			IMarkupCacheKeyProvider
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final AtomicInteger calls = new AtomicInteger();
+		private final CountDownLatch loading = new CountDownLatch(1);
+		private final CountDownLatch proceed = new CountDownLatch(1);
+
+		public SlowLoadingComponent(final String id)
+		{
+			super(id);
+		}
+
+		public IResourceStream getMarkupResourceStream(MarkupContainer container,
+			Class<?> containerClass)
+		{
+			calls.incrementAndGet();
+			loading.countDown();
+			try
+			{
+				proceed.await(10, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				throw new IllegalStateException(e);
+			}
+			return new MarkupResourceStream(new StringResourceStream(
+				"<wicket:panel>slow</wicket:panel>"), new ContainerInfo(containerClass,
+				Locale.ENGLISH, null, null, "html"), containerClass);
+		}
+
+		public String getCacheKey(MarkupContainer container, Class<?> containerClass)
+		{
+			return "slow";
+		}
+
+		@Override
+		public String getMarkupType()
+		{
+			return "html";
+		}
+	}
+
 	private class MarkupCachingAssumingComponent extends Panel
 		implements
 			IMarkupResourceStreamProvider
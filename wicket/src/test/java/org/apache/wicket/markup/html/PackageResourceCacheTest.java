@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.markup.html;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.wicket.RequestCycle;
+import org.apache.wicket.ResourceReference;
+import org.apache.wicket.markup.html.resources.CompressedResourceReference;
+import org.apache.wicket.util.io.Streams;
+import org.apache.wicket.util.lang.Bytes;
+import org.apache.wicket.util.resource.IResourceStream;
+import org.apache.wicket.util.resource.IResourceStreamWriter;
+import org.apache.wicket.util.resource.StringResourceStream;
+import org.apache.wicket.util.tester.WicketTester;
+import org.apache.wicket.util.time.Time;
+
+/**
+ * Tests for {@link PackageResourceCache}.
+ */
+public class PackageResourceCacheTest extends TestCase
+{
+	/**
+	 * Content is read once, and its compressed variant decompresses to the content.
+	 *
+	 * @throws Exception
+	 */
+	public void testContent() throws Exception
+	{
+		PackageResourceCache cache = new PackageResourceCache(Bytes.kilobytes(4));
+		StringResourceStream stream = new StringResourceStream("some content, some content");
+
+		byte[] content = cache.getContent("a", stream, false);
+		assertEquals("some content, some content", new String(content, "UTF-8"));
+		assertSame(content, cache.getContent("a", stream, false));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		byte[] compressed = cache.getContent("a", stream, true);
+		assertEquals(new String(content, "UTF-8"), new String(decompress(compressed), "UTF-8"));
+		assertSame(compressed, cache.getContent("a", stream, true));
+		assertSame(content, cache.getContent("a", stream, false));
+		assertEquals(3, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(content.length + compressed.length, cache.getSize());
+
+		IResourceStream cached = cache.getResourceStream("a", stream, false);
+		assertTrue(cached instanceof IResourceStreamWriter);
+		assertEquals(content.length, cached.length());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		((IResourceStreamWriter)cached).write(out);
+		assertEquals("some content, some content", out.toString("UTF-8"));
+
+		// changed content is read again
+		stream = new StringResourceStream("changed");
+		stream.setLastModified(Time.now());
+		assertEquals("changed", new String(cache.getContent("a", stream, false), "UTF-8"));
+
+		cache.clear();
+		assertEquals(0, cache.getSize());
+	}
+
+	/**
+	 * The least recently used content is dropped when the cache is full, and content that is too
+	 * large isn't cached at all.
+	 */
+	public void testEviction()
+	{
+		PackageResourceCache cache = new PackageResourceCache(Bytes.bytes(100));
+		StringResourceStream a = new StringResourceStream("0123456789012345678901234");
+		StringResourceStream b = new StringResourceStream("abcdefghijklmnopqrstuvwxy");
+		StringResourceStream c = new StringResourceStream("ABCDEFGHIJKLMNOPQRSTUVWXY");
+		StringResourceStream d = new StringResourceStream("!@#$%^&*()!@#$%^&*()!@#$%");
+		cache.getContent("a", a, false);
+		cache.getContent("b", b, false);
+		cache.getContent("c", c, false);
+		cache.getContent("d", d, false);
+		assertEquals(100, cache.getSize());
+
+		// a is used again, so b is the least recently used
+		cache.getContent("a", a, false);
+		cache.getContent("e", new StringResourceStream("ABCDEFGHIJKLMNOPQRSTUVWXY"), false);
+		assertEquals(100, cache.getSize());
+		long misses = cache.getMisses();
+		cache.getContent("a", a, false);
+		assertEquals(misses, cache.getMisses());
+		cache.getContent("b", b, false);
+		assertEquals(misses + 1, cache.getMisses());
+
+		assertNull(cache.getContent("large", new StringResourceStream(
+			"01234567890123456789012345"), false));
+		assertNull(cache.getResourceStream("large", new StringResourceStream(
+			"01234567890123456789012345"), false));
+		assertEquals(100, cache.getSize());
+	}
+
+	/**
+	 * Threads using the cache at the same time get the right content, and the cache stays within
+	 * its maximum.
+	 *
+	 * @throws Exception
+	 */
+	public void testConcurrent() throws Exception
+	{
+		final PackageResourceCache cache = new PackageResourceCache(Bytes.bytes(500));
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++)
+		{
+			threads[t] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						for (int i = 0; i < 1000; i++)
+						{
+							String key = "key" + (i % 40);
+							String text = "content of resource " + key;
+							byte[] content = cache.getContent(key, new StringResourceStream(text),
+								false);
+							assertEquals(text, new String(content, "UTF-8"));
+						}
+					}
+					catch (Throwable e)
+					{
+						errors.add(e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (int t = 0; t < threads.length; t++)
+		{
+			threads[t].join();
+		}
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertEquals(8000, cache.getHits() + cache.getMisses());
+		assertTrue(cache.getSize() <= 500);
+		assertTrue(cache.getSize() > 0);
+	}
+
+	/**
+	 * Compressed package resources are served from the cache.
+	 *
+	 * @throws IOException
+	 */
+	public void testServe() throws IOException
+	{
+		WicketTester tester = new WicketTester();
+		PackageResourceCache cache = new PackageResourceCache(Bytes.megabytes(1));
+		tester.getApplication().getResourceSettings().setPackageResourceCache(cache);
+		tester.setupRequestAndResponse();
+		ResourceReference reference = new CompressedResourceReference(PackageResourceTest.class,
+			"packaged1.txt");
+		reference.bind(tester.getApplication());
+		String url = RequestCycle.get().urlFor(reference).toString();
+
+		for (int i = 0; i < 2; i++)
+		{
+			tester.setupRequestAndResponse();
+			tester.getServletRequest().setURL(url);
+			tester.getServletRequest().addHeader("Accept-Encoding", "gzip");
+			tester.processRequestCycle();
+			assertEquals("gzip", tester.getServletResponse().getHeader("Content-Encoding"));
+			assertEquals("Accept-Encoding", tester.getServletResponse().getHeader("Vary"));
+			assertEquals("TEST", new String(
+				decompress(tester.getServletResponse().getBinaryContent()), "UTF-8").trim());
+		}
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		tester.setupRequestAndResponse();
+		tester.getServletRequest().setURL(url);
+		tester.processRequestCycle();
+		assertNull(tester.getServletResponse().getHeader("Content-Encoding"));
+		assertEquals("TEST", tester.getServletResponse().getDocument().trim());
+		assertEquals(2, cache.getHits());
+		tester.destroy();
+	}
+
+	private static byte[] decompress(byte[] compressed) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Streams.copy(new GZIPInputStream(new ByteArrayInputStream(compressed)), out);
+		return out.toByteArray();
+	}
+}
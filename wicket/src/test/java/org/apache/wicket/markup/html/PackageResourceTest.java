@@ -22,7 +22,9 @@ import junit.framework.TestCase;
 
 import org.apache.wicket.AbortException;
 import org.apache.wicket.Application;
+import org.apache.wicket.RequestCycle;
 import org.apache.wicket.Resource;
+import org.apache.wicket.ResourceReference;
 import org.apache.wicket.SharedResources;
 import org.apache.wicket.protocol.http.WebApplication;
 import org.apache.wicket.util.tester.WicketTester;
@@ -147,4 +149,39 @@ public class PackageResourceTest extends TestCase
 		{
 		}
 	}
+
+	/**
+	 * Tests the hash of the content in resource reference URLs, and matching it as ETag.
+	 */
+	public void testFingerprint()
+	{
+		WicketTester tester = new WicketTester();
+		tester.getApplication().getResourceSettings().setFingerprintPackageResourceUrls(true);
+		tester.setupRequestAndResponse();
+		ResourceReference reference = new ResourceReference(PackageResourceTest.class,
+			"packaged1.txt");
+		reference.bind(tester.getApplication());
+		PackageResource resource = (PackageResource)reference.getResource();
+		String fingerprint = resource.getFingerprint();
+		// MD5 of the content
+		assertEquals("033bd94b1168d7e4f0d644c3c95e35bf", fingerprint);
+		assertSame(fingerprint, resource.getFingerprint());
+		assertTrue(RequestCycle.get().urlFor(reference).toString().endsWith(
+			"packaged1.txt?w:fp=" + fingerprint));
+
+		assertEquals("\"" + fingerprint + "\"", resource.getMatchingETag("\"" + fingerprint +
+			"\""));
+		assertEquals("\"" + fingerprint + "-gzip\"", resource.getMatchingETag("\"other\", W/\"" +
+			fingerprint + "-gzip\""));
+		assertNull(resource.getMatchingETag("\"" + fingerprint + "0\""));
+		assertNull(resource.getMatchingETag("\"other\""));
+
+		tester.setupRequestAndResponse();
+		tester.getServletRequest().setURL(RequestCycle.get().urlFor(reference).toString());
+		tester.processRequestCycle();
+		assertEquals("\"" + fingerprint + "\"", tester.getServletResponse().getHeader("ETag"));
+		assertEquals("public,max-age=" + PackageResource.FINGERPRINT_CACHE_DURATION + ",immutable",
+			tester.getServletResponse().getHeader("Cache-Control"));
+		tester.destroy();
+	}
 }
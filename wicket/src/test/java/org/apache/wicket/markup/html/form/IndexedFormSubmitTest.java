@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.markup.html.form;
+
+import org.apache.wicket.util.tester.FormTester;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the {@link FormSubmitTest} with indexed form components.
+ * 
+ * @see org.apache.wicket.settings.IApplicationSettings#setIndexFormComponents(boolean)
+ */
+public class IndexedFormSubmitTest extends FormSubmitTest
+{
+	private static final Logger log = LoggerFactory.getLogger(IndexedFormSubmitTest.class);
+
+	/**
+	 * @see org.apache.wicket.markup.html.form.FormSubmitTest#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		tester.getApplication().getApplicationSettings().setIndexFormComponents(true);
+	}
+
+	/**
+	 * The models of all fields are updated, also those of nested forms.
+	 */
+	public void testManyFields()
+	{
+		submitManyFields(1, 20, 100);
+		ManyFieldsPage page = (ManyFieldsPage)tester.getLastRenderedPage();
+		for (int i = 0; i < 20; i++)
+		{
+			for (int j = 0; j < 100; j++)
+			{
+				assertEquals(i + "-" + j,
+					page.get("form:groups:" + i + ":fields:" + j).getDefaultModelObject());
+			}
+		}
+	}
+
+	/**
+	 * The models of all fields are updated when there are many nested forms.
+	 */
+	public void testManyNestedForms()
+	{
+		submitManyFields(1, 400, 5);
+		ManyFieldsPage page = (ManyFieldsPage)tester.getLastRenderedPage();
+		for (int i = 0; i < 400; i++)
+		{
+			for (int j = 0; j < 5; j++)
+			{
+				assertEquals(i + "-" + j,
+					page.get("form:groups:" + i + ":fields:" + j).getDefaultModelObject());
+			}
+		}
+	}
+
+	/**
+	 * Compares submitting a form with 2000 fields with and without the index, once in 20 nested
+	 * forms and once in 400 nested forms.
+	 */
+	public void testManyFieldsBenchmark()
+	{
+		benchmark(20, 100);
+		tester.getApplication().getApplicationSettings().setIndexFormComponents(true);
+		benchmark(400, 5);
+	}
+
+	/**
+	 * @param groupCount
+	 * @param fieldCount
+	 */
+	private void benchmark(int groupCount, int fieldCount)
+	{
+		int rounds = 10;
+		// warm up
+		submitManyFields(rounds, groupCount, fieldCount);
+		long indexed = submitManyFields(rounds, groupCount, fieldCount);
+		tester.getApplication().getApplicationSettings().setIndexFormComponents(false);
+		long visited = submitManyFields(rounds, groupCount, fieldCount);
+		log.debug("Form with " + groupCount + " nested forms of " + fieldCount +
+			" fields, indexed: " + indexed / rounds / 1000 + "us per submit; visited: " +
+			visited / rounds / 1000 + "us per submit");
+	}
+
+	/**
+	 * Submits the form of a {@link ManyFieldsPage} without rendering the page again.
+	 * 
+	 * @param rounds
+	 * @param groupCount
+	 * @param fieldCount
+	 * @return nanoseconds it took to process the submits
+	 */
+	private long submitManyFields(int rounds, int groupCount, int fieldCount)
+	{
+		long time = 0;
+		for (int round = 0; round < rounds; round++)
+		{
+			tester.startPage(new ManyFieldsPage(groupCount, fieldCount));
+			FormTester formTester = tester.newFormTester("form");
+			for (int i = 0; i < groupCount; i++)
+			{
+				for (int j = 0; j < fieldCount; j++)
+				{
+					formTester.setValue("groups:" + i + ":fields:" + j, i + "-" + j);
+				}
+			}
+			Form<?> form = formTester.getForm();
+			tester.setupRequestAndResponse();
+			tester.getServletRequest().setRequestToComponent(form);
+			long start = System.nanoTime();
+			form.onFormSubmitted();
+			time += System.nanoTime() - start;
+		}
+		return time;
+	}
+}
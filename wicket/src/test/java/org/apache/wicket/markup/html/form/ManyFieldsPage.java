@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.markup.html.form;
+
+import org.apache.wicket.markup.html.WebPage;
+import org.apache.wicket.markup.repeater.RepeatingView;
+import org.apache.wicket.model.Model;
+
+/**
+ * Page with a form of nested forms, by default 20 nested forms with 100 text fields each.
+ */
+public class ManyFieldsPage extends WebPage
+{
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Construct.
+	 */
+	public ManyFieldsPage()
+	{
+		this(20, 100);
+	}
+
+	/**
+	 * Construct.
+	 * 
+	 * @param groupCount
+	 *            number of nested forms
+	 * @param fieldCount
+	 *            number of text fields per nested form
+	 */
+	public ManyFieldsPage(int groupCount, int fieldCount)
+	{
+		Form<Void> form = new Form<Void>("form");
+		add(form);
+		RepeatingView groups = new RepeatingView("groups");
+		form.add(groups);
+		for (int i = 0; i < groupCount; i++)
+		{
+			Form<Void> group = new Form<Void>(Integer.toString(i));
+			groups.add(group);
+			RepeatingView fields = new RepeatingView("fields");
+			group.add(fields);
+			for (int j = 0; j < fieldCount; j++)
+			{
+				fields.add(new TextField<String>(Integer.toString(j), new Model<String>()));
+			}
+		}
+	}
+}
@@ -16,7 +16,9 @@
  */
 package org.apache.wicket.markup.html.form.encryption;
 
+import org.apache.wicket.WicketRuntimeException;
 import org.apache.wicket.WicketTestCase;
+import org.apache.wicket.util.crypt.AesCrypt;
 import org.apache.wicket.util.crypt.ICrypt;
 import org.apache.wicket.util.crypt.NoCrypt;
 import org.apache.wicket.util.crypt.SunJceCrypt;
@@ -63,6 +65,45 @@ public class CryptTest extends WicketTestCase
 		}
 	}
 
+	/**
+	 * The AES crypt encrypts differently each time, and rejects manipulated text.
+	 */
+	public void testAesCrypt()
+	{
+		final ICrypt crypt = new AesCrypt();
+		crypt.setKey("secret");
+
+		final String text = "abcdefghijkABC: A test which creates a '/' and/or a '+'";
+		String encrypted = crypt.encryptUrlSafe(text);
+		assertFalse(encrypted.equals(crypt.encryptUrlSafe(text)));
+		assertEquals(text, crypt.decryptUrlSafe(encrypted));
+		assertEquals("", crypt.decryptUrlSafe(crypt.encryptUrlSafe("")));
+
+		char[] manipulated = encrypted.toCharArray();
+		manipulated[30] = manipulated[30] == 'A' ? 'B' : 'A';
+		try
+		{
+			crypt.decryptUrlSafe(new String(manipulated));
+			fail("Manipulated text was decrypted");
+		}
+		catch (WicketRuntimeException e)
+		{
+			// expected
+		}
+
+		final ICrypt other = new AesCrypt();
+		other.setKey("other");
+		try
+		{
+			other.decryptUrlSafe(encrypted);
+			fail("Text was decrypted with another key");
+		}
+		catch (WicketRuntimeException e)
+		{
+			// expected
+		}
+	}
+
 	/**
 	 * 
 	 */
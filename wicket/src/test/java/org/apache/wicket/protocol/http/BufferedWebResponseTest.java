@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http;
+
+import java.util.Arrays;
+
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+
+import org.apache.wicket.Application;
+import org.apache.wicket.markup.RawMarkup;
+import org.apache.wicket.settings.IRequestCycleSettings;
+import org.apache.wicket.util.tester.WicketTester;
+
+/**
+ * Tests for {@link BufferedWebResponse}.
+ */
+public class BufferedWebResponseTest extends TestCase
+{
+	private WicketTester tester;
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception
+	{
+		// development mode adds a response filter, and the tester doesn't buffer by default
+		tester = new WicketTester(new WicketTester.DummyWebApplication()
+		{
+			@Override
+			public String getConfigurationType()
+			{
+				return Application.DEPLOYMENT;
+			}
+
+			@Override
+			protected WebResponse newWebResponse(final HttpServletResponse servletResponse)
+			{
+				return new BufferedWebResponse(servletResponse);
+			}
+		});
+	}
+
+	/**
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	@Override
+	protected void tearDown() throws Exception
+	{
+		tester.destroy();
+	}
+
+	/**
+	 * Raw markup is written as bytes that are encoded once.
+	 *
+	 * @throws Exception
+	 */
+	public void testEncodedRawMarkup() throws Exception
+	{
+		tester.getApplication().getRequestCycleSettings().setCacheEncodedRawMarkup(true);
+
+		RawMarkup markup = new RawMarkup("<p>grüß</p>");
+		assertSame(markup.getBytes("UTF-8"), markup.getBytes("UTF-8"));
+
+		MockHttpServletResponse servletResponse = new MockHttpServletResponse(null);
+		servletResponse.setCharacterEncoding("UTF-8");
+		BufferedWebResponse response = new BufferedWebResponse(servletResponse);
+		response.write(markup);
+		response.write("ä");
+		response.write(markup);
+		response.write(markup);
+		response.write("end");
+		assertEquals("<p>grüß</p>ä<p>grüß</p><p>grüß</p>end",
+			response.toString());
+		response.close();
+
+		byte[] expected = "<p>grüß</p>ä<p>grüß</p><p>grüß</p>end".getBytes("UTF-8");
+		assertTrue(Arrays.equals(expected, servletResponse.getBinaryContent()));
+	}
+
+	/**
+	 * Without the setting raw markup is buffered like any other text.
+	 *
+	 * @throws Exception
+	 */
+	public void testRawMarkupAsText() throws Exception
+	{
+		MockHttpServletResponse servletResponse = new MockHttpServletResponse(null);
+		BufferedWebResponse response = new BufferedWebResponse(servletResponse);
+		response.write(new RawMarkup("<p>"));
+		response.write("text");
+		response.write(new RawMarkup("</p>"));
+		response.close();
+
+		assertEquals("<p>text</p>", servletResponse.getDocument());
+		assertEquals(0, servletResponse.getBinaryContent().length);
+	}
+
+	/**
+	 * Pages render the same with the setting. The setting isn't used for
+	 * {@link IRequestCycleSettings#REDIRECT_TO_BUFFER}.
+	 *
+	 * @throws Exception
+	 */
+	public void testRenderPage() throws Exception
+	{
+		tester.getApplication().getRequestCycleSettings().setRenderStrategy(
+			IRequestCycleSettings.ONE_PASS_RENDER);
+		tester.startPage(WicketPanelPage.class);
+		String document = tester.getServletResponse().getDocument();
+		assertEquals(0, tester.getServletResponse().getBinaryContent().length);
+
+		tester.getApplication().getRequestCycleSettings().setCacheEncodedRawMarkup(true);
+		tester.startPage(WicketPanelPage.class);
+		assertTrue(tester.getServletResponse().getBinaryContent().length > 0);
+		assertEquals(document, tester.getServletResponse().getDocument());
+	}
+}
@@ -42,6 +42,8 @@ import javax.servlet.http.HttpServletResponse;
 import junit.framework.TestCase;
 
 import org.apache.wicket.Application;
+import org.apache.wicket.markup.html.PackageResource;
+import org.apache.wicket.markup.html.PackageResourceTest;
 import org.apache.wicket.markup.html.image.resource.DynamicImageResource;
 import org.apache.wicket.util.tester.WicketTester.DummyWebApplication;
 
@@ -111,6 +113,37 @@ public class WicketFilterTest extends TestCase
 			responseExpires.after(new Date()));
 	}
 
+	public void testFingerprintedResourceNotModified() throws IOException, ServletException
+	{
+		application = new DummyWebApplication();
+		WicketFilter filter = new WicketFilter();
+		filter.init(new FilterTestingConfig());
+		Application.set(application);
+		application.getResourceSettings().setFingerprintPackageResourceUrls(true);
+		PackageResource resource = PackageResource.get(PackageResourceTest.class, "packaged1.txt");
+		application.getSharedResources().add(PackageResourceTest.class, "packaged1.txt", null,
+			null, resource);
+		String fingerprint = resource.getFingerprint();
+
+		MockHttpServletRequest request = new MockHttpServletRequest(application, null, null);
+		request.setURL(request.getContextPath() + "/app/" + "resources/" +
+			PackageResourceTest.class.getName() + "/packaged1.txt");
+		request.setParameter(PackageResource.FINGERPRINT_PARAMETER, fingerprint);
+		request.addHeader("If-None-Match", "\"" + fingerprint + "\"");
+		MockHttpServletResponse response = new MockHttpServletResponse(request);
+		filter.doFilter(request, response, new FilterChain()
+		{
+			public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse)
+				throws IOException, ServletException
+			{
+			}
+		});
+		assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+		assertEquals("\"" + fingerprint + "\"", response.getHeader("ETag"));
+		assertEquals("public,max-age=" + PackageResource.FINGERPRINT_CACHE_DURATION + ",immutable",
+			response.getHeader("Cache-Control"));
+	}
+
 	private void setIfModifiedSinceToNextWeek(MockHttpServletRequest request)
 	{
 		Calendar nextWeek = Calendar.getInstance();
@@ -16,13 +16,30 @@
  */
 package org.apache.wicket.protocol.http.pagestore;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
 import junit.framework.TestCase;
 
 import org.apache.wicket.Page;
 import org.apache.wicket.Session;
 import org.apache.wicket.protocol.http.WebApplication;
+import org.apache.wicket.protocol.http.pagestore.AbstractPageStore.SerializedPage;
+import org.apache.wicket.protocol.http.pagestore.DiskPageStore.SavingQueueOverflowPolicy;
+import org.apache.wicket.protocol.http.pagestore.DiskPageStore.SessionEntry;
+import org.apache.wicket.protocol.http.pagestore.PageWindowManager.PageWindow;
+import org.apache.wicket.util.io.Streams;
+import org.apache.wicket.util.lang.Bytes;
 import org.apache.wicket.util.tester.DummyHomePage;
 import org.apache.wicket.util.tester.WicketTester;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author frankbille
@@ -99,4 +116,635 @@ public class DiskPageStoreTest extends TestCase
 		tester.startPage(DummyHomePage.class);
 		Session.get().invalidateNow();
 	}
+
+	/**
+	 * Stores and loads pages from many threads at once with the concurrent mode turned on. Every
+	 * loaded page must contain exactly the data that has been saved for it. Also logs the
+	 * throughput of one thread compared to one thread per core.
+	 * 
+	 * @throws Exception
+	 */
+	public void testConcurrentSaveAndLoad() throws Exception
+	{
+		WicketTester tester = new WicketTester();
+		File folder = new File(System.getProperty("java.io.tmpdir"), "DiskPageStoreTest-" +
+			System.currentTimeMillis());
+		try
+		{
+			DiskPageStore store = new DiskPageStore(folder, (int)Bytes.megabytes(10).bytes(),
+				(int)Bytes.megabytes(100).bytes(), 50)
+			{
+				@Override
+				protected boolean isSynchronous()
+				{
+					return true;
+				}
+
+				@Override
+				protected boolean isConcurrent()
+				{
+					return true;
+				}
+			};
+
+			try
+			{
+				long single = runStressTest(store, 1);
+				int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+				long multi = runStressTest(store, threads);
+
+				log.info("DiskPageStore concurrent mode: 1 thread " + single + " ops/s, " +
+					threads + " threads " + multi + " ops/s");
+			}
+			finally
+			{
+				store.destroy();
+			}
+		}
+		finally
+		{
+			delete(folder);
+			tester.destroy();
+		}
+	}
+
+	private long runStressTest(final DiskPageStore store, final int threadCount)
+		throws Exception
+	{
+		final int sessionCount = 8;
+		final int pagesPerThread = 200;
+		final List<Throwable> errors = new ArrayList<Throwable>();
+
+		Thread[] threads = new Thread[threadCount];
+		for (int t = 0; t < threadCount; ++t)
+		{
+			final int threadIndex = t;
+			threads[t] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						for (int i = 0; i < pagesPerThread; ++i)
+						{
+							// several threads write to the same pagemap files
+							String sessionId = "session" + threadCount + "-" + (i % sessionCount);
+							int pageId = threadIndex * pagesPerThread + i;
+							SessionEntry entry = store.getSessionEntry(sessionId, true);
+
+							byte[] data = pageData(pageId, 1000 + (i % 7) * 300);
+							entry.savePage(new SerializedPage(pageId, null, 0, 0, data));
+
+							byte[] loaded = entry.loadPage(null, pageId, 0, 0);
+							if (Arrays.equals(data, loaded) == false)
+							{
+								throw new AssertionError("Wrong data loaded for page " + pageId);
+							}
+						}
+					}
+					catch (Throwable e)
+					{
+						synchronized (errors)
+						{
+							errors.add(e);
+						}
+					}
+				}
+			};
+		}
+
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i].join();
+		}
+		long duration = Math.max(1, System.currentTimeMillis() - start);
+
+		if (errors.isEmpty() == false)
+		{
+			throw new AssertionError(errors.get(0));
+		}
+
+		for (int i = 0; i < sessionCount; ++i)
+		{
+			store.unbind("session" + threadCount + "-" + i);
+		}
+
+		return threadCount * pagesPerThread * 2 * 1000L / duration;
+	}
+
+	private static byte[] pageData(int pageId, int size)
+	{
+		byte[] data = new byte[size];
+		for (int i = 0; i < size; ++i)
+		{
+			data[i] = (byte)(pageId * 31 + i);
+		}
+		return data;
+	}
+
+	/**
+	 * Asynchronous store with one saving thread that blocks in the first write until the latch is
+	 * released.
+	 */
+	private static DiskPageStore newBlockedStore(File folder, final CountDownLatch latch,
+		final SavingQueueOverflowPolicy policy)
+	{
+		return new DiskPageStore(folder, 100000, 1000000, 10)
+		{
+			@Override
+			protected boolean isSynchronous()
+			{
+				return false;
+			}
+
+			@Override
+			protected int getSavingQueueCapacity()
+			{
+				return 2;
+			}
+
+			@Override
+			protected SavingQueueOverflowPolicy getSavingQueueOverflowPolicy()
+			{
+				return policy;
+			}
+
+			@Override
+			protected void writePageData(String pageMapFileName, int offset, byte[] data)
+			{
+				if (Thread.currentThread().getName().startsWith("PageSavingThread"))
+				{
+					try
+					{
+						latch.await();
+					}
+					catch (InterruptedException e)
+					{
+						throw new RuntimeException(e);
+					}
+				}
+				super.writePageData(pageMapFileName, offset, data);
+			}
+		};
+	}
+
+	private static List<SerializedPage> pages(int pageId, int version)
+	{
+		List<SerializedPage> result = new ArrayList<SerializedPage>();
+		result.add(new SerializedPage(pageId, null, version, 0, pageData(pageId, 100)));
+		return result;
+	}
+
+	/**
+	 * Fills the saving queue while the saving thread is busy.
+	 */
+	private static void fillSavingQueue(DiskPageStore store) throws InterruptedException
+	{
+		store.storeSerializedPages("a", pages(1, 0));
+
+		// wait until the worker took the page and blocked in write
+		while (store.getSavedPageCount() == 0 &&
+			store.getSessionEntry("a", false).getPageMapEntry(null, false) == null)
+		{
+			Thread.sleep(10);
+		}
+
+		store.storeSerializedPages("b", pages(1, 0));
+		assertEquals(2, store.getPagesToSaveCount());
+	}
+
+	/**
+	 * @throws Exception
+	 */
+	public void testSavingQueueWriteThrough() throws Exception
+	{
+		WicketTester tester = new WicketTester();
+		File folder = new File(System.getProperty("java.io.tmpdir"), "DiskPageStoreTest-" +
+			System.currentTimeMillis());
+		CountDownLatch latch = new CountDownLatch(1);
+		DiskPageStore store = newBlockedStore(folder, latch,
+			SavingQueueOverflowPolicy.WRITE_THROUGH);
+		try
+		{
+			fillSavingQueue(store);
+
+			store.storeSerializedPages("b", pages(2, 0));
+			assertEquals(1, store.getWriteThroughPageCount());
+			assertEquals(1, store.getPagesToSaveCount());
+
+			latch.countDown();
+			assertTrue(store.containsPage("a", null, 1, 0));
+			assertTrue(store.containsPage("b", null, 1, 0));
+			assertTrue(store.containsPage("b", null, 2, 0));
+			assertEquals(0, store.getPagesToSaveCount());
+			assertEquals(3, store.getSavedPageCount());
+		}
+		finally
+		{
+			latch.countDown();
+			store.destroy();
+			delete(folder);
+			tester.destroy();
+		}
+	}
+
+	/**
+	 * @throws Exception
+	 */
+	public void testSavingQueueDropOldestVersion() throws Exception
+	{
+		WicketTester tester = new WicketTester();
+		File folder = new File(System.getProperty("java.io.tmpdir"), "DiskPageStoreTest-" +
+			System.currentTimeMillis());
+		CountDownLatch latch = new CountDownLatch(1);
+		DiskPageStore store = newBlockedStore(folder, latch,
+			SavingQueueOverflowPolicy.DROP_OLDEST_VERSION);
+		try
+		{
+			fillSavingQueue(store);
+
+			store.storeSerializedPages("b", pages(1, 1));
+			assertEquals(1, store.getDroppedPageCount());
+			assertEquals(2, store.getPagesToSaveCount());
+
+			latch.countDown();
+			assertTrue(store.containsPage("a", null, 1, 0));
+			assertFalse(store.containsPage("b", null, 1, 0));
+			assertTrue(store.containsPage("b", null, 1, 1));
+		}
+		finally
+		{
+			latch.countDown();
+			store.destroy();
+			delete(folder);
+			tester.destroy();
+		}
+	}
+
+	/**
+	 * @throws Exception
+	 */
+	public void testSavingQueueBlock() throws Exception
+	{
+		WicketTester tester = new WicketTester();
+		File folder = new File(System.getProperty("java.io.tmpdir"), "DiskPageStoreTest-" +
+			System.currentTimeMillis());
+		CountDownLatch latch = new CountDownLatch(1);
+		final DiskPageStore store = newBlockedStore(folder, latch, SavingQueueOverflowPolicy.BLOCK);
+		try
+		{
+			fillSavingQueue(store);
+
+			Thread thread = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					store.storeSerializedPages("b", pages(2, 0));
+				}
+			};
+			thread.start();
+			thread.join(200);
+			assertTrue(thread.isAlive());
+
+			latch.countDown();
+			thread.join();
+			assertTrue(store.containsPage("b", null, 2, 0));
+			assertEquals(0, store.getWriteThroughPageCount());
+		}
+		finally
+		{
+			latch.countDown();
+			store.destroy();
+			delete(folder);
+			tester.destroy();
+		}
+	}
+
+	/**
+	 * Versions stored as deltas must load the same data as the full versions.
+	 */
+	public void testDeltaVersions()
+	{
+		WicketTester tester = new WicketTester();
+		File folder = new File(System.getProperty("java.io.tmpdir"), "DiskPageStoreTest-" +
+			System.currentTimeMillis());
+		DiskPageStore store = new DiskPageStore(folder, 100000, 1000000, 10)
+		{
+			@Override
+			protected boolean isSynchronous()
+			{
+				return true;
+			}
+
+			@Override
+			protected int getDeltaChainLength()
+			{
+				return 2;
+			}
+		};
+		try
+		{
+			byte[][] versions = pageVersions(6);
+
+			for (int i = 0; i < versions.length; ++i)
+			{
+				List<SerializedPage> pages = new ArrayList<SerializedPage>();
+				pages.add(new SerializedPage(1, null, i, 0, versions[i]));
+				store.storeSerializedPages("a", pages);
+			}
+
+			SessionEntry entry = store.getSessionEntry("a", false);
+			PageWindowManager manager = entry.getPageMapEntry(null, false).getManager();
+			for (int i = 0; i < versions.length; ++i)
+			{
+				assertTrue(Arrays.equals(versions[i], entry.loadPage(null, 1, i, 0)));
+
+				// full snapshot every third version
+				int size = manager.getPageWindow(1, i, 0).getFilePartSize();
+				assertEquals(i % 3 == 0, size >= versions[i].length);
+			}
+
+			// storing a version again must not break the versions built on it
+			List<SerializedPage> pages = new ArrayList<SerializedPage>();
+			pages.add(new SerializedPage(1, null, 4, 0, versions[4]));
+			store.storeSerializedPages("a", pages);
+			assertTrue(Arrays.equals(versions[4], entry.loadPage(null, 1, 4, 0)));
+			assertTrue(Arrays.equals(versions[5], entry.loadPage(null, 1, 5, 0)));
+		}
+		finally
+		{
+			store.destroy();
+			delete(folder);
+			tester.destroy();
+		}
+	}
+
+	/**
+	 * Versions are stored in full instead of as delta when the base would soon be overwritten or
+	 * isn't kept in memory anymore.
+	 */
+	public void testDeltaBases()
+	{
+		WicketTester tester = new WicketTester();
+		File folder = new File(System.getProperty("java.io.tmpdir"), "DiskPageStoreTest-" +
+			System.currentTimeMillis());
+		DiskPageStore store = new DiskPageStore(folder, 10000, 1000000, 10)
+		{
+			@Override
+			protected boolean isSynchronous()
+			{
+				return true;
+			}
+
+			@Override
+			protected int getDeltaChainLength()
+			{
+				return 2;
+			}
+
+			@Override
+			protected Bytes getDeltaBaseSizePerSession()
+			{
+				return Bytes.bytes(5000);
+			}
+		};
+		try
+		{
+			byte[][] versions = pageVersions(4);
+			SessionEntry entry = store.getSessionEntry("a", true);
+			entry.savePage(new SerializedPage(1, null, 0, 0, versions[0]));
+			for (int i = 2; i < 5; ++i)
+			{
+				entry.savePage(new SerializedPage(i, null, 0, 0, pageData(i, 2000)));
+			}
+			PageWindowManager manager = entry.getPageMapEntry(null, false).getManager();
+			assertEquals(2000, manager.getRemainingSize(1, 0, 0));
+
+			// version 0 is overwritten soon, so version 1 is stored in full
+			entry.savePage(new SerializedPage(1, null, 1, 0, versions[1]));
+			assertEquals(versions[1].length, manager.getPageWindow(1, 1, 0).getFilePartSize());
+
+			// version 1 has just been written, version 2 can build on it
+			entry.savePage(new SerializedPage(1, null, 2, 0, versions[2]));
+			assertTrue(manager.getPageWindow(1, 2, 0).getFilePartSize() < versions[2].length);
+			assertTrue(Arrays.equals(versions[2], entry.loadPage(null, 1, 2, 0)));
+
+			// the versions of other pages push version 2 of page 1 out of the delta bases
+			entry.savePage(new SerializedPage(5, null, 0, 0, pageData(5, 2000)));
+			entry.savePage(new SerializedPage(6, null, 0, 0, pageData(6, 2000)));
+			entry.savePage(new SerializedPage(1, null, 3, 0, versions[3]));
+			assertEquals(versions[3].length, manager.getPageWindow(1, 3, 0).getFilePartSize());
+			assertTrue(Arrays.equals(versions[3], entry.loadPage(null, 1, 3, 0)));
+		}
+		finally
+		{
+			store.destroy();
+			delete(folder);
+			tester.destroy();
+		}
+	}
+
+	/**
+	 * @param count
+	 * @return versions of a page that differ only a little
+	 */
+	private static byte[][] pageVersions(int count)
+	{
+		byte[][] versions = new byte[count][];
+		versions[0] = pageData(1, 2000);
+		for (int i = 1; i < versions.length; ++i)
+		{
+			// change a few bytes and insert one so that the rest of the data shifts
+			byte[] previous = versions[i - 1];
+			versions[i] = new byte[previous.length + 1];
+			System.arraycopy(previous, 0, versions[i], 0, 100);
+			versions[i][100] = (byte)i;
+			System.arraycopy(previous, 100, versions[i], 101, previous.length - 100);
+			versions[i][1500] = (byte)(versions[i][1500] + 1);
+		}
+		return versions;
+	}
+
+	/**
+	 * Loads of stored pages must be served by the off-heap cache, but only while the page is in
+	 * the pagemap file.
+	 */
+	public void testOffHeapPageCache()
+	{
+		WicketTester tester = new WicketTester();
+		File folder = new File(System.getProperty("java.io.tmpdir"), "DiskPageStoreTest-" +
+			System.currentTimeMillis());
+		DiskPageStore store = new DiskPageStore(folder, 100000, 1000000, 10)
+		{
+			@Override
+			protected boolean isSynchronous()
+			{
+				return true;
+			}
+
+			@Override
+			protected Bytes getOffHeapPageCacheSize()
+			{
+				return Bytes.megabytes(1);
+			}
+		};
+		try
+		{
+			Page page = new DummyHomePage();
+			store.storePage("a", page);
+
+			Page loaded = store.getPage("a", page.getPageMapName(), page.getNumericId(), -1, -1);
+			assertEquals(page.getNumericId(), loaded.getNumericId());
+			assertNotNull(store.getPage("a", page.getPageMapName(), page.getNumericId(),
+				page.getCurrentVersionNumber(), -1));
+			assertEquals(2, store.getOffHeapPageCacheHits());
+			assertEquals(0, store.getOffHeapPageCacheMisses());
+			assertTrue(store.getOffHeapPageCacheUsedSize().bytes() > 0);
+
+			store.removePage("a", page.getPageMapName(), page.getNumericId());
+			assertNull(store.getPage("a", page.getPageMapName(), page.getNumericId(), -1, -1));
+
+			store.unbind("a");
+			assertEquals(0, store.getOffHeapPageCacheUsedSize().bytes());
+		}
+		finally
+		{
+			store.destroy();
+			delete(folder);
+			tester.destroy();
+		}
+	}
+
+	/**
+	 * The index must survive restarts, including sessions that haven't been accessed in between.
+	 */
+	public void testIndexSurvivesRestart()
+	{
+		WicketTester tester = new WicketTester();
+		File folder = new File(System.getProperty("java.io.tmpdir"), "DiskPageStoreTest-" +
+			System.currentTimeMillis());
+		try
+		{
+			DiskPageStore store = newSynchronousStore(folder);
+			store.storeSerializedPages("a", pages(1, 0));
+			store.storeSerializedPages("b", pages(2, 0));
+			store.storeSerializedPages("b", pages(2, 1));
+			store.destroy();
+
+			// only session a is accessed, b must be copied to the new index unchanged
+			store = newSynchronousStore(folder);
+			assertTrue(Arrays.equals(pageData(1, 100), store.getSessionEntry("a", false)
+				.loadPage(null, 1, 0, 0)));
+			store.storeSerializedPages("a", pages(3, 0));
+			store.destroy();
+
+			store = newSynchronousStore(folder);
+			assertTrue(store.containsPage("a", null, 3, 0));
+			SessionEntry entry = store.getSessionEntry("b", false);
+			assertTrue(Arrays.equals(pageData(2, 100), entry.loadPage(null, 2, 1, 0)));
+			assertTrue(Arrays.equals(pageData(2, 100), entry.loadPage(null, 2, 0, -1)));
+			assertNull(store.getSessionEntry("c", false));
+
+			store.unbind("b");
+			assertNull(store.getSessionEntry("b", false));
+			store.destroy();
+		}
+		finally
+		{
+			delete(folder);
+			tester.destroy();
+		}
+	}
+
+	/**
+	 * The serialized index written by previous versions must still be loaded.
+	 *
+	 * @throws Exception
+	 */
+	public void testLegacyIndex() throws Exception
+	{
+		WicketTester tester = new WicketTester();
+		File folder = new File(System.getProperty("java.io.tmpdir"), "DiskPageStoreTest-" +
+			System.currentTimeMillis());
+		try
+		{
+			// serialized index written by DiskPageStore before the binary index, after storing
+			// three versions of page 1 and page 2 (300 bytes each) to the default pagemap and
+			// page 3 to pagemap "pm"
+			File storeFolder = new File(folder, tester.getApplication().getApplicationKey() +
+				"-filestore");
+			storeFolder.mkdirs();
+			InputStream in = getClass().getResourceAsStream("LegacyDiskPageStoreIndex.ser");
+			OutputStream out = new FileOutputStream(new File(storeFolder, "DiskPageStoreIndex"));
+			try
+			{
+				Streams.copy(in, out);
+			}
+			finally
+			{
+				in.close();
+				out.close();
+			}
+
+			DiskPageStore store = newSynchronousStore(folder);
+			SessionEntry entry = store.getSessionEntry("a", false);
+			assertNotNull(entry);
+			PageWindowManager manager = entry.getPageMapEntry(null, false).getManager();
+			for (int i = 0; i < 3; ++i)
+			{
+				PageWindow window = manager.getPageWindow(1, i, 0);
+				assertEquals(i * 300, window.getFilePartOffset());
+				assertEquals(300, window.getFilePartSize());
+			}
+			assertEquals(900, manager.getPageWindow(2, 0, 0).getFilePartOffset());
+			assertEquals(2, manager.getPageWindow(1, -1, -1).getVersionNumber());
+			assertEquals(1200, manager.getTotalSize());
+			assertTrue(store.containsPage("a", "pm", 3, 0));
+
+			// new pages continue after the last stored page
+			PageWindow window = manager.createPageWindow(4, 0, 0, 300);
+			assertEquals(0, window.getFilePartOffset());
+			assertNull(manager.getPageWindow(1, 0, 0));
+			store.destroy();
+		}
+		finally
+		{
+			delete(folder);
+			tester.destroy();
+		}
+	}
+
+	private static DiskPageStore newSynchronousStore(File folder)
+	{
+		return new DiskPageStore(folder, 100000, 1000000, 10)
+		{
+			@Override
+			protected boolean isSynchronous()
+			{
+				return true;
+			}
+		};
+	}
+
+	private static void delete(File file)
+	{
+		File[] children = file.listFiles();
+		if (children != null)
+		{
+			for (int i = 0; i < children.length; i++)
+			{
+				delete(children[i]);
+			}
+		}
+		file.delete();
+	}
+
+	private static final Logger log = LoggerFactory.getLogger(DiskPageStoreTest.class);
 }
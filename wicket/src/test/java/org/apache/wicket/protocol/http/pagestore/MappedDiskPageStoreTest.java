@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.wicket.protocol.http.pagestore.AbstractPageStore.SerializedPage;
+import org.apache.wicket.protocol.http.pagestore.DiskPageStore.SessionEntry;
+import org.apache.wicket.util.tester.WicketTester;
+
+/**
+ * Tests for {@link MappedDiskPageStore}
+ */
+public class MappedDiskPageStoreTest extends TestCase
+{
+	private WicketTester tester;
+	private File folder;
+	private MappedDiskPageStore store;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		tester = new WicketTester();
+		folder = new File(System.getProperty("java.io.tmpdir"), "MappedDiskPageStoreTest-" +
+			System.currentTimeMillis());
+		store = new MappedDiskPageStore(folder, 1000, 10000, 10, 2)
+		{
+			@Override
+			protected boolean isSynchronous()
+			{
+				return true;
+			}
+		};
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		store.destroy();
+		delete(folder);
+		tester.destroy();
+	}
+
+	/**
+	 * Pages written through the mapping must be read back unchanged, including the window that
+	 * crosses the end of the mapped region.
+	 */
+	public void testSaveAndLoad()
+	{
+		SessionEntry entry = store.getSessionEntry("session", true);
+
+		for (int i = 0; i < 4; ++i)
+		{
+			entry.savePage(new SerializedPage(i, null, 0, 0, pageData(i, 300)));
+		}
+
+		// pages 0-2 fit into the mapping, page 3 crosses its end
+		for (int i = 0; i < 4; ++i)
+		{
+			assertTrue(Arrays.equals(pageData(i, 300), entry.loadPage(null, i, 0, 0)));
+		}
+
+		// wraps around and overwrites page 0
+		entry.savePage(new SerializedPage(4, null, 0, 0, pageData(4, 300)));
+		assertNull(entry.loadPage(null, 0, 0, 0));
+		assertTrue(Arrays.equals(pageData(4, 300), entry.loadPage(null, 4, 0, 0)));
+	}
+
+	/**
+	 * More pagemaps than mapped file capacity must still be readable.
+	 */
+	public void testMoreFilesThanMappings()
+	{
+		SessionEntry entry = store.getSessionEntry("session", true);
+
+		for (int i = 0; i < 5; ++i)
+		{
+			entry.savePage(new SerializedPage(1, "pm" + i, 0, 0, pageData(i, 100)));
+		}
+		for (int i = 0; i < 5; ++i)
+		{
+			assertTrue(Arrays.equals(pageData(i, 100), entry.loadPage("pm" + i, 1, 0, 0)));
+		}
+
+		store.unbind("session");
+		assertNull(store.getSessionEntry("session", false));
+	}
+
+	/**
+	 * Files are only mapped (and grown) as far as they are used, and deleted files are unmapped.
+	 */
+	public void testMappingGrows()
+	{
+		MappedDiskPageStore large = new MappedDiskPageStore(folder, 1024 * 1024, 10 * 1024 * 1024,
+			10, 2)
+		{
+			@Override
+			protected boolean isSynchronous()
+			{
+				return true;
+			}
+		};
+		try
+		{
+			SessionEntry entry = large.getSessionEntry("large", true);
+			entry.savePage(new SerializedPage(0, null, 0, 0, pageData(0, 100)));
+			File[] files = large.getSessionFolder("large", false).listFiles();
+			assertEquals(1, files.length);
+			long initialLength = files[0].length();
+			assertTrue(initialLength < 1024 * 1024);
+
+			for (int i = 1; i < 10; ++i)
+			{
+				entry.savePage(new SerializedPage(i, null, 0, 0, pageData(i, 20000)));
+			}
+			assertTrue(files[0].length() > initialLength);
+			assertTrue(files[0].length() < 1024 * 1024);
+			for (int i = 1; i < 10; ++i)
+			{
+				assertTrue(Arrays.equals(pageData(i, 20000), entry.loadPage(null, i, 0, 0)));
+			}
+			assertEquals(1, large.getMappedFileCount());
+
+			large.unbind("large");
+			assertEquals(0, large.getMappedFileCount());
+			assertFalse(files[0].exists());
+		}
+		finally
+		{
+			large.destroy();
+		}
+	}
+
+	private static byte[] pageData(int pageId, int size)
+	{
+		byte[] data = new byte[size];
+		for (int i = 0; i < size; ++i)
+		{
+			data[i] = (byte)(pageId * 31 + i);
+		}
+		return data;
+	}
+
+	private static void delete(File file)
+	{
+		File[] children = file.listFiles();
+		if (children != null)
+		{
+			for (int i = 0; i < children.length; i++)
+			{
+				delete(children[i]);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link OffHeapPageCache}
+ */
+public class OffHeapPageCacheTest extends TestCase
+{
+	private static byte[] data(int seed, int length)
+	{
+		byte[] result = new byte[length];
+		for (int i = 0; i < length; ++i)
+		{
+			result[i] = (byte)(seed + i);
+		}
+		return result;
+	}
+
+	/**
+	 * Cached data must be returned unchanged, replaced data must release its blocks.
+	 */
+	public void testStoreAndGet()
+	{
+		OffHeapPageCache cache = new OffHeapPageCache(10 * OffHeapPageCache.BLOCK_SIZE, 1);
+
+		byte[] large = data(1, OffHeapPageCache.BLOCK_SIZE * 3 + 10);
+		cache.storePage("s", null, 1, 0, 0, large);
+		cache.storePage("s", "pm", 1, 0, 0, data(2, 10));
+		assertTrue(Arrays.equals(large, cache.getPage("s", null, 1, 0, 0)));
+		assertTrue(Arrays.equals(data(2, 10), cache.getPage("s", "pm", 1, 0, 0)));
+		assertNull(cache.getPage("s", null, 1, 0, 1));
+		assertEquals(5 * OffHeapPageCache.BLOCK_SIZE, cache.getBytes());
+
+		cache.storePage("s", null, 1, 0, 0, data(3, 5));
+		assertTrue(Arrays.equals(data(3, 5), cache.getPage("s", null, 1, 0, 0)));
+		assertEquals(2 * OffHeapPageCache.BLOCK_SIZE, cache.getBytes());
+
+		assertEquals(3, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		cache.removePages("s", null, -1, true);
+		assertNull(cache.getPage("s", "pm", 1, 0, 0));
+		assertEquals(0, cache.getBytes());
+	}
+
+	/**
+	 * The last recently used pages must be evicted when the blocks run out.
+	 */
+	public void testEviction()
+	{
+		OffHeapPageCache cache = new OffHeapPageCache(4 * OffHeapPageCache.BLOCK_SIZE, 1);
+		int size = OffHeapPageCache.BLOCK_SIZE + 1;
+
+		cache.storePage("s", null, 1, 0, 0, data(1, size));
+		cache.storePage("s", null, 2, 0, 0, data(2, size));
+		assertNotNull(cache.getPage("s", null, 1, 0, 0));
+		cache.storePage("s", null, 3, 0, 0, data(3, size));
+
+		assertEquals(1, cache.getEvictions());
+		assertNull(cache.getPage("s", null, 2, 0, 0));
+		assertTrue(Arrays.equals(data(1, size), cache.getPage("s", null, 1, 0, 0)));
+		assertTrue(Arrays.equals(data(3, size), cache.getPage("s", null, 3, 0, 0)));
+
+		// larger than the whole cache
+		cache.storePage("s", null, 4, 0, 0, data(4, 5 * OffHeapPageCache.BLOCK_SIZE));
+		assertNull(cache.getPage("s", null, 4, 0, 0));
+		assertNotNull(cache.getPage("s", null, 3, 0, 0));
+	}
+
+	/**
+	 * With the default segments a single session can use more than one segment.
+	 */
+	public void testSingleSession()
+	{
+		OffHeapPageCache cache = new OffHeapPageCache(16 * 1024 * 1024);
+		int length = 50 * OffHeapPageCache.BLOCK_SIZE;
+		for (int i = 0; i < 10; ++i)
+		{
+			cache.storePage("s", null, i, 0, 0, data(i, length));
+		}
+		for (int i = 0; i < 10; ++i)
+		{
+			assertTrue(Arrays.equals(data(i, length), cache.getPage("s", null, i, 0, 0)));
+		}
+		assertEquals(10L * length, cache.getBytes());
+		assertEquals(0, cache.getEvictions());
+
+		cache.removePages("s", null, -1, true);
+		assertEquals(0, cache.getBytes());
+	}
+}
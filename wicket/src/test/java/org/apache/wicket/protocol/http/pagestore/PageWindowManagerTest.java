@@ -16,9 +16,17 @@
  */
 package org.apache.wicket.protocol.http.pagestore;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
 import junit.framework.TestCase;
 
 import org.apache.wicket.protocol.http.pagestore.PageWindowManager.PageWindow;
+import org.apache.wicket.util.lang.Objects;
 
 /**
  * @author Matej Knopp
@@ -176,6 +184,78 @@ public class PageWindowManagerTest extends TestCase
 		assertWindow(window, 1, 1, 5);
 	}
 
+	/**
+	 * Lookups must keep working when the file wraps many times with windows of varying sizes, and
+	 * after the manager has been written and read again.
+	 * 
+	 * @throws IOException
+	 */
+	public void testManyWindows() throws IOException
+	{
+		PageWindowManager manager = new PageWindowManager(10000);
+		for (int i = 0; i < 5000; ++i)
+		{
+			int pageId = i % 37;
+			PageWindow window = manager.createPageWindow(pageId, i / 37, i % 3, 10 + (i * 7) % 90);
+			assertWindow(manager.getPageWindow(pageId, i / 37, i % 3), pageId, i / 37, i % 3,
+				window.getFilePartOffset(), window.getFilePartSize());
+			assertWindow(manager.getPageWindow(pageId, -1, -1), pageId, i / 37, i % 3);
+			assertWindow(manager.getPageWindow(pageId, i / 37, -1), pageId, i / 37, i % 3);
+		}
+		assertTrue(manager.getTotalSize() <= 10100);
+		assertLastWindowsContiguous(manager);
+
+		manager.removePage(5);
+		assertNull(manager.getPageWindow(5, -1, -1));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		manager.writeTo(new DataOutputStream(bytes));
+		PageWindowManager read = PageWindowManager.readFrom(new DataInputStream(
+			new ByteArrayInputStream(bytes.toByteArray())));
+		PageWindowManager deserialized = (PageWindowManager)Objects.byteArrayToObject(Objects.objectToByteArray(manager));
+
+		for (int pageId = 0; pageId < 37; ++pageId)
+		{
+			assertSameWindow(manager.getPageWindow(pageId, -1, -1), read.getPageWindow(pageId,
+				-1, -1));
+			assertSameWindow(manager.getPageWindow(pageId, -1, -1),
+				deserialized.getPageWindow(pageId, -1, -1));
+		}
+		assertEquals(manager.getTotalSize(), read.getTotalSize());
+
+		// all must continue at the same position
+		PageWindow window = manager.createPageWindow(100, 0, 0, 50);
+		assertSameWindow(window, read.createPageWindow(100, 0, 0, 50));
+		assertSameWindow(window, deserialized.createPageWindow(100, 0, 0, 50));
+	}
+
+	private void assertLastWindowsContiguous(PageWindowManager manager)
+	{
+		List<PageWindow> windows = manager.getLastPageWindows(10);
+		assertEquals(10, windows.size());
+		for (int i = 1; i < windows.size(); ++i)
+		{
+			PageWindow newer = windows.get(i - 1);
+			PageWindow older = windows.get(i);
+			assertTrue(newer.getFilePartOffset() == 0 ||
+				older.getFilePartOffset() + older.getFilePartSize() <= newer.getFilePartOffset());
+		}
+	}
+
+	private void assertSameWindow(PageWindow expected, PageWindow actual)
+	{
+		if (expected == null)
+		{
+			assertNull(actual);
+		}
+		else
+		{
+			assertWindow(actual, expected.getPageId(), expected.getVersionNumber(),
+				expected.getAjaxVersionNumber(), expected.getFilePartOffset(),
+				expected.getFilePartSize());
+		}
+	}
+
 	private void assertWindow(PageWindow window, int pageId, int versionNumber,
 		int ajaxVersionNumber, int filePartOffset, int filePartSize)
 	{
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.wicket.Page;
+import org.apache.wicket.WicketTestCase;
+import org.apache.wicket.protocol.http.pagestore.AbstractPageStore.SerializedPage;
+import org.apache.wicket.util.lang.Objects;
+import org.apache.wicket.util.tester.DummyHomePage;
+
+/**
+ * Tests for {@link SerializedPageCompressor}
+ */
+public class SerializedPageCompressorTest extends WicketTestCase
+{
+	/**
+	 * Compressed page data must decompress to the original data and uncompressed data must pass
+	 * through unchanged.
+	 */
+	public void testRoundTrip()
+	{
+		byte[] data = Objects.objectToByteArray(new DummyHomePage());
+		assertFalse(SerializedPageCompressor.isCompressed(data));
+		assertSame(data, SerializedPageCompressor.decompress(data));
+
+		byte[] compressed = SerializedPageCompressor.compress(data);
+		assertTrue(SerializedPageCompressor.isCompressed(compressed));
+		assertTrue(compressed.length < data.length);
+		assertTrue(Arrays.equals(data, SerializedPageCompressor.decompress(compressed)));
+
+		byte[] empty = SerializedPageCompressor.compress(new byte[0]);
+		assertEquals(0, SerializedPageCompressor.decompress(empty).length);
+	}
+
+	/**
+	 * Pages serialized by the store with compression turned on must be loadable.
+	 */
+	public void testCompressingPageStore()
+	{
+		SimpleSynchronousFilePageStore store = new SimpleSynchronousFilePageStore();
+		try
+		{
+			store.setCompressSerializedPages(true);
+			Page page = new DummyHomePage();
+			List<SerializedPage> serialized = store.serializePage(page);
+			byte[] data = serialized.get(0).getData();
+			assertTrue(SerializedPageCompressor.isCompressed(data));
+			assertEquals(1, store.getCompressedPageCount());
+			assertTrue(store.getCompressionRatio() < 1);
+
+			Page loaded = store.deserializePage(data, -1);
+			assertEquals(page.getNumericId(), loaded.getNumericId());
+			assertEquals(DummyHomePage.class, loaded.getClass());
+		}
+		finally
+		{
+			store.destroy();
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link SerializedPageDelta}
+ */
+public class SerializedPageDeltaTest extends TestCase
+{
+	/**
+	 * Applying the delta to the base must produce the target.
+	 */
+	public void testRoundTrip()
+	{
+		Random random = new Random(1);
+		byte[] base = new byte[10000];
+		random.nextBytes(base);
+
+		// replace, insert and remove some ranges
+		byte[] target = new byte[base.length + 50];
+		System.arraycopy(base, 0, target, 0, 3000);
+		for (int i = 3000; i < 3100; ++i)
+		{
+			target[i] = (byte)random.nextInt();
+		}
+		System.arraycopy(base, 3050, target, 3100, base.length - 3050);
+
+		byte[] delta = SerializedPageDelta.create(3, 1, base, target);
+		assertTrue(SerializedPageDelta.isDelta(delta));
+		assertEquals(3, SerializedPageDelta.getBaseVersionNumber(delta));
+		assertEquals(1, SerializedPageDelta.getBaseAjaxVersionNumber(delta));
+		assertTrue(delta.length < 200);
+		assertTrue(Arrays.equals(target, SerializedPageDelta.apply(base, delta)));
+
+		// unrelated and tiny data
+		byte[] other = new byte[500];
+		random.nextBytes(other);
+		assertTrue(Arrays.equals(other, SerializedPageDelta.apply(base,
+			SerializedPageDelta.create(0, 0, base, other))));
+		assertTrue(Arrays.equals(new byte[5], SerializedPageDelta.apply(new byte[3],
+			SerializedPageDelta.create(0, 0, new byte[3], new byte[5]))));
+	}
+
+	/**
+	 * Delta must not be applied to different base data.
+	 */
+	public void testWrongBase()
+	{
+		byte[] base = new byte[1000];
+		byte[] target = new byte[1000];
+		target[10] = 1;
+		byte[] delta = SerializedPageDelta.create(0, 0, base, target);
+
+		base[500] = 1;
+		assertNull(SerializedPageDelta.apply(base, delta));
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.pagestore;
+
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.wicket.Page;
+import org.apache.wicket.protocol.http.pagestore.AbstractPageStore.SerializedPage;
+import org.apache.wicket.protocol.http.pagestore.SerializedPagesCache.SerializedPageWithSession;
+import org.apache.wicket.util.tester.DummyHomePage;
+import org.apache.wicket.util.tester.WicketTester;
+
+/**
+ * Tests for {@link SerializedPagesCache}
+ */
+public class SerializedPagesCacheTest extends TestCase
+{
+	private WicketTester tester;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		tester = new WicketTester();
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		tester.destroy();
+	}
+
+	private static List<SerializedPage> serialized(Page page, int size)
+	{
+		return Collections.singletonList(new SerializedPage(page.getNumericId(),
+			page.getPageMapName(), page.getCurrentVersionNumber(), page.getAjaxVersionNumber(),
+			new byte[size]));
+	}
+
+	/**
+	 * Lookup by page instance and by key
+	 */
+	public void testGetPage()
+	{
+		SerializedPagesCache cache = new SerializedPagesCache(10, 10000, 1);
+		Page page = new DummyHomePage();
+
+		assertNull(cache.getPage(page));
+		assertEquals(1, cache.getMisses());
+
+		SerializedPageWithSession stored = cache.storePage("session", page, serialized(page, 10));
+		assertSame(stored, cache.getPage(page));
+		assertSame(stored, cache.getPage("session", page.getNumericId(), page.getPageMapName(),
+			page.getCurrentVersionNumber(), page.getAjaxVersionNumber()));
+		assertNull(cache.getPage("other", page.getNumericId(), page.getPageMapName(),
+			page.getCurrentVersionNumber(), page.getAjaxVersionNumber()));
+		assertEquals(2, cache.getHits());
+		assertEquals(2, cache.getMisses());
+
+		// storing the page again replaces the previous entry
+		SerializedPageWithSession replaced = cache.storePage("session", page, serialized(page, 20));
+		assertSame(replaced, cache.getPage(page));
+		assertEquals(20, cache.getBytes());
+
+		assertSame(replaced, cache.removePage(page));
+		assertNull(cache.getPage(page));
+		assertEquals(0, cache.getBytes());
+		assertEquals(0, cache.getEvictions());
+	}
+
+	/**
+	 * The cache must not hold more bytes than allowed, the last recently used entries are evicted
+	 * first.
+	 */
+	public void testEvictionBySize()
+	{
+		SerializedPagesCache cache = new SerializedPagesCache(100, 250, 1);
+		Page page1 = new DummyHomePage();
+		Page page2 = new DummyHomePage();
+		Page page3 = new DummyHomePage();
+
+		cache.storePage("session", page1, serialized(page1, 100));
+		cache.storePage("session", page2, serialized(page2, 100));
+
+		// page1 becomes most recently used
+		assertNotNull(cache.getPage(page1));
+
+		cache.storePage("session", page3, serialized(page3, 100));
+		assertNull(cache.getPage(page2));
+		assertNotNull(cache.getPage(page1));
+		assertNotNull(cache.getPage(page3));
+		assertEquals(200, cache.getBytes());
+		assertEquals(1, cache.getEvictions());
+
+		// too big to be cached at all
+		Page page4 = new DummyHomePage();
+		cache.storePage("session", page4, serialized(page4, 300));
+		assertNull(cache.getPage(page4));
+		assertNotNull(cache.getPage(page1));
+		assertNotNull(cache.getPage(page3));
+	}
+
+	/**
+	 * With the default segments the limits apply to the whole cache: a single session can use all
+	 * of it, and the last recently used entry of any session is evicted.
+	 */
+	public void testDefaultSegments()
+	{
+		SerializedPagesCache cache = new SerializedPagesCache(5, 1000);
+		Page[] pages = new Page[10];
+		for (int i = 0; i < pages.length; i++)
+		{
+			pages[i] = new DummyHomePage();
+			cache.storePage("session", pages[i], serialized(pages[i], 100));
+		}
+		for (int i = 0; i < 5; i++)
+		{
+			assertNull(cache.getPage(pages[i]));
+		}
+		for (int i = 5; i < 10; i++)
+		{
+			assertNotNull(cache.getPage(pages[i]));
+		}
+		assertEquals(500, cache.getBytes());
+		assertEquals(5, cache.getEvictions());
+
+		// a large page of one session evicts the last recently used pages of all sessions
+		Page other = new DummyHomePage();
+		cache.storePage("other", other, serialized(other, 100));
+		assertNull(cache.getPage(pages[5]));
+		Page large = new DummyHomePage();
+		cache.storePage("session", large, serialized(large, 800));
+		assertNotNull(cache.getPage(large));
+		assertNotNull(cache.getPage(pages[9]));
+		assertNotNull(cache.getPage(other));
+		assertNull(cache.getPage(pages[8]));
+		assertEquals(1000, cache.getBytes());
+	}
+
+	/**
+	 * Zero size disables the cache
+	 */
+	public void testDisabled()
+	{
+		SerializedPagesCache cache = new SerializedPagesCache(0, 1000);
+		Page page = new DummyHomePage();
+		assertNotNull(cache.storePage("session", page, serialized(page, 10)));
+		assertNull(cache.getPage(page));
+	}
+}
@@ -16,17 +16,32 @@
  */
 package org.apache.wicket.protocol.http.request;
 
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import junit.framework.TestCase;
 
+import org.apache.wicket.Session;
 import org.apache.wicket.markup.html.WebPage;
 import org.apache.wicket.markup.html.basic.SimplePage;
+import org.apache.wicket.protocol.http.WebRequestCycle;
+import org.apache.wicket.util.crypt.AesCrypt;
+import org.apache.wicket.util.crypt.ClassCryptFactory;
+import org.apache.wicket.util.crypt.CryptFactoryCachingDecorator;
+import org.apache.wicket.util.crypt.KeyInSessionSunJceCryptFactory;
 import org.apache.wicket.util.tester.WicketTester;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Simple test using the WicketTester
  */
 public class CryptedUrlWebRequestCodingStrategyTest extends TestCase
 {
+	private static final Logger log = LoggerFactory.getLogger(CryptedUrlWebRequestCodingStrategyTest.class);
+
 	private WicketTester tester;
 
 	@Override
@@ -65,4 +80,82 @@ public class CryptedUrlWebRequestCodingStrategyTest extends TestCase
 		tester.submitForm("form2");
 	}
 
+	/**
+	 * The same url is encrypted once per request, even though the crypt encrypts the same text
+	 * differently each time.
+	 */
+	public void testSameUrlEncryptedOnce()
+	{
+		useAesCrypt();
+		tester.startPage(ManyLinksPage.class);
+		tester.assertRenderedPage(ManyLinksPage.class);
+
+		Set<String> hrefs = new HashSet<String>();
+		Matcher matcher = Pattern.compile("href=\"([^\"]*)\"").matcher(
+			tester.getServletResponse().getDocument());
+		int links = 0;
+		while (matcher.find())
+		{
+			assertTrue(matcher.group(1).indexOf("?x=") != -1);
+			hrefs.add(matcher.group(1));
+			links++;
+		}
+		assertEquals(1000, links);
+		assertEquals(501, hrefs.size());
+
+		tester.clickLink("rows:123:link");
+		assertEquals(123, ((ManyLinksPage)tester.getLastRenderedPage()).getClicked());
+	}
+
+	/**
+	 * URLs encoded after the session was replaced are encrypted with the key of the new session.
+	 */
+	public void testSessionReplaced()
+	{
+		tester.getApplication().getSecuritySettings().setCryptFactory(
+			new KeyInSessionSunJceCryptFactory());
+		tester.startPage(HomePage.class);
+
+		tester.setupRequestAndResponse();
+		WebRequestCycle cycle = tester.createRequestCycle();
+		String before = cycle.urlFor(ManyLinksPage.class, null).toString();
+		Session.get().replaceSession();
+		String after = cycle.urlFor(ManyLinksPage.class, null).toString();
+		assertFalse(before.equals(after));
+
+		tester.setupRequestAndResponse();
+		tester.getServletRequest().setURL(after);
+		tester.processRequestCycle();
+		tester.assertRenderedPage(ManyLinksPage.class);
+	}
+
+	/**
+	 * Renders a page with 500 links with the default crypt and with the {@link AesCrypt}.
+	 */
+	public void testManyLinksBenchmark()
+	{
+		int rounds = 10;
+		long sunJce = renderManyLinks(rounds);
+		useAesCrypt();
+		long aes = renderManyLinks(rounds);
+		log.debug("Page with 500 links, SunJceCrypt: " + sunJce / rounds / 1000 +
+			"us per render; AesCrypt: " + aes / rounds / 1000 + "us per render");
+	}
+
+	private long renderManyLinks(int rounds)
+	{
+		tester.startPage(ManyLinksPage.class);
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++)
+		{
+			tester.startPage(ManyLinksPage.class);
+		}
+		return System.nanoTime() - start;
+	}
+
+	private void useAesCrypt()
+	{
+		tester.getApplication().getSecuritySettings().setCryptFactory(
+			new CryptFactoryCachingDecorator(new ClassCryptFactory(AesCrypt.class, "secret")));
+	}
 }
\ No newline at end of file
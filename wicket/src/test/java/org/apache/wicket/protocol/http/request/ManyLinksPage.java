@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.protocol.http.request;
+
+import org.apache.wicket.markup.html.WebMarkupContainer;
+import org.apache.wicket.markup.html.WebPage;
+import org.apache.wicket.markup.html.link.BookmarkablePageLink;
+import org.apache.wicket.markup.html.link.Link;
+import org.apache.wicket.markup.repeater.RepeatingView;
+
+/**
+ * Page with 500 rows, each with a link of its own and a bookmarkable link to this page.
+ */
+public class ManyLinksPage extends WebPage
+{
+	private static final long serialVersionUID = 1L;
+
+	private int clicked = -1;
+
+	/**
+	 * Construct.
+	 */
+	public ManyLinksPage()
+	{
+		RepeatingView rows = new RepeatingView("rows");
+		add(rows);
+		for (int i = 0; i < 500; i++)
+		{
+			final int row = i;
+			WebMarkupContainer item = new WebMarkupContainer(Integer.toString(i));
+			rows.add(item);
+			item.add(new Link<Void>("link")
+			{
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public void onClick()
+				{
+					clicked = row;
+				}
+			});
+			item.add(new BookmarkablePageLink<Void>("bookmarkable", ManyLinksPage.class));
+		}
+	}
+
+	/**
+	 * @return the row of the link that was clicked, or -1
+	 */
+	public int getClicked()
+	{
+		return clicked;
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.resource.loader;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.apache.wicket.WicketTestCase;
+import org.apache.wicket.resource.loader.ClassStringResourceLoaderTest.MyValidator;
+
+/**
+ * Tests for {@link IndexedStringResourceLoader}.
+ */
+public class IndexedStringResourceLoaderTest extends WicketTestCase
+{
+	/**
+	 * Without an index the same strings are found as by the {@link ComponentStringResourceLoader},
+	 * and the bundles are resolved once per class, locale and style.
+	 */
+	public void testWithoutIndex()
+	{
+		IndexedStringResourceLoader loader = new IndexedStringResourceLoader();
+		ComponentStringResourceLoader reference = new ComponentStringResourceLoader();
+
+		assertEquals(reference.loadStringResource(MyValidator.class, "error", Locale.ENGLISH,
+			null), loader.loadStringResource(MyValidator.class, "error", Locale.ENGLISH, null));
+		assertEquals("${label} is niet goed", loader.loadStringResource(MyValidator.class,
+			"error", new Locale("nl"), null));
+		assertEquals("${label} is invalid", loader.loadStringResource(MyValidator.class, "error",
+			Locale.ENGLISH, null));
+		assertNull(loader.loadStringResource(MyValidator.class, "missing", Locale.ENGLISH, null));
+		assertEquals(2, loader.getCacheSize());
+
+		loader.clearCache();
+		assertEquals(0, loader.getCacheSize());
+	}
+
+	/**
+	 * Resources that are not in the index of their package are not looked up.
+	 */
+	public void testIndex()
+	{
+		String path = MyValidator.class.getName().replace('.', '/');
+		IndexedStringResourceLoader loader = new IndexedStringResourceLoader(
+			Arrays.asList(new String[] { path + ".properties" }));
+
+		assertEquals("${label} is invalid", loader.loadStringResource(MyValidator.class, "error",
+			new Locale("nl"), null));
+
+		loader = new IndexedStringResourceLoader(Arrays.asList(new String[] { path +
+			"_nl.properties" }));
+		assertEquals("${label} is niet goed", loader.loadStringResource(MyValidator.class,
+			"error", new Locale("nl"), null));
+		assertNull(loader.loadStringResource(MyValidator.class, "error", Locale.ENGLISH, null));
+	}
+}
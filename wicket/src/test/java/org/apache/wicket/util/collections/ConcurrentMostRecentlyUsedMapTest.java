@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.collections;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ConcurrentMostRecentlyUsedMap}.
+ */
+public class ConcurrentMostRecentlyUsedMapTest extends TestCase
+{
+	/**
+	 * The map never holds more than the maximum number of entries.
+	 */
+	public void testBounded()
+	{
+		ConcurrentMostRecentlyUsedMap<String, String> map = new ConcurrentMostRecentlyUsedMap<String, String>(
+			100);
+		for (int i = 0; i < 1000; i++)
+		{
+			map.put("key" + i, "value" + i);
+			assertTrue(map.size() <= 100);
+		}
+		assertEquals(1000 - map.size(), map.getEvictions());
+		assertEquals(map.size(), map.entrySet().size());
+
+		// replacing a value isn't an eviction
+		String key = map.keySet().iterator().next();
+		long evictions = map.getEvictions();
+		map.put(key, "other");
+		assertEquals("other", map.get(key));
+		assertEquals(evictions, map.getEvictions());
+
+		map.clear();
+		assertEquals(0, map.size());
+		assertNull(map.get(key));
+	}
+
+	/**
+	 * Recently used entries are kept.
+	 */
+	public void testLeastRecentlyUsedIsExpired()
+	{
+		ConcurrentMostRecentlyUsedMap<String, String> map = new ConcurrentMostRecentlyUsedMap<String, String>(
+			1);
+		map.put("a", "1");
+		map.put("b", "2");
+		assertFalse(map.containsKey("a"));
+		assertEquals("2", map.get("b"));
+		assertEquals(1, map.getEvictions());
+	}
+}
@@ -0,0 +1,445 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.wicket.WicketTestCase;
+import org.apache.wicket.markup.html.WebMarkupContainer;
+import org.apache.wicket.markup.html.WebPage;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.form.Form;
+import org.apache.wicket.markup.html.form.TextField;
+import org.apache.wicket.model.Model;
+import org.apache.wicket.model.PropertyModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests for the registered mode of {@link WicketObjectOutputStream} and
+ * {@link WicketObjectInputStream}.
+ */
+public class ClassRegistryTest extends WicketTestCase
+{
+	private static final Logger log = LoggerFactory.getLogger(ClassRegistryTest.class);
+
+	/**
+	 * @throws Exception
+	 */
+	public void testRegister() throws Exception
+	{
+		ClassRegistry registry = new ClassRegistry();
+		assertEquals(-1, registry.getClassId(PageA.class));
+		assertTrue(registry.getClassId(String.class) > 0);
+		assertTrue(registry.getClassId(String.class) < ClassRegistry.FIRST_APPLICATION_ID);
+
+		registry.register(PageA.class, 100);
+		registry.register(PageA.class, 100);
+		assertEquals(100, registry.getClassId(PageA.class));
+		assertSame(PageA.class, registry.getRegisteredClass(100));
+
+		try
+		{
+			registry.register(PageB.class, 100);
+			fail("id is already used");
+		}
+		catch (IllegalArgumentException e)
+		{
+		}
+		try
+		{
+			registry.register(PageA.class, 101);
+			fail("class is already registered");
+		}
+		catch (IllegalArgumentException e)
+		{
+		}
+		try
+		{
+			registry.register(PageB.class, 1);
+			fail("id is reserved");
+		}
+		catch (IllegalArgumentException e)
+		{
+		}
+	}
+
+	/**
+	 * The fingerprint must only depend on the registrations, not on their order.
+	 */
+	public void testFingerprint()
+	{
+		ClassRegistry a = new ClassRegistry().register(PageA.class, 64).register(PageB.class, 1000);
+		ClassRegistry b = new ClassRegistry().register(PageB.class, 1000).register(PageA.class, 64);
+		assertEquals(a.getFingerprint(), b.getFingerprint());
+
+		Properties generated = new Properties();
+		generated.setProperty(PageA.class.getName(), "64");
+		generated.setProperty(PageB.class.getName(), "1000");
+		assertEquals(a.getFingerprint(), new ClassRegistry().register(generated).getFingerprint());
+
+		assertFalse(a.getFingerprint() == new ClassRegistry().register(PageA.class, 64)
+			.getFingerprint());
+	}
+
+	/**
+	 * @throws Exception
+	 */
+	public void testRoundTrip() throws Exception
+	{
+		PageB b = new PageB("test");
+		PageA a = new PageA(b);
+		b.setA(a);
+
+		List<Object> list = new ArrayList<Object>();
+		list.add(a);
+		list.add(new Date(1000));
+		list.add(new int[] { 1, 2, 3 });
+		list.add(new Object[] { "bytes", new byte[] { 4, 5 } });
+
+		byte[] data = write(list, new ClassRegistry().register(PageA.class, 64));
+
+		// a registry built separately, as on another node
+		List<?> list2 = (List<?>)read(data, new ClassRegistry().register(PageA.class, 64));
+		PageA a2 = (PageA)list2.get(0);
+		assertEquals(a, a2);
+		assertSame(a2, a2.getB().getA());
+		assertEquals(new Date(1000), list2.get(1));
+		assertEquals(3, ((int[])list2.get(2))[2]);
+		assertEquals(5, ((byte[])((Object[])list2.get(3))[1])[1]);
+	}
+
+	/**
+	 * @throws Exception
+	 */
+	public void testDifferentRegistry() throws Exception
+	{
+		byte[] data = write("test", new ClassRegistry().register(PageA.class, 64));
+		try
+		{
+			read(data, new ClassRegistry().register(PageA.class, 65));
+			fail("registry differs");
+		}
+		catch (StreamCorruptedException e)
+		{
+		}
+		try
+		{
+			read(data, null);
+			fail("not written in the default format");
+		}
+		catch (RuntimeException e)
+		{
+		}
+		assertEquals("test", read(data, new ClassRegistry().register(PageA.class, 64)));
+	}
+
+	/**
+	 * Fields are written sorted by name, and the layout of the fields is part of the fingerprint.
+	 */
+	public void testFieldLayout()
+	{
+		Field[] fields = ClassStreamHandler.getSerializableFields(LayoutA.class);
+		assertEquals(2, fields.length);
+		assertEquals("a", fields[0].getName());
+		assertEquals("b", fields[1].getName());
+
+		// the declaration order doesn't matter, the types do
+		assertEquals(ClassStreamHandler.getFieldLayoutHash(LayoutA.class),
+			ClassStreamHandler.getFieldLayoutHash(LayoutB.class));
+		assertFalse(ClassStreamHandler.getFieldLayoutHash(LayoutA.class) == ClassStreamHandler
+			.getFieldLayoutHash(LayoutC.class));
+
+		ClassRegistry a = new ClassRegistry().register(LayoutA.class, 64);
+		assertFalse(a.getFingerprint() == new ClassRegistry().register(PageA.class, 64)
+			.getFingerprint());
+	}
+
+	/**
+	 * A class that isn't registered can't be read when its fields changed.
+	 *
+	 * @throws Exception
+	 */
+	public void testChangedInlineClass() throws Exception
+	{
+		LayoutA layout = new LayoutA();
+		layout.a = "a";
+		layout.b = 42;
+		ClassRegistry registry = new ClassRegistry().register(PageA.class, 64);
+		byte[] data = write(layout, registry);
+		LayoutA read = (LayoutA)read(data, registry);
+		assertEquals("a", read.a);
+		assertEquals(42, read.b);
+
+		// pretend the class had other fields when it was written
+		long hash = ClassStreamHandler.getFieldLayoutHash(LayoutA.class);
+		int offset = indexOf(data, hash);
+		assertTrue(offset > 0);
+		data[offset + 7]++;
+		try
+		{
+			read(data, registry);
+			fail("fields changed");
+		}
+		catch (InvalidClassException e)
+		{
+		}
+	}
+
+	private static int indexOf(byte[] data, long value)
+	{
+		for (int i = 0; i + 8 <= data.length; i++)
+		{
+			long l = 0;
+			for (int j = 0; j < 8; j++)
+			{
+				l = (l << 8) | (data[i + j] & 0xff);
+			}
+			if (l == value)
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Compares the registered mode with JDK serialization on a page with a few hundred
+	 * components.
+	 *
+	 * @throws Exception
+	 */
+	public void testCompareWithJdkSerialization() throws Exception
+	{
+		ClassRegistry registry = new ClassRegistry();
+		registry.register(BenchmarkPage.class, 64);
+		registry.register(Customer.class, 65);
+		registry.register(WebMarkupContainer.class, 66);
+		registry.register(Label.class, 67);
+		registry.register(Form.class, 68);
+		registry.register(TextField.class, 69);
+		registry.register(Model.class, 70);
+		registry.register(PropertyModel.class, 71);
+
+		BenchmarkPage page = new BenchmarkPage(100);
+
+		byte[] registered = write(page, registry);
+		byte[] jdk = writeJdk(page);
+		assertTrue("registered: " + registered.length + ", jdk: " + jdk.length,
+			registered.length < jdk.length);
+
+		BenchmarkPage read = (BenchmarkPage)read(registered, registry);
+		assertEquals(page.size(), read.size());
+		assertEquals(page.getCustomers().size(), read.getCustomers().size());
+
+		int rounds = 20;
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++)
+		{
+			read(write(page, registry), registry);
+		}
+		long registeredTime = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < rounds; i++)
+		{
+			readJdk(writeJdk(page));
+		}
+		long jdkTime = System.nanoTime() - start;
+		log.debug("Page with " + page.getCustomers().size() + " rows, registered: " +
+			registered.length + " bytes, " + registeredTime / rounds / 1000 +
+			"us per round trip; jdk: " + jdk.length + " bytes, " + jdkTime / rounds / 1000 +
+			"us per round trip");
+	}
+
+	private static byte[] write(Object object, ClassRegistry registry) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		WicketObjectOutputStream woos = new WicketObjectOutputStream(out, registry);
+		woos.writeObject(object);
+		woos.close();
+		return out.toByteArray();
+	}
+
+	private static Object read(byte[] data, ClassRegistry registry) throws IOException,
+		ClassNotFoundException
+	{
+		WicketObjectInputStream wois = new WicketObjectInputStream(new ByteArrayInputStream(data),
+			registry);
+		Object result = wois.readObject();
+		wois.close();
+		return result;
+	}
+
+	private static byte[] writeJdk(Object object) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(out);
+		oos.writeObject(object);
+		oos.close();
+		return out.toByteArray();
+	}
+
+	private static Object readJdk(byte[] data) throws IOException, ClassNotFoundException
+	{
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data));
+		Object result = ois.readObject();
+		ois.close();
+		return result;
+	}
+
+	/**
+	 * Model object of the benchmark page.
+	 */
+	public static class Customer implements java.io.Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private String name;
+		private final int number;
+		private final Date created = new Date(0);
+
+		/**
+		 * Construct.
+		 *
+		 * @param name
+		 * @param number
+		 */
+		public Customer(String name, int number)
+		{
+			this.name = name;
+			this.number = number;
+		}
+
+		/**
+		 * @return name
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * @param name
+		 */
+		public void setName(String name)
+		{
+			this.name = name;
+		}
+
+		/**
+		 * @return number
+		 */
+		public int getNumber()
+		{
+			return number;
+		}
+
+		/**
+		 * @return created
+		 */
+		public Date getCreated()
+		{
+			return created;
+		}
+	}
+
+	/**
+	 * Class with a string and an int field.
+	 */
+	public static class LayoutA implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private int b;
+		private String a;
+	}
+
+	/**
+	 * Same fields as {@link LayoutA}, declared in another order.
+	 */
+	public static class LayoutB implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private String a;
+		private int b;
+	}
+
+	/**
+	 * Same field names as {@link LayoutA}, but another type.
+	 */
+	public static class LayoutC implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private String a;
+		private long b;
+	}
+
+	/**
+	 * Page with a list of customer rows and a form.
+	 */
+	public static class BenchmarkPage extends WebPage
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final List<Customer> customers = new ArrayList<Customer>();
+
+		/**
+		 * Construct.
+		 *
+		 * @param rows
+		 */
+		public BenchmarkPage(int rows)
+		{
+			WebMarkupContainer table = new WebMarkupContainer("table");
+			add(table);
+			for (int i = 0; i < rows; i++)
+			{
+				Customer customer = new Customer("customer " + i, i);
+				customers.add(customer);
+				WebMarkupContainer row = new WebMarkupContainer("row" + i);
+				table.add(row);
+				row.add(new Label("name", new PropertyModel<String>(customer, "name")));
+				row.add(new Label("number", new Model<Integer>(new Integer(i))));
+			}
+			Form<Void> form = new Form<Void>("form");
+			add(form);
+			form.add(new TextField<String>("name", new PropertyModel<String>(customers.get(0),
+				"name")));
+		}
+
+		/**
+		 * @return customers
+		 */
+		public List<Customer> getCustomers()
+		{
+			return customers;
+		}
+	}
+}
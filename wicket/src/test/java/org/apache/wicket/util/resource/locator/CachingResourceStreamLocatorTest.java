@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.wicket.util.resource.locator;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.wicket.util.file.Path;
+import org.apache.wicket.util.listener.IChangeListener;
+import org.apache.wicket.util.resource.IResourceStream;
+import org.apache.wicket.util.resource.ResourceTest;
+import org.apache.wicket.util.resource.UrlResourceStream;
+import org.apache.wicket.util.time.Duration;
+import org.apache.wicket.util.watch.IModifiable;
+import org.apache.wicket.util.watch.IModificationWatcher;
+
+/**
+ * Tests for {@link CachingResourceStreamLocator}.
+ */
+public class CachingResourceStreamLocatorTest extends TestCase
+{
+	private CountingLocator counting;
+
+	private CachingResourceStreamLocator locator;
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception
+	{
+		counting = new CountingLocator();
+		locator = new CachingResourceStreamLocator(counting);
+	}
+
+	/**
+	 * Found resources are located once, and a new stream is returned for each request.
+	 */
+	public void testFound()
+	{
+		Locale de = new Locale("de");
+		Locale de_CH = new Locale("de", "CH");
+		IResourceStream stream = locator.locate(ResourceTest.class,
+			"org/apache/wicket/util/resource/ResourceTest", null, de_CH, "txt");
+		assertTrue(stream instanceof UrlResourceStream);
+		assertEquals(de, stream.getLocale());
+		int probes = counting.probes;
+		assertTrue(probes > 1);
+
+		IResourceStream cached = locator.locate(ResourceTest.class,
+			"org/apache/wicket/util/resource/ResourceTest", null, de_CH, "txt");
+		assertNotSame(stream, cached);
+		assertEquals(((UrlResourceStream)stream).getURL(), ((UrlResourceStream)cached).getURL());
+		assertEquals(de, cached.getLocale());
+		assertEquals(probes, counting.probes);
+	}
+
+	/**
+	 * Resources that were not found are not looked for again until the time to live has passed.
+	 *
+	 * @throws Exception
+	 */
+	public void testNotFound() throws Exception
+	{
+		assertNull(locator.locate(ResourceTest.class, "org/apache/wicket/util/resource/Missing",
+			"style", Locale.GERMANY, "txt"));
+		int probes = counting.probes;
+		assertNull(locator.locate(ResourceTest.class, "org/apache/wicket/util/resource/Missing",
+			"style", Locale.GERMANY, "txt"));
+		assertEquals(probes, counting.probes);
+		assertEquals(1, locator.size());
+
+		locator.setTimeToLive(Duration.milliseconds(1));
+		locator.clearCache();
+		assertNull(locator.locate(ResourceTest.class, "org/apache/wicket/util/resource/Missing"));
+		assertEquals(probes + 1, counting.probes);
+		Thread.sleep(10);
+		assertNull(locator.locate(ResourceTest.class, "org/apache/wicket/util/resource/Missing"));
+		assertEquals(probes + 2, counting.probes);
+	}
+
+	/**
+	 * Located resources and misses are remembered up to their maximum.
+	 */
+	public void testMaximum()
+	{
+		locator = new CachingResourceStreamLocator(counting, 5, 2);
+		for (int i = 0; i < 10; i++)
+		{
+			assertNull(locator.locate(ResourceTest.class, "org/apache/wicket/util/resource/Missing" +
+				i));
+		}
+		assertEquals(2, locator.size());
+
+		assertNotNull(locator.locate(ResourceTest.class,
+			"org/apache/wicket/util/resource/ResourceTest", null, Locale.GERMAN, "txt"));
+		assertEquals(3, locator.size());
+	}
+
+	/**
+	 * A located resource is watched once, and forgotten when it changes.
+	 */
+	public void testWatched()
+	{
+		final RecordingWatcher watcher = new RecordingWatcher();
+		locator = new CachingResourceStreamLocator(counting)
+		{
+			@Override
+			protected IModificationWatcher getResourceWatcher()
+			{
+				return watcher;
+			}
+		};
+		Locale de_CH = new Locale("de", "CH");
+		Locale de_AT = new Locale("de", "AT");
+		assertNotNull(locator.locate(ResourceTest.class,
+			"org/apache/wicket/util/resource/ResourceTest", null, de_CH, "txt"));
+		assertNotNull(locator.locate(ResourceTest.class,
+			"org/apache/wicket/util/resource/ResourceTest", null, de_AT, "txt"));
+		locator.clearCache();
+		assertNotNull(locator.locate(ResourceTest.class,
+			"org/apache/wicket/util/resource/ResourceTest", null, de_CH, "txt"));
+		assertNotNull(locator.locate(ResourceTest.class,
+			"org/apache/wicket/util/resource/ResourceTest", null, de_AT, "txt"));
+		assertEquals(1, watcher.listeners.size());
+		assertEquals(2, locator.size());
+
+		int probes = counting.probes;
+		watcher.listeners.values().iterator().next().onChange();
+		assertEquals(0, watcher.listeners.size());
+		assertEquals(0, locator.size());
+		assertNotNull(locator.locate(ResourceTest.class,
+			"org/apache/wicket/util/resource/ResourceTest", null, de_CH, "txt"));
+		assertTrue(counting.probes > probes);
+		assertEquals(1, watcher.listeners.size());
+	}
+
+	private static class RecordingWatcher implements IModificationWatcher
+	{
+		private final Map<IModifiable, IChangeListener> listeners = new HashMap<IModifiable, IChangeListener>();
+
+		public boolean add(IModifiable modifiable, IChangeListener listener)
+		{
+			return listeners.put(modifiable, listener) == null;
+		}
+
+		public IModifiable remove(IModifiable modifiable)
+		{
+			return listeners.remove(modifiable) != null ? modifiable : null;
+		}
+
+		public void start(Duration pollFrequency)
+		{
+		}
+
+		public void destroy()
+		{
+		}
+
+		public Set<IModifiable> getEntries()
+		{
+			return listeners.keySet();
+		}
+	}
+
+	private static class CountingLocator extends ResourceStreamLocator
+	{
+		private int probes;
+
+		private CountingLocator()
+		{
+			super(new Path());
+		}
+
+		@Override
+		public IResourceStream locate(Class<?> clazz, String path)
+		{
+			probes++;
+			return super.locate(clazz, path);
+		}
+	}
+}